@@ -0,0 +1,342 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.hmdev.util.JsonUtils;
+import com.github.hmdev.util.LogAppender;
+
+/** 変換処理全体のスループット計測
+ * 指定したファイルまたはフォルダ内の txt,zip,txtz,rar,cbz を AozoraEpub3 と同じ ConvertWorker で変換し、
+ * 1回の変換毎に books/min, 入力MB/s, 出力MB/s, ピークRSS, ピークヒープを出力する
+ * 計測用のファイルは CorpusGenerator で生成できる
+ * ConvertWorkerは計測の間保持して再利用する (変換テーブルの読み込みは計測に含まない)
+ *
+ * 実行例 (プロジェクトのルートで実行 template等を読み込むため)
+ * java -cp "lib/*:bin:bench_bin" AozoraEpub3ThroughputBench -threads 4 bench_corpus
+ * -i iniファイル (default AozoraEpub3.ini) -d 出力先 (default 一時フォルダ 終了時に削除)
+ * -threads 同時に変換するファイル数 (default 1) -warmup 計測しない変換回数 (default 1) -repeat 計測する変換回数 (default 3)
+ * -json 結果をJSON Lines形式で出力 -timing 計測した変換の段階毎の処理時間を出力 -v 変換ログを出力 */
+public class AozoraEpub3ThroughputBench
+{
+	/** 変換対象の拡張子 */
+	final static String[] EXTS = {".txt", ".zip", ".txtz", ".rar", ".cbz"};
+	
+	/** 1回の変換の結果 */
+	static class PassResult
+	{
+		int books;
+		double seconds;
+		long inBytes;
+		long outBytes;
+		/** ピークRSS KB 取得できなければ-1 */
+		long peakRssKB;
+		/** ピークヒープ使用量 */
+		long peakHeapBytes;
+		
+		double booksPerMin()
+		{
+			return this.books*60/this.seconds;
+		}
+		double inMBPerSec()
+		{
+			return this.inBytes/1048576.0/this.seconds;
+		}
+		double outMBPerSec()
+		{
+			return this.outBytes/1048576.0/this.seconds;
+		}
+		
+		void appendJson(StringBuilder buf, String type)
+		{
+			buf.append("{\"type\":");
+			JsonUtils.appendQuoted(buf, type);
+			buf.append(",\"books\":").append(this.books);
+			buf.append(",\"seconds\":").append(this.seconds);
+			buf.append(",\"booksPerMin\":").append(this.booksPerMin());
+			buf.append(",\"inMBPerSec\":").append(this.inMBPerSec());
+			buf.append(",\"outMBPerSec\":").append(this.outMBPerSec());
+			buf.append(",\"inBytes\":").append(this.inBytes);
+			buf.append(",\"outBytes\":").append(this.outBytes);
+			buf.append(",\"peakRssKB\":").append(this.peakRssKB);
+			buf.append(",\"peakHeapMB\":").append(this.peakHeapBytes/1048576.0);
+			buf.append("}\n");
+		}
+	}
+	
+	String iniFileName = "AozoraEpub3.ini";
+	File dstPath = null;
+	int threads = 1;
+	int warmup = 1;
+	int repeat = 3;
+	File jsonFile = null;
+	File timingFile = null;
+	boolean verbose = false;
+	
+	AozoraEpub3.ConvertSetting setting;
+	/** スレッド毎に生成したConvertWorker */
+	Vector<AozoraEpub3.ConvertWorker> allWorkers = new Vector<AozoraEpub3.ConvertWorker>();
+	ThreadLocal<AozoraEpub3.ConvertWorker> workers = new ThreadLocal<AozoraEpub3.ConvertWorker>();
+	
+	public static void main(String[] args) throws Exception
+	{
+		AozoraEpub3ThroughputBench bench = new AozoraEpub3ThroughputBench();
+		Vector<File> srcFiles = new Vector<File>();
+		for (int i=0; i<args.length; i++) {
+			String arg = args[i];
+			if ("-i".equals(arg)) bench.iniFileName = args[++i];
+			else if ("-d".equals(arg)) bench.dstPath = new File(args[++i]);
+			else if ("-threads".equals(arg)) bench.threads = Integer.parseInt(args[++i]);
+			else if ("-warmup".equals(arg)) bench.warmup = Integer.parseInt(args[++i]);
+			else if ("-repeat".equals(arg)) bench.repeat = Integer.parseInt(args[++i]);
+			else if ("-json".equals(arg)) bench.jsonFile = new File(args[++i]);
+			else if ("-timing".equals(arg)) bench.timingFile = new File(args[++i]);
+			else if ("-v".equals(arg)) bench.verbose = true;
+			else addSrcFiles(srcFiles, new File(arg));
+		}
+		if (srcFiles.size() == 0) {
+			System.err.println("AozoraEpub3ThroughputBench [-options] input_files_or_dirs");
+			System.exit(1);
+		}
+		if (!bench.run(srcFiles)) System.exit(1);
+	}
+	
+	/** フォルダなら直下の変換対象ファイルを名前順で追加 */
+	static void addSrcFiles(Vector<File> srcFiles, File file)
+	{
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			Arrays.sort(files);
+			for (File child : files) {
+				if (child.isFile() && isTarget(child.getName())) srcFiles.add(child);
+			}
+		} else if (file.isFile()) {
+			srcFiles.add(file);
+		} else {
+			System.err.println("file not exist. "+file.getAbsolutePath());
+		}
+	}
+	
+	static boolean isTarget(String fileName)
+	{
+		String lower = fileName.toLowerCase();
+		for (String ext : EXTS) {
+			if (lower.endsWith(ext)) return true;
+		}
+		return false;
+	}
+	
+	/** 変換を繰り返して結果を出力
+	 * @return 変換できなかったファイルがあればfalse */
+	boolean run(Vector<File> srcFiles) throws Exception
+	{
+		if (!this.verbose) {
+			LogAppender.setPrintStream(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {}
+				@Override
+				public void write(byte[] b, int off, int len) {}
+			}));
+		}
+		Properties props = new Properties();
+		try { props.load(new FileInputStream(this.iniFileName)); } catch (Exception e) { }
+		this.setting = new AozoraEpub3.ConvertSetting(props);
+		
+		boolean tmpDst = false;
+		if (this.dstPath == null) {
+			this.dstPath = File.createTempFile("throughput", "");
+			this.dstPath.delete();
+			this.dstPath.mkdirs();
+			tmpDst = true;
+		}
+		
+		long inBytes = 0;
+		for (File srcFile : srcFiles) inBytes += srcFile.length();
+		System.out.println(String.format("%d files, %.1f MB, threads=%d", srcFiles.size(), inBytes/1048576.0, this.threads));
+		
+		AozoraEpub3.TimingReport timingReport = null;
+		ExecutorService executor = this.threads > 1 ? Executors.newFixedThreadPool(this.threads) : null;
+		Vector<PassResult> results = new Vector<PassResult>();
+		boolean ok = true;
+		try {
+			for (int pass=0; pass<this.warmup+this.repeat; pass++) {
+				boolean measure = pass >= this.warmup;
+				//計測する変換のみ段階毎の処理時間を出力
+				if (measure && this.timingFile != null && timingReport == null) {
+					timingReport = new AozoraEpub3.TimingReport(this.timingFile);
+					for (AozoraEpub3.ConvertWorker worker : this.allWorkers) worker.timingReport = timingReport;
+				}
+				System.gc();
+				resetPeakMemory();
+				
+				long start = System.nanoTime();
+				Vector<File> outFiles = this.convertFiles(srcFiles, executor, timingReport);
+				long nanos = System.nanoTime()-start;
+				
+				PassResult result = new PassResult();
+				result.books = outFiles.size();
+				result.seconds = nanos/1000000000.0;
+				result.inBytes = inBytes;
+				for (File outFile : outFiles) result.outBytes += outFile.length();
+				result.peakRssKB = getPeakRssKB();
+				result.peakHeapBytes = getPeakHeapBytes();
+				System.out.println(String.format("%-8s %4d books %8.2f s %10.1f books/min %8.2f MB/s in %8.2f MB/s out  peak RSS %8s  peak heap %8.1f MB",
+						measure ? "pass "+(pass-this.warmup+1) : "warmup", result.books, result.seconds, result.booksPerMin(),
+						result.inMBPerSec(), result.outMBPerSec(),
+						result.peakRssKB < 0 ? "-" : String.format("%.1f MB", result.peakRssKB/1024.0), result.peakHeapBytes/1048576.0));
+				if (outFiles.size() < srcFiles.size()) ok = false;
+				if (measure) results.add(result);
+			}
+		} finally {
+			if (executor != null) executor.shutdown();
+			if (timingReport != null) timingReport.close();
+			if (tmpDst) deleteAll(this.dstPath);
+		}
+		
+		//計測結果の平均 ピークは最大値
+		PassResult total = new PassResult();
+		total.peakRssKB = -1;
+		for (PassResult result : results) {
+			total.books += result.books;
+			total.seconds += result.seconds;
+			total.inBytes += result.inBytes;
+			total.outBytes += result.outBytes;
+			total.peakRssKB = Math.max(total.peakRssKB, result.peakRssKB);
+			total.peakHeapBytes = Math.max(total.peakHeapBytes, result.peakHeapBytes);
+		}
+		if (results.size() > 0) {
+			System.out.println(String.format("average  %10.1f books/min %8.2f MB/s in %8.2f MB/s out",
+					total.booksPerMin(), total.inMBPerSec(), total.outMBPerSec()));
+		}
+		if (!ok) System.out.println("[WARN] 変換できなかったファイルがあります");
+		
+		if (this.jsonFile != null) {
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.jsonFile), "UTF-8"));
+			try {
+				StringBuilder buf = new StringBuilder();
+				for (PassResult result : results) result.appendJson(buf, "pass");
+				total.appendJson(buf, "total");
+				bw.write(buf.toString());
+			} finally {
+				bw.close();
+			}
+		}
+		return ok;
+	}
+	
+	/** 全ファイルを変換 並列の場合はスレッド毎のConvertWorkerで変換しログは入力順に出力
+	 * @return 出力したファイル */
+	Vector<File> convertFiles(Vector<File> srcFiles, ExecutorService executor, final AozoraEpub3.TimingReport timingReport) throws Exception
+	{
+		Vector<File> outFiles = new Vector<File>();
+		if (executor == null) {
+			AozoraEpub3.ConvertWorker worker = this.getWorker(timingReport);
+			for (File srcFile : srcFiles) {
+				LogAppender.println("--------");
+				outFiles.addAll(worker.convertFile(srcFile, this.dstPath));
+			}
+			return outFiles;
+		}
+		Vector<Future<Vector<File>>> futures = new Vector<Future<Vector<File>>>();
+		final Vector<String> logs = new Vector<String>();
+		for (final File srcFile : srcFiles) {
+			futures.add(executor.submit(new Callable<Vector<File>>() {
+				public Vector<File> call() throws Exception
+				{
+					LogAppender.startBuffer();
+					try {
+						LogAppender.println("--------");
+						return getWorker(timingReport).convertFile(srcFile, dstPath);
+					} finally {
+						logs.add(LogAppender.endBuffer());
+					}
+				}
+			}));
+		}
+		for (int i=0; i<futures.size(); i++) {
+			outFiles.addAll(futures.get(i).get());
+		}
+		for (String log : logs) LogAppender.append(log);
+		return outFiles;
+	}
+	
+	/** このスレッドのConvertWorker なければ生成 */
+	AozoraEpub3.ConvertWorker getWorker(AozoraEpub3.TimingReport timingReport) throws IOException
+	{
+		AozoraEpub3.ConvertWorker worker = this.workers.get();
+		if (worker == null) {
+			worker = new AozoraEpub3.ConvertWorker(this.setting, "");
+			worker.timingReport = timingReport;
+			this.workers.set(worker);
+			this.allWorkers.add(worker);
+		}
+		return worker;
+	}
+	
+	/** ピークメモリをリセット RSSはLinuxのみ */
+	static void resetPeakMemory()
+	{
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+		try {
+			FileWriter fw = new FileWriter("/proc/self/clear_refs");
+			try {
+				fw.write("5");
+			} finally {
+				fw.close();
+			}
+		} catch (Exception e) {}
+	}
+	
+	/** /proc/self/status の VmHWM 取得できなければ-1 */
+	static long getPeakRssKB()
+	{
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream("/proc/self/status"), "UTF-8"));
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.startsWith("VmHWM:")) return Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+				}
+			} finally {
+				br.close();
+			}
+		} catch (Exception e) {}
+		return -1;
+	}
+	
+	/** ヒープの各領域のピーク使用量の合計 */
+	static long getPeakHeapBytes()
+	{
+		long bytes = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) bytes += pool.getPeakUsage().getUsed();
+		}
+		return bytes;
+	}
+	
+	static void deleteAll(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) deleteAll(child);
+		}
+		file.delete();
+	}
+}
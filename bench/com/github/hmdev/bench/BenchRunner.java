@@ -0,0 +1,213 @@
+package com.github.hmdev.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import com.github.hmdev.util.JsonUtils;
+
+/** 簡易マイクロベンチマーク実行クラス
+ * ウォームアップ後に指定時間ずつ計測を繰り返し、ops/sとop毎のメモリ割り当てバイト数を出力する
+ * 結果はJSON Lines形式で保存でき、保存済みの結果と比較して性能低下を検出できる
+ *
+ * オプション
+ * -w ウォームアップ時間(ms) -m 1回の計測時間(ms) -i 計測回数 -f 実行するベンチマーク名の正規表現
+ * -json 結果の出力ファイル -baseline 比較する結果ファイル -threshold 性能低下とする割合(%) */
+public class BenchRunner
+{
+	/** 計測対象 run()1回を1opとして計測 */
+	public interface Bench
+	{
+		/** 最適化で処理が除去されないように結果を返す */
+		Object run() throws Exception;
+	}
+	
+	/** 1つのベンチマークの結果 */
+	public static class Result
+	{
+		public String name;
+		/** 1秒あたりの実行回数 計測毎の平均 */
+		public double opsPerSec;
+		/** opsPerSecの標準偏差 */
+		public double error;
+		/** 1回の平均時間 ナノ秒 */
+		public double nsPerOp;
+		/** 1回あたりのメモリ割り当てバイト数 取得できない場合は-1 */
+		public double bytesPerOp;
+	}
+	
+	/** ウォームアップ時間 ミリ秒 */
+	long warmupMillis = 1000;
+	/** 1回の計測時間 ミリ秒 */
+	long measureMillis = 1000;
+	/** 計測回数 */
+	int iterations = 5;
+	/** 実行するベンチマーク名 nullなら全て */
+	Pattern filter = null;
+	/** 結果の出力先 */
+	File jsonFile = null;
+	/** 比較する前回の結果 */
+	File baselineFile = null;
+	/** 性能低下とする割合 % */
+	double threshold = 10;
+	
+	/** 実行した結果 */
+	Vector<Result> results = new Vector<Result>();
+	
+	/** 処理の除去防止用 */
+	volatile int sink;
+	
+	/** オプションを解析 ベンチマーク側のオプションは残して返す */
+	public String[] parseArgs(String[] args)
+	{
+		Vector<String> rest = new Vector<String>();
+		for (int i=0; i<args.length; i++) {
+			String arg = args[i];
+			if ("-w".equals(arg)) this.warmupMillis = Long.parseLong(args[++i]);
+			else if ("-m".equals(arg)) this.measureMillis = Long.parseLong(args[++i]);
+			else if ("-i".equals(arg)) this.iterations = Integer.parseInt(args[++i]);
+			else if ("-f".equals(arg)) this.filter = Pattern.compile(args[++i]);
+			else if ("-json".equals(arg)) this.jsonFile = new File(args[++i]);
+			else if ("-baseline".equals(arg)) this.baselineFile = new File(args[++i]);
+			else if ("-threshold".equals(arg)) this.threshold = Double.parseDouble(args[++i]);
+			else rest.add(arg);
+		}
+		return rest.toArray(new String[rest.size()]);
+	}
+	
+	/** 名前がフィルタに一致すれば実行 */
+	public boolean isTarget(String name)
+	{
+		return this.filter == null || this.filter.matcher(name).find();
+	}
+	
+	/** ベンチマークを実行して結果を出力
+	 * @return 結果 フィルタで除外された場合はnull */
+	public Result run(String name, Bench bench) throws Exception
+	{
+		if (!this.isTarget(name)) return null;
+		
+		//ウォームアップ
+		long end = System.nanoTime()+this.warmupMillis*1000000L;
+		while (System.nanoTime() < end) this.consume(bench.run());
+		
+		double[] opsPerSec = new double[this.iterations];
+		long totalOps = 0;
+		long totalNanos = 0;
+		long totalBytes = 0;
+		boolean allocSupported = true;
+		for (int i=0; i<this.iterations; i++) {
+			long bytes = getAllocatedBytes();
+			if (bytes < 0) allocSupported = false;
+			long ops = 0;
+			long start = System.nanoTime();
+			end = start+this.measureMillis*1000000L;
+			long time;
+			do {
+				this.consume(bench.run());
+				ops++;
+				time = System.nanoTime();
+			} while (time < end);
+			long nanos = time-start;
+			if (allocSupported) totalBytes += getAllocatedBytes()-bytes;
+			opsPerSec[i] = ops*1000000000.0/nanos;
+			totalOps += ops;
+			totalNanos += nanos;
+		}
+		
+		Result result = new Result();
+		result.name = name;
+		double sum = 0;
+		for (double ops : opsPerSec) sum += ops;
+		result.opsPerSec = sum/this.iterations;
+		double var = 0;
+		for (double ops : opsPerSec) var += (ops-result.opsPerSec)*(ops-result.opsPerSec);
+		result.error = this.iterations > 1 ? Math.sqrt(var/(this.iterations-1)) : 0;
+		result.nsPerOp = (double)totalNanos/totalOps;
+		result.bytesPerOp = allocSupported ? (double)totalBytes/totalOps : -1;
+		this.results.add(result);
+		
+		System.out.println(String.format("%-48s %14.2f ±%10.2f ops/s %14.1f ns/op %14.1f B/op",
+				name, result.opsPerSec, result.error, result.nsPerOp, result.bytesPerOp));
+		return result;
+	}
+	
+	void consume(Object obj)
+	{
+		if (obj != null) this.sink ^= System.identityHashCode(obj);
+	}
+	
+	/** このスレッドで割り当てたメモリのバイト数 取得できなければ-1 */
+	static long getAllocatedBytes()
+	{
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		} catch (Throwable t) {}
+		return -1;
+	}
+	
+	/** 結果の保存と前回の結果との比較
+	 * @return 性能低下したベンチマークがあればfalse */
+	public boolean finish() throws IOException
+	{
+		if (this.jsonFile != null) {
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.jsonFile), "UTF-8"));
+			try {
+				for (Result result : this.results) {
+					StringBuilder buf = new StringBuilder();
+					buf.append("{\"name\":");
+					JsonUtils.appendQuoted(buf, result.name);
+					buf.append(",\"opsPerSec\":").append(result.opsPerSec);
+					buf.append(",\"error\":").append(result.error);
+					buf.append(",\"nsPerOp\":").append(result.nsPerOp);
+					buf.append(",\"bytesPerOp\":").append(result.bytesPerOp);
+					buf.append("}\n");
+					bw.write(buf.toString());
+				}
+			} finally {
+				bw.close();
+			}
+		}
+		boolean ok = true;
+		if (this.baselineFile != null) {
+			HashMap<String, Map<String, String>> baseline = new HashMap<String, Map<String, String>>();
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(this.baselineFile), "UTF-8"));
+			try {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (line.trim().length() == 0) continue;
+					Map<String, String> values = JsonUtils.parseObject(line);
+					baseline.put(values.get("name"), values);
+				}
+			} finally {
+				br.close();
+			}
+			System.out.println("---- baseline : "+this.baselineFile.getPath());
+			for (Result result : this.results) {
+				Map<String, String> values = baseline.get(result.name);
+				if (values == null) continue;
+				double baseOps = Double.parseDouble(values.get("opsPerSec"));
+				double baseBytes = Double.parseDouble(values.get("bytesPerOp"));
+				double diff = (result.opsPerSec-baseOps)/baseOps*100;
+				boolean regression = diff < -this.threshold;
+				if (regression) ok = false;
+				System.out.println(String.format("%-48s %+8.1f%% ops/s %14.1f → %14.1f B/op%s",
+						result.name, diff, baseBytes, result.bytesPerOp, regression?"  [REGRESSION]":""));
+			}
+		}
+		return ok;
+	}
+}
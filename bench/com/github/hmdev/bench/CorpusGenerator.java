@@ -0,0 +1,282 @@
+package com.github.hmdev.bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Random;
+import java.util.Vector;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/** 変換処理の計測用の青空文庫形式テキストを生成
+ * ルビ、注記、外字注記、挿絵、見出しの出現頻度を指定して同じseedなら同じ内容を生成する
+ * txt (挿絵は書籍名のフォルダ), zip (テキストと挿絵), cbz (画像のみ) で出力
+ * rarは生成できないので、計測する場合は別途作成して出力先に置く
+ *
+ * 実行例
+ * java -cp "lib/*:bin:bench_bin" com.github.hmdev.bench.CorpusGenerator -o bench_corpus -books 20 -lines 5000
+ * -o 出力先 (default bench_corpus) -books 書籍数 (default 10) -lines 1冊の行数 (default 2000)
+ * -ruby 語毎のルビの割合 (default 0.05) -chuki 語毎の注記の割合 (default 0.02) -gaiji 語毎の外字注記の割合 (default 0.005)
+ * -images 1000行毎の挿絵数 (default 2) -chapters 1000行毎の見出し数 (default 5)
+ * -pages cbzのページ数 (default 20) -imageSize 画像サイズ (default 600x800)
+ * -formats 出力形式 (default txt,zip,cbz) -enc テキストのエンコード (default MS932) -seed 乱数のseed (default 1) */
+public class CorpusGenerator
+{
+	/** ルビ付きの語 {漢字, 読み} */
+	final static String[][] WORDS = {
+		{"停車場", "ていしゃば"}, {"硝子", "ガラス"}, {"夕暮", "ゆうぐれ"}, {"燈火", "ともしび"}, {"旅人", "たびびと"},
+		{"書物", "しょもつ"}, {"風景", "ふうけい"}, {"記憶", "きおく"}, {"季節", "きせつ"}, {"手紙", "てがみ"},
+		{"先生", "せんせい"}, {"港", "みなと"}, {"電車", "でんしゃ"}, {"世界", "せかい"}, {"時間", "じかん"},
+		{"海岸", "かいがん"}, {"山脈", "さんみゃく"}, {"蝋燭", "ろうそく"}, {"葡萄", "ぶどう"}, {"珈琲", "コーヒー"},
+	};
+	/** 助詞 */
+	final static String[] PARTICLES = {"は", "が", "の", "を", "に", "で", "と", "も", "から", "まで", "のように"};
+	/** 文末 */
+	final static String[] VERBS = {"歩いていた", "見えた", "思い出した", "静かであった", "続いている", "消えてしまった", "眺めていた", "待っていたのです", "あるだろう"};
+	/** 外字注記 */
+	final static String[] GAIJI = {
+		"※［＃「丈＋一の右上に丶」、第3水準1-14-2］", "※［＃「七／（七＋七）」、第3水準1-14-3］", "※［＃「十－一」、第3水準1-14-4］",
+		"※［＃「蚌のつくり」、第3水準1-14-6］", "※［＃「句＋鳥」、第3水準1-94-56］", "※［＃「日＋令」、第3水準1-85-18］",
+		"※［＃ローマ数字7、1-13-27］", "※［＃「口＋世」、第3水準1-15-66］",
+	};
+	/** 章番号 */
+	final static String[] KANSUJI = {"一", "二", "三", "四", "五", "六", "七", "八", "九", "十"};
+	
+	/** 出力先 */
+	File outDir = new File("bench_corpus");
+	int books = 10;
+	int lines = 2000;
+	double ruby = 0.05;
+	double chuki = 0.02;
+	double gaiji = 0.005;
+	double images = 2;
+	double chapters = 5;
+	int pages = 20;
+	int imageW = 600;
+	int imageH = 800;
+	String formats = "txt,zip,cbz";
+	String encType = "MS932";
+	long seed = 1;
+	
+	public static void main(String[] args) throws IOException
+	{
+		CorpusGenerator generator = new CorpusGenerator();
+		for (int i=0; i<args.length; i++) {
+			String arg = args[i];
+			if ("-o".equals(arg)) generator.outDir = new File(args[++i]);
+			else if ("-books".equals(arg)) generator.books = Integer.parseInt(args[++i]);
+			else if ("-lines".equals(arg)) generator.lines = Integer.parseInt(args[++i]);
+			else if ("-ruby".equals(arg)) generator.ruby = Double.parseDouble(args[++i]);
+			else if ("-chuki".equals(arg)) generator.chuki = Double.parseDouble(args[++i]);
+			else if ("-gaiji".equals(arg)) generator.gaiji = Double.parseDouble(args[++i]);
+			else if ("-images".equals(arg)) generator.images = Double.parseDouble(args[++i]);
+			else if ("-chapters".equals(arg)) generator.chapters = Double.parseDouble(args[++i]);
+			else if ("-pages".equals(arg)) generator.pages = Integer.parseInt(args[++i]);
+			else if ("-imageSize".equals(arg)) {
+				String[] wh = args[++i].split("x");
+				generator.imageW = Integer.parseInt(wh[0]);
+				generator.imageH = Integer.parseInt(wh[1]);
+			}
+			else if ("-formats".equals(arg)) generator.formats = args[++i];
+			else if ("-enc".equals(arg)) generator.encType = args[++i];
+			else if ("-seed".equals(arg)) generator.seed = Long.parseLong(args[++i]);
+			else {
+				System.err.println("unknown option : "+arg);
+				return;
+			}
+		}
+		generator.generate();
+	}
+	
+	/** 全形式の書籍を出力 */
+	public void generate() throws IOException
+	{
+		if (!this.outDir.isDirectory() && !this.outDir.mkdirs()) throw new IOException("cannot create "+this.outDir.getPath());
+		boolean txt = false, zip = false, cbz = false;
+		for (String format : this.formats.split(",")) {
+			format = format.trim().toLowerCase();
+			if ("txt".equals(format)) txt = true;
+			else if ("zip".equals(format)) zip = true;
+			else if ("cbz".equals(format)) cbz = true;
+			else if ("rar".equals(format)) System.err.println("rar形式は生成できません 別途作成して "+this.outDir.getPath()+" に置いてください");
+			else System.err.println("unknown format : "+format);
+		}
+		
+		Random random = new Random(this.seed);
+		//挿絵は数種類を使い回す
+		byte[][] illusts = new byte[4][];
+		for (int i=0; i<illusts.length; i++) illusts[i] = createImage(BufferedImage.TYPE_INT_RGB, random);
+		
+		long totalBytes = 0;
+		for (int bookIdx=0; bookIdx<this.books; bookIdx++) {
+			String name = String.format("book_%03d", bookIdx+1);
+			Vector<String> imagePaths = new Vector<String>();
+			byte[] text = this.createText(name, random, imagePaths);
+			
+			if (txt) {
+				File file = new File(this.outDir, name+".txt");
+				writeBytes(file, text);
+				totalBytes += file.length();
+				if (imagePaths.size() > 0) {
+					new File(this.outDir, name).mkdirs();
+					for (int i=0; i<imagePaths.size(); i++) {
+						File imageFile = new File(this.outDir, imagePaths.get(i));
+						writeBytes(imageFile, illusts[i%illusts.length]);
+						totalBytes += imageFile.length();
+					}
+				}
+			}
+			if (zip) {
+				File file = new File(this.outDir, name+".zip");
+				ZipArchiveOutputStream zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+				try {
+					putEntry(zos, name+".txt", text);
+					for (int i=0; i<imagePaths.size(); i++) putEntry(zos, imagePaths.get(i), illusts[i%illusts.length]);
+				} finally {
+					zos.close();
+				}
+				totalBytes += file.length();
+			}
+			if (cbz) {
+				File file = new File(this.outDir, name+".cbz");
+				ZipArchiveOutputStream zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+				try {
+					for (int i=0; i<this.pages; i++) {
+						putEntry(zos, String.format("%s/%04d.png", name, i+1), createImage(BufferedImage.TYPE_BYTE_GRAY, random));
+					}
+				} finally {
+					zos.close();
+				}
+				totalBytes += file.length();
+			}
+		}
+		System.out.println(String.format("%d books -> %s (%.1f MB)", this.books, this.outDir.getPath(), totalBytes/1048576.0));
+	}
+	
+	/** 1冊分のテキストを生成 改行はCRLF
+	 * @param imagePaths 挿絵のパスを追加 */
+	byte[] createText(String name, Random random, Vector<String> imagePaths) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(this.lines*120);
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(baos, this.encType));
+		bw.write(name+"の"+WORDS[random.nextInt(WORDS.length)][0]+"\r\n");
+		bw.write("計測　太郎\r\n");
+		bw.write("\r\n");
+		int chapterNum = 0;
+		StringBuilder buf = new StringBuilder();
+		for (int lineNum=3; lineNum<this.lines; lineNum++) {
+			buf.setLength(0);
+			if (random.nextDouble() < this.chapters/1000) {
+				chapterNum++;
+				String chapter = "第"+toKansuji(chapterNum)+"章　"+WORDS[random.nextInt(WORDS.length)][0];
+				bw.write("［＃改ページ］\r\n");
+				buf.append("［＃３字下げ］").append(chapter).append("［＃「").append(chapter).append("」は大見出し］");
+				lineNum++;
+			} else if (random.nextDouble() < this.images/1000) {
+				String imagePath = String.format("%s/fig%03d.png", name, imagePaths.size()+1);
+				imagePaths.add(imagePath);
+				buf.append("［＃挿絵（").append(imagePath).append("）入る］");
+			} else if (random.nextInt(8) == 0) {
+				//空行
+			} else {
+				if (random.nextDouble() < this.chuki*4) buf.append("［＃２字下げ］");
+				else buf.append('　');
+				int sentences = 1+random.nextInt(5);
+				for (int i=0; i<sentences; i++) this.appendSentence(buf, random);
+			}
+			buf.append("\r\n");
+			bw.write(buf.toString());
+		}
+		bw.close();
+		return baos.toByteArray();
+	}
+	
+	/** 1文を追加 語毎にルビ,注記,外字注記を付加 */
+	void appendSentence(StringBuilder buf, Random random)
+	{
+		int words = 1+random.nextInt(4);
+		for (int i=0; i<words; i++) {
+			String[] word = WORDS[random.nextInt(WORDS.length)];
+			double r = random.nextDouble();
+			if (r < this.gaiji) {
+				buf.append(GAIJI[random.nextInt(GAIJI.length)]);
+			} else if (r < this.gaiji+this.ruby) {
+				//漢字で終わる場合は開始位置を指定
+				char last = buf.length() == 0 ? '　' : buf.charAt(buf.length()-1);
+				if (last >= '\u4E00' && last <= '\u9FFF') buf.append('｜');
+				buf.append(word[0]).append('《').append(word[1]).append('》');
+			} else if (r < this.gaiji+this.ruby+this.chuki) {
+				switch (random.nextInt(4)) {
+				case 0: buf.append(word[0]).append("［＃「").append(word[0]).append("」に傍点］"); break;
+				case 1: buf.append(word[0]).append("［＃「").append(word[0]).append("」に傍線］"); break;
+				case 2: buf.append(word[0]).append("［＃「").append(word[0]).append("」は太字］"); break;
+				default: buf.append("［＃縦中横］").append(10+random.nextInt(90)).append("［＃縦中横終わり］");
+				}
+			} else {
+				buf.append(word[0]);
+			}
+			buf.append(PARTICLES[random.nextInt(PARTICLES.length)]);
+			if (i < words-1 && random.nextInt(3) == 0) buf.append('、');
+		}
+		buf.append(VERBS[random.nextInt(VERBS.length)]).append('。');
+	}
+	
+	/** 画像を生成してPNGで返す 背景と矩形と線 */
+	byte[] createImage(int imageType, Random random) throws IOException
+	{
+		BufferedImage image = new BufferedImage(this.imageW, this.imageH, imageType);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, this.imageW, this.imageH);
+			for (int i=0; i<40; i++) {
+				g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+				int x = random.nextInt(this.imageW);
+				int y = random.nextInt(this.imageH);
+				if (random.nextBoolean()) g.fillRect(x, y, random.nextInt(this.imageW/4+1), random.nextInt(this.imageH/4+1));
+				else g.drawLine(x, y, random.nextInt(this.imageW), random.nextInt(this.imageH));
+			}
+		} finally {
+			g.dispose();
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", baos);
+		return baos.toByteArray();
+	}
+	
+	static String toKansuji(int num)
+	{
+		if (num <= 10) return KANSUJI[num-1];
+		if (num < 20) return "十"+KANSUJI[num-11];
+		if (num < 100) return KANSUJI[num/10-1]+"十"+(num%10 == 0 ? "" : KANSUJI[num%10-1]);
+		return Integer.toString(num);
+	}
+	
+	static void writeBytes(File file, byte[] bytes) throws IOException
+	{
+		OutputStream os = new FileOutputStream(file);
+		try {
+			os.write(bytes);
+		} finally {
+			os.close();
+		}
+	}
+	
+	static void putEntry(ZipArchiveOutputStream zos, String name, byte[] bytes) throws IOException
+	{
+		zos.putArchiveEntry(new ZipArchiveEntry(name));
+		zos.write(bytes);
+		zos.closeArchiveEntry();
+	}
+}
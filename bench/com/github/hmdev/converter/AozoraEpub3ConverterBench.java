@@ -0,0 +1,233 @@
+package com.github.hmdev.converter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Vector;
+
+import org.apache.commons.compress.utils.IOUtils;
+
+import com.github.hmdev.bench.BenchRunner;
+import com.github.hmdev.image.ImageInfoReader;
+import com.github.hmdev.info.BookInfo;
+import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.writer.Epub3Writer;
+
+/** 青空文庫テキスト変換処理のベンチマーク
+ * test_data内のテキスト(ルビ,外字,IVS,縦中横,禁則,注記)と、それを繰り返して大きくしたテキストで
+ * 行単位の変換関数と本文全体の変換の ops/s と op毎のメモリ割り当てバイト数を計測する
+ * 1opは1テキストの全行の処理
+ *
+ * 実行例 (プロジェクトのルートで実行 chuki_*.txt等を読み込むため)
+ * java -cp "lib/*:bin:bench_bin" com.github.hmdev.converter.AozoraEpub3ConverterBench -json bench_output.txt
+ * -scale 繰り返して生成するテキストの最低行数 (default 20000)
+ * その他のオプションは BenchRunner 参照 */
+public class AozoraEpub3ConverterBench
+{
+	/** 計測に利用するtest_data内のテキスト */
+	final static String[] CORPUS = {"ruby", "gaiji", "ivs", "tcy", "kinsoku", "chuki"};
+	
+	public static void main(String[] args) throws Exception
+	{
+		BenchRunner runner = new BenchRunner();
+		args = runner.parseArgs(args);
+		int scale = 20000;
+		for (int i=0; i<args.length; i++) {
+			if ("-scale".equals(args[i])) scale = Integer.parseInt(args[++i]);
+		}
+		
+		//警告ログは出力しない
+		LogAppender.setPrintStream(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {}
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		}));
+		
+		AozoraEpub3Converter converter = new AozoraEpub3Converter(new Epub3Writer(""), "");
+		converter.writer = new BenchEpub3Writer();
+		converter.context.bookInfo = new BookInfo(null);
+		//目次設定 iniがない場合の初期値
+		converter.setChapterLevel(64, false, false, true, true, true, true, true, false, true, false, false, false, false, "");
+		
+		//テキスト読み込み
+		Vector<String> names = new Vector<String>();
+		Vector<String> texts = new Vector<String>();
+		StringBuilder all = new StringBuilder();
+		for (String name : CORPUS) {
+			String text = readText(new File("test_data/test_"+name+".txt"));
+			names.add(name);
+			texts.add(text);
+			all.append(text);
+			if (text.length() > 0 && text.charAt(text.length()-1) != '\n') all.append('\n');
+		}
+		//繰り返して大きいテキストを生成
+		int allLines = splitLines(all.toString()).length;
+		StringBuilder large = new StringBuilder();
+		for (int lines=0; lines<scale; lines+=allLines) large.append(all);
+		names.add("large");
+		texts.add(large.toString());
+		
+		Method printLineBuffer = AozoraEpub3Converter.class.getDeclaredMethod("printLineBuffer", BufferedWriter.class, StringBuilder.class, int.class, boolean.class);
+		printLineBuffer.setAccessible(true);
+		
+		for (int i=0; i<names.size(); i++) {
+			String name = names.get(i);
+			String text = texts.get(i);
+			final String[] lines = splitLines(text);
+			final AozoraEpub3Converter c = converter;
+			final NullWriter nullWriter = new NullWriter();
+			
+			//外字注記変換後の行
+			final String[] gaijiLines = new String[lines.length];
+			for (int j=0; j<lines.length; j++) gaijiLines[j] = converter.convertGaijiChuki(lines[j], true);
+			//表題行変換後の行 printLineBufferの入力
+			final String[] htmlLines = new String[lines.length];
+			for (int j=0; j<lines.length; j++) htmlLines[j] = converter.convertTitleLineToEpub3(converter.replaceChukiSufTag(gaijiLines[j]));
+			
+			runner.run("convertGaijiChuki:"+name, new BenchRunner.Bench() {
+				public Object run()
+				{
+					int len = 0;
+					for (String line : lines) len += c.convertGaijiChuki(line, true).length();
+					return len;
+				}
+			});
+			runner.run("replaceChukiSufTag:"+name, new BenchRunner.Bench() {
+				public Object run()
+				{
+					int len = 0;
+					for (String line : gaijiLines) len += c.replaceChukiSufTag(line).length();
+					return len;
+				}
+			});
+			runner.run("convertTitleLineToEpub3:"+name, new BenchRunner.Bench() {
+				public Object run() throws IOException
+				{
+					int len = 0;
+					for (String line : gaijiLines) len += c.convertTitleLineToEpub3(line).length();
+					return len;
+				}
+			});
+			runner.run("convertTextLineToEpub3:"+name, new BenchRunner.Bench() {
+				public Object run() throws IOException
+				{
+					BufferedWriter bw = new BufferedWriter(nullWriter);
+					for (int j=0; j<lines.length; j++) c.convertTextLineToEpub3(bw, lines[j], j, false, false);
+					bw.flush();
+					return bw;
+				}
+			});
+			final Method method = printLineBuffer;
+			runner.run("printLineBuffer:"+name, new BenchRunner.Bench() {
+				public Object run() throws Exception
+				{
+					BufferedWriter bw = new BufferedWriter(nullWriter);
+					for (int j=0; j<htmlLines.length; j++) method.invoke(c, bw, new StringBuilder(htmlLines[j]), j, false);
+					bw.flush();
+					return bw;
+				}
+			});
+			final String src = text;
+			runner.run("convertTextToEpub3:"+name, new BenchRunner.Bench() {
+				public Object run() throws Exception
+				{
+					BookInfo bookInfo = c.getBookInfo(null, new BufferedReader(new StringReader(src)), new ImageInfoReader(true, new File("test_data/bench.txt")), BookInfo.TitleType.TITLE_AUTHOR, false);
+					BufferedWriter bw = new BufferedWriter(nullWriter);
+					c.convertTextToEpub3(bw, new BufferedReader(new StringReader(src)), bookInfo);
+					bw.flush();
+					return bookInfo;
+				}
+			});
+		}
+		if (!runner.finish()) System.exit(1);
+	}
+	
+	/** UTF-8でデコードできなければMS932で読み込む */
+	static String readText(File file) throws IOException
+	{
+		FileInputStream fis = new FileInputStream(file);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			IOUtils.copy(fis, baos);
+		} finally {
+			fis.close();
+		}
+		byte[] bytes = baos.toByteArray();
+		try {
+			return Charset.forName("UTF-8").newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(bytes)).toString();
+		} catch (CharacterCodingException e) {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), "MS932"));
+			StringBuilder buf = new StringBuilder();
+			String line;
+			while ((line = br.readLine()) != null) buf.append(line).append('\n');
+			return buf.toString();
+		}
+	}
+	
+	/** 行に分割 BOMは除去 */
+	static String[] splitLines(String text)
+	{
+		if (text.length() > 0 && text.charAt(0) == '\uFEFF') text = text.substring(1);
+		return text.split("\r?\n", -1);
+	}
+	
+	/** 出力を破棄するWriter */
+	static class NullWriter extends Writer
+	{
+		@Override
+		public void write(char[] cbuf, int off, int len) {}
+		@Override
+		public void flush() {}
+		@Override
+		public void close() {}
+	}
+	
+	/** 画像とセクションと目次の出力を行わないWriter */
+	static class BenchEpub3Writer extends Epub3Writer
+	{
+		public BenchEpub3Writer()
+		{
+			super("");
+		}
+		@Override
+		public void nextSection(BufferedWriter bw, int lineNum, int pageType, int imagePageType, String srcImageFilePath) {}
+		@Override
+		public String getImageFilePath(String srcImageFileName, int lineNum)
+		{
+			return "../images/bench.png";
+		}
+		@Override
+		public int getImagePageType(String srcFilePath, int tagLevel, int lineNum, boolean hasCaption)
+		{
+			return PageBreakType.IMAGE_PAGE_NONE;
+		}
+		@Override
+		public double getImageWidthRatio(String srcFilePath, boolean hasCaption)
+		{
+			return 0;
+		}
+		@Override
+		public void addChapter(String chapterId, String name, int chapterLevel) {}
+		@Override
+		public boolean isCoverImage()
+		{
+			return false;
+		}
+	}
+}
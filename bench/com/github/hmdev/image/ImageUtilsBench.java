@@ -0,0 +1,198 @@
+package com.github.hmdev.image;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ByteLookupTable;
+import java.awt.image.LookupOp;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import com.github.hmdev.bench.BenchRunner;
+import com.github.hmdev.info.ImageInfo;
+import com.github.hmdev.util.LogAppender;
+
+/** ImageUtils.writeImage の処理経路毎のベンチマーク
+ * 余白と文字列状の模様とノンブルを描いたスキャン画像相当のJPEG,PNGを生成し、
+ * 色の種類(BYTE_BINARY, BYTE_GRAY, INT_RGB)とサイズ毎に以下の経路を計測する
+ * passthrough:変更なしでコピー margin:余白除去(getPlainMargin) scale:縮小(AffineTransformOp bicubic)
+ * gamma:コントラスト調整(LookupOp) rotate:回転 scaleGamma:縮小後にガンマ補正して再インデックス化
+ * 1opは1画像の読み込みから出力まで
+ *
+ * 実行例
+ * java -cp "lib/*:bin:bench_bin" com.github.hmdev.image.ImageUtilsBench -sizes 800x1200,1600x2400 -json bench_output.txt
+ * その他のオプションは BenchRunner 参照 */
+public class ImageUtilsBench
+{
+	/** 生成する画像 {色の種類, 形式} */
+	final static Object[][] IMAGE_TYPES = {
+		{BufferedImage.TYPE_BYTE_BINARY, "png", "binary"},
+		{BufferedImage.TYPE_BYTE_GRAY, "png", "gray"},
+		{BufferedImage.TYPE_BYTE_GRAY, "jpeg", "gray"},
+		{BufferedImage.TYPE_INT_RGB, "jpeg", "rgb"},
+		{BufferedImage.TYPE_INT_RGB, "png", "rgb"},
+	};
+	
+	public static void main(String[] args) throws Exception
+	{
+		BenchRunner runner = new BenchRunner();
+		args = runner.parseArgs(args);
+		String sizes = "800x1200,1600x2400";
+		for (int i=0; i<args.length; i++) {
+			if ("-sizes".equals(args[i])) sizes = args[++i];
+		}
+		
+		//画像縮小等のログは出力しない
+		LogAppender.setPrintStream(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {}
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		}));
+		
+		//ガンマ補正 Epub3Writer.setImageParamと同じテーブル
+		float gamma = 1.5f;
+		byte[] table = new byte[256];
+		for (int i=0; i<256; i++) table[i] = (byte)Math.min(255, Math.round(255*Math.pow((i/255.0), 1/gamma)));
+		LookupOp gammaOp = new LookupOp(new ByteLookupTable(0, table), null);
+		
+		//出力先 内容は破棄
+		final ZipArchiveOutputStream zos = new ZipArchiveOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {}
+			@Override
+			public void write(byte[] b, int off, int len) {}
+		});
+		zos.setLevel(0);
+		
+		for (String size : sizes.split(",")) {
+			String[] wh = size.split("x");
+			int w = Integer.parseInt(wh[0]);
+			int h = Integer.parseInt(wh[1]);
+			for (Object[] imageType : IMAGE_TYPES) {
+				String ext = (String)imageType[1];
+				String suffix = ":"+ext+"-"+imageType[2]+"-"+w+"x"+h;
+				byte[] bytes = createScanImage((Integer)imageType[0], ext, w, h);
+				if (!isReadable(ext, bytes)) {
+					System.out.println("skip "+suffix.substring(1)+" : readImage failed in this JRE");
+					continue;
+				}
+				
+				runner.run("passthrough"+suffix, new WriteImageBench(zos, bytes, ext, w, h, null, 0, 0, 0, 0));
+				runner.run("margin"+suffix, new WriteImageBench(zos, bytes, ext, w, h, null, 0, 0, 15, 0));
+				runner.run("scale"+suffix, new WriteImageBench(zos, bytes, ext, w, h, null, 0, w/2, 0, 0));
+				runner.run("gamma"+suffix, new WriteImageBench(zos, bytes, ext, w, h, gammaOp, 0, 0, 0, 0));
+				runner.run("rotate"+suffix, new WriteImageBench(zos, bytes, ext, w, h, null, 0, 0, 0, 90));
+				runner.run("scaleGamma"+suffix, new WriteImageBench(zos, bytes, ext, w, h, gammaOp, 0, w/2, 0, 0));
+				runner.run("marginScale"+suffix, new WriteImageBench(zos, bytes, ext, w, h, null, 0, w/2, 15, 0));
+			}
+		}
+		if (!runner.finish()) System.exit(1);
+	}
+	
+	/** 1画像をwriteImageで出力 */
+	static class WriteImageBench implements BenchRunner.Bench
+	{
+		ZipArchiveOutputStream zos;
+		byte[] bytes;
+		String ext;
+		int width;
+		int height;
+		LookupOp gammaOp;
+		int maxImagePixels;
+		int maxImageW;
+		int autoMargin;
+		int rotateAngle;
+		
+		WriteImageBench(ZipArchiveOutputStream zos, byte[] bytes, String ext, int width, int height,
+				LookupOp gammaOp, int maxImagePixels, int maxImageW, int autoMargin, int rotateAngle)
+		{
+			this.zos = zos;
+			this.bytes = bytes;
+			this.ext = ext;
+			this.width = width;
+			this.height = height;
+			this.gammaOp = gammaOp;
+			this.maxImagePixels = maxImagePixels;
+			this.maxImageW = maxImageW;
+			this.autoMargin = autoMargin;
+			this.rotateAngle = rotateAngle;
+		}
+		
+		public Object run() throws Exception
+		{
+			ImageInfo imageInfo = new ImageInfo(this.ext, this.width, this.height, 0);
+			imageInfo.setOutFileName("bench."+this.ext);
+			imageInfo.rotateAngle = this.rotateAngle;
+			this.zos.putArchiveEntry(new ZipArchiveEntry("bench."+this.ext));
+			ByteArrayInputStream bais = new ByteArrayInputStream(this.bytes);
+			ImageUtils.writeImage(bais, null, this.zos, imageInfo, 0.8f, this.gammaOp,
+					this.maxImagePixels, this.maxImageW, 0, 600, 800,
+					this.autoMargin, this.autoMargin, 80, 1, 0, 0.03f);
+			this.zos.closeArchiveEntry();
+			return imageInfo;
+		}
+	}
+	
+	/** ImageUtils.readImageで読み込めるか
+	 * JAIのjpegデコーダはcom.sun.image.codec.jpegのないJREでは利用できないため確認する */
+	static boolean isReadable(String ext, byte[] bytes)
+	{
+		try {
+			return ImageUtils.readImage(ext, new ByteArrayInputStream(bytes)) != null;
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+	
+	/** スキャン画像相当の画像を生成 上下左右に余白、縦書きの文字列状の模様、下部にノンブル */
+	static byte[] createScanImage(int imageType, String ext, int w, int h) throws Exception
+	{
+		BufferedImage image = new BufferedImage(w, h, imageType);
+		Graphics2D g = image.createGraphics();
+		try {
+			Random random = new Random(w*31+h);
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, w, h);
+			//紙の色むら
+			if (imageType == BufferedImage.TYPE_INT_RGB) {
+				for (int i=0; i<200; i++) {
+					g.setColor(new Color(235+random.nextInt(20), 230+random.nextInt(25), 215+random.nextInt(30)));
+					g.fillRect(random.nextInt(w), random.nextInt(h), w/20, h/20);
+				}
+			}
+			//本文 縦書きの行
+			int marginX = w/10;
+			int marginY = h/10;
+			int charSize = Math.max(4, w/40);
+			g.setColor(imageType == BufferedImage.TYPE_INT_RGB ? new Color(40, 30, 30) : Color.BLACK);
+			for (int x=w-marginX-charSize; x>marginX; x-=charSize*3/2) {
+				int lineEnd = h-marginY-random.nextInt(h/4);
+				for (int y=marginY; y<lineEnd-charSize; y+=charSize+charSize/4) {
+					//文字の画数相当の線
+					for (int s=0; s<3+random.nextInt(4); s++) {
+						int x1 = x+random.nextInt(charSize);
+						int y1 = y+random.nextInt(charSize);
+						if (random.nextBoolean()) g.fillRect(x1, y1, Math.max(1, charSize/8), charSize-(y1-y));
+						else g.fillRect(x1, y1, charSize-(x1-x), Math.max(1, charSize/8));
+					}
+				}
+			}
+			//ノンブル
+			g.fillRect(w/2-charSize, h-marginY/2, charSize*2, charSize/2);
+		} finally {
+			g.dispose();
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, ext, baos);
+		return baos.toByteArray();
+	}
+}
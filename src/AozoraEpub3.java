@@ -1,12 +1,28 @@
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -21,7 +37,14 @@ import com.github.hmdev.converter.AozoraEpub3Converter;
 import com.github.hmdev.image.ImageInfoReader;
 import com.github.hmdev.info.BookInfo;
 import com.github.hmdev.info.SectionInfo;
+import com.github.hmdev.util.JsonLogSink;
+import com.github.hmdev.util.JsonUtils;
 import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.LogEntry;
+import com.github.hmdev.util.Progress;
+import com.github.hmdev.util.ProgressListener;
+import com.github.hmdev.util.StageTimer;
+import com.github.hmdev.util.TextLineStore;
 import com.github.hmdev.writer.Epub3ImageWriter;
 import com.github.hmdev.writer.Epub3Writer;
 import com.github.junrar.Archive;
@@ -44,11 +67,6 @@ public class AozoraEpub3
 		//this.cachePath = new File(jarPath+".cache");
 		//this.webConfigPath = new File(jarPath+"web");
 		
-		/** ePub3出力クラス */
-		Epub3Writer epub3Writer;
-		/** ePub3画像出力クラス */
-		Epub3ImageWriter epub3ImageWriter;
-		
 		/** 設定ファイル */
 		Properties props;
 		/** 設定ファイル名 */
@@ -56,7 +74,7 @@ public class AozoraEpub3
 		/** 出力先パス */
 		File dstPath = null;
 		
-		String helpMsg = "AozoraEpub3 [-options] input_files(txt,zip,cbz)\nversion : "+VERSION;
+		String helpMsg = "AozoraEpub3 [-options] input_files(txt,zip,cbz)\ninput_files に - を指定すると標準入力のテキストを変換して標準出力にePubを出力\nversion : "+VERSION;
 		
 		try {
 			//コマンドライン オプション設定
@@ -69,7 +87,7 @@ public class AozoraEpub3
 			options.addOption("ext", true, "出力ファイル拡張子\n[.epub] (default)\n[.kepub.epub]");
 			options.addOption("of", false, "出力ファイル名を入力ファイル名に合せる");
 			options.addOption("d", "dst", true, "出力先パス");
-			options.addOption("enc", true, "入力ファイルエンコード\n[MS932] (default)\n[UTF-8]");
+			options.addOption("enc", true, "入力ファイルエンコード BOMがあればBOMの文字コード\n[AUTO] (default) UTF-8として正しければUTF-8、それ以外はMS932\n[MS932]\n[UTF-8]");
 			//options.addOption("id", false, "栞用ID出力 (for Kobo)");
 			//options.addOption("tcy", false, "自動縦中横有効");
 			//options.addOption("g4", false, "4バイト文字変換");
@@ -77,17 +95,34 @@ public class AozoraEpub3
 			//options.addOption("cp", false, "表紙画像ページ追加");
 			options.addOption("hor", false, "横書き (指定がなければ縦書き)");
 			options.addOption("device", true, "端末種別(指定した端末向けの例外処理を行う)\n[kindle]");
-
+			options.addOption("inc", false, "差分出力 (出力先の前回のePubから変更のない画像を再利用)");
+			options.addOption("timing", true, "段階毎の処理時間をJSON Lines形式で指定ファイルに出力 (ファイル毎と全体の合計)");
+			options.addOption("progress", false, "変換の進捗をJSON Lines形式で標準エラーに出力");
+			options.addOption("logJson", true, "ログをJSON Lines形式で指定ファイルにも出力 (ジョブ,レベル,行番号,メッセージ種別付き)");
+			options.addOption("threads", true, "同時に変換するファイル数\n[1] (default)");
+			options.addOption("sectionThreads", true, "1冊の本文を改ページ位置で分割して並列変換するスレッド数\n[1] (default)");
+			options.addOption("server", false, "常駐して標準入力のJSON Linesのジョブを変換 (input_filesは不要)");
+			options.addOption("port", true, "常駐して127.0.0.1の指定ポートでジョブを受け付ける (input_filesは不要)");
+			
+			//入力ファイルの - は標準入力 パーサでは除外されるので先に取り出す
+			boolean stdinMode = false;
+			Vector<String> argList = new Vector<String>();
+			for (String arg : args) {
+				if ("-".equals(arg)) stdinMode = true;
+				else argList.add(arg);
+			}
+			
 			CommandLine commandLine;
 			try {
-				commandLine = new BasicParser().parse(options, args, true);
+				commandLine = new BasicParser().parse(options, argList.toArray(new String[argList.size()]), true);
 			} catch (ParseException e) {
 				new HelpFormatter().printHelp(helpMsg, options);
 				return;
 			}
 			//オプションの後ろをファイル名に設定
 			String[] fileNames = commandLine.getArgs();
-			if (fileNames.length == 0) {
+			boolean serverMode = commandLine.hasOption("server") || commandLine.hasOption("port");
+			if (fileNames.length == 0 && !serverMode && !stdinMode) {
 				new HelpFormatter().printHelp(helpMsg, options);
 				return;
 			}
@@ -114,63 +149,372 @@ public class AozoraEpub3
 					return;
 				}
 			}
-			//ePub出力クラス初期化
-			epub3Writer = new Epub3Writer(jarPath+"template/");
-			epub3ImageWriter = new Epub3ImageWriter(jarPath+"template/");
+			//処理時間出力
+			TimingReport timingReport = null;
+			if (commandLine.hasOption("timing")) {
+				timingReport = new TimingReport(new File(commandLine.getOptionValue("timing")));
+			}
+			//進捗出力
+			ProgressReport progressReport = null;
+			if (commandLine.hasOption("progress")) progressReport = new ProgressReport(System.err);
+			//ログをJSON Linesでも出力
+			if (commandLine.hasOption("logJson")) {
+				LogAppender.addSink(new JsonLogSink(new File(commandLine.getOptionValue("logJson"))));
+			}
+			//並列数
+			int threads = 1;
+			if (commandLine.hasOption("threads")) {
+				try { threads = Integer.parseInt(commandLine.getOptionValue("threads")); } catch (Exception e) {}
+				if (threads < 1) {
+					LogAppender.error("-threads : invalid value. "+commandLine.getOptionValue("threads"));
+					return;
+				}
+			}
 			
 			//propsから読み込み
 			props = new Properties();
 			try { props.load(new FileInputStream(propFileName)); } catch (Exception e) { }
 			
-			int titleIndex = 0; //try { titleIndex = Integer.parseInt(props.getProperty("TitleType")); } catch (Exception e) {}//表題
+			//オプション指定を取得
+			LinkedHashMap<String, String> optionValues = new LinkedHashMap<String, String>();
+			for (String name : AozoraEpub3Server.OPTION_KEYS) {
+				if (commandLine.hasOption(name)) optionValues.put(name, commandLine.getOptionValue(name));
+			}
+			//if(commandLine.hasOption("id")) withMarkId = true;
+			//if(commandLine.hasOption("tcy")) autoYoko = true;
+			//if(commandLine.hasOption("g4")) gaiji32 = true;
+			//if(commandLine.hasOption("tm")) middleTitle = true;
+			//if(commandLine.hasOption("cb")) commentPrint = true;
+			//if(commandLine.hasOption("cc")) commentConvert = true;
+			//if(commandLine.hasOption("cp")) coverPage = true;
+			
+			////////////////////////////////
+			//常駐モード
+			////////////////////////////////
+			if (serverMode) {
+				//標準入力で受け付ける場合は標準出力が応答なのでログは標準エラーに出力
+				boolean socketMode = commandLine.hasOption("port");
+				if (!socketMode) LogAppender.setPrintStream(System.err);
+				AozoraEpub3Server server = new AozoraEpub3Server(jarPath, props, optionValues, dstPath, threads);
+				server.warmUp();
+				if (socketMode) server.serveSocket(Integer.parseInt(commandLine.getOptionValue("port")));
+				else server.serveStdin();
+				return;
+			}
+			
+			ConvertSetting setting = new ConvertSetting(props);
+			//オプション指定を反映
+			for (Map.Entry<String, String> entry : optionValues.entrySet()) {
+				setting.setOption(entry.getKey(), entry.getValue());
+			}
+			
+			////////////////////////////////
+			//標準入力から標準出力に変換
+			////////////////////////////////
+			if (stdinMode) {
+				//標準出力はePubなのでログは標準エラーに出力
+				LogAppender.setPrintStream(System.err);
+				ConvertWorker worker = new ConvertWorker(setting, jarPath);
+				worker.progressReport = progressReport;
+				if (!worker.convertStream(System.in, new BufferedOutputStream(System.out, 65536))) System.exit(1);
+				return;
+			}
+			
+			////////////////////////////////
+			//各ファイルを変換処理
+			////////////////////////////////
+			try {
+				if (threads == 1) {
+					ConvertWorker worker = new ConvertWorker(setting, jarPath);
+					worker.timingReport = timingReport;
+					worker.progressReport = progressReport;
+					for (String fileName : fileNames) {
+						LogAppender.setJobId(fileName);
+						LogAppender.println("--------");
+						worker.convertFile(new File(fileName), dstPath);
+					}
+					LogAppender.setJobId(null);
+				} else {
+					convertFilesParallel(setting, jarPath, fileNames, dstPath, threads, timingReport, progressReport);
+				}
+			} finally {
+				if (timingReport != null) timingReport.close();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** 複数ファイルを並列に変換
+	 * スレッド毎にConverterとWriterを生成し、ログはファイル単位でまとめて入力ファイル順に出力する
+	 * 出力先が同じファイルになる入力は入力順に変換する */
+	static void convertFilesParallel(final ConvertSetting setting, final String jarPath, String[] fileNames, final File dstPath, int threads, final TimingReport timingReport, final ProgressReport progressReport) throws InterruptedException
+	{
+		final ThreadLocal<ConvertWorker> workers = new ThreadLocal<ConvertWorker>();
+		final OutFileOrder outFileOrder = new OutFileOrder(fileNames.length);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			Vector<Future<Vector<LogEntry>>> futures = new Vector<Future<Vector<LogEntry>>>();
+			for (int i=0; i<fileNames.length; i++) {
+				final String fileName = fileNames[i];
+				final int fileIndex = i;
+				futures.add(executor.submit(new Callable<Vector<LogEntry>>() {
+					public Vector<LogEntry> call()
+					{
+						LogAppender.setJobId(fileName);
+						LogAppender.startBuffer();
+						try {
+							LogAppender.println("--------");
+							ConvertWorker worker = workers.get();
+							if (worker == null) {
+								worker = new ConvertWorker(setting, jarPath);
+								worker.timingReport = timingReport;
+								worker.progressReport = progressReport;
+								workers.set(worker);
+							}
+							worker.outFileOrder = outFileOrder;
+							worker.fileIndex = fileIndex;
+							worker.convertFile(new File(fileName), dstPath);
+						} catch (Exception e) {
+							e.printStackTrace();
+							LogAppender.println("エラーが発生しました : "+e.getMessage());
+						} finally {
+							outFileOrder.finish(fileIndex);
+						}
+						return LogAppender.endBufferEntries();
+					}
+				}));
+			}
+			//入力順にログ出力
+			for (Future<Vector<LogEntry>> future : futures) {
+				try {
+					LogAppender.write(future.get());
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/** 並列変換で出力先が同じ入力を入力順に変換するための順番待ち
+	 * 出力ファイル名は本文から取得した表題と著者名で決まるので、変換前に出力先が決まった時点で
+	 * 前の入力の出力先と比較し、同じなら前の入力の変換が終わるまで待つ
+	 * ジョブは入力順に開始するので前の入力は実行中か終了済み */
+	static class OutFileOrder
+	{
+		/** 入力毎の出力ファイルのパス */
+		HashSet<String>[] outPaths;
+		/** 入力毎の出力先が全て決まったら0 */
+		CountDownLatch[] resolved;
+		/** 入力毎の変換が終わったら0 */
+		CountDownLatch[] finished;
+		
+		@SuppressWarnings("unchecked")
+		OutFileOrder(int count)
+		{
+			this.outPaths = new HashSet[count];
+			this.resolved = new CountDownLatch[count];
+			this.finished = new CountDownLatch[count];
+			for (int i=0; i<count; i++) {
+				this.outPaths[i] = new HashSet<String>();
+				this.resolved[i] = new CountDownLatch(1);
+				this.finished[i] = new CountDownLatch(1);
+			}
+		}
+		
+		/** 出力先を登録し、前の入力の出力先が同じならその変換が終わるまで待つ
+		 * @param last 入力の最後の出力先ならtrue */
+		void await(int fileIndex, File outFile, boolean last) throws InterruptedIOException
+		{
+			String outPath = outFile.getAbsolutePath();
+			this.outPaths[fileIndex].add(outPath);
+			if (last) this.resolved[fileIndex].countDown();
+			try {
+				for (int i=0; i<fileIndex; i++) {
+					this.resolved[i].await();
+					if (this.outPaths[i].contains(outPath)) this.finished[i].await();
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException(outPath);
+			}
+		}
+		
+		/** 変換終了 出力先が途中で決まらなかった場合も後の入力の待ちを解除 */
+		void finish(int fileIndex)
+		{
+			this.resolved[fileIndex].countDown();
+			this.finished[fileIndex].countDown();
+		}
+	}
+	
+	/** iniファイルとコマンドラインオプションから取得した変換設定 */
+	static class ConvertSetting
+	{
+		Properties props;
+		
+		int titleIndex = 0; //try { titleIndex = Integer.parseInt(props.getProperty("TitleType")); } catch (Exception e) {}//表題
+		
+		//コマンドラインオプション以外
+		boolean coverPage;//表紙追加
+		int titlePage = BookInfo.TITLE_NONE;
+		boolean withMarkId;
+		//boolean gaiji32;
+		boolean commentPrint;
+		boolean commentConvert;
+		boolean autoYoko;
+		boolean autoYokoNum1;
+		boolean autoYokoNum3;
+		boolean autoYokoEQ1;
+		int spaceHyp = 0;
+		boolean tocPage;//目次追加
+		boolean tocVertical;//目次縦書き
+		boolean coverPageToc;
+		int removeEmptyLine = 0;
+		int maxEmptyLine = 0;
+		
+		//画面サイズと画像リサイズ
+		int dispW = 600;
+		int dispH = 800;
+		int coverW = 600;
+		int coverH = 800;
+		int resizeW = 0;
+		int resizeH = 0;
+		int singlePageSizeW = 480;
+		int singlePageSizeH = 640;
+		int singlePageWidth = 600;
+		float imageScale = 1;
+		int imageFloatType = 0;
+		int imageFloatW = 0;
+		int imageFloatH = 0;
+		int imageSizeType = SectionInfo.IMAGE_SIZE_TYPE_HEIGHT;
+		boolean fitImage;
+		boolean svgImage;
+		int rotateImage = 0;
+		float jpegQualty = 0.8f;
+		float gamma = 1.0f;
+		int autoMarginLimitH = 0;
+		int autoMarginLimitV = 0;
+		int autoMarginWhiteLevel = 80;
+		float autoMarginPadding = 0;
+		int autoMarginNombre = 0;
+		float nobreSize = 0.03f;
+		
+		//スタイル設定
+		String[] pageMargin = {};
+		String[] bodyMargin = {};
+		float lineHeight = 1.8f;
+		int fontSize = 100;
+		boolean boldUseGothic;
+		boolean gothicUseBold;
+		
+		//自動改ページ
+		int forcePageBreakSize = 0;
+		int forcePageBreakEmpty = 0;
+		int forcePageBreakEmptySize = 0;
+		int forcePageBreakChapter = 0;
+		int forcePageBreakChapterSize = 0;
+		int maxLength = 64;
+		boolean insertTitleToc;
+		boolean chapterExclude;
+		boolean chapterUseNextLine;
+		boolean chapterSection;
+		boolean chapterH;
+		boolean chapterH1;
+		boolean chapterH2;
+		boolean chapterH3;
+		boolean sameLineChapter;
+		boolean chapterName;
+		boolean chapterNumOnly;
+		boolean chapterNumTitle;
+		boolean chapterNumParen;
+		boolean chapterNumParenTitle;
+		String chapterPattern = "";
+		
+		//文字出力設定
+		int dakutenType = 0;
+		boolean printIvsBMP;
+		boolean printIvsSSP;
+		
+		//コマンドラインオプションで指定
+		boolean useFileName = false;//表題に入力ファイル名利用
+		String coverFileName = null;
+		String encType = TextLineStore.AUTO;
+		String outExt = ".epub";
+		boolean autoFileName = true; //ファイル名を表題に利用
+		boolean vertical = true;
+		String targetDevice = null;
+		boolean incremental = false; //差分出力
+		int sectionThreads = 1; //本文の並列変換スレッド数
+		
+		/** コマンドラインオプションと同じ名前の設定を反映
+		 * @param name オプション名 t,tf,c,enc,ext,of,hor,device,inc,sectionThreads
+		 * @param value 値のないオプションの場合はnull */
+		void setOption(String name, String value)
+		{
+			if ("t".equals(name)) { try { titleIndex = Integer.parseInt(value); } catch (Exception e) {} }//表題
+			else if ("tf".equals(name)) useFileName = !isOff(value);
+			else if ("c".equals(name)) coverFileName = value;
+			else if ("enc".equals(name)) encType = value;
+			else if ("ext".equals(name)) outExt = value;
+			else if ("of".equals(name)) autoFileName = isOff(value);
+			else if ("hor".equals(name)) vertical = isOff(value);
+			else if ("device".equals(name)) targetDevice = value;
+			else if ("inc".equals(name)) incremental = !isOff(value);
+			else if ("sectionThreads".equals(name)) { try { sectionThreads = Integer.parseInt(value); } catch (Exception e) {} }
+		}
+		/** 値のないオプションの無効指定 */
+		static boolean isOff(String value)
+		{
+			return "0".equals(value) || "false".equals(value);
+		}
+		
+		/** iniファイルの設定を読み込み */
+		ConvertSetting(Properties props)
+		{
+			this.props = props;
 			
 			//コマンドラインオプション以外
-			boolean coverPage = "1".equals(props.getProperty("CoverPage"));//表紙追加
-			int titlePage = BookInfo.TITLE_NONE;
+			coverPage = "1".equals(props.getProperty("CoverPage"));//表紙追加
 			if ("1".equals(props.getProperty("TitlePageWrite"))) {
 				try { titlePage =Integer.parseInt(props.getProperty("TitlePage")); } catch (Exception e) {}
 			}
-			boolean withMarkId = "1".equals(props.getProperty("MarkId"));
-			//boolean gaiji32 = "1".equals(props.getProperty("Gaiji32"));
-			boolean commentPrint = "1".equals(props.getProperty("CommentPrint"));
-			boolean commentConvert = "1".equals(props.getProperty("CommentConvert"));
-			boolean autoYoko = "1".equals(props.getProperty("AutoYoko"));
-			boolean autoYokoNum1 = "1".equals(props.getProperty("AutoYokoNum1"));
-			boolean autoYokoNum3 = "1".equals(props.getProperty("AutoYokoNum3"));
-			boolean autoYokoEQ1 = "1".equals(props.getProperty("AutoYokoEQ1"));
-			int spaceHyp = 0; try { spaceHyp = Integer.parseInt(props.getProperty("SpaceHyphenation")); } catch (Exception e) {}
-			boolean tocPage = "1".equals(props.getProperty("TocPage"));//目次追加
-			boolean tocVertical = "1".equals(props.getProperty("TocVertical"));//目次縦書き
-			boolean coverPageToc = "1".equals(props.getProperty("CoverPageToc"));
-			int removeEmptyLine = 0; try { removeEmptyLine = Integer.parseInt(props.getProperty("RemoveEmptyLine")); } catch (Exception e) {}
-			int maxEmptyLine = 0; try { maxEmptyLine = Integer.parseInt(props.getProperty("MaxEmptyLine")); } catch (Exception e) {}
+			withMarkId = "1".equals(props.getProperty("MarkId"));
+			//gaiji32 = "1".equals(props.getProperty("Gaiji32"));
+			commentPrint = "1".equals(props.getProperty("CommentPrint"));
+			commentConvert = "1".equals(props.getProperty("CommentConvert"));
+			autoYoko = "1".equals(props.getProperty("AutoYoko"));
+			autoYokoNum1 = "1".equals(props.getProperty("AutoYokoNum1"));
+			autoYokoNum3 = "1".equals(props.getProperty("AutoYokoNum3"));
+			autoYokoEQ1 = "1".equals(props.getProperty("AutoYokoEQ1"));
+			try { spaceHyp = Integer.parseInt(props.getProperty("SpaceHyphenation")); } catch (Exception e) {}
+			tocPage = "1".equals(props.getProperty("TocPage"));//目次追加
+			tocVertical = "1".equals(props.getProperty("TocVertical"));//目次縦書き
+			coverPageToc = "1".equals(props.getProperty("CoverPageToc"));
+			try { removeEmptyLine = Integer.parseInt(props.getProperty("RemoveEmptyLine")); } catch (Exception e) {}
+			try { maxEmptyLine = Integer.parseInt(props.getProperty("MaxEmptyLine")); } catch (Exception e) {}
 			
 			//画面サイズと画像リサイズ
-			int dispW = 600; try { dispW =Integer.parseInt(props.getProperty("DispW")); } catch (Exception e) {}
-			int dispH = 800; try { dispH =Integer.parseInt(props.getProperty("DispH")); } catch (Exception e) {}
-			int coverW = 600; try { coverW = Integer.parseInt(props.getProperty("CoverW")); } catch (Exception e) {}
-			int coverH = 800; try { coverH = Integer.parseInt(props.getProperty("CoverH")); } catch (Exception e) {}
-			int resizeW = 0; if ("1".equals(props.getProperty("ResizeW"))) try { resizeW = Integer.parseInt(props.getProperty("ResizeNumW")); } catch (Exception e) {}
-			int resizeH = 0; if ("1".equals(props.getProperty("ResizeH"))) try { resizeH = Integer.parseInt(props.getProperty("ResizeNumH")); } catch (Exception e) {}
-			int singlePageSizeW = 480; try { singlePageSizeW = Integer.parseInt(props.getProperty("SinglePageSizeW")); } catch (Exception e) {}
-			int singlePageSizeH = 640; try { singlePageSizeH = Integer.parseInt(props.getProperty("SinglePageSizeH")); } catch (Exception e) {}
-			int singlePageWidth = 600; try { singlePageWidth = Integer.parseInt(props.getProperty("SinglePageWidth")); } catch (Exception e) {}
-			float imageScale = 1; try { imageScale = Float.parseFloat(props.getProperty("ImageScale")); } catch (Exception e) {}
-			int imageFloatType = 0; try { imageFloatType = Integer.parseInt(props.getProperty("ImageFloatType")); } catch (Exception e) {}
-			int imageFloatW = 0; try { imageFloatW = Integer.parseInt(props.getProperty("ImageFloatW")); } catch (Exception e) {}
-			int imageFloatH = 0; try { imageFloatH = Integer.parseInt(props.getProperty("ImageFloatH")); } catch (Exception e) {}
-			int imageSizeType = SectionInfo.IMAGE_SIZE_TYPE_HEIGHT; try { imageSizeType = Integer.parseInt(props.getProperty("ImageSizeType")); } catch (Exception e) {}
-			boolean fitImage = "1".equals(props.getProperty("FitImage"));
-			boolean svgImage = "1".equals(props.getProperty("SvgImage"));
-			int rotateImage = 0; if ("1".equals(props.getProperty("RotateImage"))) rotateImage = 90; else if ("2".equals(props.getProperty("RotateImage"))) rotateImage = -90;
-			float jpegQualty = 0.8f; try { jpegQualty = Integer.parseInt(props.getProperty("JpegQuality"))/100f; } catch (Exception e) {}
-			float gamma = 1.0f; if ( "1".equals(props.getProperty("Gamma"))) try { gamma = Float.parseFloat(props.getProperty("GammaValue")); } catch (Exception e) {}
-			int autoMarginLimitH = 0;
-			int autoMarginLimitV = 0;
-			int autoMarginWhiteLevel = 80;
-			float autoMarginPadding = 0;
-			int autoMarginNombre = 0;
-			float nobreSize = 0.03f;
+			try { dispW =Integer.parseInt(props.getProperty("DispW")); } catch (Exception e) {}
+			try { dispH =Integer.parseInt(props.getProperty("DispH")); } catch (Exception e) {}
+			try { coverW = Integer.parseInt(props.getProperty("CoverW")); } catch (Exception e) {}
+			try { coverH = Integer.parseInt(props.getProperty("CoverH")); } catch (Exception e) {}
+			if ("1".equals(props.getProperty("ResizeW"))) try { resizeW = Integer.parseInt(props.getProperty("ResizeNumW")); } catch (Exception e) {}
+			if ("1".equals(props.getProperty("ResizeH"))) try { resizeH = Integer.parseInt(props.getProperty("ResizeNumH")); } catch (Exception e) {}
+			try { singlePageSizeW = Integer.parseInt(props.getProperty("SinglePageSizeW")); } catch (Exception e) {}
+			try { singlePageSizeH = Integer.parseInt(props.getProperty("SinglePageSizeH")); } catch (Exception e) {}
+			try { singlePageWidth = Integer.parseInt(props.getProperty("SinglePageWidth")); } catch (Exception e) {}
+			try { imageScale = Float.parseFloat(props.getProperty("ImageScale")); } catch (Exception e) {}
+			try { imageFloatType = Integer.parseInt(props.getProperty("ImageFloatType")); } catch (Exception e) {}
+			try { imageFloatW = Integer.parseInt(props.getProperty("ImageFloatW")); } catch (Exception e) {}
+			try { imageFloatH = Integer.parseInt(props.getProperty("ImageFloatH")); } catch (Exception e) {}
+			try { imageSizeType = Integer.parseInt(props.getProperty("ImageSizeType")); } catch (Exception e) {}
+			fitImage = "1".equals(props.getProperty("FitImage"));
+			svgImage = "1".equals(props.getProperty("SvgImage"));
+			if ("1".equals(props.getProperty("RotateImage"))) rotateImage = 90; else if ("2".equals(props.getProperty("RotateImage"))) rotateImage = -90;
+			try { jpegQualty = Integer.parseInt(props.getProperty("JpegQuality"))/100f; } catch (Exception e) {}
+			if ( "1".equals(props.getProperty("Gamma"))) try { gamma = Float.parseFloat(props.getProperty("GammaValue")); } catch (Exception e) {}
 			if ("1".equals(props.getProperty("AutoMargin"))) {
 				try { autoMarginLimitH = Integer.parseInt(props.getProperty("AutoMarginLimitH")); } catch (Exception e) {}
 				try { autoMarginLimitV = Integer.parseInt(props.getProperty("AutoMarginLimitV")); } catch (Exception e) {}
@@ -178,42 +522,27 @@ public class AozoraEpub3
 				try { autoMarginPadding = Float.parseFloat(props.getProperty("AutoMarginPadding")); } catch (Exception e) {}
 				try { autoMarginNombre = Integer.parseInt(props.getProperty("AutoMarginNombre")); } catch (Exception e) {} 
 				try { autoMarginPadding = Float.parseFloat(props.getProperty("AutoMarginNombreSize")); } catch (Exception e) {}
-			 }
-			epub3Writer.setImageParam(dispW, dispH, coverW, coverH, resizeW, resizeH, singlePageSizeW, singlePageSizeH, singlePageWidth, imageSizeType, fitImage, svgImage, rotateImage,
-					imageScale, imageFloatType, imageFloatW, imageFloatH, jpegQualty, gamma, autoMarginLimitH, autoMarginLimitV, autoMarginWhiteLevel, autoMarginPadding, autoMarginNombre, nobreSize);
-			epub3ImageWriter.setImageParam(dispW, dispH, coverW, coverH, resizeW, resizeH, singlePageSizeW, singlePageSizeH, singlePageWidth, imageSizeType, fitImage, svgImage, rotateImage,
-					imageScale, imageFloatType, imageFloatW, imageFloatH, jpegQualty, gamma, autoMarginLimitH, autoMarginLimitV, autoMarginWhiteLevel, autoMarginPadding, autoMarginNombre, nobreSize);
-			//目次階層化設定
-			epub3Writer.setTocParam("1".equals(props.getProperty("NavNest")), "1".equals(props.getProperty("NcxNest")));
+			}
 			
 			//スタイル設定
-			String[] pageMargin = {};
 			try { pageMargin = props.getProperty("PageMargin").split(","); } catch (Exception e) {}
 			if (pageMargin.length != 4) pageMargin = new String[]{"0", "0", "0", "0"};
 			else {
 				String pageMarginUnit = props.getProperty("PageMarginUnit");
 				for (int i=0; i<4; i++) { pageMargin[i] += pageMarginUnit; }
 			}
-			String[] bodyMargin = {};
 			try { bodyMargin = props.getProperty("BodyMargin").split(","); } catch (Exception e) {}
 			if (bodyMargin.length != 4) bodyMargin = new String[]{"0", "0", "0", "0"};
 			else {
 				String bodyMarginUnit = props.getProperty("BodyMarginUnit");
 				for (int i=0; i<4; i++) { bodyMargin[i] += bodyMarginUnit; }
 			}
-			float lineHeight = 1.8f; try { lineHeight = Float.parseFloat(props.getProperty("LineHeight")); } catch (Exception e) {}
-			int fontSize = 100; try { fontSize = Integer.parseInt(props.getProperty("FontSize")); } catch (Exception e) {}
-			boolean boldUseGothic = "1".equals(props.getProperty("BoldUseGothic"));
-			boolean gothicUseBold = "1".equals(props.getProperty("gothicUseBold"));
-			epub3Writer.setStyles(pageMargin, bodyMargin, lineHeight, fontSize, boldUseGothic, gothicUseBold);
-			
+			try { lineHeight = Float.parseFloat(props.getProperty("LineHeight")); } catch (Exception e) {}
+			try { fontSize = Integer.parseInt(props.getProperty("FontSize")); } catch (Exception e) {}
+			boldUseGothic = "1".equals(props.getProperty("BoldUseGothic"));
+			gothicUseBold = "1".equals(props.getProperty("gothicUseBold"));
 			
 			//自動改ページ
-			int forcePageBreakSize = 0;
-			int forcePageBreakEmpty = 0;
-			int forcePageBreakEmptySize = 0;
-			int forcePageBreakChapter = 0;
-			int forcePageBreakChapterSize = 0;
 			if ("1".equals(props.getProperty("PageBreak"))) {
 				try {
 					try { forcePageBreakSize = Integer.parseInt(props.getProperty("PageBreakSize")) * 1024; } catch (Exception e) {}
@@ -226,216 +555,464 @@ public class AozoraEpub3
 					}
 				} catch (Exception e) {}
 			}
-			int maxLength = 64; try { maxLength = Integer.parseInt((props.getProperty("ChapterNameLength"))); } catch (Exception e) {}
-			boolean insertTitleToc = "1".equals(props.getProperty("TitleToc"));
-			boolean chapterExclude = "1".equals(props.getProperty("ChapterExclude"));
-			boolean chapterUseNextLine = "1".equals(props.getProperty("ChapterUseNextLine"));
-			boolean chapterSection = !props.containsKey("ChapterSection")||"1".equals(props.getProperty("ChapterSection"));
-			boolean chapterH = "1".equals(props.getProperty("ChapterH"));
-			boolean chapterH1 = "1".equals(props.getProperty("ChapterH1"));
-			boolean chapterH2 = "1".equals(props.getProperty("ChapterH2"));
-			boolean chapterH3 = "1".equals(props.getProperty("ChapterH3"));
-			boolean sameLineChapter = "1".equals(props.getProperty("SameLineChapter"));
-			boolean chapterName = "1".equals(props.getProperty("ChapterName"));
-			boolean chapterNumOnly = "1".equals(props.getProperty("ChapterNumOnly"));
-			boolean chapterNumTitle = "1".equals(props.getProperty("ChapterNumTitle"));
-			boolean chapterNumParen = "1".equals(props.getProperty("ChapterNumParen"));
-			boolean chapterNumParenTitle = "1".equals(props.getProperty("hapterNumParenTitle"));
-			String chapterPattern = ""; if ("1".equals(props.getProperty("ChapterPattern"))) chapterPattern = props.getProperty("ChapterPatternText");
+			try { maxLength = Integer.parseInt((props.getProperty("ChapterNameLength"))); } catch (Exception e) {}
+			insertTitleToc = "1".equals(props.getProperty("TitleToc"));
+			chapterExclude = "1".equals(props.getProperty("ChapterExclude"));
+			chapterUseNextLine = "1".equals(props.getProperty("ChapterUseNextLine"));
+			chapterSection = !props.containsKey("ChapterSection")||"1".equals(props.getProperty("ChapterSection"));
+			chapterH = "1".equals(props.getProperty("ChapterH"));
+			chapterH1 = "1".equals(props.getProperty("ChapterH1"));
+			chapterH2 = "1".equals(props.getProperty("ChapterH2"));
+			chapterH3 = "1".equals(props.getProperty("ChapterH3"));
+			sameLineChapter = "1".equals(props.getProperty("SameLineChapter"));
+			chapterName = "1".equals(props.getProperty("ChapterName"));
+			chapterNumOnly = "1".equals(props.getProperty("ChapterNumOnly"));
+			chapterNumTitle = "1".equals(props.getProperty("ChapterNumTitle"));
+			chapterNumParen = "1".equals(props.getProperty("ChapterNumParen"));
+			chapterNumParenTitle = "1".equals(props.getProperty("hapterNumParenTitle"));
+			if ("1".equals(props.getProperty("ChapterPattern"))) chapterPattern = props.getProperty("ChapterPatternText");
 			
-			//オプション指定を反映
-			boolean useFileName = false;//表題に入力ファイル名利用
-			String coverFileName = null;
-			String encType = "MS932";
-			String outExt = ".epub";
-			boolean autoFileName = true; //ファイル名を表題に利用
-			boolean vertical = true;
-			String targetDevice = null;
-			if(commandLine.hasOption("t")) try { titleIndex = Integer.parseInt(commandLine.getOptionValue("t")); } catch (Exception e) {}//表題
-			if(commandLine.hasOption("tf")) useFileName = true;
-			if(commandLine.hasOption("c")) coverFileName = commandLine.getOptionValue("c");
-			if(commandLine.hasOption("enc")) encType = commandLine.getOptionValue("enc");
-			if(commandLine.hasOption("ext")) outExt = commandLine.getOptionValue("ext");
-			if(commandLine.hasOption("of")) autoFileName = false;
-			//if(commandLine.hasOption("id")) withMarkId = true;
-			//if(commandLine.hasOption("tcy")) autoYoko = true;
-			//if(commandLine.hasOption("g4")) gaiji32 = true;
-			//if(commandLine.hasOption("tm")) middleTitle = true;
-			//if(commandLine.hasOption("cb")) commentPrint = true;
-			//if(commandLine.hasOption("cc")) commentConvert = true;
-			//if(commandLine.hasOption("cp")) coverPage = true;
-			if(commandLine.hasOption("hor")) vertical = false;
-			if(commandLine.hasOption("device")) {
-				targetDevice = commandLine.getOptionValue("device");
-				if (targetDevice.equalsIgnoreCase("kindle")) {
-					epub3Writer.setIsKindle(true);
-				}
+			//文字出力設定
+			try { dakutenType = Integer.parseInt(props.getProperty("DakutenType")); } catch (Exception e) {}
+			printIvsBMP = "1".equals(props.getProperty("IvsBMP"));
+			printIvsSSP = "1".equals(props.getProperty("IvsSSP"));
+		}
+	}
+	
+	/** 変換処理単位 ConverterとWriterを保持する
+	 * 並列変換時はスレッド毎に生成する */
+	static class ConvertWorker
+	{
+		ConvertSetting setting;
+		
+		/** ePub3出力クラス */
+		Epub3Writer epub3Writer;
+		/** ePub3画像出力クラス */
+		Epub3ImageWriter epub3ImageWriter;
+		/** 変換クラス */
+		AozoraEpub3Converter aozoraConverter;
+		
+		/** 処理時間の出力先 計測しない場合はnull */
+		TimingReport timingReport = null;
+		/** 進捗の出力先 ファイル毎に進捗を生成する 出力しない場合はnull */
+		ProgressReport progressReport = null;
+		
+		/** 並列変換時の出力先の順番待ち 並列変換しない場合はnull */
+		OutFileOrder outFileOrder = null;
+		/** 並列変換時の入力ファイルの順番 */
+		int fileIndex = 0;
+		
+		/** ConverterとWriterを生成してパラメータ設定 */
+		ConvertWorker(ConvertSetting setting, String jarPath) throws IOException
+		{
+			this.setting = setting;
+			
+			//ePub出力クラス初期化
+			epub3Writer = new Epub3Writer(jarPath+"template/");
+			epub3ImageWriter = new Epub3ImageWriter(jarPath+"template/");
+			
+			epub3Writer.setImageParam(setting.dispW, setting.dispH, setting.coverW, setting.coverH, setting.resizeW, setting.resizeH,
+					setting.singlePageSizeW, setting.singlePageSizeH, setting.singlePageWidth, setting.imageSizeType, setting.fitImage, setting.svgImage, setting.rotateImage,
+					setting.imageScale, setting.imageFloatType, setting.imageFloatW, setting.imageFloatH, setting.jpegQualty, setting.gamma,
+					setting.autoMarginLimitH, setting.autoMarginLimitV, setting.autoMarginWhiteLevel, setting.autoMarginPadding, setting.autoMarginNombre, setting.nobreSize);
+			epub3ImageWriter.setImageParam(setting.dispW, setting.dispH, setting.coverW, setting.coverH, setting.resizeW, setting.resizeH,
+					setting.singlePageSizeW, setting.singlePageSizeH, setting.singlePageWidth, setting.imageSizeType, setting.fitImage, setting.svgImage, setting.rotateImage,
+					setting.imageScale, setting.imageFloatType, setting.imageFloatW, setting.imageFloatH, setting.jpegQualty, setting.gamma,
+					setting.autoMarginLimitH, setting.autoMarginLimitV, setting.autoMarginWhiteLevel, setting.autoMarginPadding, setting.autoMarginNombre, setting.nobreSize);
+			//目次階層化設定
+			epub3Writer.setTocParam("1".equals(setting.props.getProperty("NavNest")), "1".equals(setting.props.getProperty("NcxNest")));
+			//スタイル設定
+			epub3Writer.setStyles(setting.pageMargin, setting.bodyMargin, setting.lineHeight, setting.fontSize, setting.boldUseGothic, setting.gothicUseBold);
+			
+			if (setting.targetDevice != null && setting.targetDevice.equalsIgnoreCase("kindle")) {
+				epub3Writer.setIsKindle(true);
 			}
-
+			//差分出力
+			epub3Writer.setIncremental(setting.incremental);
+			epub3ImageWriter.setIncremental(setting.incremental);
+			
 			//変換クラス生成とパラメータ設定
-			AozoraEpub3Converter  aozoraConverter = new AozoraEpub3Converter(epub3Writer, jarPath);
+			aozoraConverter = new AozoraEpub3Converter(epub3Writer, jarPath);
 			//挿絵なし
-			aozoraConverter.setNoIllust("1".equals(props.getProperty("NoIllust"))); 
+			aozoraConverter.setNoIllust("1".equals(setting.props.getProperty("NoIllust"))); 
 			//栞用span出力
-			aozoraConverter.setWithMarkId(withMarkId);
+			aozoraConverter.setWithMarkId(setting.withMarkId);
 			//変換オプション設定
-			aozoraConverter.setAutoYoko(autoYoko, autoYokoNum1, autoYokoNum3, autoYokoEQ1);
+			aozoraConverter.setAutoYoko(setting.autoYoko, setting.autoYokoNum1, setting.autoYokoNum3, setting.autoYokoEQ1);
 			//文字出力設定
-			int dakutenType = 0; try { dakutenType = Integer.parseInt(props.getProperty("DakutenType")); } catch (Exception e) {}
-			boolean printIvsBMP = "1".equals(props.getProperty("IvsBMP"));
-			boolean printIvsSSP = "1".equals(props.getProperty("IvsSSP"));
-			
-			aozoraConverter.setCharOutput(dakutenType, printIvsBMP, printIvsSSP);
+			aozoraConverter.setCharOutput(setting.dakutenType, setting.printIvsBMP, setting.printIvsSSP);
 			//全角スペースの禁則
-			aozoraConverter.setSpaceHyphenation(spaceHyp);
+			aozoraConverter.setSpaceHyphenation(setting.spaceHyp);
 			//コメント
-			aozoraConverter.setCommentPrint(commentPrint, commentConvert);
+			aozoraConverter.setCommentPrint(setting.commentPrint, setting.commentConvert);
 			
-			aozoraConverter.setRemoveEmptyLine(removeEmptyLine, maxEmptyLine);
+			aozoraConverter.setRemoveEmptyLine(setting.removeEmptyLine, setting.maxEmptyLine);
+			//本文の並列変換
+			aozoraConverter.setSectionThreads(setting.sectionThreads);
 			
 			//強制改ページ
-			aozoraConverter.setForcePageBreak(forcePageBreakSize, forcePageBreakEmpty, forcePageBreakEmptySize, forcePageBreakChapter, forcePageBreakChapterSize);
+			aozoraConverter.setForcePageBreak(setting.forcePageBreakSize, setting.forcePageBreakEmpty, setting.forcePageBreakEmptySize, setting.forcePageBreakChapter, setting.forcePageBreakChapterSize);
 			//目次設定
-			aozoraConverter.setChapterLevel(maxLength, chapterExclude, chapterUseNextLine, chapterSection,
-					chapterH, chapterH1, chapterH2, chapterH3, sameLineChapter,
-					chapterName,
-					chapterNumOnly, chapterNumTitle, chapterNumParen, chapterNumParenTitle,
-					chapterPattern);
+			aozoraConverter.setChapterLevel(setting.maxLength, setting.chapterExclude, setting.chapterUseNextLine, setting.chapterSection,
+					setting.chapterH, setting.chapterH1, setting.chapterH2, setting.chapterH3, setting.sameLineChapter,
+					setting.chapterName,
+					setting.chapterNumOnly, setting.chapterNumTitle, setting.chapterNumParen, setting.chapterNumParenTitle,
+					setting.chapterPattern);
+		}
+		
+		/** 1ファイルを変換 zip内に複数テキストがあればそれぞれ変換
+		 * timingReportが設定されていれば段階毎の処理時間を計測して出力
+		 * @return 出力したファイル */
+		Vector<File> convertFile(File srcFile, File dstPath) throws IOException, RarException
+		{
+			if (this.progressReport != null) this.setProgress(this.progressReport.create(srcFile.getPath()));
+			if (this.timingReport == null) return this.convertFileTexts(srcFile, dstPath);
+			StageTimer timer = new StageTimer();
+			timer.start();
+			Vector<File> outFiles = null;
+			try {
+				outFiles = this.convertFileTexts(srcFile, dstPath);
+			} finally {
+				timer.stop();
+				this.timingReport.add(srcFile, outFiles, timer);
+			}
+			return outFiles;
+		}
+		
+		/** 1ファイル内のテキストをそれぞれ変換 */
+		Vector<File> convertFileTexts(File srcFile, File dstPath) throws IOException, RarException
+		{
+			Vector<File> outFiles = new Vector<File>();
+			if (srcFile == null || !srcFile.isFile()) {
+				LogAppender.error("file not exist. "+srcFile.getAbsolutePath());
+				return outFiles;
+			}
+			String ext = srcFile.getName();
+			ext = ext.substring(ext.lastIndexOf('.')+1).toLowerCase();
 			
-			////////////////////////////////
-			//各ファイルを変換処理
-			////////////////////////////////
-			for (String fileName : fileNames) {
-				LogAppender.println("--------");
-				File srcFile = new File(fileName);
-				if (srcFile == null || !srcFile.isFile()) {
-					LogAppender.error("file not exist. "+srcFile.getAbsolutePath());
-					continue;
+			//表紙設定はファイル毎に判定
+			String coverFileName = setting.coverFileName;
+			int coverImageIndex = -1;
+			if (coverFileName != null) {
+				if ("0".equals(coverFileName)) {
+					coverImageIndex = 0;
+					coverFileName = "";
+				} else if ("1".equals(coverFileName)) {
+					coverFileName = AozoraEpub3.getSameCoverFileName(srcFile); //入力ファイルと同じ名前+.jpg/.png
+				}
+			}
+			
+			//zipならzip内のテキストを検索
+			int txtCount = 1;
+			boolean imageOnly = false;
+			boolean isFile = "txt".equals(ext);
+			if("zip".equals(ext) || "txtz".equals(ext)) { 
+				StageTimer.begin(StageTimer.ARCHIVE_SCAN);
+				try {
+					txtCount = AozoraEpub3.countZipText(srcFile);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					StageTimer.end(StageTimer.ARCHIVE_SCAN);
 				}
-				String ext = srcFile.getName();
-				ext = ext.substring(ext.lastIndexOf('.')+1).toLowerCase();
+				if (txtCount == 0) { txtCount = 1; imageOnly = true; }
+			} else if("rar".equals(ext)) { 
+				StageTimer.begin(StageTimer.ARCHIVE_SCAN);
+				try {
+					txtCount = AozoraEpub3.countRarText(srcFile);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					StageTimer.end(StageTimer.ARCHIVE_SCAN);
+				}
+				if (txtCount == 0) { txtCount = 1; imageOnly = true; }
+			} else if ("cbz".equals(ext)) {
+				imageOnly = true;
+			}
+			for (int txtIdx=0; txtIdx<txtCount; txtIdx++) {
+				ImageInfoReader imageInfoReader = new ImageInfoReader(isFile, srcFile);
 				
-				int coverImageIndex = -1;
-				if (coverFileName != null) {
-					if ("0".equals(coverFileName)) {
-						coverImageIndex = 0;
-						coverFileName = "";
-					} else if ("1".equals(coverFileName)) {
-						coverFileName = AozoraEpub3.getSameCoverFileName(srcFile); //入力ファイルと同じ名前+.jpg/.png
+				BookInfo bookInfo = null;
+				if (!imageOnly) {
+					bookInfo = AozoraEpub3.getBookInfo(srcFile, ext, txtIdx, imageInfoReader, aozoraConverter, setting.encType, BookInfo.TitleType.indexOf(setting.titleIndex), false);
+					if (bookInfo == null) {
+						LogAppender.error("書籍の情報が取得できませんでした : "+srcFile.getPath());
+						continue;
 					}
+					this.setTextBookInfo(bookInfo);
 				}
 				
-				//zipならzip内のテキストを検索
-				int txtCount = 1;
-				boolean imageOnly = false;
-				boolean isFile = "txt".equals(ext);
-				if("zip".equals(ext) || "txtz".equals(ext)) { 
-					try {
-						txtCount = AozoraEpub3.countZipText(srcFile);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-					if (txtCount == 0) { txtCount = 1; imageOnly = true; }
-				} else if("rar".equals(ext)) { 
+				Epub3Writer writer = epub3Writer;
+				if (!isFile) {
+					StageTimer.begin(StageTimer.ARCHIVE_SCAN);
 					try {
-						txtCount = AozoraEpub3.countRarText(srcFile);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-					if (txtCount == 0) { txtCount = 1; imageOnly = true; }
-				} else if ("cbz".equals(ext)) {
-					imageOnly = true;
-				}
-				for (int txtIdx=0; txtIdx<txtCount; txtIdx++) {
-					ImageInfoReader imageInfoReader = new ImageInfoReader(isFile, srcFile);
-					
-					BookInfo bookInfo = null;
-					if (!imageOnly) {
-						bookInfo = AozoraEpub3.getBookInfo(srcFile, ext, txtIdx, imageInfoReader, aozoraConverter, encType, BookInfo.TitleType.indexOf(titleIndex), false);
-						bookInfo.vertical = vertical;
-						bookInfo.insertTocPage = tocPage;
-						bookInfo.setTocVertical(tocVertical);
-						bookInfo.insertTitleToc = insertTitleToc;
-						aozoraConverter.vertical = vertical;
-						//表題ページ
-						bookInfo.titlePageType = titlePage;
-					}
-					//表題の見出しが非表示で行が追加されていたら削除
-					if (!bookInfo.insertTitleToc && bookInfo.titleLine >= 0) {
-						bookInfo.removeChapterLineInfo(bookInfo.titleLine);
-					}
-					
-					Epub3Writer writer = epub3Writer;
-					if (!isFile) {
 						if ("rar".equals(ext)) {
 							imageInfoReader.loadRarImageInfos(srcFile, imageOnly);
 						} else {
 							imageInfoReader.loadZipImageInfos(srcFile, imageOnly);
 						}
-						if (imageOnly) {
-							LogAppender.println("画像のみのePubファイルを生成します");
-							//画像出力用のBookInfo生成
-							bookInfo = new BookInfo(srcFile);
-							bookInfo.imageOnly = true;
-							//Writerを画像出力用派生クラスに入れ替え
-							writer = epub3ImageWriter;
-							
-							if (imageInfoReader.countImageFileInfos() == 0) {
-								LogAppender.error("画像がありませんでした");
-								return;
-							}
-							//名前順で並び替え
-							imageInfoReader.sortImageFileNames();
-						}
+					} finally {
+						StageTimer.end(StageTimer.ARCHIVE_SCAN);
 					}
-					//先頭からの場合で指定行数以降なら表紙無し
-					if ("".equals(coverFileName)) {
-						try {
-							int maxCoverLine = Integer.parseInt(props.getProperty("MaxCoverLine"));
-							if (maxCoverLine > 0 && bookInfo.firstImageLineNum >= maxCoverLine) {
-								coverImageIndex = -1;
-								coverFileName = null;
-							}
-						} catch (Exception e) {}
-					}
-					
-					//表紙設定
-					bookInfo.insertCoverPageToc = coverPageToc;
-					bookInfo.insertCoverPage = coverPage;
-					bookInfo.coverImageIndex = coverImageIndex;
-					if (coverFileName != null && !coverFileName.startsWith("http")) {
-						File coverFile = new File(coverFileName);
-						if (!coverFile.exists()) {
-							coverFileName = srcFile.getParent()+"/"+coverFileName;
-							if (!new File(coverFileName).exists()) {
-								coverFileName = null;
-								LogAppender.println("[WARN] 表紙画像ファイルが見つかりません : "+coverFile.getAbsolutePath());
-							}
+					if (imageOnly) {
+						LogAppender.println("画像のみのePubファイルを生成します");
+						//画像出力用のBookInfo生成
+						bookInfo = new BookInfo(srcFile);
+						bookInfo.imageOnly = true;
+						//Writerを画像出力用派生クラスに入れ替え
+						writer = epub3ImageWriter;
+						
+						if (imageInfoReader.countImageFileInfos() == 0) {
+							LogAppender.error("画像がありませんでした");
+							return outFiles;
 						}
+						//名前順で並び替え
+						imageInfoReader.sortImageFileNames();
 					}
-					bookInfo.coverFileName = coverFileName;
-					
-					String[] titleCreator = BookInfo.getFileTitleCreator(srcFile.getName());
-					if (titleCreator != null) {
-						if (useFileName) {
-							if (titleCreator[0] != null && titleCreator[0].trim().length() >0) bookInfo.title = titleCreator[0];
-							if (titleCreator[1] != null && titleCreator[1].trim().length() >0) bookInfo.creator = titleCreator[1];
-						} else {
-							//テキストから取得できていない場合
-							if (bookInfo.title == null || bookInfo.title.length() == 0) bookInfo.title = titleCreator[0]==null?"":titleCreator[0];
-							if (bookInfo.creator == null || bookInfo.creator.length() == 0) bookInfo.creator = titleCreator[1]==null?"":titleCreator[1];
+				}
+				//先頭からの場合で指定行数以降なら表紙無し
+				if ("".equals(coverFileName)) {
+					try {
+						int maxCoverLine = Integer.parseInt(setting.props.getProperty("MaxCoverLine"));
+						if (maxCoverLine > 0 && bookInfo.firstImageLineNum >= maxCoverLine) {
+							coverImageIndex = -1;
+							coverFileName = null;
 						}
+					} catch (Exception e) {}
+				}
+				
+				//表紙設定
+				bookInfo.insertCoverPageToc = setting.coverPageToc;
+				bookInfo.insertCoverPage = setting.coverPage;
+				bookInfo.coverImageIndex = coverImageIndex;
+				if (coverFileName != null && !coverFileName.startsWith("http")) {
+					File coverFile = new File(coverFileName);
+					if (!coverFile.exists()) {
+						coverFileName = srcFile.getParent()+"/"+coverFileName;
+						if (!new File(coverFileName).exists()) {
+							coverFileName = null;
+							LogAppender.println("[WARN] 表紙画像ファイルが見つかりません : "+coverFile.getAbsolutePath());
+						}
+					}
+				}
+				bookInfo.coverFileName = coverFileName;
+				
+				String[] titleCreator = BookInfo.getFileTitleCreator(srcFile.getName());
+				if (titleCreator != null) {
+					if (setting.useFileName) {
+						if (titleCreator[0] != null && titleCreator[0].trim().length() >0) bookInfo.title = titleCreator[0];
+						if (titleCreator[1] != null && titleCreator[1].trim().length() >0) bookInfo.creator = titleCreator[1];
+					} else {
+						//テキストから取得できていない場合
+						if (bookInfo.title == null || bookInfo.title.length() == 0) bookInfo.title = titleCreator[0]==null?"":titleCreator[0];
+						if (bookInfo.creator == null || bookInfo.creator.length() == 0) bookInfo.creator = titleCreator[1]==null?"":titleCreator[1];
 					}
-					
-					File outFile = getOutFile(srcFile, dstPath, bookInfo, autoFileName, outExt);
-					AozoraEpub3.convertFile(
-							srcFile, ext, outFile,
-							aozoraConverter, writer,
-							encType, bookInfo, imageInfoReader, txtIdx);
+				}
+				
+				File outFile = getOutFile(srcFile, dstPath, bookInfo, setting.autoFileName, setting.outExt);
+				//出力先が同じ前の入力の変換が終わるまで待つ
+				if (this.outFileOrder != null) this.outFileOrder.await(this.fileIndex, outFile, txtIdx == txtCount-1);
+				this.setProgressMaximum(writer, bookInfo, imageInfoReader, isFile);
+				if (AozoraEpub3.convertFile(
+						srcFile, ext, outFile,
+						aozoraConverter, writer,
+						setting.encType, bookInfo, imageInfoReader, txtIdx)) {
+					outFiles.add(outFile);
 				}
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+			return outFiles;
+		}
+		
+		/** 進捗の通知先をWriterに設定 */
+		void setProgress(Progress progress)
+		{
+			epub3Writer.setProgress(progress);
+			epub3ImageWriter.setProgress(progress);
+		}
+		
+		/** Writerに進捗が設定されていればGUIと同じ最大値を設定
+		 * テキストは行数/10と画像数*10 画像のみなら画像数*11 */
+		void setProgressMaximum(Epub3Writer writer, BookInfo bookInfo, ImageInfoReader imageInfoReader, boolean isFile)
+		{
+			if (writer.progress == null) return;
+			if (bookInfo.imageOnly) writer.progress.setMaximum(imageInfoReader.countImageFileInfos()*11);
+			else if (isFile) writer.progress.setMaximum(bookInfo.totalLineNum/10 + imageInfoReader.countImageFileNames()*10);
+			else writer.progress.setMaximum(bookInfo.totalLineNum/10 + imageInfoReader.countImageFileInfos()*10);
+		}
+		
+		/** テキストの書籍情報に縦書きと目次と表題の設定を反映 */
+		void setTextBookInfo(BookInfo bookInfo)
+		{
+			bookInfo.vertical = setting.vertical;
+			bookInfo.insertTocPage = setting.tocPage;
+			bookInfo.setTocVertical(setting.tocVertical);
+			bookInfo.insertTitleToc = setting.insertTitleToc;
+			aozoraConverter.vertical = setting.vertical;
+			//表題ページ
+			bookInfo.titlePageType = setting.titlePage;
+			//表題の見出しが非表示で行が追加されていたら削除
+			if (!bookInfo.insertTitleToc && bookInfo.titleLine >= 0) {
+				bookInfo.removeChapterLineInfo(bookInfo.titleLine);
+			}
+		}
+		
+		/** Streamのテキストを変換してStreamにePubを出力
+		 * 入力はtxtのみ 前処理と変換処理用にデコードしたテキストをメモリに保持し、一時ファイルは利用しない
+		 * 挿絵と表紙の画像はカレントディレクトリからの相対パスで取得
+		 * @param out 出力先 出力後にクローズされる
+		 * @return 変換できたらtrue */
+		boolean convertStream(InputStream in, OutputStream out) throws IOException
+		{
+			//画像取得用の仮の入力ファイル
+			File srcFile = new File(new File("").getAbsoluteFile(), "stdin.txt");
+			ImageInfoReader imageInfoReader = new ImageInfoReader(true, srcFile);
+			
+			if (this.progressReport != null) this.setProgress(this.progressReport.create("-"));
+			TextLineStore textLineStore = new TextLineStore(in, setting.encType, Integer.MAX_VALUE);
+			BookInfo bookInfo = null;
+			try {
+				bookInfo = AozoraEpub3.getBookInfo(srcFile, textLineStore, imageInfoReader, aozoraConverter, BookInfo.TitleType.indexOf(setting.titleIndex), false);
+			} catch (Exception e) {
+				e.printStackTrace();
+				LogAppender.println("エラーが発生しました : "+e.getMessage());
+			}
+			if (bookInfo == null) {
+				textLineStore.close();
+				LogAppender.error("書籍の情報が取得できませんでした : -");
+				return false;
+			}
+			this.setTextBookInfo(bookInfo);
+			
+			//表紙設定 ファイル名と同じ画像は利用できない
+			String coverFileName = setting.coverFileName;
+			int coverImageIndex = -1;
+			if ("0".equals(coverFileName)) {
+				coverImageIndex = 0;
+				coverFileName = "";
+				try {
+					int maxCoverLine = Integer.parseInt(setting.props.getProperty("MaxCoverLine"));
+					if (maxCoverLine > 0 && bookInfo.firstImageLineNum >= maxCoverLine) {
+						coverImageIndex = -1;
+						coverFileName = null;
+					}
+				} catch (Exception e) {}
+			} else if ("1".equals(coverFileName)) {
+				coverFileName = null;
+			} else if (coverFileName != null && !coverFileName.startsWith("http") && !new File(coverFileName).exists()) {
+				LogAppender.println("[WARN] 表紙画像ファイルが見つかりません : "+new File(coverFileName).getAbsolutePath());
+				coverFileName = null;
+			}
+			bookInfo.insertCoverPageToc = setting.coverPageToc;
+			bookInfo.insertCoverPage = setting.coverPage;
+			bookInfo.coverImageIndex = coverImageIndex;
+			bookInfo.coverFileName = coverFileName;
+			
+			try {
+				long time = System.currentTimeMillis();
+				LogAppender.println("変換開始 : -");
+				this.setProgressMaximum(epub3Writer, bookInfo, imageInfoReader, true);
+				//ePub書き出し srcは中でクローズされる
+				epub3Writer.write(aozoraConverter, textLineStore.getReader(), srcFile, "txt", out, bookInfo, imageInfoReader);
+				LogAppender.println("変換完了["+(((System.currentTimeMillis()-time)/100)/10f)+"s] : -");
+				return true;
+			} catch (Exception e) {
+				e.printStackTrace();
+				LogAppender.println("エラーが発生しました : "+e.getMessage());
+			} finally {
+				textLineStore.close();
+				bookInfo.textLineStore = null;
+			}
+			return false;
+		}
+	}
+	
+	/** 処理時間をJSON Lines形式で出力
+	 * ファイル毎に1行 {"type":"file", "file":"入力ファイル", "outFiles":[...], "timing":{...}}
+	 * 終了時に合計を1行 {"type":"total", "timing":{...}} */
+	static class TimingReport
+	{
+		Writer out;
+		/** 全ファイルの合計 */
+		StageTimer total = new StageTimer();
+		
+		TimingReport(File file) throws IOException
+		{
+			this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		}
+		
+		/** 1ファイル分の処理時間を出力して合計に加算 */
+		synchronized void add(File srcFile, Vector<File> outFiles, StageTimer timer)
+		{
+			this.total.add(timer);
+			StringBuilder buf = new StringBuilder();
+			buf.append("{\"type\":\"file\",\"file\":");
+			JsonUtils.appendQuoted(buf, srcFile.getPath());
+			buf.append(",\"outFiles\":[");
+			if (outFiles != null) {
+				for (int i=0; i<outFiles.size(); i++) {
+					if (i > 0) buf.append(',');
+					JsonUtils.appendQuoted(buf, outFiles.get(i).getPath());
+				}
+			}
+			buf.append("],\"timing\":");
+			timer.appendJson(buf);
+			buf.append("}\n");
+			try {
+				this.out.write(buf.toString());
+				this.out.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		/** 合計を出力して閉じる */
+		synchronized void close() throws IOException
+		{
+			StringBuilder buf = new StringBuilder();
+			buf.append("{\"type\":\"total\",\"timing\":");
+			this.total.appendJson(buf);
+			buf.append("}\n");
+			this.out.write(buf.toString());
+			this.out.close();
+		}
+	}
+	
+	/** 変換の進捗をJSON Lines形式で出力
+	 * 進捗の更新毎に1行 {"type":"progress", "file":"入力ファイル", "value":10, "max":100}
+	 * 出力はProgressで間引かれる */
+	static class ProgressReport
+	{
+		PrintStream out;
+		
+		ProgressReport(PrintStream out)
+		{
+			this.out = out;
+		}
+		
+		/** 入力ファイル毎の進捗を生成 */
+		Progress create(final String fileName)
+		{
+			return new Progress(new ProgressListener() {
+				@Override
+				public void progressChanged(int value, int maximum)
+				{
+					print(fileName, value, maximum);
+				}
+			});
+		}
+		
+		void print(String fileName, int value, int maximum)
+		{
+			StringBuilder buf = new StringBuilder();
+			buf.append("{\"type\":\"progress\",\"file\":");
+			JsonUtils.appendQuoted(buf, fileName);
+			buf.append(",\"value\":").append(value);
+			buf.append(",\"max\":").append(maximum);
+			buf.append("}\n");
+			synchronized (this.out) {
+				this.out.print(buf.toString());
+				this.out.flush();
+			}
 		}
 	}
 	
@@ -471,15 +1048,25 @@ public class AozoraEpub3
 	static public BookInfo getBookInfo(File srcFile, String ext, int txtIdx, ImageInfoReader imageInfoReader, AozoraEpub3Converter aozoraConverter,
 			String encType, BookInfo.TitleType titleType, boolean pubFirst)
 	{
+		StageTimer.begin(StageTimer.BOOK_INFO);
 		try {
 			String[] textEntryName = new String[1];
-			InputStream is = AozoraEpub3.getTextInputStream(srcFile, ext, imageInfoReader, textEntryName, txtIdx);
-			if (is == null) return null;
+			//デコードしたテキストを保持して変換処理でも利用する
+			TextLineStore textLineStore;
+			if ("txt".equals(ext)) {
+				//ローカルのテキストはメモリマップしてデコード
+				textLineStore = new TextLineStore(srcFile, encType);
+			} else {
+				InputStream is = AozoraEpub3.getTextInputStream(srcFile, ext, imageInfoReader, textEntryName, txtIdx);
+				if (is == null) return null;
+				try {
+					textLineStore = new TextLineStore(is, encType);
+				} finally {
+					is.close();
+				}
+			}
 			
-			//タイトル、画像注記、左右中央注記、目次取得
-			BufferedReader src = new BufferedReader(new InputStreamReader(is, (String)encType));
-			BookInfo bookInfo = aozoraConverter.getBookInfo(srcFile, src, imageInfoReader, titleType, pubFirst);
-			is.close();
+			BookInfo bookInfo = getBookInfo(srcFile, textLineStore, imageInfoReader, aozoraConverter, titleType, pubFirst);
 			bookInfo.textEntryName = textEntryName[0];
 			return bookInfo;
 			
@@ -487,14 +1074,33 @@ public class AozoraEpub3
 			e.printStackTrace();
 			LogAppender.append("エラーが発生しました : ");
 			LogAppender.println(e.getMessage());
+		} finally {
+			StageTimer.end(StageTimer.BOOK_INFO);
 		}
 		return null;
 	}
 	
+	/** デコード済みのテキストからタイトル、画像注記、左右中央注記、目次を取得
+	 * textLineStoreはBookInfoに設定されて変換処理で利用される */
+	static public BookInfo getBookInfo(File srcFile, TextLineStore textLineStore, ImageInfoReader imageInfoReader, AozoraEpub3Converter aozoraConverter,
+			BookInfo.TitleType titleType, boolean pubFirst) throws Exception
+	{
+		BufferedReader src = textLineStore.getReader();
+		BookInfo bookInfo;
+		try {
+			bookInfo = aozoraConverter.getBookInfo(srcFile, src, imageInfoReader, titleType, pubFirst);
+		} finally {
+			src.close();
+		}
+		bookInfo.textLineStore = textLineStore;
+		return bookInfo;
+	}
+	
 	/** ファイルを変換
 	 * @param srcFile 変換するファイル
-	 * @param dstPath 出力先パス */
-	static public void convertFile(File srcFile, String ext, File outFile, AozoraEpub3Converter aozoraConverter, Epub3Writer epubWriter,
+	 * @param dstPath 出力先パス
+	 * @return 変換できたらtrue */
+	static public boolean convertFile(File srcFile, String ext, File outFile, AozoraEpub3Converter aozoraConverter, Epub3Writer epubWriter,
 			String encType, BookInfo bookInfo, ImageInfoReader imageInfoReader, int txtIdx)
 	{
 		try {
@@ -502,10 +1108,11 @@ public class AozoraEpub3
 			LogAppender.append("変換開始 : ");
 			LogAppender.println(srcFile.getPath());
 			
-			//入力Stream再オープン
+			//前処理で読み込んだテキストを利用 なければ入力Stream再オープン
 			BufferedReader src = null;
 			if (!bookInfo.imageOnly) {
-				src = new BufferedReader(new InputStreamReader(getTextInputStream(srcFile, ext, null, null, txtIdx), encType));
+				if (bookInfo.textLineStore != null) src = bookInfo.textLineStore.getReader();
+				else src = new BufferedReader(TextLineStore.createReader(getTextInputStream(srcFile, ext, null, null, txtIdx), encType));
 			}
 			
 			//ePub書き出し srcは中でクローズされる
@@ -513,12 +1120,20 @@ public class AozoraEpub3
 			
 			LogAppender.append("変換完了["+(((System.currentTimeMillis()-time)/100)/10f)+"s] : ");
 			LogAppender.println(outFile.getPath());
+			return true;
 			
 		} catch (Exception e) {
 			e.printStackTrace();
 			LogAppender.println("エラーが発生しました : "+e.getMessage());
 			//LogAppender.printStaclTrace(e);
+		} finally {
+			//保持していたテキストを破棄
+			if (bookInfo.textLineStore != null) {
+				bookInfo.textLineStore.close();
+				bookInfo.textLineStore = null;
+			}
 		}
+		return false;
 	}
 	
 	/** 入力ファイルからStreamオープン
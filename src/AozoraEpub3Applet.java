@@ -104,6 +104,8 @@ import com.github.hmdev.swing.JConfirmDialog;
 import com.github.hmdev.swing.JProfileDialog;
 import com.github.hmdev.swing.NarrowTitledBorder;
 import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.Progress;
+import com.github.hmdev.util.ProgressListener;
 import com.github.hmdev.web.WebAozoraConverter;
 import com.github.hmdev.writer.Epub3ImageWriter;
 import com.github.hmdev.writer.Epub3Writer;
@@ -343,6 +345,8 @@ public class AozoraEpub3Applet extends JApplet
 	
 	//プログレスバー
 	JProgressBar jProgressBar;
+	/** 変換処理からの進捗 プログレスバーに反映 */
+	Progress progress;
 	JButton jButtonCancel;
 	
 	/** 出力先選択ダイアログ表示イベントactionPerformed(null)で明示的に呼び出す。 */
@@ -886,8 +890,8 @@ public class AozoraEpub3Applet extends JApplet
 		label = new JLabel("入力文字コード");
 		label.setBorder(padding0);
 		panel1.add(label);
-		jComboEncType = new JComboBox(new String[]{"MS932", "UTF-8"});
-		jComboEncType.setToolTipText("入力ファイルのテキストファイルの文字コード。青空文庫の標準はMS932(SJIS)です");
+		jComboEncType = new JComboBox(new String[]{"MS932", "UTF-8", "AUTO"});
+		jComboEncType.setToolTipText("入力ファイルのテキストファイルの文字コード。青空文庫の標準はMS932(SJIS)です。AUTOはUTF-8として正しければUTF-8、それ以外はMS932。BOMがあればBOMの文字コード");
 		jComboEncType.setFocusable(false);
 		jComboEncType.setPreferredSize(new Dimension(100, 22));
 		panel1.add(jComboEncType);
@@ -2358,11 +2362,26 @@ public class AozoraEpub3Applet extends JApplet
 		//初期化
 		try {
 			//ePub出力クラス初期化
+			//進捗は変換処理のスレッドから間引いて通知されるのでイベントディスパッチスレッドでプログレスバーに反映
+			this.progress = new Progress(new ProgressListener() {
+				@Override
+				public void progressChanged(final int value, final int maximum)
+				{
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run()
+						{
+							jProgressBar.setMaximum(maximum);
+							jProgressBar.setValue(value);
+						}
+					});
+				}
+			});
 			this.epub3Writer = new Epub3Writer(this.jarPath+"template/");
-			this.epub3Writer.setProgressBar(jProgressBar);
+			this.epub3Writer.setProgress(this.progress);
 			//ePub画像出力クラス初期化
 			this.epub3ImageWriter = new Epub3ImageWriter(this.jarPath+"template/");
-			this.epub3ImageWriter.setProgressBar(jProgressBar);
+			this.epub3ImageWriter.setProgress(this.progress);
 			
 			//変換テーブルをstaticに生成
 			this.aozoraConverter = new AozoraEpub3Converter(this.epub3Writer, this.jarPath);
@@ -3492,8 +3511,7 @@ public class AozoraEpub3Applet extends JApplet
 					//	bookInfo.coverImage = imageInfoReader.getImage(0);
 					//}
 					//画像数をプログレスバーに設定 xhtml出力で+1 画像出力で+10
-					this.jProgressBar.setMaximum(imageInfoReader.countImageFileInfos()*11);
-					jProgressBar.setValue(0);
+					this.progress.setMaximum(imageInfoReader.countImageFileInfos()*11);
 					jProgressBar.setStringPainted(true);
 				} else {
 					//画像がなければプレビュー表示しないようにindexを-1に
@@ -3515,9 +3533,8 @@ public class AozoraEpub3Applet extends JApplet
 		
 		//テキストなら行数/100と画像数をプログレスバーに設定
 		if (bookInfo.totalLineNum > 0) {
-			if (isFile) this.jProgressBar.setMaximum(bookInfo.totalLineNum/10 + imageInfoReader.countImageFileNames()*10);
-			else this.jProgressBar.setMaximum(bookInfo.totalLineNum/10 + imageInfoReader.countImageFileInfos()*10);
-			jProgressBar.setValue(0);
+			if (isFile) this.progress.setMaximum(bookInfo.totalLineNum/10 + imageInfoReader.countImageFileNames()*10);
+			else this.progress.setMaximum(bookInfo.totalLineNum/10 + imageInfoReader.countImageFileInfos()*10);
 			jProgressBar.setStringPainted(true);
 		}
 		
@@ -0,0 +1,314 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.hmdev.util.JsonUtils;
+import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.Progress;
+import com.github.hmdev.util.ProgressListener;
+import com.github.hmdev.util.StageTimer;
+
+/** 常駐変換サーバ
+ * 変換テーブルとテンプレートを読み込んだまま保持し、JSON Lines形式のジョブを処理する
+ * 標準入力からの入力と、127.0.0.1の指定ポートへの接続で受け付ける
+ *
+ * ジョブ 1行1ジョブ
+ * {"id":"1", "file":"入力ファイル", "dst":"出力先パス", "ini":"プリセットのiniファイル", "enc":"UTF-8", "PageBreak":"1", ...}
+ * id,file,dst,ini,progress以外のキーはコマンドラインオプション名(t,tf,c,enc,ext,of,hor,device,inc)かiniファイルのキーとして扱う
+ * "progress":"1" を指定すると変換中に進捗を応答する
+ * 制御コマンド {"cmd":"ping"} {"cmd":"shutdown"}
+ *
+ * 応答 ジョブ終了毎に1行
+ * {"id":"1", "status":"ok", "time":0.12, "outFiles":["出力ファイル"], "timing":{段階毎の処理時間}, "log":"変換ログ"}
+ * 進捗 progress指定時のみ 秒間20回まで
+ * {"id":"1", "status":"progress", "value":10, "max":100} */
+public class AozoraEpub3Server
+{
+	/** ジョブのキーでiniのキーとして扱わないもの */
+	final static String[] JOB_KEYS = {"id", "cmd", "file", "dst", "ini", "progress"};
+	/** コマンドラインオプションと同じ名前のキー */
+	final static String[] OPTION_KEYS = {"t", "tf", "c", "enc", "ext", "of", "hor", "device", "inc", "sectionThreads"};
+	
+	/** jarファイルのパス テンプレートと変換テーブルの読み込み元 */
+	String jarPath;
+	/** 起動時に読み込んだini ジョブ毎にコピーして上書き */
+	Properties baseProps;
+	/** 起動時のコマンドラインオプション */
+	Map<String, String> baseOptions;
+	/** 起動時の出力先パス ジョブで指定がない場合に利用 */
+	File baseDstPath;
+	
+	/** ジョブ実行用 */
+	ExecutorService executor;
+	
+	/** 受付中のServerSocket */
+	ServerSocket serverSocket = null;
+	/** 終了要求があったらtrue */
+	volatile boolean shutdown = false;
+	
+	HashSet<String> jobKeys = new HashSet<String>();
+	HashSet<String> optionKeys = new HashSet<String>();
+	
+	/** サーバ初期化
+	 * @param threads 同時に実行するジョブ数 */
+	public AozoraEpub3Server(String jarPath, Properties baseProps, Map<String, String> baseOptions, File baseDstPath, int threads)
+	{
+		this.jarPath = jarPath;
+		this.baseProps = baseProps;
+		this.baseOptions = baseOptions;
+		this.baseDstPath = baseDstPath;
+		this.executor = Executors.newFixedThreadPool(threads);
+		for (String key : JOB_KEYS) jobKeys.add(key);
+		for (String key : OPTION_KEYS) optionKeys.add(key);
+	}
+	
+	/** 変換テーブルとテンプレートエンジンを初期化
+	 * 初期化時のログは標準エラーに出力 */
+	public void warmUp() throws IOException
+	{
+		LogAppender.startBuffer();
+		try {
+			new AozoraEpub3.ConvertWorker(this.createSetting(this.baseProps, new LinkedHashMap<String, String>()), this.jarPath);
+		} finally {
+			System.err.print(LogAppender.endBuffer());
+		}
+	}
+	
+	/** 標準入力のジョブを処理して応答を標準出力に出力 入力の終わりかshutdownで終了 */
+	public void serveStdin() throws IOException, InterruptedException
+	{
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+			this.serve(in, out);
+		} finally {
+			this.executor.shutdown();
+		}
+	}
+	
+	/** 127.0.0.1の指定ポートで接続を受け付ける 接続毎にジョブを処理 shutdownで終了 */
+	public void serveSocket(int port) throws IOException
+	{
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		System.err.println("AozoraEpub3 server : 127.0.0.1:"+this.serverSocket.getLocalPort());
+		ExecutorService sessionExecutor = Executors.newCachedThreadPool();
+		try {
+			while (!this.shutdown) {
+				final Socket socket;
+				try {
+					socket = this.serverSocket.accept();
+				} catch (IOException e) {
+					if (this.shutdown) break;
+					throw e;
+				}
+				sessionExecutor.execute(new Runnable() {
+					public void run()
+					{
+						try {
+							try {
+								BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+								Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+								serve(in, out);
+							} finally {
+								socket.close();
+							}
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				});
+			}
+		} finally {
+			sessionExecutor.shutdown();
+			this.executor.shutdown();
+			if (!this.serverSocket.isClosed()) this.serverSocket.close();
+		}
+	}
+	
+	/** 1つの入力のジョブを処理 ジョブは並列実行されるので応答は終了順
+	 * 入力が終わったら全ジョブの終了を待って戻る */
+	void serve(BufferedReader in, final Writer out) throws IOException, InterruptedException
+	{
+		Vector<Future<?>> futures = new Vector<Future<?>>();
+		String line;
+		while (!this.shutdown && (line = in.readLine()) != null) {
+			if (line.trim().length() == 0) continue;
+			final Map<String, String> job;
+			try {
+				job = JsonUtils.parseObject(line);
+			} catch (IllegalArgumentException e) {
+				this.writeResponse(out, null, "error", "invalid json : "+e.getMessage(), null, 0, null, null);
+				continue;
+			}
+			final String id = job.get("id");
+			String cmd = job.get("cmd");
+			if (cmd != null) {
+				if ("ping".equals(cmd)) {
+					this.writeResponse(out, id, "ok", null, null, 0, null, null);
+				} else if ("shutdown".equals(cmd)) {
+					this.shutdown = true;
+					if (this.serverSocket != null) this.serverSocket.close();
+					this.writeResponse(out, id, "ok", null, null, 0, null, null);
+				} else {
+					this.writeResponse(out, id, "error", "unknown cmd : "+cmd, null, 0, null, null);
+				}
+				continue;
+			}
+			futures.add(this.executor.submit(new Runnable() {
+				public void run()
+				{
+					long time = System.currentTimeMillis();
+					Vector<File> outFiles = new Vector<File>();
+					String error = null;
+					LogAppender.setJobId(id);
+					LogAppender.startBuffer();
+					StageTimer timer = new StageTimer();
+					timer.start();
+					try {
+						outFiles = runJob(job, out);
+						if (outFiles.size() == 0) error = "no output";
+					} catch (Exception e) {
+						e.printStackTrace();
+						error = e.getMessage();
+						if (error == null) error = e.toString();
+					} finally {
+						timer.stop();
+					}
+					String log = LogAppender.endBuffer();
+					LogAppender.setJobId(null);
+					try {
+						writeResponse(out, id, error==null?"ok":"error", error, outFiles, System.currentTimeMillis()-time, timer, log);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			try { future.get(); } catch (Exception e) { e.printStackTrace(); }
+		}
+	}
+	
+	/** ジョブを実行
+	 * @param out 進捗の応答の出力先
+	 * @return 出力したファイル */
+	Vector<File> runJob(final Map<String, String> job, final Writer out) throws Exception
+	{
+		String fileName = job.get("file");
+		if (fileName == null) throw new IllegalArgumentException("file not specified");
+		File dstPath = this.baseDstPath;
+		if (job.get("dst") != null) {
+			dstPath = new File(job.get("dst"));
+			if (!dstPath.isDirectory()) throw new IOException("dst path not exist. "+dstPath.getAbsolutePath());
+		}
+		//起動時のiniにプリセットとジョブの設定を上書き
+		Properties props = new Properties();
+		props.putAll(this.baseProps);
+		if (job.get("ini") != null) {
+			File iniFile = new File(job.get("ini"));
+			if (!iniFile.isFile()) throw new IOException("ini file not exist. "+iniFile.getAbsolutePath());
+			FileInputStream fis = new FileInputStream(iniFile);
+			try { props.load(fis); } finally { fis.close(); }
+		}
+		LinkedHashMap<String, String> options = new LinkedHashMap<String, String>(this.baseOptions);
+		for (Map.Entry<String, String> entry : job.entrySet()) {
+			String key = entry.getKey();
+			if (this.jobKeys.contains(key)) continue;
+			if (this.optionKeys.contains(key)) options.put(key, entry.getValue());
+			else if (entry.getValue() == null) props.remove(key);
+			else props.setProperty(key, entry.getValue());
+		}
+		AozoraEpub3.ConvertWorker worker = new AozoraEpub3.ConvertWorker(this.createSetting(props, options), this.jarPath);
+		if ("1".equals(job.get("progress"))) {
+			worker.setProgress(new Progress(new ProgressListener() {
+				@Override
+				public void progressChanged(int value, int maximum)
+				{
+					try {
+						writeProgress(out, job.get("id"), value, maximum);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}));
+		}
+		return worker.convertFile(new File(fileName), dstPath);
+	}
+	
+	/** iniとオプションから変換設定を生成 */
+	AozoraEpub3.ConvertSetting createSetting(Properties props, Map<String, String> options)
+	{
+		AozoraEpub3.ConvertSetting setting = new AozoraEpub3.ConvertSetting(props);
+		for (Map.Entry<String, String> entry : options.entrySet()) {
+			setting.setOption(entry.getKey(), entry.getValue());
+		}
+		return setting;
+	}
+	
+	/** 進捗の応答を1行出力 */
+	void writeProgress(Writer out, String id, int value, int maximum) throws IOException
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("{\"id\":");
+		JsonUtils.appendQuoted(buf, id);
+		buf.append(",\"status\":\"progress\",\"value\":").append(value);
+		buf.append(",\"max\":").append(maximum);
+		buf.append("}\n");
+		synchronized (out) {
+			out.write(buf.toString());
+			out.flush();
+		}
+	}
+	
+	/** 応答を1行出力 */
+	void writeResponse(Writer out, String id, String status, String error, Vector<File> outFiles, long time, StageTimer timer, String log) throws IOException
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("{\"id\":");
+		JsonUtils.appendQuoted(buf, id);
+		buf.append(",\"status\":");
+		JsonUtils.appendQuoted(buf, status);
+		if (error != null) {
+			buf.append(",\"error\":");
+			JsonUtils.appendQuoted(buf, error);
+		}
+		if (outFiles != null) {
+			buf.append(",\"time\":").append((time/10)/100f);
+			buf.append(",\"outFiles\":[");
+			for (int i=0; i<outFiles.size(); i++) {
+				if (i > 0) buf.append(',');
+				JsonUtils.appendQuoted(buf, outFiles.get(i).getPath());
+			}
+			buf.append(']');
+		}
+		if (timer != null) {
+			buf.append(",\"timing\":");
+			timer.appendJson(buf);
+		}
+		if (log != null) {
+			buf.append(",\"log\":");
+			JsonUtils.appendQuoted(buf, log);
+		}
+		buf.append("}\n");
+		synchronized (out) {
+			out.write(buf.toString());
+			out.flush();
+		}
+	}
+}
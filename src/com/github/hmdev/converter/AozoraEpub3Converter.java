@@ -3,12 +3,17 @@ package com.github.hmdev.converter;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,14 +22,17 @@ import com.github.hmdev.info.BookInfo;
 import com.github.hmdev.info.BookInfo.TitleType;
 import com.github.hmdev.info.ChapterLineInfo;
 import com.github.hmdev.info.ImageInfo;
+import com.github.hmdev.info.LineInfoMap;
 import com.github.hmdev.util.CharUtils;
+import com.github.hmdev.util.GapBuffer;
 import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.StageTimer;
 import com.github.hmdev.writer.Epub3Writer;
 
 /**
  * 青空文庫テキストをePub3形式のXHTMLに変換
  */
-public class AozoraEpub3Converter
+public class AozoraEpub3Converter implements Cloneable
 {
 	//---------------- Properties ----------------//
 	/** UTF-8以外の文字を代替文字に変換 */
@@ -128,8 +136,35 @@ public class AozoraEpub3Converter
 	/** 目次抽出パターン */
 	Pattern chapterPattern;
 	
+	/** 有効な目次の自動抽出規則の判定処理 抽出しないならnull */
+	ChapterMatcher chapterMatcher = null;
+	
 	boolean canceled = false;
 	
+	/** 1冊の本文を改ページ位置で分割して並列変換するスレッド数 1なら分割しない */
+	int sectionThreads = 1;
+	/** 並列変換で分割する範囲の最小文字数 */
+	final static int SECTION_SPLIT_LENGTH = 262144;
+	
+	/** 本文の並列変換用の共有スレッドプール 最初の利用時に生成
+	 * 複数ファイルを同時に変換する場合も全体のスレッド数はCPU数まで */
+	static ExecutorService sectionExecutor = null;
+	
+	static synchronized ExecutorService getSectionExecutor()
+	{
+		if (sectionExecutor == null) {
+			sectionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "SectionConverter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sectionExecutor;
+	}
+	
 	//---------------- Chapter Infos ----------------//
 	//TODO パターンはファイルまたは設定から読み込む
 	/** 章の数値文字パターン */
@@ -154,308 +189,57 @@ public class AozoraEpub3Converter
 	/** 章の注記と目次階層レベル指定 大見出し 中見出し 小見出し 見出し */
 	HashMap<String, Integer> chapterChukiMap = null;
 	
-	//---------------- Flags Variables ----------------//
-	/** 字下げ 字下げ開始した行番号を入れておく */
-	int inJisage = -1;
-	/** 横組み内 */
-	boolean inYoko = false;
-	
-	/** 自動縦中横抑止開始 */
-	HashSet<Integer> noTcyStart = new HashSet<Integer>();
-	/** 自動縦中横抑止終了 */
-	HashSet<Integer> noTcyEnd = new HashSet<Integer>();
-	
 	//---------------- パターン ----------------//
 	/** 注記パターン */
 	final static Pattern chukiPattern = Pattern.compile("(［＃.+?］)|(<.+?>)");
-	/** 外字注記パターン */
-	final static Pattern gaijiChukiPattern = Pattern.compile("(※［＃.+?］)|(〔.+?〕)|(／″?＼)");
-	/** 前方参照注記パターン ［＃「○○」は～］ 注記内に注記があったら途中までしかマッチしないので外字変換と除外処理をしておく */
-	final static Pattern chukiSufPattern = Pattern. compile("［＃「([^］]+)」([^」|^］]+)］");
-	/** 前方参照注記パターン2 ［＃「○○」に「××」の注記］ */
-	final static Pattern chukiSufPattern2 = Pattern. compile("［＃「([^］]+)」([^」|^］]*「[^」|^］]+」[^」|^］]*)］");
 	
 	/** 先頭注記内側のパターン */
 	final static Pattern chukiLeftPattern = Pattern.compile("^［＃(.+?)］");
+	/** ファイル名を含む画像注記のパターン */
+	final static Pattern imageChukiPattern = Pattern.compile("^［＃.*（.+\\..+");
 	/** ファイル名 [著作者] 表題.txt から抽出するパターン */
 	final static Pattern fileNamePattern = Pattern.compile("\\[(.+?)\\]( |　)*(.+?)(\\(|（|\\.)");
 	
 	//---------------- 変換用テーブル ----------------//
-	/** 変換関連が初期化済みならtrue */
-	static boolean inited = false;
-	
-	/** 注記→タグ変換用
-	 * key=注記文字列 (［＃］除外)
-	 * value= { 置換文字列, 行末追加文字列 } */
-	static HashMap<String, String[]> chukiMap = new HashMap<String, String[]>();
-	
-	/** 注記フラグ 改行なし key = 注記名 */
-	static HashSet<String> chukiFlagNoBr = new HashSet<String>();
-	/** 注記フラグ 圏点開始 key = 注記名 */
-	static HashSet<String> chukiFlagNoRubyStart = new HashSet<String>();
-	/** 注記フラグ 圏点終了 key = 注記名 */
-	static HashSet<String> chukiFlagNoRubyEnd = new HashSet<String>();
-	/** 注記フラグ 改ページ処理 key = 注記名 */
-	public static HashSet<String> chukiFlagPageBreak = new HashSet<String>();
-	/** 注記フラグ 左右中央 key = 注記名 */
-	static HashSet<String> chukiFlagMiddle = new HashSet<String>();
-	/** 注記フラグ ページ左 key = 注記名 */
-	static HashSet<String> chukiFlagBottom = new HashSet<String>();
-	/** 注記フラグ 訓点・返り点 key = 注記名 */
-	static HashSet<String> chukiKunten = new HashSet<String>();
+	/** 注記と外字の変換テーブル 複数の変換処理で共有 */
+	final ConversionTables tables;
 	
 	/** 注記を返す 画像のみの出力用 */
 	public String[] getChukiValue(String key)
 	{
-		return chukiMap.get(key);
+		return this.tables.getChukiMap().get(key);
 	}
 	
-	/** 後述注記→タグ変換用
-	 * key=注記文字列 (「」内削除)
-	 * value= { 前タグ, 後タグ } */
-	static HashMap<String, String[]> sufChukiMap = new HashMap<String, String[]>();
-	
-	static HashMap<String, Pattern> chukiPatternMap = new HashMap<String, Pattern>();
-	
-	/** 文字置換マップ */
-	static HashMap<Character, String> replaceMap = null;
-	/** 文字置換マップ 2文字用 */
-	static HashMap<String, String> replace2Map = null;
-	
-	/** U+FFFF以前の文字の外字フォントパス文字列 */
-	static HashMap<Integer, String> utf16FontMap = null;
-	/** U+20000以降の文字の外字フォントパス文字列 */
-	static HashMap<Integer, String> utf32FontMap = null;
-	/** IVS付きのU+FFFF以前の文字の外字フォントパス文字列 */
-	static HashMap<String, String> ivs16FontMap = null;
-	/** IVS付きのU+20000以降の文字の外字フォントパス文字列 */
-	static HashMap<String, String> ivs32FontMap = null;
-	
-	/** 「基本ラテン文字のみによる拡張ラテン文字Aの分解表記」の変換クラス */
-	static LatinConverter latinConverter;
-	
-	/** 外字注記タグをUTF-8・グリフタグ・代替文字に変換するクラス */
-	static AozoraGaijiConverter gaijiConverter;
-	
 	/** Epub圧縮出力用クラス */
 	Epub3Writer writer;
 	
 	////////////////////////////////
 	// 変換前に初期化すること
-	/** BookInfo */
-	BookInfo bookInfo;
 	/** 縦書き用変換 bookInfo.verticalと同じ */
 	public boolean vertical;
 	
-	/** 現在処理中の行番号 */
-	public int lineNum;
-	
-	//セクション毎に初期化
-	/** 改ページ後の文字数 */
-	int pageByteSize;
-	/** セクション内の文字数(変換前の注記タグ含む) 空ページチェック用 */
-	int sectionCharLength;
-	/** 栞用ID連番 xhtml内連番 */
-	int lineIdNum;
-	/** タグの階層 */
-	int tagLevel = 0;
-	
-	/** 画像の次の行にキャプション指定有り */
-	boolean nextLineIsCaption = false;
-	/** キャプション出力中で画像タグが閉じていないならtrue */
-	boolean inImageTag = false;
-	
-	////////////////////////////////
-	//改ページトリガ ファイル名は入れ替えて利用する
-	/** 改ページ通常 */
-	final static PageBreakType pageBreakNormal = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_NONE);
-	/** 改ページ左右中央 */
-	final static PageBreakType pageBreakMiddle = new PageBreakType(true, PageBreakType.PAGE_MIDDLE, PageBreakType.IMAGE_PAGE_NONE);
-	/** 改ページ左 */
-	final static PageBreakType pageBreakBottom = new PageBreakType(true, PageBreakType.PAGE_BOTTOM, PageBreakType.IMAGE_PAGE_NONE);
-	/** 改ページ画像単一ページ サイズに応じて自動調整 */
-	final static PageBreakType pageBreakImageAuto = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_AUTO);
-	/** 改ページ画像単一ページ 幅100% */
-	final static PageBreakType pageBreakImageW = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_W);
-	/** 改ページ画像単一ページ 高さ100% */
-	final static PageBreakType pageBreakImageH = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_H);
-	/** 改ページ画像単一ページ 拡大しない */
-	final static PageBreakType pageBreakImageNoFit = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_NOFIT);
-	/** 改ページ「底本：」の前 */
-	final static PageBreakType pageBreakNoChapter = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_NONE, true);
+	/** 変換処理中の状態 */
+	ConversionContext context = new ConversionContext();
 	
 	/** 見出し仮対応出力用
 	 * 章の最初の本文をsetChapterNameでセットしたらtrue */
 	//boolean chapterStarted = true;
 	
 	/** コンストラクタ
-	 * 変換テーブルやクラスがstaticで初期化されていなければ初期化
+	 * 変換テーブルが読み込まれていなければ読み込む
 	 * @param _msgBuf ログ出力用バッファ
 	 * @throws IOException */
 	public AozoraEpub3Converter(Epub3Writer writer, String jarPath) throws IOException
+	{
+		this(writer, ConversionTables.getTables(jarPath, new File(writer.getGaijiFontPath())));
+	}
+	
+	/** コンストラクタ
+	 * 読み込み済みの変換テーブルを共有する 並列変換時は変換処理毎にEpub3Writerとこのクラスを生成する */
+	public AozoraEpub3Converter(Epub3Writer writer, ConversionTables tables)
 	{
 		this.writer = writer;
-		
-		//初期化されていたら終了
-		if (inited) return;
-		
-		//拡張ラテン変換
-		latinConverter = new LatinConverter(new File(jarPath+"chuki_latin.txt"));
-		
-		gaijiConverter = new AozoraGaijiConverter(jarPath);
-		
-		//注記タグ変換
-		File chukiTagFile = new File(jarPath+"chuki_tag.txt");
-		BufferedReader src = new BufferedReader(new InputStreamReader(new FileInputStream(chukiTagFile), "UTF-8"));
-		String line;
-		int lineNum = 0;
-		try {
-			while ((line = src.readLine()) != null) {
-				lineNum++;
-				if (line.length() > 0 && line.charAt(0)!='#') {
-					try {
-						String[] values = line.split("\t");
-						//タグ取得 3列目は行末タグ
-						String[] tags;
-						if (values.length == 1) tags = new String[]{""};
-						else if (values.length > 2 && values[2].length() > 0) tags = new String[]{values[1], values[2]};
-						else tags = new String[]{values[1]};
-						chukiMap.put(values[0], tags);
-						//注記フラグ
-						if (values.length > 3 && values[3].length() > 0) {
-							switch (values[3].charAt(0)) {
-							case '1': chukiFlagNoBr.add(values[0]); break;
-							case '2': chukiFlagNoRubyStart.add(values[0]); break;
-							case '3': chukiFlagNoRubyEnd.add(values[0]); break;
-							case 'P': chukiFlagPageBreak.add(values[0]); break;
-							case 'M': chukiFlagPageBreak.add(values[0]); chukiFlagMiddle.add(values[0]); break;
-							case 'K': chukiKunten.add(values[0]); break;
-							case 'L': chukiFlagPageBreak.add(values[0]); chukiFlagBottom.add(values[0]); break;
-							}
-						}
-						
-					} catch (Exception e) {
-						LogAppender.error(lineNum, chukiTagFile.getName(), line);
-					}
-				}
-			}
-		} finally {
-			src.close();
-		}
-		//TODO パターンとprintfのFormatを設定ファイルから読み込みできるようにする (printfの引数の演算処理はフラグで切り替え？)
-		chukiPatternMap.put("折り返し", Pattern.compile("^［＃ここから([０-９]+)字下げ、折り返して([０-９]+)字下げ(.*)］"));
-		chukiPatternMap.put("字下げ字詰め", Pattern.compile("^［＃ここから([０-９]+)字下げ、([０-９]+)字詰め.*］"));
-		chukiPatternMap.put("字下げ複合", Pattern.compile("^［＃ここから([０-９]+)字下げ.*］"));
-		chukiPatternMap.put("字下げ終わり複合", Pattern.compile("^［＃ここで字下げ.*終わり"));
-		
-		//前方参照注記
-		File chukiSufFile = new File(jarPath+"chuki_tag_suf.txt");
-		src = new BufferedReader(new InputStreamReader(new FileInputStream(chukiSufFile), "UTF-8"));
-		lineNum = 0;
-		try {
-			while ((line = src.readLine()) != null) {
-				lineNum++;
-				if (line.length() > 0 && line.charAt(0)!='#') {
-					try {
-						String[] values = line.split("\t");
-						//タグ取得 3列目は行末タグ
-						String[] tags;
-						if (values.length > 2 && values[2].length() > 0) tags = new String[]{values[1], values[2]};
-						else tags = new String[]{values[1]};
-						sufChukiMap.put(values[0], tags);
-						//別名
-						if (values.length > 3 && values[3].length() > 0) sufChukiMap.put(values[3]+values[0], tags);
-						
-					} catch (Exception e) {
-						LogAppender.error(lineNum, chukiTagFile.getName(), line);
-					}
-				}
-			}
-		} finally {
-			src.close();
-		}
-		
-		//単純文字置換
-		File replaceFile = new File(jarPath+"replace.txt");
-		if (replaceFile.exists()) {
-			replaceMap = new HashMap<Character, String>();
-			replace2Map = new HashMap<String, String>();
-			src = new BufferedReader(new InputStreamReader(new FileInputStream(replaceFile), "UTF-8"));
-			lineNum = 0;
-			try {
-				while ((line = src.readLine()) != null) {
-					lineNum++;
-					if (line.length() > 0 && line.charAt(0)!='#') {
-						try {
-							String[] values = line.split("\t");
-							if (values[0].length() == 1) {
-								replaceMap.put(values[0].charAt(0), values[1]);
-							} else if (values[0].length() == 2) {
-									replace2Map.put(values[0], values[1]);
-							} else {
-								LogAppender.error(lineNum, replaceFile.getName()+" too long ", line);
-							}
-						} catch (Exception e) {
-							LogAppender.error(lineNum, replaceFile.getName(), line);
-						}
-					}
-				}
-			} finally {
-				src.close();
-			}
-		}
-		
-		//外字フォント一覧取得
-		File gaijiPath = new File(writer.getGaijiFontPath());
-		if (gaijiPath.isDirectory()) {
-			utf16FontMap = new HashMap<Integer, String>();
-			utf32FontMap = new HashMap<Integer, String>();
-			ivs16FontMap = new HashMap<String, String>();
-			ivs32FontMap = new HashMap<String, String>();
-			String subPath = "";
-			for (File fontFile : gaijiPath.listFiles()) {
-				if (fontFile.isFile()) {
-					String fileName = fontFile.getName().toLowerCase();
-					String ext = fileName.substring(fileName.lastIndexOf(".")+1);
-					if ("ttf".equals(ext) || "ttc".equals(ext) || "otf".equals(ext)) {
-						if (fileName.startsWith("u")){
-							if (fileName.indexOf("-u") > 0) {
-								String className = fileName.substring(1, fileName.length()-ext.length()-1);
-								String[] strs = className.split("-u");
-								if (strs.length > 2) {
-									LogAppender.warn(-1, "IVS以外の合成フォントは対応しません", fontFile.getName());
-								} else {
-									int[] codes = new int[]{Integer.parseInt(strs[0], 16), Integer.parseInt(strs[1], 16)};
-									if (0xe0100 <= codes[1] && codes[1] <= 0xe01ef) {
-										if (codes[0] < 0xFFFF) {
-											ivs16FontMap.put("u"+className, subPath+fontFile.getName());
-										} else {
-											ivs32FontMap.put("u"+className, subPath+fontFile.getName());
-										}
-									} else {
-										LogAppender.warn(-1, "IVS以外の合成フォントは対応しません", fontFile.getName());
-									}
-								}
-							} else {
-								int code = 0;
-								try { code = Integer.valueOf(fileName.substring(1, fileName.length()-ext.length()-1), 16); } catch (Exception e) {}
-								if (code <= 0xFFFF) {
-									utf16FontMap.put(code, subPath+fontFile.getName());
-								} else {
-									utf32FontMap.put(code, subPath+fontFile.getName());
-								}
-							}
-						}
-					}
-				}
-			}
-			if (utf16FontMap.size() == 0) utf16FontMap = null;
-			if (utf32FontMap.size() == 0) utf32FontMap = null;
-			if (ivs16FontMap.size() == 0) ivs16FontMap = null;
-			if (ivs32FontMap.size() == 0) ivs32FontMap = null;
-		}
-		
-		inited = true;
+		this.tables = tables;
 	}
 	
 	/** 挿絵なし設定 */
@@ -502,6 +286,13 @@ public class AozoraEpub3Converter
 		this.commentConvert = commentConvert;
 	}
 	
+	/** 本文の並列変換のスレッド数 1なら分割しない
+	 * 画像の出力順に依存する範囲は順番に変換する */
+	public void setSectionThreads(int sectionThreads)
+	{
+		this.sectionThreads = Math.max(1, sectionThreads);
+	}
+	
 	/** 空行除去
 	 * @param maxEmptyLine 空行最大 0なら制限なし */
 	public void setRemoveEmptyLine(int removeEmptyLine, int maxEmptyLine)
@@ -565,6 +356,11 @@ public class AozoraEpub3Converter
 			try {
 				this.chapterPattern = Pattern.compile(chapterPattern);
 			} catch (Exception e) { LogAppender.println("[WARN] 目次抽出のその他パターンが正しくありません: "+chapterPattern); }
+		
+		this.chapterMatcher = ChapterMatcher.create(this.chapterNumChar, this.chapterSeparator,
+				this.chapterName, this.chapterNumPrefix, this.chapterNumSuffix, this.chapterNumParenPrefix, this.chapterNumParenSuffix,
+				this.autoChapterName, this.autoChapterNumOnly, this.autoChapterNumTitle, this.autoChapterNumParen, this.autoChapterNumParenTitle,
+				this.chapterPattern);
 	}
 	
 	public int getSpaceHyphenation()
@@ -610,7 +406,7 @@ public class AozoraEpub3Converter
 		BookInfo bookInfo = new BookInfo(srcFile);
 		
 		String line;
-		this.lineNum = -1;
+		this.context.lineNum = -1;
 		//前の行のバッファ [1行前, 2行前]
 		String[] preLines = new String[]{null, null};
 		
@@ -639,7 +435,7 @@ public class AozoraEpub3Converter
 		int lastEmptyLine = -1;
 		
 		//目次用見出し自動抽出
-		boolean autoChapter = this.autoChapterName || this.autoChapterNumTitle || this.autoChapterNumOnly || this.autoChapterNumParen || this.autoChapterNumParenTitle || this.chapterPattern != null;
+		ChapterMatcher chapterMatcher = this.chapterMatcher;
 		//改ページ後の目次を追加するならtrue
 		boolean addSectionChapter = true;
 		//見出し注記の後の文字を追加
@@ -651,7 +447,7 @@ public class AozoraEpub3Converter
 		
 		//最後まで回す
 		while ((line = src.readLine()) != null) {
-			this.lineNum++;
+			this.context.lineNum++;
 			
 			//見出し等の取得のため前方参照注記は変換 外字文字は置換
 			line = CharUtils.removeSpace(this.replaceChukiSufTag(this.convertGaijiChuki(line, true, false)));
@@ -661,21 +457,21 @@ public class AozoraEpub3Converter
 			//コメント除外 50文字以上をコメントにする
 			if (noRubyLine.startsWith("--------------------------------")) {
 				if (!noRubyLine.startsWith("--------------------------------------------------")) {
-					LogAppender.warn(lineNum, "コメント行の文字数が足りません");
+					LogAppender.warn(this.context.lineNum, "コメント行の文字数が足りません");
 				} else {
-					if (firstCommentLineNum == -1) firstCommentLineNum = this.lineNum;
+					if (firstCommentLineNum == -1) firstCommentLineNum = this.context.lineNum;
 					//コメントブロックに入ったらタイトル著者終了
 					firstCommentStarted = true;
 					if (inComment) {
 						//コメント行終了
-						if (commentLineNum > 20) LogAppender.warn(lineNum, "コメントが "+commentLineNum+" 行 ("+(commentLineStart+1)+") -");
+						if (commentLineNum > 20) LogAppender.warn(this.context.lineNum, "コメントが "+commentLineNum+" 行 ("+(commentLineStart+1)+") -");
 						commentLineNum = 0;
 						inComment = false; continue;
 					}
 					else {
-						if (lineNum > 10 && !(commentPrint && commentConvert)) LogAppender.warn(lineNum, "コメント開始行が10行目以降にあります");
+						if (this.context.lineNum > 10 && !(commentPrint && commentConvert)) LogAppender.warn(this.context.lineNum, "コメント開始行が10行目以降にあります");
 						//コメント行開始
-						commentLineStart = this.lineNum;
+						commentLineStart = this.context.lineNum;
 						inComment = true;
 						continue;
 					}
@@ -685,7 +481,7 @@ public class AozoraEpub3Converter
 			
 			//空行チェック
 			if (noRubyLine.equals("") || noRubyLine.equals(" ") || noRubyLine.equals("　")) {
-				lastEmptyLine = lineNum;
+				lastEmptyLine = this.context.lineNum;
 				//空行なので次の行へ
 				continue;
 			}
@@ -693,7 +489,7 @@ public class AozoraEpub3Converter
 			if (inComment && !this.commentPrint) continue;
 			
 			//2行前が改ページと画像の行かをチェックして行番号をbookInfoに保存
-			if (!noIllust) this.checkImageOnly(bookInfo, preLines, noRubyLine, this.lineNum);
+			if (!noIllust) this.checkImageOnly(bookInfo, preLines, noRubyLine, this.context.lineNum);
 			
 			//見出しのChapter追加
 			if (addChapterName) {
@@ -703,10 +499,10 @@ public class AozoraEpub3Converter
 					//字下げ注記等は飛ばして次の行を見る
 					if (name.length() > 0) {
 						preChapterLineInfo.setChapterName(name);
-						preChapterLineInfo.lineNum = lineNum;
+						preChapterLineInfo.lineNum = this.context.lineNum;
 						addChapterName = false;
 						//次の行を繋げる設定
-						if (this.useNextLineChapterName) addNextChapterName = lineNum+1;
+						if (this.useNextLineChapterName) addNextChapterName = this.context.lineNum+1;
 						addSectionChapter = false; //改ページ後のChapter出力を抑止
 					}
 					//必ず文字が入る
@@ -714,28 +510,29 @@ public class AozoraEpub3Converter
 				}
 			}
 			//画像のファイル名の順にimageInfoReaderにファイル名を追加
-			Matcher m = chukiPattern.matcher(noRubyLine);
-			while (m.find()) {
-				String chukiTag = m.group();
+			AozoraLexer lexer = this.context.bookInfoLexer;
+			lexer.lex(noRubyLine, AozoraLexer.MASK_CHUKI);
+			for (int t=0; t<lexer.count(); t++) {
+				String chukiTag = noRubyLine.substring(lexer.start(t), lexer.end(t));
 				String chukiName = chukiTag.substring(2, chukiTag.length()-1);
 				
-				if (chukiFlagPageBreak.contains(chukiName)) {
+				if (this.tables.getChukiFlagPageBreak().contains(chukiName)) {
 					//改ページ注記ならフラグON
 					addSectionChapter = true;
 				} else if (chapterChukiMap.containsKey(chukiName)) {
 					//見出し注記
 					//注記の後に文字がなければブロックなので次の行 (次の行にブロック注記はこない？)
 					int chapterType = chapterChukiMap.get(chukiName);
-					if (noRubyLine.length() == m.start()+chukiTag.length())  {
-						preChapterLineInfo = new ChapterLineInfo(lineNum+1, chapterType, addSectionChapter, ChapterLineInfo.getLevel(chapterType), lastEmptyLine==lineNum-1);
+					if (noRubyLine.length() == lexer.end(t))  {
+						preChapterLineInfo = new ChapterLineInfo(this.context.lineNum+1, chapterType, addSectionChapter, ChapterLineInfo.getLevel(chapterType), lastEmptyLine==this.context.lineNum-1);
 						bookInfo.addChapterLineInfo(preChapterLineInfo);
 						addChapterName = true; //次の行を見出しとして利用
 						addNextChapterName = -1;
 					}
 					else {
 						bookInfo.addChapterLineInfo(
-								new ChapterLineInfo(lineNum, chapterType, addSectionChapter, ChapterLineInfo.getLevel(chapterType), lastEmptyLine==lineNum-1, this.getChapterName(noRubyLine.substring(m.end()))) );
-						if (this.useNextLineChapterName) addNextChapterName = lineNum+1; //次の行を連結
+								new ChapterLineInfo(this.context.lineNum, chapterType, addSectionChapter, ChapterLineInfo.getLevel(chapterType), lastEmptyLine==this.context.lineNum-1, this.getChapterName(noRubyLine.substring(lexer.end(t)))) );
+						if (this.useNextLineChapterName) addNextChapterName = this.context.lineNum+1; //次の行を連結
 						addChapterName = false; //次の行を見出しとして利用しない
 					}
 					addSectionChapter = false; //改ページ後のChapter出力を抑止
@@ -756,7 +553,7 @@ public class AozoraEpub3Converter
 								//小さい画像は無視
 								ImageInfo imageInfo = imageInfoReader.getImageInfo(imageInfoReader.correctExt(imageFileName));
 								if (imageInfo != null && imageInfo.getWidth() > 64 && imageInfo.getHeight() > 64) {
-									bookInfo.firstImageLineNum = lineNum;
+									bookInfo.firstImageLineNum = this.context.lineNum;
 									bookInfo.firstImageIdx = imageInfoReader.countImageFileNames()-1;
 								}
 							}
@@ -771,7 +568,7 @@ public class AozoraEpub3Converter
 							//小さい画像は無視
 							ImageInfo imageInfo = imageInfoReader.getImageInfo(imageInfoReader.correctExt(imageFileName));
 							if (imageInfo != null && imageInfo.getWidth() > 64 && imageInfo.getHeight() > 64) {
-								bookInfo.firstImageLineNum = lineNum;
+								bookInfo.firstImageLineNum = this.context.lineNum;
 								bookInfo.firstImageIdx = imageInfoReader.countImageFileNames()-1;
 							}
 						}
@@ -781,98 +578,38 @@ public class AozoraEpub3Converter
 			
 			//見出し行パターン抽出 パターン抽出時はレベル+10
 			//TODO パターンと目次レベルは設定可能にする 空行指定の場合はpreLines利用
-			if (autoChapter && bookInfo.getChapterLevel(lineNum) == 0) {
+			if (chapterMatcher != null && bookInfo.getChapterLevel(this.context.lineNum) == 0) {
 				//文字列から注記と前の空白を除去
 				String noChukiLine = CharUtils.removeSpace(CharUtils.removeTag(noRubyLine));
+				//行頭の文字で一致しない行は除外される
+				int match = chapterMatcher.match(noChukiLine);
 				
 				//その他パターン
-				if (this.chapterPattern != null) {
-					if (this.chapterPattern.matcher(noChukiLine).find()) {
-						bookInfo.addChapterLineInfo(new ChapterLineInfo(lineNum, ChapterLineInfo.TYPE_PATTERN, addSectionChapter, ChapterLineInfo.getLevel(ChapterLineInfo.TYPE_PATTERN), lastEmptyLine==lineNum-1, this.getChapterName(noRubyLine)));
-						if (this.useNextLineChapterName) addNextChapterName = lineNum+1; //次の行を連結
-						addSectionChapter = false; //改ページ後のChapter出力を抑止
-					}
+				if ((match & ChapterMatcher.MATCH_PATTERN) != 0) {
+					bookInfo.addChapterLineInfo(new ChapterLineInfo(this.context.lineNum, ChapterLineInfo.TYPE_PATTERN, addSectionChapter, ChapterLineInfo.getLevel(ChapterLineInfo.TYPE_PATTERN), lastEmptyLine==this.context.lineNum-1, this.getChapterName(noRubyLine)));
+					if (this.useNextLineChapterName) addNextChapterName = this.context.lineNum+1; //次の行を連結
+					addSectionChapter = false; //改ページ後のChapter出力を抑止
 				}
-				int noChukiLineLength = noChukiLine.length();
-				if (this.autoChapterName) {
-					boolean isChapter = false;
-					//数字を含まない章名
-					for (int i=0; i<this.chapterName.length; i++) {
-						String prefix = this.chapterName[i];
-						if (noChukiLine.startsWith(prefix)) {
-							if (noChukiLine.length() == prefix.length()) { isChapter = true; break; } 
-							else if (isChapterSeparator(noChukiLine.charAt(prefix.length()))) { isChapter = true; break; }
-						}
-					}
-					//数字を含む章名
-					if (!isChapter) {
-						for (int i=0; i<this.chapterNumPrefix.length; i++) {
-							String prefix = this.chapterNumPrefix[i];
-							if (noChukiLine.startsWith(prefix)) {
-								int idx = prefix.length();
-								//次が数字かチェック
-								while (noChukiLineLength > idx && isChapterNum(noChukiLine.charAt(idx))) idx++;
-								if (idx <= prefix.length()) break; //数字がなければ抽出しない
-								//後ろをチェック prefixに対応するsuffixで回す
-								for (String suffix : this.chapterNumSuffix[i]) {
-									if (!"".equals(suffix)) {
-										if (noChukiLine.substring(idx).startsWith(suffix)) {
-											idx += suffix.length();
-											if (noChukiLine.length() == idx) { isChapter = true; break; } 
-											else if (isChapterSeparator(noChukiLine.charAt(idx))) { isChapter = true; break; }
-										}
-									} else {
-										if (noChukiLine.length() == idx) { isChapter = true; break; } 
-										else if (isChapterSeparator(noChukiLine.charAt(idx))) { isChapter = true; break; }
-									}
-								}
-							}
-						}
-					}
-					if (isChapter) {
-						bookInfo.addChapterLineInfo(new ChapterLineInfo(lineNum, ChapterLineInfo.TYPE_CHAPTER_NAME, addSectionChapter, ChapterLineInfo.getLevel(ChapterLineInfo.TYPE_CHAPTER_NAME), lastEmptyLine==lineNum-1, this.getChapterName(noRubyLine)));
-						if (this.useNextLineChapterName) addNextChapterName = lineNum+1; //次の行を連結
-						addChapterName = false; //次の行を見出しとして利用
-						addSectionChapter = false; //改ページ後のChapter出力を抑止
-					}
+				//数字を含まない章名 数字を含む章名
+				if ((match & ChapterMatcher.MATCH_NAME) != 0) {
+					bookInfo.addChapterLineInfo(new ChapterLineInfo(this.context.lineNum, ChapterLineInfo.TYPE_CHAPTER_NAME, addSectionChapter, ChapterLineInfo.getLevel(ChapterLineInfo.TYPE_CHAPTER_NAME), lastEmptyLine==this.context.lineNum-1, this.getChapterName(noRubyLine)));
+					if (this.useNextLineChapterName) addNextChapterName = this.context.lineNum+1; //次の行を連結
+					addChapterName = false; //次の行を見出しとして利用
+					addSectionChapter = false; //改ページ後のChapter出力を抑止
 				}
-				if (this.autoChapterNumOnly || this.autoChapterNumTitle) {
-					//数字
-					int idx = 0;
-					while (noChukiLineLength > idx && isChapterNum(noChukiLine.charAt(idx))) idx++;
-					if (idx > 0) {
-						if (this.autoChapterNumOnly && noChukiLine.length()==idx ||
-							this.autoChapterNumTitle && noChukiLine.length() > idx && isChapterSeparator(noChukiLine.charAt(idx))) { 
-							bookInfo.addChapterLineInfo(new ChapterLineInfo(lineNum, ChapterLineInfo.TYPE_CHAPTER_NUM, addSectionChapter, ChapterLineInfo.getLevel(ChapterLineInfo.TYPE_CHAPTER_NUM), lastEmptyLine==lineNum-1, this.getChapterName(noRubyLine)));
-							if (this.useNextLineChapterName) addNextChapterName = lineNum+1; //次の行を連結
-							addChapterName = false; //次の行を見出しとして利用しない
-							addSectionChapter = false; //改ページ後のChapter出力を抑止
-						}
-					}
+				//数字
+				if ((match & ChapterMatcher.MATCH_NUM) != 0) {
+					bookInfo.addChapterLineInfo(new ChapterLineInfo(this.context.lineNum, ChapterLineInfo.TYPE_CHAPTER_NUM, addSectionChapter, ChapterLineInfo.getLevel(ChapterLineInfo.TYPE_CHAPTER_NUM), lastEmptyLine==this.context.lineNum-1, this.getChapterName(noRubyLine)));
+					if (this.useNextLineChapterName) addNextChapterName = this.context.lineNum+1; //次の行を連結
+					addChapterName = false; //次の行を見出しとして利用しない
+					addSectionChapter = false; //改ページ後のChapter出力を抑止
 				}
-				if (this.autoChapterNumParen || this.autoChapterNumParenTitle) {
-					//括弧内数字のみ
-					for (int i=0; i<this.chapterNumParenPrefix.length; i++) {
-						String prefix = this.chapterNumParenPrefix[i];
-						if (noChukiLine.startsWith(prefix)) {
-							int idx = prefix.length();
-							//次が数字かチェック
-							while (noChukiLineLength > idx && isChapterNum(noChukiLine.charAt(idx))) idx++;
-							if (idx <= prefix.length()) break; //数字がなければ抽出しない
-							//後ろをチェック
-							String suffix = this.chapterNumParenSuffix[i];
-							if (noChukiLine.substring(idx).startsWith(suffix)) {
-								idx += suffix.length();
-								if (this.autoChapterNumParen && noChukiLine.length()==idx ||
-									this.autoChapterNumParenTitle && noChukiLine.length()>idx && isChapterSeparator(noChukiLine.charAt(idx))) {
-									bookInfo.addChapterLineInfo(new ChapterLineInfo(lineNum, ChapterLineInfo.TYPE_CHAPTER_NUM, addSectionChapter, 13, lastEmptyLine==lineNum-1, this.getChapterName(noRubyLine)));
-									if (this.useNextLineChapterName) addNextChapterName = lineNum+1; //次の行を連結
-									addChapterName = false; //次の行を見出しとして利用しない
-									addSectionChapter = false; //改ページ後のChapter出力を抑止
-								}
-							}
-						}
-					}
+				//括弧内数字のみ
+				if ((match & ChapterMatcher.MATCH_PAREN) != 0) {
+					bookInfo.addChapterLineInfo(new ChapterLineInfo(this.context.lineNum, ChapterLineInfo.TYPE_CHAPTER_NUM, addSectionChapter, 13, lastEmptyLine==this.context.lineNum-1, this.getChapterName(noRubyLine)));
+					if (this.useNextLineChapterName) addNextChapterName = this.context.lineNum+1; //次の行を連結
+					addChapterName = false; //次の行を見出しとして利用しない
+					addSectionChapter = false; //改ページ後のChapter出力を抑止
 				}
 			}
 			//改ページ後の注記以外の本文を追加
@@ -883,20 +620,20 @@ public class AozoraEpub3Converter
 				} else {
 					//記号のみの行は無視して次の行へ
 					String name = this.getChapterName(noRubyLine);
-					if (name.replaceAll("◇|◆|□|■|▽|▼|☆|★|＊|＋|×|†|　", "").length() > 0) {
-						bookInfo.addChapterLineInfo(new ChapterLineInfo(lineNum, ChapterLineInfo.TYPE_PAGEBREAK, true, 1, lastEmptyLine==lineNum-1, name));
-						if (this.useNextLineChapterName) addNextChapterName = lineNum+1;
+					if (ChapterMatcher.hasNameChar(name)) {
+						bookInfo.addChapterLineInfo(new ChapterLineInfo(this.context.lineNum, ChapterLineInfo.TYPE_PAGEBREAK, true, 1, lastEmptyLine==this.context.lineNum-1, name));
+						if (this.useNextLineChapterName) addNextChapterName = this.context.lineNum+1;
 						addSectionChapter = false; //改ページ後のChapter出力を抑止
 					}
 				}
 			}
 			
 			//見出しの次の行＆見出しでない
-			if (addNextChapterName == lineNum && bookInfo.getChapterLineInfo(lineNum) == null) {
+			if (addNextChapterName == this.context.lineNum && bookInfo.getChapterLineInfo(this.context.lineNum) == null) {
 				//見出しの次の行を繋げる
 				String name = this.getChapterName(noRubyLine);
 				if (name.length() > 0) {
-					ChapterLineInfo info = bookInfo.getChapterLineInfo(lineNum-1);
+					ChapterLineInfo info = bookInfo.getChapterLineInfo(this.context.lineNum-1);
 					if (info != null) info.joinChapterName(name);
 				}
 				addNextChapterName = -1;
@@ -912,16 +649,16 @@ public class AozoraEpub3Converter
 					//	preTitlePageBreak = lineNum;
 					//文字の行が来たら先頭行開始
 					if (replaced.length() > 0) {
-						firstLineStart = this.lineNum;
+						firstLineStart = this.context.lineNum;
 						firstLines[0] = line;
 					}
 				} else {
 					//改ページで終了
 					if (isPageBreakLine(noRubyLine)) firstCommentStarted = true;
-					if (this.lineNum-firstLineStart > firstLines.length-1) {
+					if (this.context.lineNum-firstLineStart > firstLines.length-1) {
 						firstCommentStarted = true;
 					} else if (replaced.length() > 0) {
-						firstLines[this.lineNum-firstLineStart] = line;
+						firstLines[this.context.lineNum-firstLineStart] = line;
 					}
 				}
 			}
@@ -931,7 +668,7 @@ public class AozoraEpub3Converter
 		}
 		
 		//行数設定
-		bookInfo.totalLineNum = lineNum;
+		bookInfo.totalLineNum = this.context.lineNum;
 		
 		if (inComment) {
 			LogAppender.error(commentLineStart, "コメントが閉じていません");
@@ -964,7 +701,7 @@ public class AozoraEpub3Converter
 		return bookInfo;
 		} catch (Exception e) {
 			e.printStackTrace();
-			LogAppender.error(lineNum, "");
+			LogAppender.error(this.context.lineNum, "");
 			throw e;
 		}
 	}
@@ -975,29 +712,12 @@ public class AozoraEpub3Converter
 		return CharUtils.getChapterName(line, this.maxChapterNameLength);
 	}
 	
-	/** 文字が章の数字ならtrue */
-	private boolean isChapterNum(char c)
-	{
-		for (char num : this.chapterNumChar) {
-			if (c == num) return true;
-		}
-		return false;
-	}
-	/** 文字が章の後の区切り文字ならtrue */
-	private boolean isChapterSeparator(char c)
-	{
-		for (char sep : this.chapterSeparator) {
-			if (c == sep) return true;
-		}
-		return false;
-	}
-	
 	/** 改ページのある行か判別 */
 	private boolean isPageBreakLine(String line)
 	{
 		Matcher m = chukiLeftPattern.matcher(line);
 		while (m.find()) {
-			return chukiFlagPageBreak.contains(m.group(1));
+			return this.tables.getChukiFlagPageBreak().contains(m.group(1));
 		}
 		return false;
 	}
@@ -1009,14 +729,14 @@ public class AozoraEpub3Converter
 		if (preLines[0] == null) return;
 		if (line.indexOf('］') <= 3) return;
 		String curChuki = line.substring(2, line.indexOf('］')); //現在行の行頭注記
-		if (chukiFlagPageBreak.contains(curChuki)) {
+		if (this.tables.getChukiFlagPageBreak().contains(curChuki)) {
 			//2行前の行末が改ページまたは現在行が先頭から2行目
 			if (preLines[1] == null ||
-				(preLines[1].indexOf('］') > 3 && chukiFlagPageBreak.contains(preLines[1].substring(preLines[1].lastIndexOf('＃')+1, preLines[1].length()-1)))
+				(preLines[1].indexOf('］') > 3 && this.tables.getChukiFlagPageBreak().contains(preLines[1].substring(preLines[1].lastIndexOf('＃')+1, preLines[1].length()-1)))
 				) {
 				//1行前が画像
 				if (
-					(preLines[0].startsWith("［＃") && preLines[0].matches("^［＃.*（.+\\..+") && preLines[0].indexOf('］') == preLines[0].length()-1) ||
+					(preLines[0].startsWith("［＃") && imageChukiPattern.matcher(preLines[0]).matches() && preLines[0].indexOf('］') == preLines[0].length()-1) ||
 					(preLines[0].toLowerCase().startsWith("<img") && preLines[0].indexOf('>') == preLines[0].length()-1)
 				) {
 					//画像単一ページの画像行に設定
@@ -1088,20 +808,22 @@ public class AozoraEpub3Converter
 		this.canceled = false;
 		
 		//BookInfoの参照を保持
-		this.bookInfo = bookInfo;
+		this.context.bookInfo = bookInfo;
+		this.context.chapterLineCursor = bookInfo.getChapterLineCursor();
 		
 		String line;
 		
 		////////////////////////////////
 		//変換開始字のメンバ変数の初期化
-		this.pageByteSize = 0;
-		this.sectionCharLength = 0;
-		this.lineNum = -1;
-		this.lineIdNum = 1;
-		this.tagLevel = 0;
-		this.inJisage = -1;
+		this.context.pageByteSize = 0;
+		this.context.sectionCharLength = 0;
+		this.context.lineNum = -1;
+		this.context.lineIdNum = 1;
+		this.context.tagLevel = 0;
+		this.context.inJisage = -1;
+		this.context.inComment = false;
 		//最初のページの改ページフラグを設定
-		this.setPageBreakTrigger(pageBreakNormal);
+		this.setPageBreakTrigger(this.context.pageBreakNormal);
 		////////////////////////////////
 		
 		//直前のtagLevel=0の行
@@ -1110,16 +832,13 @@ public class AozoraEpub3Converter
 		//タイトル目の画像等をバッファ
 		Vector<String> preTitleBuf = null;
 		
-		//コメントブロック内
-		boolean inComment = false;
-		
 		//タイトルを出力しない
 		boolean skipTitle = false;
 		//バッファ中は画像は処理しない
 		boolean noImage = false;
 		
 		//表題をバッファ処理
-		if ((this.bookInfo.titlePageType == BookInfo.TITLE_NONE || this.bookInfo.titlePageType == BookInfo.TITLE_MIDDLE || this.bookInfo.titlePageType == BookInfo.TITLE_HORIZONTAL)) {
+		if ((this.context.bookInfo.titlePageType == BookInfo.TITLE_NONE || this.context.bookInfo.titlePageType == BookInfo.TITLE_MIDDLE || this.context.bookInfo.titlePageType == BookInfo.TITLE_HORIZONTAL)) {
 			//ページ出力設定
 			bookInfo.insertTitlePage = true;
 			//開始位置がタグの中なら次の行へ
@@ -1139,42 +858,42 @@ public class AozoraEpub3Converter
 		//BOM除去
 		line = CharUtils.removeBOM(line);
 		do {
-			lineNum++;
+			this.context.lineNum++;
 			
 			if (skipTitle) {
 				//タイトル文字行前までバッファ
-				if (bookInfo.metaLineStart > lineNum) {
+				if (bookInfo.metaLineStart > this.context.lineNum) {
 					preTitleBuf.add(line);
 				}
 				//タイトル文字行 前の行のバッファがあれば出力
-				if (bookInfo.metaLineStart == lineNum && preTitleBuf.size() > 0) {
+				if (bookInfo.metaLineStart == this.context.lineNum && preTitleBuf.size() > 0) {
 					noImage = false;
 					if (lastZeroTagLevelLineNum >= 0) {
 						//タイトル行前のtagLevel=0の行以前のバッファを出力
-						int lineNumBak = this.lineNum;
-						this.pageByteSize = 0;
-						this.sectionCharLength = 0;
-						this.lineNum = 0;
-						this.lineIdNum = 1;
-						this.tagLevel = 0;
-						this.inJisage = -1;
+						int lineNumBak = this.context.lineNum;
+						this.context.pageByteSize = 0;
+						this.context.sectionCharLength = 0;
+						this.context.lineNum = 0;
+						this.context.lineIdNum = 1;
+						this.context.tagLevel = 0;
+						this.context.inJisage = -1;
 						int i = 0;
-						while (this.lineNum < lineNumBak) {
+						while (this.context.lineNum < lineNumBak) {
 							//出力しない行を飛ばす
-							if (bookInfo.isIgnoreLine(lineNum)) continue;
-							if (this.lineNum <= lastZeroTagLevelLineNum)
-								convertTextLineToEpub3(orgOut, preTitleBuf.get(i++), this.lineNum, false, false);
+							if (bookInfo.isIgnoreLine(this.context.lineNum)) continue;
+							if (this.context.lineNum <= lastZeroTagLevelLineNum)
+								convertTextLineToEpub3(orgOut, preTitleBuf.get(i++), this.context.lineNum, false, false);
 							else
-								convertTextLineToEpub3(out, preTitleBuf.get(i++), this.lineNum, false, false);
+								convertTextLineToEpub3(out, preTitleBuf.get(i++), this.context.lineNum, false, false);
 								
-							this.lineNum++;
+							this.context.lineNum++;
 						}
 					}
 					preTitleBuf.clear();
 				}
 				//タイトルページの改ページ
-				if (bookInfo.titleEndLine+1 == lineNum) {
-					if (tagLevel > 0) bookInfo.titleEndLine++;
+				if (bookInfo.titleEndLine+1 == this.context.lineNum) {
+					if (this.context.tagLevel > 0) bookInfo.titleEndLine++;
 					else {
 						skipTitle = false;
 						//ダミーから戻す
@@ -1183,96 +902,343 @@ public class AozoraEpub3Converter
 						bookInfo.addPageBreakLine(bookInfo.titleEndLine+1);
 					}
 				}
+			} else if (this.sectionThreads > 1 && out != null && this.isSectionSplitLine(line, this.context.lineNum)) {
+				//表題の後の本文は改ページ位置で分割して並列変換
+				this.convertSectionsParallel(out, line, src);
+				return;
 			}
 			
-			//改ページ指定行なら改ページフラグ設定 タグ内は次の行へ
-			if (bookInfo.isPageBreakLine(lineNum) && this.sectionCharLength > 0) {
-				//タグの中なら次の行へ
-				if (this.tagLevel == 0) this.setPageBreakTrigger(pageBreakNormal);
-				else bookInfo.addPageBreakLine(lineNum+1);
-			}
+			//本文の行を変換 出力しない行ならfalse
+			if (!this.convertBodyLine(out, line, noImage)) continue;
 			
-			//コメント除外
-			if (line.startsWith("--------------------------------------------------")) {
-				if (commentPrint) {
-					if (inComment) { inComment = false; }
-					else { inComment = true; }
+			if (this.canceled) return;
+			//通知はProgressで間引かれる
+			if (this.writer.progress != null && this.context.lineNum % 10 == 0) this.writer.progress.setValue(this.context.lineNum/10);
+			
+			if (this.context.tagLevel == 0) lastZeroTagLevelLineNum = this.context.lineNum;
+		} while ((line = src.readLine()) != null);
+		
+		} catch (Exception e) {
+			e.printStackTrace();
+			LogAppender.error(this.context.lineNum, "");
+			throw e;
+		}
+	}
+	
+	/** 表題の後の本文の1行を変換
+	 * @param noImage 画像注記を出力しないならtrue
+	 * @return コメント行や出力しない行ならfalse */
+	private boolean convertBodyLine(BufferedWriter out, String line, boolean noImage) throws IOException
+	{
+		BookInfo bookInfo = this.context.bookInfo;
+		
+		//改ページ指定行なら改ページフラグ設定 タグ内は次の行へ
+		if (this.isPageBreakLine(this.context.lineNum) && this.context.sectionCharLength > 0) {
+			//タグの中なら次の行へ
+			if (this.context.tagLevel == 0) this.setPageBreakTrigger(this.context.pageBreakNormal);
+			else this.addPageBreakLine(this.context.lineNum+1);
+		}
+		
+		//コメント除外
+		if (line.startsWith("--------------------------------------------------")) {
+			if (commentPrint) {
+				if (this.context.inComment) { this.context.inComment = false; }
+				else { this.context.inComment = true; }
+			} else {
+				if (this.context.inComment) { this.context.inComment = false; return false;
 				} else {
-					if (inComment) { inComment = false; continue;
-					} else {
-						//コメント開始
-						inComment = true; continue;
-					}
+					//コメント開始
+					this.context.inComment = true; return false;
 				}
 			}
-			if (inComment) {
-				if (commentPrint) {
-					if (!commentConvert) {
-						//そのまま出力
-						StringBuilder buf = new StringBuilder();
-						char[] ch = line.toCharArray();
-						for (int idx=0; idx<ch.length; idx++) {
-							switch (ch[idx]) {
-							case '&': buf.append("&amp;"); break;
-							case '<': buf.append("&lt;"); break;
-							case '>': buf.append("&gt;"); break;
-							default: buf.append(ch[idx]);
-							}
+		}
+		if (this.context.inComment) {
+			if (commentPrint) {
+				if (!commentConvert) {
+					//そのまま出力
+					StringBuilder buf = new StringBuilder();
+					char[] ch = line.toCharArray();
+					for (int idx=0; idx<ch.length; idx++) {
+						switch (ch[idx]) {
+						case '&': buf.append("&amp;"); break;
+						case '<': buf.append("&lt;"); break;
+						case '>': buf.append("&gt;"); break;
+						default: buf.append(ch[idx]);
 						}
-						this.printLineBuffer(out, buf, lineNum, false);
-						continue;
 					}
-				} else {
-					continue;
+					this.printLineBuffer(out, buf, this.context.lineNum, false);
+					return false;
 				}
-			}
-			
-			//出力しない行を飛ばす
-			if (bookInfo.isIgnoreLine(lineNum)) continue;
-			
-			if (lineNum == bookInfo.titleLine) {
-				printLineBuffer(out, new StringBuilder(chukiMap.get("表題前")[0]), -1, true);
-				convertTextLineToEpub3(out, line, lineNum, false, noImage);
-				printLineBuffer(out, new StringBuilder(chukiMap.get("表題後")[0]), -1, true);
-			} else if (lineNum == bookInfo.orgTitleLine) {
-				printLineBuffer(out, new StringBuilder(chukiMap.get("原題前")[0]), -1, true);
-				convertTextLineToEpub3(out, line, lineNum, false, noImage);
-				printLineBuffer(out, new StringBuilder(chukiMap.get("原題後")[0]), -1, true);
-			} else if (lineNum == bookInfo.subTitleLine) {
-				printLineBuffer(out, new StringBuilder(chukiMap.get("副題前")[0]), -1, true);
-				convertTextLineToEpub3(out, line, lineNum, false, noImage);
-				printLineBuffer(out, new StringBuilder(chukiMap.get("副題後")[0]), -1, true);
-			} else if (lineNum == bookInfo.subOrgTitleLine) {
-				printLineBuffer(out, new StringBuilder(chukiMap.get("副原題前")[0]), -1, true);
-				convertTextLineToEpub3(out, line, lineNum, false, noImage);
-				printLineBuffer(out, new StringBuilder(chukiMap.get("副原題後")[0]), -1, true);
-			} else if (lineNum == bookInfo.creatorLine) {
-				printLineBuffer(out, new StringBuilder(chukiMap.get("著者前")[0]), -1, true);
-				convertTextLineToEpub3(out, line, lineNum, false, noImage);
-				printLineBuffer(out, new StringBuilder(chukiMap.get("著者後")[0]), -1, true);
-			} else if (lineNum == bookInfo.subCreatorLine) {
-				printLineBuffer(out, new StringBuilder(chukiMap.get("副著者前")[0]), -1, true);
-				convertTextLineToEpub3(out, line, lineNum, false, noImage);
-				printLineBuffer(out, new StringBuilder(chukiMap.get("副著者後")[0]), -1, true);
 			} else {
-				convertTextLineToEpub3(out, line, lineNum, false, noImage);
-			}
-			if (this.canceled) return;
-			if (this.writer.jProgressBar != null && lineNum % 10 == 0){
-				this.writer.jProgressBar.setValue(lineNum/10);
-				this.writer.jProgressBar.repaint();
+				return false;
 			}
-			
-			if (tagLevel == 0) lastZeroTagLevelLineNum = lineNum;
-		} while ((line = src.readLine()) != null);
+		}
 		
-		} catch (Exception e) {
-			e.printStackTrace();
-			LogAppender.error(lineNum, "");
-			throw e;
+		//出力しない行を飛ばす
+		if (bookInfo.isIgnoreLine(this.context.lineNum)) return false;
+		
+		if (this.context.lineNum == bookInfo.titleLine) {
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("表題前")[0]), -1, true);
+			convertTextLineToEpub3(out, line, this.context.lineNum, false, noImage);
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("表題後")[0]), -1, true);
+		} else if (this.context.lineNum == bookInfo.orgTitleLine) {
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("原題前")[0]), -1, true);
+			convertTextLineToEpub3(out, line, this.context.lineNum, false, noImage);
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("原題後")[0]), -1, true);
+		} else if (this.context.lineNum == bookInfo.subTitleLine) {
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("副題前")[0]), -1, true);
+			convertTextLineToEpub3(out, line, this.context.lineNum, false, noImage);
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("副題後")[0]), -1, true);
+		} else if (this.context.lineNum == bookInfo.subOrgTitleLine) {
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("副原題前")[0]), -1, true);
+			convertTextLineToEpub3(out, line, this.context.lineNum, false, noImage);
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("副原題後")[0]), -1, true);
+		} else if (this.context.lineNum == bookInfo.creatorLine) {
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("著者前")[0]), -1, true);
+			convertTextLineToEpub3(out, line, this.context.lineNum, false, noImage);
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("著者後")[0]), -1, true);
+		} else if (this.context.lineNum == bookInfo.subCreatorLine) {
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("副著者前")[0]), -1, true);
+			convertTextLineToEpub3(out, line, this.context.lineNum, false, noImage);
+			printLineBuffer(out, new StringBuilder(this.tables.getChukiMap().get("副著者後")[0]), -1, true);
+		} else {
+			convertTextLineToEpub3(out, line, this.context.lineNum, false, noImage);
+		}
+		return true;
+	}
+	
+	/** 改ページ行ならtrue 並列変換中は変換中に追加した改ページ行も含む */
+	private boolean isPageBreakLine(int lineNum)
+	{
+		if (this.context.pageBreakLines != null && lineNum >= 0 && this.context.pageBreakLines.get(lineNum)) return true;
+		return this.context.bookInfo.isPageBreakLine(lineNum);
+	}
+	/** 改ページ行を追加 並列変換中はBookInfoを変更せずに変換終了後に反映する */
+	private void addPageBreakLine(int lineNum)
+	{
+		if (this.context.pageBreakLines != null) this.context.pageBreakLines.set(lineNum);
+		else this.context.bookInfo.addPageBreakLine(lineNum);
+	}
+	
+	////////////////////////////////////////////////////////////////
+	//	本文の並列変換
+	////////////////////////////////////////////////////////////////
+	/** 並列変換する本文の範囲 */
+	static class SectionRange
+	{
+		/** 範囲の先頭の行番号 */
+		int startLine;
+		/** 範囲の行 */
+		Vector<String> lines = new Vector<String>();
+		/** 範囲の文字数 */
+		int length = 0;
+		/** 範囲の前で最後に目次に追加される見出しの行番号 */
+		int lastChapterLine;
+		
+		/** 範囲を変換する変換処理 変換後の状態はcontextに残る */
+		AozoraEpub3Converter converter;
+		/** 変換結果 並列変換できなかった場合はfalse */
+		Future<Boolean> future;
+		/** 変換処理の計測結果 */
+		StageTimer timer;
+		
+		SectionRange(int startLine, int lastChapterLine)
+		{
+			this.startLine = startLine;
+			this.lastChapterLine = lastChapterLine;
+		}
+	}
+	
+	/** 改ページ行から後の本文を改ページ位置で分割して並列に変換し、変換結果を順番に出力する
+	 * 範囲の先頭の状態は前の範囲の変換が終わるまで分からないので、改ページ直後の状態を仮定して変換しておき、
+	 * 前の範囲の変換後の状態が仮定と異なる場合や画像の出力順に依存する場合はその範囲を順番に変換し直す
+	 * @param line 分割を開始する改ページ行 */
+	private void convertSectionsParallel(BufferedWriter out, String line, BufferedReader src) throws Exception
+	{
+		BookInfo bookInfo = this.context.bookInfo;
+		ExecutorService executor = getSectionExecutor();
+		LinkedList<SectionRange> ranges = new LinkedList<SectionRange>();
+		//最初の範囲は現在の状態から出力時に順番に変換
+		AozoraEpub3Converter prevConverter = null;
+		int lastChapterLine = this.context.lastChapterLine;
+		SectionRange range = new SectionRange(this.context.lineNum, lastChapterLine);
+		range.converter = this;
+		this.context.pageBreakLines = new BitSet();
+		//分割位置の判別用 変換中のカーソルとは別に参照する
+		LineInfoMap.Cursor<ChapterLineInfo> chapterLineCursor = bookInfo.getChapterLineCursor();
+		try {
+			int lineNum = this.context.lineNum;
+			do {
+				//一定の文字数以上で改ページ行なら分割
+				if (range.length >= SECTION_SPLIT_LENGTH && this.isSectionSplitLine(line, lineNum)) {
+					if (range.converter != this) this.submitSection(executor, range);
+					ranges.add(range);
+					//出力待ちの範囲が多ければ先頭から出力
+					while (ranges.size() >= this.sectionThreads*2) {
+						prevConverter = this.printSection(out, ranges.removeFirst(), prevConverter);
+						if (this.canceled) return;
+					}
+					range = new SectionRange(lineNum, lastChapterLine);
+				}
+				range.lines.add(line);
+				range.length += line.length();
+				ChapterLineInfo chapterLineInfo = chapterLineCursor.get(lineNum);
+				if (chapterLineInfo != null && !bookInfo.isIgnoreLine(lineNum)) {
+					String name = chapterLineInfo.getChapterName();
+					if (name != null && name.length() > 0) lastChapterLine = lineNum;
+				}
+				lineNum++;
+			} while ((line = src.readLine()) != null);
+			if (range.converter != this) this.submitSection(executor, range);
+			ranges.add(range);
+			while (ranges.size() > 0) {
+				prevConverter = this.printSection(out, ranges.removeFirst(), prevConverter);
+				if (this.canceled) return;
+			}
+		} finally {
+			//キャンセル時は出力していない範囲の変換を中止
+			for (SectionRange remainRange : ranges) {
+				if (remainRange.future != null) remainRange.future.cancel(true);
+			}
+		}
+		//変換後の状態を引き継いで並列変換中に追加した改ページ行を反映
+		this.context = prevConverter.context;
+		BitSet pageBreakLines = this.context.pageBreakLines;
+		for (int pageBreakLine=pageBreakLines.nextSetBit(0); pageBreakLine>=0; pageBreakLine=pageBreakLines.nextSetBit(pageBreakLine+1)) bookInfo.addPageBreakLine(pageBreakLine);
+		this.context.pageBreakLines = null;
+	}
+	
+	/** 本文を分割する改ページ行ならtrue
+	 * BookInfoの改ページ行か、改ページ注記のみの行 */
+	private boolean isSectionSplitLine(String line, int lineNum)
+	{
+		BookInfo bookInfo = this.context.bookInfo;
+		if (bookInfo.isPageBreakLine(lineNum)) return true;
+		if (!line.startsWith("［＃") || !line.endsWith("］") || bookInfo.isNoPageBreakLine(lineNum)) return false;
+		return this.tables.getChukiFlagPageBreak().contains(line.substring(2, line.length()-1));
+	}
+	
+	/** 範囲の変換処理を生成して並列変換を開始
+	 * 範囲の先頭は改ページ直後の状態を仮定する */
+	private void submitSection(ExecutorService executor, final SectionRange range)
+	{
+		ConversionContext context = new ConversionContext();
+		context.bookInfo = this.context.bookInfo;
+		context.chapterLineCursor = context.bookInfo.getChapterLineCursor();
+		context.sectionCharLength = 1;
+		context.lastChapterLine = range.lastChapterLine;
+		context.sectionBuffer = new SectionBuffer();
+		context.pageBreakLines = new BitSet();
+		range.converter = this.createSectionConverter(context);
+		range.future = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws IOException
+			{
+				LogAppender.startBuffer();
+				range.timer = new StageTimer();
+				range.timer.start();
+				try {
+					range.converter.convertSection(range.converter.context.sectionBuffer, range);
+					return true;
+				} catch (SectionBuffer.SequentialException e) {
+					return false;
+				} finally {
+					range.timer.stop();
+					range.converter.context.sectionBuffer.log = LogAppender.endBufferEntries();
+				}
+			}
+		});
+	}
+	
+	/** 並列変換用に設定と変換テーブルを共有した変換処理を生成 */
+	private AozoraEpub3Converter createSectionConverter(ConversionContext context)
+	{
+		try {
+			AozoraEpub3Converter converter = (AozoraEpub3Converter)this.clone();
+			converter.context = context;
+			converter.sectionThreads = 1;
+			return converter;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
 		}
 	}
 	
+	/** 範囲の行を順に変換 */
+	private void convertSection(BufferedWriter out, SectionRange range) throws IOException
+	{
+		this.context.lineNum = range.startLine-1;
+		for (String line : range.lines) {
+			this.context.lineNum++;
+			this.convertBodyLine(out, line, false);
+		}
+		out.flush();
+	}
+	
+	/** 範囲の変換結果を出力
+	 * 並列変換の結果が利用できなければ前の範囲の変換後の状態から変換し直して出力する
+	 * @param prevConverter 前の範囲の変換処理 最初の範囲ならnull
+	 * @return 変換後の状態を持つ変換処理 */
+	private AozoraEpub3Converter printSection(BufferedWriter out, SectionRange range, AozoraEpub3Converter prevConverter) throws Exception
+	{
+		boolean parallel = false;
+		if (range.future != null) {
+			try {
+				parallel = range.future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+				throw e;
+			}
+		}
+		SectionBuffer sectionBuffer = range.converter.context.sectionBuffer;
+		if (parallel && isSectionStart(prevConverter.context, range) && sectionBuffer.startsWithSection()) {
+			sectionBuffer.replay(this.writer, out);
+			//前の範囲までに追加した改ページ行を引き継ぐ
+			range.converter.context.pageBreakLines.or(prevConverter.context.pageBreakLines);
+			StageTimer timer = StageTimer.current();
+			if (timer != null) timer.addCounters(range.timer);
+			range.converter.context.sectionBuffer = null;
+		} else {
+			//前の範囲の変換後の状態を引き継いで順番に変換
+			if (prevConverter != null) range.converter = prevConverter;
+			range.converter.convertSection(out, range);
+		}
+		if (this.writer.progress != null) this.writer.progress.setValue(range.converter.context.lineNum/10);
+		return range.converter;
+	}
+	
+	/** 前の範囲の変換後の状態が並列変換で仮定した改ページ直後の状態と同じならtrue
+	 * 改ページで初期化されない状態が仮定と一致して、範囲の先頭の改ページ行で改ページされる場合 */
+	static private boolean isSectionStart(ConversionContext context, SectionRange range)
+	{
+		return context.tagLevel == 0 && context.sectionCharLength > 0 && context.inJisage == -1
+			&& !context.inYoko && !context.inComment && !context.skipMiddleEmpty && !context.nextLineIsCaption && !context.inImageTag
+			&& context.lastChapterLine == range.lastChapterLine;
+	}
+	
+	/** 画像の出力順に依存する処理の前に呼ぶ 並列変換中なら変換を中断して順番に変換し直す */
+	private void checkSequential()
+	{
+		if (this.context.sectionBuffer != null) throw new SectionBuffer.SequentialException();
+	}
+	
+	/** Epub3Writerで改ページ 並列変換中は記録のみ */
+	private void nextSection(BufferedWriter out, int lineNum, int pageType, int imagePageType, String srcImageFilePath) throws IOException
+	{
+		if (this.context.sectionBuffer != null) this.context.sectionBuffer.nextSection(lineNum, pageType, imagePageType, srcImageFilePath);
+		else this.writer.nextSection(out, lineNum, pageType, imagePageType, srcImageFilePath);
+	}
+	/** Epub3Writerに目次を追加 並列変換中は記録のみ */
+	private void addChapter(String chapterId, String name, int chapterLevel)
+	{
+		if (this.context.sectionBuffer != null) this.context.sectionBuffer.addChapter(chapterId, name, chapterLevel);
+		else this.writer.addChapter(chapterId, name, chapterLevel);
+	}
+	/** Epub3Writerに外字フォントを追加 並列変換中は記録のみ */
+	private void addGaijiFont(String className, File gaijiFile)
+	{
+		if (this.context.sectionBuffer != null) this.context.sectionBuffer.addGaijiFont(className, gaijiFile);
+		else this.writer.addGaijiFont(className, gaijiFile);
+	}
+	
 	/** 文字列内の外字を変換
 	 * ・外字はUTF-16文字列に変換
 	 * ・特殊文字のうち※《》｜＃ は文字の前に※をつけてエスケープ
@@ -1284,6 +1250,11 @@ public class AozoraEpub3Converter
 		return convertGaijiChuki(line, escape, true);
 	}
 	public String convertGaijiChuki(String line, boolean escape, boolean logged)
+	{
+		return convertGaijiChuki(line, escape, logged, this.context.gaijiLexer);
+	}
+	/** @param lexer 字句解析 〔〕内の再変換では別のインスタンスを利用 */
+	private String convertGaijiChuki(String line, boolean escape, boolean logged, AozoraLexer lexer)
 	{
 		/*
 		・外字
@@ -1306,82 +1277,45 @@ public class AozoraEpub3Converter
 		・くの字点 〳〴〵
 		*/
 		
-		Matcher m = gaijiChukiPattern.matcher(line);
+		lexer.lex(line, AozoraLexer.MASK_GAIJI);
 		int begin = 0;
 		int chukiStart = 0;
 		
 		//外字が無ければそのまま返却
-		if (!m.find()) return line;
+		if (lexer.count() == 0) return line;
 		
 		//変換後の文字列を出力するバッファ
 		StringBuilder buf = new StringBuilder();
 		
-		do {
-			String chuki = m.group();
-			chukiStart = m.start();
+		for (int t=0; t<lexer.count(); t++) {
+			chukiStart = lexer.start(t);
+			String chuki = line.substring(chukiStart, lexer.end(t));
 			
 			buf.append(line.substring(begin, chukiStart));
 			
 			//外字はUTF-8に変換してそのまま継続
 			if (chuki.charAt(0) == '※') {
-				String chukiInner = chuki.substring(3, chuki.length()-1);
-				//U+のコードのみの注記
-				if (chukiInner.startsWith("U+") || chukiInner.startsWith("u+")) {
-					String gaiji = gaijiConverter.codeToCharString(chukiInner);
-					if (gaiji != null) {
-						buf.append(gaiji);
-						begin = chukiStart+chuki.length();
-						continue;
-					}
-				}
-				//、の後ろにコードがある場合
-				String[] chukiValues = chukiInner.split("、");
-				//注記文字グリフ or 代替文字変換
-				String gaiji = gaijiConverter.toAlterString(chukiValues[0]);
-				//注記内なら注記タグは除外する
-				if (gaiji != null) {
-					if (hasInnerChuki(line, m.start())) {
-						gaiji = gaiji.replaceAll(chukiPattern.pattern(), "");
-					}
-				}
-				//コード変換
-				if (gaiji == null && chukiValues.length > 3) {
-					gaiji = gaijiConverter.codeToCharString(chukiValues[3]);
-				}
-				//コード変換
-				if (gaiji == null && chukiValues.length > 2) {
-					gaiji = gaijiConverter.codeToCharString(chukiValues[2]);
-				}
-				//コード変換
-				if (gaiji == null && chukiValues.length > 1) {
-					gaiji = gaijiConverter.codeToCharString(chukiValues[1]);
+				//同じ外字注記は変換結果を再利用 注記内は注記タグを除外するので対象外
+				boolean cacheable = escape && lexer.depth(t) == 0;
+				String gaiji = null;
+				if (cacheable) {
+					gaiji = this.tables.getGaijiCache().get(chuki);
+					StageTimer.count(gaiji == null ? StageTimer.GAIJI_CACHE_MISS : StageTimer.GAIJI_CACHE_HIT);
 				}
-				//注記名称で変換
 				if (gaiji == null) {
-					gaiji = gaijiConverter.toUtf(chukiValues[0]);
+					gaiji = this.resolveGaijiChuki(chuki, escape, lexer.depth(t) > 0);
+					if (cacheable && gaiji != null) this.tables.getGaijiCache().put(chuki, gaiji);
 				}
-				//外字注記変換をログに出力
 				if (gaiji != null) {
-					//if (logged) LogAppender.info(lineNum, "外字注記", chuki+" → U+"+Integer.toHexString(AozoraGaijiConverter.toUtfCode(gaiji)));
-					if (gaiji.length() == 1 && escape) {
-						//特殊文字は 前に※をつけて文字出力時に例外処理
-						switch (gaiji.charAt(0)) {
-						case '※': buf.append('※'); break;
-						case '》': buf.append('※'); break;
-						case '《': buf.append('※'); break;
-						case '｜': buf.append('※'); break;
-						case '＃': buf.append('※'); break;
-						}
-					}
 					buf.append(gaiji);
 					begin = chukiStart+chuki.length();
 					continue;
 				}
 				
 				//変換不可 画像指定付き外字なら画像注記に変更
-				if (hasInnerChuki(line, m.start())) {
+				if (lexer.depth(t) > 0) {
 					gaiji = "〓";
-					LogAppender.warn(lineNum, "外字注記内に注記があります", chuki);
+					LogAppender.warn(this.context.lineNum, "外字注記内に注記があります", chuki);
 				} else {
 					//画像指定外字
 					int imageStartIdx = chuki.indexOf('（', 2);
@@ -1390,8 +1324,10 @@ public class AozoraEpub3Converter
 						gaiji = chuki.substring(1, chuki.length()-1)+"#GAIJI#］";
 					} else {
 						//画像以外
-						if (logged) LogAppender.info(lineNum, "外字未変換", chuki);
-						gaiji = "〓［＃行右小書き］（"+chukiValues[0]+"）［＃行右小書き終わり］";
+						if (logged) LogAppender.info(this.context.lineNum, "外字未変換", chuki);
+						String chukiInner = chuki.substring(3, chuki.length()-1);
+						int nameEnd = chukiInner.indexOf('、');
+						gaiji = "〓［＃行右小書き］（"+(nameEnd == -1 ? chukiInner : chukiInner.substring(0, nameEnd))+"）［＃行右小書き終わり］";
 					}
 				}
 				buf.append(gaiji);
@@ -1401,10 +1337,10 @@ public class AozoraEpub3Converter
 				String inner = chuki.substring(1, chuki.length()-1);
 				//〔の次が半角でなければ〔の中を再度外字変換
 				if (!CharUtils.isHalfSpace(inner.toCharArray())) {
-					buf.append('〔').append(convertGaijiChuki(inner, true)).append('〕');
+					buf.append('〔').append(convertGaijiChuki(inner, true, true, new AozoraLexer())).append('〕');
 				} else {
 					//System.out.println(chuki);
-					buf.append(latinConverter.toLatinString(inner));
+					buf.append(this.tables.getLatinConverter().toLatinString(inner));
 				}
 			} else if (chuki.charAt(0) == '／') {
 				//くの字点
@@ -1414,27 +1350,62 @@ public class AozoraEpub3Converter
 			}
 			
 			begin = chukiStart+chuki.length();
-		} while (m.find());
+		}
 		
 		//残りの文字をつなげて返却
 		return buf.toString()+line.substring(begin);
 	}
 	
-	/** 注記内かチェック
-	 * @param gaijiStart これより前で注記が閉じていないかをチェック */
-	private boolean hasInnerChuki(String line, int gaijiStart)
+	/** 外字注記 ※［＃…］ をUTF-16文字列に変換
+	 * @param escape 特殊文字なら前に※を付ける
+	 * @param inner 注記内の外字注記なら変換結果の注記タグを除外
+	 * @return 変換できなければnull */
+	private String resolveGaijiChuki(String chuki, boolean escape, boolean inner)
 	{
-		int chukiStartCount = 0;
-		int end = gaijiStart;
-		while ((end = line.lastIndexOf("［＃", end-1)) != -1) {
-			chukiStartCount++;
+		String chukiInner = chuki.substring(3, chuki.length()-1);
+		//U+のコードのみの注記
+		if (chukiInner.startsWith("U+") || chukiInner.startsWith("u+")) {
+			String gaiji = this.tables.getGaijiConverter().codeToCharString(chukiInner);
+			if (gaiji != null) return gaiji;
+		}
+		//、の後ろにコードがある場合
+		String[] chukiValues = chukiInner.split("、");
+		//注記文字グリフ or 代替文字変換
+		String gaiji = this.tables.getGaijiConverter().toAlterString(chukiValues[0]);
+		//注記内なら注記タグは除外する
+		if (gaiji != null) {
+			if (inner) {
+				gaiji = gaiji.replaceAll(chukiPattern.pattern(), "");
+			}
+		}
+		//コード変換
+		if (gaiji == null && chukiValues.length > 3) {
+			gaiji = this.tables.getGaijiConverter().codeToCharString(chukiValues[3]);
+		}
+		//コード変換
+		if (gaiji == null && chukiValues.length > 2) {
+			gaiji = this.tables.getGaijiConverter().codeToCharString(chukiValues[2]);
+		}
+		//コード変換
+		if (gaiji == null && chukiValues.length > 1) {
+			gaiji = this.tables.getGaijiConverter().codeToCharString(chukiValues[1]);
 		}
-		int chukiEndCount = 0;
-		end = gaijiStart;
-		while ((end = line.lastIndexOf('］', end-1)) != -1) {
-			chukiEndCount++;
+		//注記名称で変換
+		if (gaiji == null) {
+			gaiji = this.tables.getGaijiConverter().toUtf(chukiValues[0]);
 		}
-		return chukiStartCount > chukiEndCount;
+		//外字注記変換をログに出力
+		if (gaiji != null) {
+			//if (logged) LogAppender.info(lineNum, "外字注記", chuki+" → U+"+Integer.toHexString(AozoraGaijiConverter.toUtfCode(gaiji)));
+			if (gaiji.length() == 1 && escape) {
+				//特殊文字は 前に※をつけて文字出力時に例外処理
+				switch (gaiji.charAt(0)) {
+				case '※': case '》': case '《': case '｜': case '＃':
+					return "※"+gaiji;
+				}
+			}
+		}
+		return gaiji;
 	}
 	
 	/** 前方参照注記をインライン注記に変換
@@ -1447,47 +1418,52 @@ public class AozoraEpub3Converter
 		if (line.indexOf("［＃「") == -1) return line;
 		
 		//注記内注記があれば除外
-		StringBuilder buf = new StringBuilder();
-		//最初の注記以後は文字判別で入れ子をチェック
-		Matcher mTag = Pattern.compile("((［＃)|］)").matcher(line);
-		int mTagEnd = 0;
-		int innerTagLevel = 0;
-		int innerTagStart = 0;
-		while (mTag.find()) {
-			//注記前まで出力
-			if (innerTagLevel <= 1) buf.append(line.substring(mTagEnd, mTag.start()));
-			mTagEnd = mTag.end();
-			String tag = mTag.group();
-			if ("］".equals(tag)) {
-				//注記タグを出力
-				if (innerTagLevel <= 1) buf.append(tag);
-				else if (innerTagLevel == 2) LogAppender.warn(lineNum, "注記内に注記があります", line.substring(innerTagStart, mTagEnd));
-				innerTagLevel--;
-			} else {
-				innerTagLevel++;
-				//注記タグを出力
-				if (innerTagLevel <= 1) buf.append(tag);
-				else if (innerTagLevel == 2) innerTagStart = mTag.start();
+		AozoraLexer lexer = this.context.sufLexer;
+		lexer.lex(line, AozoraLexer.MASK_BRACKET);
+		if (lexer.maxDepth() > 1) {
+			StringBuilder buf = new StringBuilder(line.length());
+			//最初の注記以後は文字判別で入れ子をチェック
+			int tagEnd = 0;
+			int innerTagLevel = 0;
+			int innerTagStart = 0;
+			for (int t=0; t<lexer.count(); t++) {
+				//注記前まで出力
+				if (innerTagLevel <= 1) buf.append(line, tagEnd, lexer.start(t));
+				tagEnd = lexer.end(t);
+				if (lexer.type(t) == AozoraLexer.CHUKI_CLOSE) {
+					//注記タグを出力
+					if (innerTagLevel <= 1) buf.append('］');
+					else if (innerTagLevel == 2) LogAppender.warn(this.context.lineNum, "注記内に注記があります", line.substring(innerTagStart, tagEnd));
+					innerTagLevel--;
+				} else {
+					innerTagLevel++;
+					//注記タグを出力
+					if (innerTagLevel <= 1) buf.append("［＃");
+					else if (innerTagLevel == 2) innerTagStart = lexer.start(t);
+				}
 			}
+			//後ろを出力
+			buf.append(line, tagEnd, line.length());
+			line = buf.toString();
 		}
-		//後ろを出力
-		buf.append(line.substring(mTagEnd));
-		line = buf.toString();
 		
 		//"［＃「([^］]+)」([^」|^］]+)］"
-		Matcher m = chukiSufPattern.matcher(line);
-		if (!m.find()) return line;
+		int[] groups = this.context.sufGroups;
+		if (!findChukiSuf(line, 0, false, groups)) return line;
+		int nextIdx;
 		
 		int chOffset = 0;
-		buf = new StringBuilder(line);
+		//置換はギャップバッファで行い、編集位置の後ろ全体のコピーを避ける
+		GapBuffer buf = this.context.sufBuffer;
+		buf.reset(line);
 		do {
-			//System.out.println(m.group());
-			String target = m.group(1);
+			String target = line.substring(groups[2], groups[3]);
 			//target = target.replaceAll("《[^》]+》", "");
-			String chuki = m.group(2);
-			String[] tags = sufChukiMap.get(chuki);
-			int chukiTagStart = m.start();
-			int chukiTagEnd = m.end();
+			String chuki = line.substring(groups[4], groups[5]);
+			String[] tags = this.tables.getSufChukiMap().get(chuki);
+			int chukiTagStart = groups[0];
+			int chukiTagEnd = groups[1];
+			nextIdx = chukiTagEnd;
 			
 			//後ろにルビがあったら前に移動して位置を調整
 			if (chukiTagEnd < line.length() && buf.charAt(chukiTagEnd+chOffset) == '《') {
@@ -1497,7 +1473,7 @@ public class AozoraEpub3Converter
 				buf.insert(chukiTagStart+chOffset, ruby);
 				chukiTagStart += ruby.length();
 				chukiTagEnd += ruby.length();
-				LogAppender.warn(lineNum, "ルビが注記の後ろにあります", ruby);
+				LogAppender.warn(this.context.lineNum, "ルビが注記の後ろにあります", ruby);
 			}
 			
 			if (chuki.endsWith("の注記付き終わり")) {
@@ -1525,22 +1501,22 @@ public class AozoraEpub3Converter
 				chOffset += tags[0].length() + tags[1].length() +6 - (chukiTagEnd-chukiTagStart);
 				
 			}
-		} while (m.find());
+		} while (findChukiSuf(line, nextIdx, false, groups));
 		
 		//注記タグ等を再度変換
 		line = buf.toString();
 		//「」が2つある注記 「○○」に「××」の注記
-		m = chukiSufPattern2.matcher(line);
 		//マッチしなければそのまま返却
-		if (!m.find()) return line;
+		if (!findChukiSuf(line, 0, true, groups)) return line;
 		chOffset = 0;
 		do {
-			String target = m.group(1);
-			String chuki = m.group(2);
-			String[] tags = sufChukiMap.get(chuki);
+			String target = line.substring(groups[2], groups[3]);
+			String chuki = line.substring(groups[4], groups[5]);
+			String[] tags = this.tables.getSufChukiMap().get(chuki);
 			int targetLength = target.length();
-			int chukiTagStart = m.start();
-			int chukiTagEnd = m.end();
+			int chukiTagStart = groups[0];
+			int chukiTagEnd = groups[1];
+			nextIdx = chukiTagEnd;
 			
 			//前方参照注記ではない
 			if (tags == null) {
@@ -1571,13 +1547,59 @@ public class AozoraEpub3Converter
 					}
 				}
 			}
-		} while (m.find());
+		} while (findChukiSuf(line, nextIdx, true, groups));
 		
 		//置換後文字列を返却
 		return buf.toString();
 	}
+	
+	/** 前方参照注記をfromIndex以降から検索
+	 * 正規表現の ［＃「([^］]+)」([^」|^］]+)］ (twoQuotes=trueなら ［＃「([^］]+)」([^」|^］]*「[^」|^］]+」[^」|^］]*)］ )
+	 * で検索した場合と同じ位置を取得する
+	 * ○○と～は］を含まないので注記の終了は［＃「の後の最初の］で、～は」を含まない(twoQuotesなら1つだけ含む)ので
+	 * ○○の後の」は］の前の最後(twoQuotesなら最後から2番目)の」になる
+	 * @param groups 注記の開始,終了,○○の開始,終了,～の開始,終了 を設定
+	 * @return 見つからなければfalse */
+	static boolean findChukiSuf(String line, int fromIndex, boolean twoQuotes, int[] groups)
+	{
+		int closeIdx = -1;
+		int start = fromIndex;
+		while ((start = line.indexOf("［＃「", start)) != -1) {
+			int targetStart = start+3;
+			if (closeIdx < targetStart) {
+				closeIdx = line.indexOf('］', targetStart);
+				if (closeIdx == -1) return false;
+			}
+			//○○の後の」
+			int targetEnd = line.lastIndexOf('」', closeIdx-1);
+			int quoteStart = -1;
+			if (twoQuotes && targetEnd > targetStart) {
+				int quoteEnd = targetEnd;
+				targetEnd = line.lastIndexOf('」', quoteEnd-1);
+				//××は1文字以上
+				quoteStart = line.lastIndexOf('「', quoteEnd-2);
+				if (quoteStart <= targetEnd) quoteStart = -1;
+			}
+			if (targetEnd > targetStart && targetEnd < closeIdx-1 && (!twoQuotes || quoteStart != -1)) {
+				//～に | ^ を含まない
+				int i = targetEnd+1;
+				while (i < closeIdx && line.charAt(i) != '|' && line.charAt(i) != '^') i++;
+				if (i == closeIdx) {
+					groups[0] = start;
+					groups[1] = closeIdx+1;
+					groups[2] = targetStart;
+					groups[3] = targetEnd;
+					groups[4] = targetEnd+1;
+					groups[5] = closeIdx;
+					return true;
+				}
+			}
+			start++;
+		}
+		return false;
+	}
 	/** 前方参照注記の前タグ挿入位置を取得 */
-	private int getTargetStart(StringBuilder buf, int chukiTagStart, int chOffset, int targetLength)
+	private int getTargetStart(CharSequence buf, int chukiTagStart, int chOffset, int targetLength)
 	{
 		//置換済みの文字列で注記追加位置を探す
 		int idx = chukiTagStart-1+chOffset;
@@ -1634,13 +1656,14 @@ public class AozoraEpub3Converter
 		char[] ch = line.toCharArray();
 		int charStart = 0;
 		
-		Matcher m = chukiPattern.matcher(line);
+		AozoraLexer lexer = this.context.titleLexer;
+		lexer.lex(line, AozoraLexer.MASK_CHUKI);
 		int chukiStart = 0;
 		
-		while (m.find()) {
-			String chukiTag = m.group();
+		for (int t=0; t<lexer.count(); t++) {
+			chukiStart = lexer.start(t);
+			String chukiTag = line.substring(chukiStart, lexer.end(t));
 			String lowerChukiTag = chukiTag.toLowerCase();
-			chukiStart = m.start();
 			
 			//fontの入れ子は可、圏点・縦横中はルビも付加
 			//なぜか【＃マッチするので除外
@@ -1661,18 +1684,18 @@ public class AozoraEpub3Converter
 			}
 			
 			//訓点・返り点と縦書き時の縦中横
-			if (chukiKunten.contains(chukiName) || (this.vertical && chukiName.startsWith("縦中横"))) {
+			if (this.tables.getChukiKunten().contains(chukiName) || (this.vertical && chukiName.startsWith("縦中横"))) {
 				//注記変換
-				buf.append(chukiMap.get(chukiName)[0]);
+				buf.append(this.tables.getChukiMap().get(chukiName)[0]);
 			} else {
 				//外字画像
 				int imageStartIdx = chukiTag.lastIndexOf('（');
 				if (imageStartIdx > -1) {
 					//訓点送り仮名チェック ＃の次が（で.を含まない
 					if (imageStartIdx == 2 && chukiTag.endsWith("）］") && chukiTag.indexOf('.', 2) == -1) {
-						buf.append(chukiMap.get("行右小書き")[0]);
+						buf.append(this.tables.getChukiMap().get("行右小書き")[0]);
 						buf.append(chukiTag.substring(3, chukiTag.length()-2));
-						buf.append(chukiMap.get("行右小書き終わり")[0]);
+						buf.append(this.tables.getChukiMap().get("行右小書き終わり")[0]);
 					} else if (chukiTag.indexOf('.', 2) == -1) {
 						//拡張子を含まない
 						
@@ -1683,7 +1706,7 @@ public class AozoraEpub3Converter
 							//外字の場合 (注記末尾がフラグ文字列になっている)
 							if (chukiTag.endsWith("#GAIJI#］")) {
 								String fileName = writer.getImageFilePath(srcFilePath.trim(), -1);
-								buf.append(String.format(chukiMap.get("外字画像")[0], fileName));
+								buf.append(String.format(this.tables.getChukiMap().get("外字画像")[0], fileName));
 							}
 						}
 					}
@@ -1712,16 +1735,16 @@ public class AozoraEpub3Converter
 		line = this.replaceChukiSufTag(this.convertGaijiChuki(line, true));
 		
 		//キャプション指定の画像の場合はすぐにキャプションでなければ画像タグを閉じる
-		if (this.nextLineIsCaption) {
+		if (this.context.nextLineIsCaption) {
 			if (!line.startsWith("［＃キャプション］") && !line.startsWith("［＃ここからキャプション］")) {
 				LogAppender.warn(lineNum, "画像の次の行にキャプションがありません");
-				buf.append(chukiMap.get("画像終わり")[0]);
+				buf.append(this.tables.getChukiMap().get("画像終わり")[0]);
 				buf.append("\n");
-				this.inImageTag = false;
+				this.context.inImageTag = false;
 			}
 		}
 		
-		this.nextLineIsCaption = false;
+		this.context.nextLineIsCaption = false;
 		
 		char[] ch = line.toCharArray();
 		int charStart = 0;
@@ -1766,18 +1789,19 @@ public class AozoraEpub3Converter
 		
 		StringBuilder bufSuf = new StringBuilder();
 		// 注記タグ変換
-		Matcher m = chukiPattern.matcher(line);
+		AozoraLexer lexer = this.context.textLexer;
+		lexer.lex(line, AozoraLexer.MASK_CHUKI);
 		int chukiStart = 0;
 		
-		this.noTcyStart.clear();
-		this.noTcyEnd.clear();
+		this.context.noTcyStart.clear();
+		this.context.noTcyEnd.clear();
 		//横組み中なら先頭から縦中横抑止
-		if (inYoko) this.noTcyStart.add(0);
+		if (this.context.inYoko) this.context.noTcyStart.add(0);
 		
-		while (m.find()) {
-			String chukiTag = m.group();
+		for (int t=0; t<lexer.count(); t++) {
+			chukiStart = lexer.start(t);
+			String chukiTag = line.substring(chukiStart, lexer.end(t));
 			String lowerChukiTag = chukiTag.toLowerCase();
-			chukiStart = m.start();
 			
 			//fontの入れ子は可、圏点・縦横中はルビも付加
 			//なぜか【＃マッチするので除外
@@ -1792,7 +1816,7 @@ public class AozoraEpub3Converter
 			
 			//注記→タグ変換
 			String chukiName = chukiTag.substring(2, chukiTag.length()-1);
-			String[] tags = chukiMap.get(chukiName);
+			String[] tags = this.tables.getChukiMap().get(chukiName);
 			
 			if (wrcStart > 0 && chukiName.endsWith("割り注終わり")) {
 				
@@ -1805,7 +1829,7 @@ public class AozoraEpub3Converter
 				//割り注の改行指定があったら改行を挿入
 				if (charStart <= wrcBrPos && wrcBrPos <= chukiStart) {
 					this.convertEscapedText(buf, ch, charStart, wrcBrPos);
-					buf.append(chukiMap.get("改行")[0]);
+					buf.append(this.tables.getChukiMap().get("改行")[0]);
 					this.convertEscapedText(buf, ch, wrcBrPos, chukiStart-(wrcEndChar==0?0:1));
 					wrcBrPos =-1;
 				} else {
@@ -1833,7 +1857,7 @@ public class AozoraEpub3Converter
 				//割り注の改行指定があったら改行を挿入
 				if (charStart <= wrcBrPos && wrcBrPos <= chukiStart) {
 					this.convertEscapedText(buf, ch, charStart, wrcBrPos);
-					buf.append(chukiMap.get("改行")[0]);
+					buf.append(this.tables.getChukiMap().get("改行")[0]);
 					this.convertEscapedText(buf, ch, wrcBrPos, chukiStart);
 					wrcBrPos =-1;
 				} else {
@@ -1843,13 +1867,13 @@ public class AozoraEpub3Converter
 			
 			//縦中横抑止
 			//横組みチェック
-			if (chukiName.endsWith("横組み")) { inYoko = true; noTcyStart.add(buf.length()); }
-			else if (inYoko && chukiName.endsWith("横組み終わり")) { inYoko = false; noTcyEnd.add(buf.length()); }
+			if (chukiName.endsWith("横組み")) { this.context.inYoko = true; this.context.noTcyStart.add(buf.length()); }
+			else if (this.context.inYoko && chukiName.endsWith("横組み終わり")) { this.context.inYoko = false; this.context.noTcyEnd.add(buf.length()); }
 			//縦中横チェック
-			if (!inYoko) {
+			if (!this.context.inYoko) {
 				if (chukiName.startsWith("縦中横")) {
-					if (chukiName.endsWith("終わり")) { noTcyEnd.add(buf.length()); }
-					else { noTcyStart.add(buf.length()); }
+					if (chukiName.endsWith("終わり")) { this.context.noTcyEnd.add(buf.length()); }
+					else { this.context.noTcyStart.add(buf.length()); }
 				}
 			}
 			
@@ -1860,12 +1884,12 @@ public class AozoraEpub3Converter
 				////////////////////////////////////////////////////////////////
 				//改ページ注記
 				////////////////////////////////////////////////////////////////
-				if (chukiFlagPageBreak.contains(chukiName) && !bookInfo.isNoPageBreakLine(lineNum)) {
+				if (this.tables.getChukiFlagPageBreak().contains(chukiName) && !this.context.bookInfo.isNoPageBreakLine(lineNum)) {
 					//字下げ状態エラー出力
-					if (inJisage >= 0) {
-						LogAppender.warn(inJisage, "字下げ注記省略");
-						buf.append(chukiMap.get("字下げ省略")[0]);
-						inJisage = -1;
+					if (this.context.inJisage >= 0) {
+						LogAppender.warn(this.context.inJisage, "字下げ注記省略");
+						buf.append(this.tables.getChukiMap().get("字下げ省略")[0]);
+						this.context.inJisage = -1;
 					}
 					
 					//改ページの前に文字があれば出力
@@ -1880,45 +1904,46 @@ public class AozoraEpub3Converter
 					if (ch.length > charStart+chukiTag.length()) noBr = false;
 					
 					//改ページフラグ設定
-					if (chukiFlagMiddle.contains(chukiName)) {
+					if (this.tables.getChukiFlagMiddle().contains(chukiName)) {
 						//左右中央
-						this.setPageBreakTrigger(pageBreakMiddle);
-					} else if (chukiFlagBottom.contains(chukiName)) {
+						this.setPageBreakTrigger(this.context.pageBreakMiddle);
+					} else if (this.tables.getChukiFlagBottom().contains(chukiName)) {
 						//ページ左
-						this.setPageBreakTrigger(pageBreakBottom);
-					} else if (bookInfo.isImageSectionLine(lineNum+1)) {
+						this.setPageBreakTrigger(this.context.pageBreakBottom);
+					} else if (this.context.bookInfo.isImageSectionLine(lineNum+1)) {
+						this.checkSequential();
 						//次の行が画像単ページの表紙
-						if (writer.getImageIndex() == bookInfo.coverImageIndex && bookInfo.insertCoverPage) {
+						if (writer.getImageIndex() == this.context.bookInfo.coverImageIndex && this.context.bookInfo.insertCoverPage) {
 							//先頭画像で表紙に移動なら改ページしない
 							this.setPageBreakTrigger(null);
 						} else {
-							this.setPageBreakTrigger(pageBreakImageAuto);
-							pageBreakImageAuto.srcFileName = bookInfo.getImageSectionFileName(lineNum+1);
-							pageBreakImageAuto.imagePageType = this.writer.getImagePageType(this.pageBreakTrigger.srcFileName, this.tagLevel, lineNum, this.hasImageCaption(chukiTag));
+							this.setPageBreakTrigger(this.context.pageBreakImageAuto);
+							this.context.pageBreakImageAuto.srcFileName = this.context.bookInfo.getImageSectionFileName(lineNum+1);
+							this.context.pageBreakImageAuto.imagePageType = this.writer.getImagePageType(this.context.pageBreakTrigger.srcFileName, this.context.tagLevel, lineNum, this.hasImageCaption(chukiTag));
 						}
 					} else {
-						this.setPageBreakTrigger(pageBreakNormal);
+						this.setPageBreakTrigger(this.context.pageBreakNormal);
 					}
 				}
 				////////////////////////////////////////////////////////////////
 				
 				//字下げフラグ処理
 				else if (chukiName.endsWith("字下げ")) {
-					if (inJisage >= 0) {
-						LogAppender.warn(inJisage, "字下げ注記省略");
-						buf.append(chukiMap.get("字下げ省略")[0]);
-						inJisage = -1;
+					if (this.context.inJisage >= 0) {
+						LogAppender.warn(this.context.inJisage, "字下げ注記省略");
+						buf.append(this.tables.getChukiMap().get("字下げ省略")[0]);
+						this.context.inJisage = -1;
 					}
 					//タグが閉じていればインラインなのでフラグは立てない
-					if (tags.length > 1) inJisage = -1;//インライン
-					else inJisage = lineNum; //ブロック開始
+					if (tags.length > 1) this.context.inJisage = -1;//インライン
+					else this.context.inJisage = lineNum; //ブロック開始
 				}
 				else if (chukiName.endsWith("字下げ終わり")) {
-					if (inJisage == -1) {
+					if (this.context.inJisage == -1) {
 						LogAppender.info(lineNum, "字下げ終わり重複");
 						noTagAppend = true;
 					}
-					inJisage = -1;
+					this.context.inJisage = -1;
 				}
 				//窓見出しは行頭のみ
 				else if (chukiName.startsWith("窓")) {
@@ -2028,10 +2053,10 @@ public class AozoraEpub3Converter
 					}
 				}
 				else if (chukiName.endsWith("キャプション終わり")) {
-					if (this.inImageTag) {
-						buf.append(chukiMap.get("画像終わり")[0]);
+					if (this.context.inImageTag) {
+						buf.append(this.tables.getChukiMap().get("画像終わり")[0]);
 						buf.append("\n");
-						this.inImageTag = false;
+						this.context.inImageTag = false;
 						noBr = true;
 					}
 				}
@@ -2044,7 +2069,7 @@ public class AozoraEpub3Converter
 					}
 				}
 				//ブロック注記の改行無しチェック
-				if (chukiFlagNoBr.contains(chukiName)) noBr = true;
+				if (this.tables.getChukiFlagNoBr().contains(chukiName)) noBr = true;
 				
 			} else {
 				//画像 (訓点 ［＃（ス）］ は . があるかで判断)
@@ -2054,15 +2079,16 @@ public class AozoraEpub3Converter
 				if (imageStartIdx > -1) {
 					//訓点送り仮名チェック ＃の次が（で.を含まない
 					if (imageStartIdx == 2 && chukiTag.endsWith("）］") && chukiTag.indexOf('.', 2) == -1) {
-						buf.append(chukiMap.get("行右小書き")[0]);
+						buf.append(this.tables.getChukiMap().get("行右小書き")[0]);
 						buf.append(chukiTag.substring(3, chukiTag.length()-2));
-						buf.append(chukiMap.get("行右小書き終わり")[0]);
+						buf.append(this.tables.getChukiMap().get("行右小書き終わり")[0]);
 					} else if (chukiTag.indexOf('.', 2) == -1) {
 						//拡張子を含まない
 						LogAppender.info(lineNum, "注記未変換", chukiTag);
 					} else {
 						//ダミー出力時は画像注記は無視
 						if (!noImage) {
+							this.checkSequential();
 							//画像ファイル名置換処理実行
 							String srcFilePath = this.getImageChukiFileName(chukiTag, imageStartIdx);
 							if (srcFilePath == null) {
@@ -2093,7 +2119,7 @@ public class AozoraEpub3Converter
 									//} else {
 										String imgFileName = writer.getImageFilePath(srcFilePath.trim(), lineNum);
 										if (imgFileName != null) {
-											buf.append(String.format(chukiMap.get("外字画像")[0], imgFileName));
+											buf.append(String.format(this.tables.getChukiMap().get("外字画像")[0], imgFileName));
 											//ログ出力
 											LogAppender.info(lineNum, "外字画像利用", srcFilePath);
 										}
@@ -2104,7 +2130,7 @@ public class AozoraEpub3Converter
 									} else {
 										String dstFileName = writer.getImageFilePath(srcFilePath, lineNum);
 										if (dstFileName != null) { //先頭に移動してここで出力しない場合はnull
-											if (bookInfo.isImageSectionLine(lineNum)) noBr = true;
+											if (this.context.bookInfo.isImageSectionLine(lineNum)) noBr = true;
 											//画像注記またはページ出力
 											if (printImageChuki(out, buf, srcFilePath, dstFileName, this.hasImageCaption(chukiTag), lineNum)) noBr = true;
 										}
@@ -2114,6 +2140,7 @@ public class AozoraEpub3Converter
 						}
 					}
 				} else if (lowerChukiTag.startsWith("<img")) {
+					this.checkSequential();
 					if (noIllust && !writer.isCoverImage()) {
 						LogAppender.info(lineNum, "挿絵除外", chukiTag);
 					} else {
@@ -2127,7 +2154,7 @@ public class AozoraEpub3Converter
 								//単ページ画像の場合は<p>タグを出さない
 								String dstFileName = writer.getImageFilePath(srcFilePath.trim(), lineNum);
 								if (dstFileName != null) { //先頭に移動してここで出力しない場合はnull
-									if (bookInfo.isImageSectionLine(lineNum)) noBr = true;
+									if (this.context.bookInfo.isImageSectionLine(lineNum)) noBr = true;
 									//画像注記またはページ出力
 									if (printImageChuki(out, buf, srcFilePath, dstFileName, this.hasImageCaption(chukiTag), lineNum)) noBr = true;
 								}
@@ -2155,40 +2182,40 @@ public class AozoraEpub3Converter
 				else {
 					//インデント字下げ
 					boolean patternMatched = false;
-					Matcher m2 = chukiPatternMap.get("折り返し").matcher(chukiTag);
+					Matcher m2 = this.tables.getChukiPatternMap().get("折り返し").matcher(chukiTag);
 					if (m2.find()) {
 						//字下げフラグ処理
-						if (inJisage >= 0) {
-							LogAppender.warn(inJisage, "字下げ注記省略");
-							buf.append(chukiMap.get("字下げ省略")[0]);
+						if (this.context.inJisage >= 0) {
+							LogAppender.warn(this.context.inJisage, "字下げ注記省略");
+							buf.append(this.tables.getChukiMap().get("字下げ省略")[0]);
 						}
-						inJisage = lineNum;
+						this.context.inJisage = lineNum;
 						
 						int arg0 = Integer.parseInt(CharUtils.fullToHalf(m2.group(1)));
 						int arg1 = Integer.parseInt(CharUtils.fullToHalf(m2.group(2)));
-						buf.append(chukiMap.get("折り返し1")[0]+arg1);
-						buf.append(chukiMap.get("折り返し2")[0]+(arg0-arg1));
-						buf.append(chukiMap.get("折り返し3")[0]);
+						buf.append(this.tables.getChukiMap().get("折り返し1")[0]+arg1);
+						buf.append(this.tables.getChukiMap().get("折り返し2")[0]+(arg0-arg1));
+						buf.append(this.tables.getChukiMap().get("折り返し3")[0]);
 						
 						noBr = true;//ブロック字下げなので改行なし
 						patternMatched = true;
 					}
 					//インデント字下げ
 					if (!patternMatched) {
-						m2 = chukiPatternMap.get("字下げ字詰め").matcher(chukiTag);
+						m2 = this.tables.getChukiPatternMap().get("字下げ字詰め").matcher(chukiTag);
 						if (m2.find()) {
 							//字下げフラグ処理
-							if (inJisage >= 0) {
-								LogAppender.warn(inJisage, "字下げ注記省略");
-								buf.append(chukiMap.get("字下げ省略")[0]);
+							if (this.context.inJisage >= 0) {
+								LogAppender.warn(this.context.inJisage, "字下げ注記省略");
+								buf.append(this.tables.getChukiMap().get("字下げ省略")[0]);
 							}
-							inJisage = lineNum;
+							this.context.inJisage = lineNum;
 							
 							int arg0 = Integer.parseInt(CharUtils.fullToHalf(m2.group(1)));
 							int arg1 = Integer.parseInt(CharUtils.fullToHalf(m2.group(2)));
-							buf.append(chukiMap.get("字下げ字詰め1")[0]+arg0);
-							buf.append(chukiMap.get("字下げ字詰め2")[0]+arg1);
-							buf.append(chukiMap.get("字下げ字詰め3")[0]);
+							buf.append(this.tables.getChukiMap().get("字下げ字詰め1")[0]+arg0);
+							buf.append(this.tables.getChukiMap().get("字下げ字詰め2")[0]+arg1);
+							buf.append(this.tables.getChukiMap().get("字下げ字詰め3")[0]);
 							
 							noBr = true;//ブロック字下げなので改行なし
 							patternMatched = true;
@@ -2196,26 +2223,26 @@ public class AozoraEpub3Converter
 					}
 					//字下げ複合は字下げの後の複合注記をclassに追加
 					if (!patternMatched) {
-						m2 = chukiPatternMap.get("字下げ複合").matcher(chukiTag);
+						m2 = this.tables.getChukiPatternMap().get("字下げ複合").matcher(chukiTag);
 						if (m2.find()) {
 							//字下げフラグ処理
-							if (inJisage >= 0) {
-								LogAppender.warn(inJisage, "字下げ注記省略");
-								buf.append(chukiMap.get("字下げ省略")[0]);
+							if (this.context.inJisage >= 0) {
+								LogAppender.warn(this.context.inJisage, "字下げ注記省略");
+								buf.append(this.tables.getChukiMap().get("字下げ省略")[0]);
 							}
-							inJisage = lineNum;
+							this.context.inJisage = lineNum;
 							
 							int arg0 = Integer.parseInt(CharUtils.fullToHalf(m2.group(1)));
-							buf.append(chukiMap.get("字下げ複合1")[0]+arg0);
+							buf.append(this.tables.getChukiMap().get("字下げ複合1")[0]+arg0);
 							//複合注記クラス追加
-							if (chukiTag.indexOf("破線罫囲み") > 0) buf.append(" ").append(chukiMap.get("字下げ破線罫囲み")[0]);
-							else if (chukiTag.indexOf("罫囲み") > 0) buf.append(" ").append(chukiMap.get("字下げ罫囲み")[0]);
-							if (chukiTag.indexOf("破線枠囲み") > 0) buf.append(" ").append(chukiMap.get("字下げ破線枠囲み")[0]);
-							else if (chukiTag.indexOf("枠囲み") > 0) buf.append(" ").append(chukiMap.get("字下げ枠囲み")[0]);
-							if (chukiTag.indexOf("中央揃え") > 0) buf.append(" ").append(chukiMap.get("字下げ中央揃え")[0]);
-							if (chukiTag.indexOf("横書き") > 0) buf.append(" ").append(chukiMap.get("字下げ横書き")[0]);
+							if (chukiTag.indexOf("破線罫囲み") > 0) buf.append(" ").append(this.tables.getChukiMap().get("字下げ破線罫囲み")[0]);
+							else if (chukiTag.indexOf("罫囲み") > 0) buf.append(" ").append(this.tables.getChukiMap().get("字下げ罫囲み")[0]);
+							if (chukiTag.indexOf("破線枠囲み") > 0) buf.append(" ").append(this.tables.getChukiMap().get("字下げ破線枠囲み")[0]);
+							else if (chukiTag.indexOf("枠囲み") > 0) buf.append(" ").append(this.tables.getChukiMap().get("字下げ枠囲み")[0]);
+							if (chukiTag.indexOf("中央揃え") > 0) buf.append(" ").append(this.tables.getChukiMap().get("字下げ中央揃え")[0]);
+							if (chukiTag.indexOf("横書き") > 0) buf.append(" ").append(this.tables.getChukiMap().get("字下げ横書き")[0]);
 							//複合字下げclass閉じる
-							buf.append(chukiMap.get("字下げ複合2")[0]);
+							buf.append(this.tables.getChukiMap().get("字下げ複合2")[0]);
 							
 							noBr = true;//ブロック字下げなので改行なし
 							patternMatched = true;
@@ -2223,11 +2250,11 @@ public class AozoraEpub3Converter
 					}
 					//字下げ終わり複合注記
 					if (!patternMatched) {
-						m2 = chukiPatternMap.get("字下げ終わり複合").matcher(chukiTag);
+						m2 = this.tables.getChukiPatternMap().get("字下げ終わり複合").matcher(chukiTag);
 						if (m2.find()) {
-							if (inJisage == -1) LogAppender.error(lineNum, "字下げ注記エラー");
-							else buf.append(chukiMap.get("ここで字下げ終わり")[0]);
-							inJisage = -1;
+							if (this.context.inJisage == -1) LogAppender.error(lineNum, "字下げ注記エラー");
+							else buf.append(this.tables.getChukiMap().get("ここで字下げ終わり")[0]);
+							this.context.inJisage = -1;
 							
 							noBr = true;
 							patternMatched = true;
@@ -2253,18 +2280,18 @@ public class AozoraEpub3Converter
 		
 		//底本：で前が改ページでなければ改ページ追加
 		if (separateColophon) {
-			if (this.sectionCharLength > 0 && buf.length() > 2 && buf.charAt(0)=='底' && buf.charAt(1)=='本' && buf.charAt(2)=='：' ) {
+			if (this.context.sectionCharLength > 0 && buf.length() > 2 && buf.charAt(0)=='底' && buf.charAt(1)=='本' && buf.charAt(2)=='：' ) {
 				//字下げ状態エラー出力
-				if (inJisage >= 0) {
-					LogAppender.error(inJisage, "字下げ注記エラー");
+				if (this.context.inJisage >= 0) {
+					LogAppender.error(this.context.inJisage, "字下げ注記エラー");
 				} else {
-					this.setPageBreakTrigger(pageBreakNoChapter);
+					this.setPageBreakTrigger(this.context.pageBreakNoChapter);
 				}
 			}
 		}
 		
 		//ルビ変換＋自動縦中横してからバッファを出力
-		this.printLineBuffer(out, this.convertRubyText(buf.toString()), lineNum, noBr||this.inImageTag);
+		this.printLineBuffer(out, this.convertRubyText(buf.toString()), lineNum, noBr||this.context.inImageTag);
 		
 		//クリア Kobo 調整中
 		/*if (clearRight && clearLeft) out.append(chukiMap.get("クリア")[0]);
@@ -2277,46 +2304,46 @@ public class AozoraEpub3Converter
 	private boolean printImageChuki(BufferedWriter out, StringBuilder buf, String srcFileName, String dstFileName, boolean hasCaption, int lineNum) throws IOException
 	{
 		//サイズを取得して画面サイズとの%を指定
-		int imagePageType = this.writer.getImagePageType(srcFileName, this.tagLevel, lineNum, hasCaption);
+		int imagePageType = this.writer.getImagePageType(srcFileName, this.context.tagLevel, lineNum, hasCaption);
 		
 		//サイズを%で指定 倍率指定が無効または画像が小さいなら0
 		double ratio = this.writer.getImageWidthRatio(srcFileName, hasCaption);
 		
 		if (imagePageType == PageBreakType.IMAGE_INLINE_W) {
-			if (ratio <= 0) buf.append(String.format(chukiMap.get("画像横")[0], dstFileName));
-			else buf.append(String.format(chukiMap.get("画像幅")[0], ratio, dstFileName));
+			if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像横")[0], dstFileName));
+			else buf.append(String.format(this.tables.getChukiMap().get("画像幅")[0], ratio, dstFileName));
 		} else if (imagePageType == PageBreakType.IMAGE_INLINE_H) {
-			if (ratio <= 0) buf.append(String.format(chukiMap.get("画像縦")[0], dstFileName));
-			else buf.append(String.format(chukiMap.get("画像幅")[0], ratio, dstFileName));
+			if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像縦")[0], dstFileName));
+			else buf.append(String.format(this.tables.getChukiMap().get("画像幅")[0], ratio, dstFileName));
 		} else if (imagePageType == PageBreakType.IMAGE_INLINE_TOP_W) {
-			if (ratio <= 0) buf.append(String.format(chukiMap.get("画像上横")[0], dstFileName));
-			else buf.append(String.format(chukiMap.get("画像幅上")[0], ratio, dstFileName));
+			if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像上横")[0], dstFileName));
+			else buf.append(String.format(this.tables.getChukiMap().get("画像幅上")[0], ratio, dstFileName));
 		} else if (imagePageType == PageBreakType.IMAGE_INLINE_BOTTOM_W) {
-			if (ratio <= 0) buf.append(String.format(chukiMap.get("画像下横")[0], dstFileName));
-			else buf.append(String.format(chukiMap.get("画像幅下")[0], ratio, dstFileName));
+			if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像下横")[0], dstFileName));
+			else buf.append(String.format(this.tables.getChukiMap().get("画像幅下")[0], ratio, dstFileName));
 		} else if (imagePageType == PageBreakType.IMAGE_INLINE_TOP) {
-			if (ratio <= 0) buf.append(String.format(chukiMap.get("画像上")[0], dstFileName));
-			else buf.append(String.format(chukiMap.get("画像幅上")[0], ratio, dstFileName));
+			if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像上")[0], dstFileName));
+			else buf.append(String.format(this.tables.getChukiMap().get("画像幅上")[0], ratio, dstFileName));
 		} else if (imagePageType == PageBreakType.IMAGE_INLINE_BOTTOM) {
-			if (ratio <= 0) buf.append(String.format(chukiMap.get("画像下")[0],  dstFileName));
-			else buf.append(String.format(chukiMap.get("画像幅下")[0], ratio, dstFileName));
+			if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像下")[0],  dstFileName));
+			else buf.append(String.format(this.tables.getChukiMap().get("画像幅下")[0], ratio, dstFileName));
 		} else if (imagePageType != PageBreakType.IMAGE_PAGE_NONE) {
 			if (ratio != -1 && this.imageFloatPage) {
 				//単ページfloat表示
 				if (imagePageType == PageBreakType.IMAGE_PAGE_W) {
-					buf.append(String.format(chukiMap.get("画像単横浮")[0], dstFileName));
+					buf.append(String.format(this.tables.getChukiMap().get("画像単横浮")[0], dstFileName));
 				} else if (imagePageType == PageBreakType.IMAGE_PAGE_H) {
-					buf.append(String.format(chukiMap.get("画像単縦浮")[0], dstFileName));
+					buf.append(String.format(this.tables.getChukiMap().get("画像単縦浮")[0], dstFileName));
 				} else {
-					if (ratio <= 0) buf.append(String.format(chukiMap.get("画像単浮")[0], dstFileName));
-					else buf.append(String.format(chukiMap.get("画像単幅浮")[0], ratio, dstFileName));
+					if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像単浮")[0], dstFileName));
+					else buf.append(String.format(this.tables.getChukiMap().get("画像単幅浮")[0], ratio, dstFileName));
 				}
 			} else {
 				//単ページ出力 タグの外のみ
 				//改ページの前に文字があれば前のページに出力
 				if (buf.length() > 0) this.printLineBuffer(out, buf, lineNum, true);
-				buf.append(String.format(chukiMap.get("画像")[0], dstFileName));
-				buf.append(chukiMap.get("画像終わり")[0]);
+				buf.append(String.format(this.tables.getChukiMap().get("画像")[0], dstFileName));
+				buf.append(this.tables.getChukiMap().get("画像終わり")[0]);
 				//単ページ出力
 				this.printImagePage(out, buf, lineNum, srcFileName, dstFileName, imagePageType);
 				return true;
@@ -2324,20 +2351,20 @@ public class AozoraEpub3Converter
 		} else {
 			if (ratio != -1 && imageFloatBlock) {
 				//画像float表示
-				if (ratio <= 0) buf.append(String.format(chukiMap.get("画像浮")[0], dstFileName));
-				else buf.append(String.format(chukiMap.get("画像幅浮")[0], ratio, dstFileName));
+				if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像浮")[0], dstFileName));
+				else buf.append(String.format(this.tables.getChukiMap().get("画像幅浮")[0], ratio, dstFileName));
 			} else {
 				//画像通常表示
-				if (ratio <= 0) buf.append(String.format(chukiMap.get("画像")[0], dstFileName));
-				else buf.append(String.format(chukiMap.get("画像幅")[0], ratio, dstFileName));
+				if (ratio <= 0) buf.append(String.format(this.tables.getChukiMap().get("画像")[0], dstFileName));
+				else buf.append(String.format(this.tables.getChukiMap().get("画像幅")[0], ratio, dstFileName));
 			}
 		}
 		//キャプショがある場合はタグを閉じない
 		if (hasCaption) {
-			this.inImageTag = true;
-			this.nextLineIsCaption = true;
+			this.context.inImageTag = true;
+			this.context.nextLineIsCaption = true;
 		} else {
-			buf.append(chukiMap.get("画像終わり")[0]);
+			buf.append(this.tables.getChukiMap().get("画像終わり")[0]);
 		}
 		return false;
 	}
@@ -2351,12 +2378,12 @@ public class AozoraEpub3Converter
 		switch (ch[begin]) {
 		case 0xDB40:
 			begin+=2;
-			LogAppender.warn(lineNum, "先頭にあるIVSを除去します");
+			LogAppender.warn(this.context.lineNum, "先頭にあるIVSを除去します");
 			break;
 		case 0xFE00: case 0xFE01: case 0xFE02: case 0xFE03: case 0xFE04: case 0xFE05: case 0xFE06: case 0xFE07:
 		case 0xFE08: case 0xFE09: case 0xFE0A: case 0xFE0B: case 0xFE0C: case 0xFE0D: case 0xFE0E: case 0xFE0F:
 			begin++;
-			LogAppender.warn(lineNum, "先頭にあるIVSを除去します");
+			LogAppender.warn(this.context.lineNum, "先頭にあるIVSを除去します");
 			break;
 		}
 		
@@ -2424,15 +2451,15 @@ public class AozoraEpub3Converter
 		//boolean isAlphaRuby = false; //英字へのルビ
 		RubyCharType rubyCharType = RubyCharType.NULL;
 		
-		String rubyStartChuki = chukiMap.get("ルビ開始")[0];
-		String rubyEndChuki = chukiMap.get("ルビ終了")[0];
+		String rubyStartChuki = this.tables.getChukiMap().get("ルビ開始")[0];
+		String rubyEndChuki = this.tables.getChukiMap().get("ルビ終了")[0];
 		
 		boolean noTcy = false;
 		for (int i=begin; i<end; i++) {
 			
 			//縦中横と横書きの中かチェック
-			if (!noTcy && noTcyStart.contains(i)) noTcy = true;
-			else if (noTcy && noTcyEnd.contains(i)) noTcy = false;
+			if (!noTcy && this.context.noTcyStart.contains(i)) noTcy = true;
+			else if (noTcy && this.context.noTcyEnd.contains(i)) noTcy = false;
 			
 			switch (ch[i]) {
 			case '｜':
@@ -2465,7 +2492,7 @@ public class AozoraEpub3Converter
 							if (rubyTopStart-rubyStart >= 30) {
 								//タグは除去 面倒なので文字列で置換
 								if (line.substring(rubyStart, rubyTopStart).replaceAll("<[^>]+>", " ").length() >= 30)
-									LogAppender.warn(lineNum, "ルビが長すぎます");
+									LogAppender.warn(this.context.lineNum, "ルビが長すぎます");
 							}
 							//同じ長さで同じ文字なら一文字づつルビを振る
 							if (rubyTopStart-rubyStart == i-rubyTopStart-1 && CharUtils.isSameChars(ch, rubyTopStart+1, i)) {
@@ -2476,9 +2503,9 @@ public class AozoraEpub3Converter
 								}
 								for (int j=0; j<rubyTopStart-rubyStart; j++) {
 									convertReplacedChar(buf, ch, rubyStart+j, noTcy); //本文
-									buf.append(chukiMap.get("ルビ前")[0]);
+									buf.append(this.tables.getChukiMap().get("ルビ前")[0]);
 									convertReplacedChar(buf, ch, rubyTopStart+1+j, true);//ルビ
-									buf.append(chukiMap.get("ルビ後")[0]);
+									buf.append(this.tables.getChukiMap().get("ルビ後")[0]);
 								}
 								buf.append(rubyEndChuki);
 							} else {
@@ -2488,31 +2515,33 @@ public class AozoraEpub3Converter
 									buf.setLength(buf.length()-rubyEndChuki.length());
 								}
 								convertTcyText(buf, ch, rubyStart, rubyTopStart, noTcy); //本文
-								buf.append(chukiMap.get("ルビ前")[0]);
+								buf.append(this.tables.getChukiMap().get("ルビ前")[0]);
 								convertTcyText(buf, ch, rubyTopStart+1, i, true);//ルビ
-								buf.append(chukiMap.get("ルビ後")[0]);
+								buf.append(this.tables.getChukiMap().get("ルビ後")[0]);
 								buf.append(rubyEndChuki);
 							}
 						}
 					}
 					if (rubyStart == -1 && !noRuby) {
-						LogAppender.warn(lineNum, "ルビ開始文字無し");
+						LogAppender.warn(this.context.lineNum, "ルビ開始文字無し");
 					}
 					inRuby = false;
 					rubyStart = -1;
 					rubyTopStart = -1;
 				}
 			} else {
+				//文字種別
+				int charType = CharUtils.getCharType(ch[i]);
 				//ルビ開始位置チェック
 				if (rubyStart != -1) {
 					// ルビ開始チェック中で漢字以外または英字以外ならキャンセルして出力
 					boolean charTypeChanged = false;
 					switch (rubyCharType) {
-					case ALPHA: if (!CharUtils.isHalfSpace(ch[i]) || ch[i]=='>') charTypeChanged = true; break;
-					case FULLALPHA: if (!(CharUtils.isFullAlpha(ch[i]) || CharUtils.isFullNum(ch[i]))) charTypeChanged = true; break;
+					case ALPHA: if ((charType & CharUtils.HALF_SPACE) == 0 || ch[i]=='>') charTypeChanged = true; break;
+					case FULLALPHA: if ((charType & (CharUtils.FULL_ALPHA|CharUtils.FULL_NUM)) == 0) charTypeChanged = true; break;
 					case KANJI: if (!CharUtils.isKanji(ch, i)) charTypeChanged = true; break;
-					case HIRAGANA: if (!CharUtils.isHiragana(ch[i])) charTypeChanged = true; break;
-					case KATAKANA: if (!CharUtils.isKatakana(ch[i])) charTypeChanged = true; break;
+					case HIRAGANA: if ((charType & CharUtils.HIRAGANA) == 0) charTypeChanged = true; break;
+					case KATAKANA: if ((charType & CharUtils.KATAKANA) == 0) charTypeChanged = true; break;
 					default:
 					}
 					if (charTypeChanged) {
@@ -2526,16 +2555,16 @@ public class AozoraEpub3Converter
 					// ルビ中でなく漢字
 					if (CharUtils.isKanji(ch, i)) {
 						rubyStart = i; rubyCharType = RubyCharType.KANJI;
-					} else if (CharUtils.isHiragana(ch[i])) {
+					} else if ((charType & CharUtils.HIRAGANA) != 0) {
 						//全角英数字
 						rubyStart = i; rubyCharType = RubyCharType.HIRAGANA;
-					} else if (CharUtils.isKatakana(ch[i])) {
+					} else if ((charType & CharUtils.KATAKANA) != 0) {
 						//全角英数字
 						rubyStart = i; rubyCharType = RubyCharType.KATAKANA;
-					} else if (CharUtils.isHalfSpace(ch[i]) && ch[i]!='>') {
+					} else if ((charType & CharUtils.HALF_SPACE) != 0 && ch[i]!='>') {
 						//英数字または空白
 						rubyStart = i; rubyCharType = RubyCharType.ALPHA;
-					} else if (CharUtils.isFullAlpha(ch[i]) || CharUtils.isFullNum(ch[i])) {
+					} else if ((charType & (CharUtils.FULL_ALPHA|CharUtils.FULL_NUM)) != 0) {
 						//全角英数字
 						rubyStart = i; rubyCharType = RubyCharType.FULLALPHA;
 					}
@@ -2567,7 +2596,7 @@ public class AozoraEpub3Converter
 	{
 		File gaijiFile = new File(writer.getGaijiFontPath()+gaijiFileName);
 		if (!gaijiFile.isFile()) return false;
-		writer.addGaijiFont(className, gaijiFile);
+		this.addGaijiFont(className, gaijiFile);
 		buf.append("<span class=\"glyph ").append(className).append("\">").append(baseChar).append("</span>");
 		return true;
 	}
@@ -2588,24 +2617,24 @@ public class AozoraEpub3Converter
 				//4バイト文字＋IVS(U+E0100～)
 				if (i<end-3 && ch[i+2] == 0xDB40) {
 					String ivsCode = Integer.toHexString(Character.toCodePoint(ch[i+2], ch[i+3]));
-					if (ivs32FontMap != null) {
+					if (this.tables.getIvs32FontMap() != null) {
 						String className = "u"+Integer.toHexString(code)+"-u"+ivsCode;
-						gaijiFileName = ivs32FontMap.get(className);
+						gaijiFileName = this.tables.getIvs32FontMap().get(className);
 						if (gaijiFileName != null) {
 							//フォントファイルを出力対象に追加して外字タグ出力
 							if (this.printGlyphFontTag(buf, gaijiFileName, className, '〓')) {
-								LogAppender.info(lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+ch[i+1]+ch[i+2]+ch[i+3]+"("+gaijiFileName+")");
+								LogAppender.info(this.context.lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+ch[i+1]+ch[i+2]+ch[i+3]+"("+gaijiFileName+")");
 								i+=3; //IVSの次へ
 								continue;
 							}
 						}
 					}
-					if (utf32FontMap != null) {
+					if (this.tables.getUtf32FontMap() != null) {
 						//1文字フォントの後ろにIVSがあるかチェック
-						gaijiFileName = utf32FontMap.get(code);
+						gaijiFileName = this.tables.getUtf32FontMap().get(code);
 						if (gaijiFileName != null) {
 							if (this.printGlyphFontTag(buf, gaijiFileName, "u"+Integer.toHexString(code), '〓')) {
-								LogAppender.warn(lineNum, "外字フォント利用(IVS除外)", ""+ch[i]+ch[i+1]+"("+gaijiFileName+") -"+ivsCode);
+								LogAppender.warn(this.context.lineNum, "外字フォント利用(IVS除外)", ""+ch[i]+ch[i+1]+"("+gaijiFileName+") -"+ivsCode);
 								i+=3; //IVSの次へ
 								continue;
 							}
@@ -2620,18 +2649,18 @@ public class AozoraEpub3Converter
 						continue;
 					}*/
 					if (printIvsSSP) {
-						if (this.vertical) buf.append(chukiMap.get("正立")[0]);
+						if (this.vertical) buf.append(this.tables.getChukiMap().get("正立")[0]);
 						buf.append(ch[i]);
 						buf.append(ch[i+1]);
 						buf.append(ch[i+2]);
 						buf.append(ch[i+3]);
-						if (this.vertical) buf.append(chukiMap.get("正立終わり")[0]);
-						LogAppender.info(lineNum, "拡張漢字＋IVSを出力します",
+						if (this.vertical) buf.append(this.tables.getChukiMap().get("正立終わり")[0]);
+						LogAppender.info(this.context.lineNum, "拡張漢字＋IVSを出力します",
 								""+ch[i]+ch[i+1]+ch[i+2]+ch[i+3]+"(u+"+Integer.toHexString(code)+"+"+ivsCode+")");
 					} else {
 						buf.append(ch[i]);
 						buf.append(ch[i+1]);
-						LogAppender.info(lineNum, "拡張漢字出力(IVS除外)",
+						LogAppender.info(this.context.lineNum, "拡張漢字出力(IVS除外)",
 								""+ch[i]+ch[i+1]+"(u+"+Integer.toHexString(code)+") -"+ivsCode);
 					}
 					i+=3; //IVSの次へ
@@ -2639,13 +2668,13 @@ public class AozoraEpub3Converter
 				}
 				//4バイト文字＋IVS(U+FE00～)
 				if (i<end-2 && ch[i+2] >= 0xFE00 && ch[i+2] <= 0xFE0F) {
-					if (ivs32FontMap != null) {
+					if (this.tables.getIvs32FontMap() != null) {
 						String className = "u"+Integer.toHexString(code)+"-u"+Integer.toHexString(ch[i+2]);
-						gaijiFileName = ivs32FontMap.get(className);
+						gaijiFileName = this.tables.getIvs32FontMap().get(className);
 						if (gaijiFileName != null) {
 							//フォントファイルを出力対象に追加して外字タグ出力
 							if (this.printGlyphFontTag(buf, gaijiFileName, className, '〓')) {
-								LogAppender.info(lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+ch[i+1]+ch[i+2]+"("+gaijiFileName+")");
+								LogAppender.info(this.context.lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+ch[i+1]+ch[i+2]+"("+gaijiFileName+")");
 								i+=2; //IVSの次へ
 								continue;
 							}
@@ -2660,28 +2689,28 @@ public class AozoraEpub3Converter
 						continue;
 					}*/
 					if (printIvsBMP) {
-						if (this.vertical) buf.append(chukiMap.get("正立")[0]);
+						if (this.vertical) buf.append(this.tables.getChukiMap().get("正立")[0]);
 						buf.append(ch[i]);
 						buf.append(ch[i+1]);
 						buf.append(ch[i+2]);
-						if (this.vertical) buf.append(chukiMap.get("正立終わり")[0]);
-						LogAppender.info(lineNum, "拡張漢字＋IVSを出力します",
+						if (this.vertical) buf.append(this.tables.getChukiMap().get("正立終わり")[0]);
+						LogAppender.info(this.context.lineNum, "拡張漢字＋IVSを出力します",
 								""+ch[i]+ch[i+1]+ch[i+2]+"(u+"+Integer.toHexString(code)+"+"+(Integer.toHexString(ch[i+2]))+")");
 					} else {
 						buf.append(ch[i]);
 						buf.append(ch[i+1]);
-						LogAppender.info(lineNum, "拡張漢字出力(IVS除外)",
+						LogAppender.info(this.context.lineNum, "拡張漢字出力(IVS除外)",
 								""+ch[i]+ch[i+1]+"(u+"+Integer.toHexString(code)+") -"+(Integer.toHexString(ch[i+2]))+")");
 					}
 					i+=2; //IVSの次へ
 					continue;
 				}
 				//IVSなし１文字フォントあり
-				if (utf32FontMap != null) {
-					gaijiFileName = utf32FontMap.get(code);
+				if (this.tables.getUtf32FontMap() != null) {
+					gaijiFileName = this.tables.getUtf32FontMap().get(code);
 					if (gaijiFileName != null) {
 						if (this.printGlyphFontTag(buf, gaijiFileName, "u"+Integer.toHexString(code), '〓')) {
-							LogAppender.info(lineNum, "外字フォント利用", ""+ch[i]+ch[i+1]+"("+gaijiFileName+")");
+							LogAppender.info(this.context.lineNum, "外字フォント利用", ""+ch[i]+ch[i+1]+"("+gaijiFileName+")");
 							i++; //次の文字へ
 							continue;
 						}
@@ -2694,7 +2723,7 @@ public class AozoraEpub3Converter
 				} else {*/
 					buf.append(ch[i]);
 					buf.append(ch[i+1]);
-					LogAppender.info(lineNum, "拡張漢字出力", ""+ch[i]+ch[i+1]+"(u+"+Integer.toHexString(code)+")");
+					LogAppender.info(this.context.lineNum, "拡張漢字出力", ""+ch[i]+ch[i+1]+"(u+"+Integer.toHexString(code)+")");
 				/*}*/
 				i++; //次の文字へ
 				continue;
@@ -2707,22 +2736,22 @@ public class AozoraEpub3Converter
 			//2バイト文字＋IVS(U+E0100～)
 			if (i<end-2 && ch[i+1] == 0xDB40) {
 				String ivsCode = Integer.toHexString(Character.toCodePoint(ch[i+1], ch[i+2]));
-				if (ivs16FontMap != null) {
+				if (this.tables.getIvs16FontMap() != null) {
 					String className = "u"+Integer.toHexString((int)ch[i])+"-u"+ivsCode;
-					gaijiFileName = ivs16FontMap.get(className);
+					gaijiFileName = this.tables.getIvs16FontMap().get(className);
 					if (gaijiFileName != null) {
 						if (this.printGlyphFontTag(buf, gaijiFileName, className, '〓')) {
-							LogAppender.info(lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+ch[i+1]+ch[i+2]+"("+gaijiFileName+")");
+							LogAppender.info(this.context.lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+ch[i+1]+ch[i+2]+"("+gaijiFileName+")");
 							i+=2; //IVSの次へ
 							continue;
 						}
 					}
 				}
-				if (utf16FontMap != null && utf16FontMap.containsKey((int)ch[i])) {
-					gaijiFileName = utf16FontMap.get((int)ch[i]);
+				if (this.tables.getUtf16FontMap() != null && this.tables.getUtf16FontMap().containsKey((int)ch[i])) {
+					gaijiFileName = this.tables.getUtf16FontMap().get((int)ch[i]);
 					if (gaijiFileName != null) {
 						if (this.printGlyphFontTag(buf, gaijiFileName, "u"+Integer.toHexString((int)ch[i]), '〓')) {
-							LogAppender.warn(lineNum, "外字フォント利用(IVS除外)", ""+ch[i]+"("+gaijiFileName+") -"+ivsCode);
+							LogAppender.warn(this.context.lineNum, "外字フォント利用(IVS除外)", ""+ch[i]+"("+gaijiFileName+") -"+ivsCode);
 							i+=2; //IVSの次へ
 							continue;
 						}
@@ -2730,16 +2759,16 @@ public class AozoraEpub3Converter
 				}
 				//2バイト文字とIVSを出力
 				if (printIvsSSP) {
-					if (this.vertical) buf.append(chukiMap.get("正立")[0]);
+					if (this.vertical) buf.append(this.tables.getChukiMap().get("正立")[0]);
 					buf.append(ch[i]);
 					buf.append(ch[i+1]);
 					buf.append(ch[i+2]);
-					if (this.vertical) buf.append(chukiMap.get("正立終わり")[0]);
-					LogAppender.info(lineNum, "IVSを出力します",
+					if (this.vertical) buf.append(this.tables.getChukiMap().get("正立終わり")[0]);
+					LogAppender.info(this.context.lineNum, "IVSを出力します",
 							""+ch[i]+ch[i+1]+ch[i+2]+"(u+"+Integer.toHexString(ch[i])+"+"+ivsCode+")");
 				} else {
 					buf.append(ch[i]);
-					LogAppender.info(lineNum, "IVS除外",
+					LogAppender.info(this.context.lineNum, "IVS除外",
 							ch[i]+"(u+"+Integer.toHexString(ch[i])+") -"+ivsCode);
 				}
 				i+=2; //IVSの次へ
@@ -2747,23 +2776,23 @@ public class AozoraEpub3Converter
 			}
 			//2バイト文字＋IVS(U+FE00～)
 			if (i<end-1 && ch[i+1] >= 0xFE00 && ch[i+1] <= 0xFE0F) {
-				if (ivs32FontMap != null) {
+				if (this.tables.getIvs32FontMap() != null) {
 					String className = "u"+Integer.toHexString(ch[i])+"-u"+Integer.toHexString(ch[i+1]);
-					gaijiFileName = ivs32FontMap.get(className);
+					gaijiFileName = this.tables.getIvs32FontMap().get(className);
 					if (gaijiFileName != null) {
 						if (this.printGlyphFontTag(buf, gaijiFileName, className, '〓')) {
-							LogAppender.info(lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+"("+gaijiFileName+")");
+							LogAppender.info(this.context.lineNum, "外字フォント利用(IVS含む)", ""+ch[i]+"("+gaijiFileName+")");
 							i++; //IVSの次へ
 							continue;
 						}
 					}
 				}
 				//IVS無しの1文字フォント
-				if (utf16FontMap != null && utf16FontMap.containsKey((int)ch[i])) {
-					gaijiFileName = utf16FontMap.get((int)ch[i]);
+				if (this.tables.getUtf16FontMap() != null && this.tables.getUtf16FontMap().containsKey((int)ch[i])) {
+					gaijiFileName = this.tables.getUtf16FontMap().get((int)ch[i]);
 					if (gaijiFileName != null) {
 						if (this.printGlyphFontTag(buf, gaijiFileName, "u"+Integer.toHexString((int)ch[i]), '〓')) {
-							LogAppender.info(lineNum, "外字フォント利用(IVS除外)", ""+ch[i]+"("+gaijiFileName+") -"+Integer.toHexString(ch[i+1]));
+							LogAppender.info(this.context.lineNum, "外字フォント利用(IVS除外)", ""+ch[i]+"("+gaijiFileName+") -"+Integer.toHexString(ch[i+1]));
 							i++; //IVSの次へ
 							continue;
 						}
@@ -2774,22 +2803,22 @@ public class AozoraEpub3Converter
 				if (printIvsBMP) {
 					buf.append(ch[i]);
 					buf.append(ch[i+1]);
-					LogAppender.info(lineNum, "IVSを出力します", ""+ch[i]+ch[i+1]+"(u+"+Integer.toHexString(ch[i])+"+"+Integer.toHexString(ch[i+1])+")");
+					LogAppender.info(this.context.lineNum, "IVSを出力します", ""+ch[i]+ch[i+1]+"(u+"+Integer.toHexString(ch[i])+"+"+Integer.toHexString(ch[i+1])+")");
 				} else {
 					buf.append(ch[i]);
-					LogAppender.info(lineNum, "IVS除外",  ch[i]+"(u+"+Integer.toHexString(ch[i])+") -"+Integer.toHexString(ch[i+1]));
+					LogAppender.info(this.context.lineNum, "IVS除外",  ch[i]+"(u+"+Integer.toHexString(ch[i])+") -"+Integer.toHexString(ch[i+1]));
 				}
 				i++; //IVSの次へ
 				continue;
 			}
 			
 			//IVS無しの1文字フォント
-			if (utf16FontMap != null && utf16FontMap.containsKey((int)ch[i])) {
+			if (this.tables.getUtf16FontMap() != null && this.tables.getUtf16FontMap().containsKey((int)ch[i])) {
 				//通常文字の外字指定 ほぼすべての文字が対象になるので先にcontainsKeyで判定
-				gaijiFileName = utf16FontMap.get((int)ch[i]);
+				gaijiFileName = this.tables.getUtf16FontMap().get((int)ch[i]);
 				if (gaijiFileName != null) {
 					if (this.printGlyphFontTag(buf, gaijiFileName, "u"+Integer.toHexString((int)ch[i]), '〓')) {
-						LogAppender.info(lineNum, "外字フォント利用", ""+ch[i]+"("+gaijiFileName+")");
+						LogAppender.info(this.context.lineNum, "外字フォント利用", ""+ch[i]+"("+gaijiFileName+")");
 						//次の文字へ
 						continue;
 					}
@@ -2798,7 +2827,7 @@ public class AozoraEpub3Converter
 			
 			//1文字フォントもIVSもない場合
 			//自動縦中横処理
-			if (this.vertical && !(inYoko || noTcy)) {
+			if (this.vertical && !(this.context.inYoko || noTcy)) {
 				switch (ch[i]) {
 				case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
 					//数字2文字を縦横中で出力
@@ -2808,11 +2837,11 @@ public class AozoraEpub3Converter
 							//前後が半角かチェック
 							if (!this.checkTcyPrev(ch, i-1)) break;
 							if (!this.checkTcyNext(ch, i+3)) break;
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
 							buf.append(ch[i+1]);
 							buf.append(ch[i+2]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							i+=2;
 							continue;
 						} else if (i+1<ch.length && CharUtils.isNum(ch[i+1])) {
@@ -2820,10 +2849,10 @@ public class AozoraEpub3Converter
 							//前後が半角かチェック
 							if (!this.checkTcyPrev(ch, i-1)) break;
 							if (!this.checkTcyNext(ch, i+2)) break;
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
 							buf.append(ch[i+1]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							i++;
 							continue;
 						} else if (this.autoYokoNum1 && (i==0 || !CharUtils.isNum(ch[i-1])) && (i+1==ch.length || !CharUtils.isNum(ch[i+1]))) {
@@ -2831,9 +2860,9 @@ public class AozoraEpub3Converter
 							//前後が半角かチェック
 							if (!this.checkTcyPrev(ch, i-1)) break;
 							if (!this.checkTcyNext(ch, i+1)) break;
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							continue;
 						}
 						//begin～end外もチェックする
@@ -2841,23 +2870,23 @@ public class AozoraEpub3Converter
 						if (i+3<ch.length && ch[i+1]=='月' && '0'<=ch[i+2] && ch[i+2]<='9' && (
 							ch[i+3]=='日' || (i+4<ch.length && '0'<=ch[i+3] && ch[i+3]<='9' && ch[i+4]=='日'))) {
 							//1月2日 1月10日 の1を縦中横
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							continue;
 						}
 						if (i>1 && i+1<ch.length && (ch[i-1]=='年' && ch[i+1]=='月' || ch[i-1]=='月' && ch[i+1]=='日' || ch[i-1]=='第' && (ch[i+1]=='刷' || ch[i+1]=='版' || ch[i+1]=='巻'))) {
 							//年3月 + 月4日 + 第5刷 + 第6版 + 第7巻 の数字１文字縦中横
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							continue;
 						}
 						if (i>2 && (ch[i-2]=='明'&&ch[i-1]=='治' || ch[i-2]=='大'&&ch[i-1]=='正' || ch[i-2]=='昭'&&ch[i-1]=='和' || ch[i-2]=='平'&&ch[i-1]=='成')) {
 							//月5日 の5を縦中横
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							continue;
 						}
 					}
@@ -2869,11 +2898,11 @@ public class AozoraEpub3Converter
 							//前後が半角かチェック
 							if (!this.checkTcyPrev(ch, i-1)) break;
 							if (!this.checkTcyNext(ch, i+3)) break;
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
 							buf.append(ch[i+1]);
 							buf.append(ch[i+2]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							i+=2;
 							continue;
 						} else if (i+1<ch.length && (ch[i+1]=='!' || ch[i+1]=='?')) {
@@ -2881,10 +2910,10 @@ public class AozoraEpub3Converter
 							//前後が半角かチェック
 							if (!this.checkTcyPrev(ch, i-1)) break;
 							if (!this.checkTcyNext(ch, i+2)) break;
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
 							buf.append(ch[i+1]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							i++;
 							continue;
 						} else if (autoYokoEQ1 && (i==0 || !CharUtils.isNum(ch[i-1])) && (i+1==ch.length || !CharUtils.isNum(ch[i+1]))) {
@@ -2892,9 +2921,9 @@ public class AozoraEpub3Converter
 							//前後が半角かチェック
 							if (!this.checkTcyPrev(ch, i-1)) break;
 							if (!this.checkTcyNext(ch, i+1)) break;
-							buf.append(chukiMap.get("縦中横")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横")[0]);
 							buf.append(ch[i]);
-							buf.append(chukiMap.get("縦中横終わり")[0]);
+							buf.append(this.tables.getChukiMap().get("縦中横終わり")[0]);
 							continue;
 						}
 					}
@@ -2905,7 +2934,7 @@ public class AozoraEpub3Converter
 			if (this.vertical) {
 				//ひらがな/カタカナ＋濁点/半濁点 結合文字も対応
 				if (i+1<ch.length && (ch[i+1]=='゛' || ch[i+1]=='゜')) {
-					if (CharUtils.isHiragana(ch[i]) || CharUtils.isKatakana(ch[i]) || ch[i]=='〻') {
+					if ((CharUtils.getCharType(ch[i]) & (CharUtils.HIRAGANA|CharUtils.KATAKANA)) != 0 || ch[i]=='〻') {
 						//通常の濁点文字ならその文字で出力
 						if (ch[i+1]=='゛') {
 							if ('ッ' != ch[i] && ('か' <= ch[i] && ch[i] <= 'と' || 'カ' <= ch[i] && ch[i] <= 'ト')) {
@@ -2927,7 +2956,7 @@ public class AozoraEpub3Converter
 							i++;
 							continue;
 						}
-						if (this.dakutenType == 1 && !(inYoko || noTcy)) {
+						if (this.dakutenType == 1 && !(this.context.inYoko || noTcy)) {
 							//濁点をspanで重ねて表示 ルビ内無効
 							buf.append("<span class=\"dakuten\">");
 							buf.append(ch[i]);
@@ -2944,7 +2973,7 @@ public class AozoraEpub3Converter
 							else className += "-u309a";
 							//if (this.printGlyphFontTag(buf, "dakuten/"+className+".ttf", className, '〓')) {
 							if (this.printGlyphFontTag(buf, "dakuten/"+className+".ttf", className, ch[i])) {
-								LogAppender.info(lineNum, "濁点フォント利用", ""+ch[i]+ch[i+1]);
+								LogAppender.info(this.context.lineNum, "濁点フォント利用", ""+ch[i]+ch[i+1]);
 								i++;
 								continue;
 							}
@@ -3033,26 +3062,19 @@ public class AozoraEpub3Converter
 			}
 		}
 		
-		if (replaceMap != null) {
-			String replaced = replaceMap.get(ch[idx]);
+		if (this.tables.getReplaceTrie() != null) {
+			//ch[idx]で終わる最長の置換前文字列 エスケープ文字なら2文字前から見る
+			//前の文字はbufの末尾にそのまま出力されている分だけ遡る
+			int node = this.tables.getReplaceTrie().match(ch, idx, idx-(escaped?2:1), buf);
 			//置換して終了
-			if (replaced != null) {
-				buf.append(replaced);
+			if (node != 0) {
+				int replaceLength = this.tables.getReplaceTrie().length(node);
+				//エスケープ文字削除後の長さから前の文字を削除
+				if (replaceLength > 1) buf.setLength(buf.length()-(replaceLength-1));
+				buf.append(this.tables.getReplaceTrie().value(node));
 				return;
 			}
 		}
-		//エスケープ文字なら2文字前を見る
-		if (idx > 1 || (idx == 1 && !escaped)) {
-			if (replace2Map != null) {
-				String replaced = replace2Map.get(""+ch[idx-(escaped?2:1)]+ch[idx]);
-				//置換して終了
-				if (replaced != null) {
-					buf.setLength(length-1);//1文字削除
-					buf.append(replaced);
-					return;
-				}
-			}
-		}
 		//エスケープ文字を出力
 		if (escaped) {
 			buf.append(ch[idx]);
@@ -3061,7 +3083,7 @@ public class AozoraEpub3Converter
 		}
 		
 		//文字の間の全角スペースを禁則調整
-		if (!(inYoko || noTcy)) {
+		if (!(this.context.inYoko || noTcy)) {
 			switch (this.spaceHyphenation) {
 			case 1:
 				if (idx > 20 && ch[idx]=='　' && buf.length()>0 && buf.charAt(buf.length()-1)!='　' && (idx-1==ch.length || idx+1<ch.length && ch[idx+1]!='　')) {
@@ -3086,7 +3108,7 @@ public class AozoraEpub3Converter
 		}
 		
 		//横組み内は処理しない
-		if (this.vertical && !inYoko) {
+		if (this.vertical && !this.context.inYoko) {
 			switch (ch[idx]) {
 			case '≪': buf.append("《"); break;
 			case '≫': buf.append("》"); break;
@@ -3119,9 +3141,9 @@ public class AozoraEpub3Converter
 			case 'ℵ': case 'ℏ': case '℧':
 				//縦中横の中でなければタグで括る
 				if (!noTcy) {
-					buf.append(chukiMap.get("正立")[0]);
+					buf.append(this.tables.getChukiMap().get("正立")[0]);
 					buf.append(ch[idx]);
-					buf.append(chukiMap.get("正立終わり")[0]);
+					buf.append(this.tables.getChukiMap().get("正立終わり")[0]);
 				} else {
 					buf.append(ch[idx]);
 				}
@@ -3145,48 +3167,38 @@ public class AozoraEpub3Converter
 	private void printImagePage(BufferedWriter out, StringBuilder buf, int lineNum, String srcFileName, String dstFileName, int imagePageType) throws IOException
 	{
 		//画像の前に改ページがある場合
-		boolean hasPageBreakTriger = this.pageBreakTrigger != null && !this.pageBreakTrigger.noChapter;
+		boolean hasPageBreakTriger = this.context.pageBreakTrigger != null && !this.context.pageBreakTrigger.noChapter;
 		
 		//画像単ページとしてセクション出力
 		switch (imagePageType) {
 		case PageBreakType.IMAGE_PAGE_W:
-			this.setPageBreakTrigger(pageBreakImageW);
-			pageBreakImageW.srcFileName = srcFileName;
-			pageBreakImageW.dstFileName = dstFileName;
+			this.setPageBreakTrigger(this.context.pageBreakImageW);
+			this.context.pageBreakImageW.srcFileName = srcFileName;
+			this.context.pageBreakImageW.dstFileName = dstFileName;
 			break;
 		case PageBreakType.IMAGE_PAGE_H:
-			this.setPageBreakTrigger(pageBreakImageH);
-			pageBreakImageH.srcFileName = srcFileName;
-			pageBreakImageH.dstFileName = dstFileName;
+			this.setPageBreakTrigger(this.context.pageBreakImageH);
+			this.context.pageBreakImageH.srcFileName = srcFileName;
+			this.context.pageBreakImageH.dstFileName = dstFileName;
 			break;
 		case PageBreakType.IMAGE_PAGE_NOFIT:
-			this.setPageBreakTrigger(pageBreakImageNoFit);
-			pageBreakImageNoFit.srcFileName = srcFileName;
-			pageBreakImageNoFit.dstFileName = dstFileName;
+			this.setPageBreakTrigger(this.context.pageBreakImageNoFit);
+			this.context.pageBreakImageNoFit.srcFileName = srcFileName;
+			this.context.pageBreakImageNoFit.dstFileName = dstFileName;
 			break;
 		default:
-			this.setPageBreakTrigger(pageBreakImageAuto);
-			pageBreakImageAuto.srcFileName = srcFileName;
-			pageBreakImageAuto.dstFileName = dstFileName;
+			this.setPageBreakTrigger(this.context.pageBreakImageAuto);
+			this.context.pageBreakImageAuto.srcFileName = srcFileName;
+			this.context.pageBreakImageAuto.dstFileName = dstFileName;
 		}
 		printLineBuffer(out, buf, lineNum, true);
 		
-		if (hasPageBreakTriger) this.setPageBreakTrigger(pageBreakNormal);
-		else this.setPageBreakTrigger(pageBreakNoChapter);
+		if (hasPageBreakTriger) this.setPageBreakTrigger(this.context.pageBreakNormal);
+		else this.setPageBreakTrigger(this.context.pageBreakNoChapter);
 	}
 	
 	////////////////////////////////////////////////////////////////
 	// 出力処理
-	/** 本文があれば改ページするフラグ */
-	PageBreakType pageBreakTrigger = null;
-	/** 左右中央の前の空行を除外するフラグ */
-	boolean skipMiddleEmpty;
-	/** 改ページ前の空行 */
-	int printEmptyLines = 0;
-	
-	/** 直前で見出しが出力された行番号 複数出力防止用 */
-	int lastChapterLine = -1;
-	
 	/** 改ページ用のトリガを設定
 	 * 設定済みだが連続行で書かれていたり空行除外で改行されていない場合は上書きされて無視される
 	 * @param trigger 改ページトリガ nullなら改ページ設定キャンセル
@@ -3194,9 +3206,20 @@ public class AozoraEpub3Converter
 	void setPageBreakTrigger(PageBreakType trigger)
 	{
 		//改ページ前の空行は無視
-		this.printEmptyLines = 0;
-		this.pageBreakTrigger = trigger;
-		if (this.pageBreakTrigger != null && this.pageBreakTrigger.pageType != PageBreakType.PAGE_NORMAL) this.skipMiddleEmpty = true;
+		this.context.printEmptyLines = 0;
+		this.context.pageBreakTrigger = trigger;
+		if (this.context.pageBreakTrigger != null && this.context.pageBreakTrigger.pageType != PageBreakType.PAGE_NORMAL) this.context.skipMiddleEmpty = true;
+	}
+	
+	/** 見出し行の情報を取得 見出し行でなければnull
+	 * convertTextToEpub3()を経由せずに行を変換する場合はここでカーソルを生成する */
+	private ChapterLineInfo getChapterLineInfo(int lineNum)
+	{
+		if (this.context.chapterLineCursor == null) {
+			if (this.context.bookInfo == null) return null;
+			this.context.chapterLineCursor = this.context.bookInfo.getChapterLineCursor();
+		}
+		return this.context.chapterLineCursor.get(lineNum);
 	}
 	
 	/** 行の文字列を出力
@@ -3208,24 +3231,18 @@ public class AozoraEpub3Converter
 	 * @throws IOException */
 	private void printLineBuffer(BufferedWriter out, StringBuilder buf, int lineNum, boolean noBr) throws IOException
 	{
-		String line = buf.toString();
 		int length = buf.length();
-		//すべて空白は空行にする
-		if (CharUtils.isSpace(line)) { line = ""; length = 0; }
+		//すべて空白は空行にする (空白除去の時もスペースのみの行は空行扱い)
+		if (CharUtils.isSpace(buf)) length = 0;
 		
 		int idIdx = 1;
 		String chapterId = null;
 		
 		ChapterLineInfo chapterLineInfo = null;
-		//空白除去の時はスペースのみの行は空行扱い
-		if (this.removeEmptyLine > 0 && length > 0 && CharUtils.isSpace(line)) {
-			line = "";
-			length = 0;
-		}
 		if (length == 0) {
 			//空行なら行数をカウント 左右中央の時の本文前の空行は無視
-			if (!this.skipMiddleEmpty && !noBr) {
-				this.printEmptyLines++;
+			if (!this.context.skipMiddleEmpty && !noBr) {
+				this.context.printEmptyLines++;
 			}
 			//バッファクリア
 			buf.setLength(0);
@@ -3234,7 +3251,7 @@ public class AozoraEpub3Converter
 		
 		//バッファ内の文字列出力
 		//見出し階層レベル
-		chapterLineInfo = this.bookInfo.getChapterLineInfo(lineNum);
+		chapterLineInfo = this.getChapterLineInfo(lineNum);
 		
 		//タグの階層をチェック (強制改ページ判別用に先にやっておく)
 		int tagStart = 0;
@@ -3242,11 +3259,11 @@ public class AozoraEpub3Converter
 		boolean inTag = false;
 		for (int i=0; i<length; i++) {
 			if (inTag) {
-				if (line.charAt(i) == '/' && line.charAt(i+1) == '>') tagEnd++;
-				if (line.charAt(i) == '>') inTag = false;
+				if (buf.charAt(i) == '/' && buf.charAt(i+1) == '>') tagEnd++;
+				if (buf.charAt(i) == '>') inTag = false;
 			} else {
-				if (line.charAt(i) == '<') {
-					if (i<length-1 && line.charAt(i+1) == '/') tagEnd++;
+				if (buf.charAt(i) == '<') {
+					if (i<length-1 && buf.charAt(i+1) == '/') tagEnd++;
 					else tagStart++;
 					inTag = true;
 				}
@@ -3257,55 +3274,55 @@ public class AozoraEpub3Converter
 			
 		//強制改ページ処理
 		//改ページトリガが設定されていない＆タグの外
-		if (this.forcePageBreak && this.pageBreakTrigger == null && this.tagLevel == 0) {
+		if (this.forcePageBreak && this.context.pageBreakTrigger == null && this.context.tagLevel == 0) {
 			//行単位で強制改ページ
-			if (this.pageByteSize > this.forcePageBreakSize) {
-				this.setPageBreakTrigger(pageBreakNoChapter);
+			if (this.context.pageByteSize > this.forcePageBreakSize) {
+				this.setPageBreakTrigger(this.context.pageBreakNoChapter);
 			} else {
-				if (forcePageBreakEmptyLine > 0 && this.printEmptyLines >= forcePageBreakEmptyLine && this.pageByteSize > this.forcePageBreakEmptySize) {
+				if (forcePageBreakEmptyLine > 0 && this.context.printEmptyLines >= forcePageBreakEmptyLine && this.context.pageByteSize > this.forcePageBreakEmptySize) {
 					//空行での分割
-					this.setPageBreakTrigger(pageBreakNoChapter);
-				} else if (forcePageBreakChapterLevel > 0 && this.pageByteSize > this.forcePageBreakChapterSize) {
+					this.setPageBreakTrigger(this.context.pageBreakNoChapter);
+				} else if (forcePageBreakChapterLevel > 0 && this.context.pageByteSize > this.forcePageBreakChapterSize) {
 					//章での分割 次の行が見出しで次の行がタグの中になる場合１行前で改ページ
-					if (chapterLineInfo != null) this.setPageBreakTrigger(pageBreakNoChapter);
-					else if (tagStart-tagEnd > 0 && this.bookInfo.getChapterLevel(lineNum+1) > 0) this.setPageBreakTrigger(pageBreakNoChapter);
+					if (chapterLineInfo != null) this.setPageBreakTrigger(this.context.pageBreakNoChapter);
+					else if (tagStart-tagEnd > 0 && this.context.bookInfo.getChapterLevel(lineNum+1) > 0) this.setPageBreakTrigger(this.context.pageBreakNoChapter);
 				}
 			}
 		}
 		
 		//改ページフラグが設定されていて、空行で無い場合
-		if (this.pageBreakTrigger != null) {
+		if (this.context.pageBreakTrigger != null) {
 			//空ページでの改ページ
 			//if (sectionCharLength == 0) {
 			//	out.write(chukiMap.get("改行")[0]);
 			//}
 			
 			//改ページ処理
-			if (this.pageBreakTrigger.pageType != PageBreakType.PAGE_NORMAL) {
+			if (this.context.pageBreakTrigger.pageType != PageBreakType.PAGE_NORMAL) {
 				//左右中央
-				this.writer.nextSection(out, lineNum, this.pageBreakTrigger.pageType, PageBreakType.IMAGE_PAGE_NONE, null);
+				this.nextSection(out, lineNum, this.context.pageBreakTrigger.pageType, PageBreakType.IMAGE_PAGE_NONE, null);
 			} else {
 				//その他
-				this.writer.nextSection(out, lineNum, PageBreakType.PAGE_NORMAL, this.pageBreakTrigger.imagePageType, this.pageBreakTrigger.srcFileName);
+				this.nextSection(out, lineNum, PageBreakType.PAGE_NORMAL, this.context.pageBreakTrigger.imagePageType, this.context.pageBreakTrigger.srcFileName);
 			}
 			
 			//ページ情報初期化
-			this.pageByteSize = 0;
-			this.sectionCharLength = 0;
-			if (tagLevel > 0) LogAppender.error(lineNum, "タグが閉じていません");
-			this.tagLevel = 0;
-			this.lineIdNum = 0;
+			this.context.pageByteSize = 0;
+			this.context.sectionCharLength = 0;
+			if (this.context.tagLevel > 0) LogAppender.error(lineNum, "タグが閉じていません");
+			this.context.tagLevel = 0;
+			this.context.lineIdNum = 0;
 			
-			this.pageBreakTrigger = null;
+			this.context.pageBreakTrigger = null;
 		}
 		
-		this.skipMiddleEmpty = false;
+		this.context.skipMiddleEmpty = false;
 		//空行は行数がカウントされているので文字出力前に出力
-		if (this.printEmptyLines > 0) {
-			String br = chukiMap.get("改行")[0];
-			int lines = Math.min(this.maxEmptyLine, this.printEmptyLines-this.removeEmptyLine);
+		if (this.context.printEmptyLines > 0) {
+			String br = this.tables.getChukiMap().get("改行")[0];
+			int lines = Math.min(this.maxEmptyLine, this.context.printEmptyLines-this.removeEmptyLine);
 			//見出し後3行以内開始の空行は1行は残す
-			if (lastChapterLine >= lineNum-this.printEmptyLines-2) {
+			if (this.context.lastChapterLine >= lineNum-this.context.printEmptyLines-2) {
 				lines = Math.max(1, lines);
 			}
 			for (int i=lines-1; i>=0; i--) {
@@ -3313,40 +3330,46 @@ public class AozoraEpub3Converter
 				out.write(br);
 				out.write("</p>\n");
 			}
-			this.pageByteSize += (br.length()+8)*lines;
-			this.printEmptyLines = 0;
+			this.context.pageByteSize += (br.length()+8)*lines;
+			this.context.printEmptyLines = 0;
 		}
 		
-		this.lineIdNum++;
+		this.context.lineIdNum++;
+		//出力開始位置
+		int lineStart = 0;
 		if (noBr) {
 			//見出し用のID設定
 			if (chapterLineInfo != null) {
-				chapterId = "kobo."+this.lineIdNum+"."+(idIdx++);
-				if (line.startsWith("<")) {
+				chapterId = "kobo."+this.context.lineIdNum+"."+(idIdx++);
+				if (buf.charAt(0) == '<') {
 					//タグがあるのでIDを設定
-					line = line.replaceFirst("(<[\\d|\\w]+)", "$1 id=\""+chapterId+"\"");
+					insertTagId(buf, chapterId);
 				} else {
 					//タグでなければ一文字目をspanに入れる
-					out.write("<span id=\""+chapterId+"\">"+line.charAt(0)+"</span>");
-					this.pageByteSize += (chapterId.length() + 20);
-					line = line.substring(1);
+					out.write("<span id=\""+chapterId+"\">"+buf.charAt(0)+"</span>");
+					this.context.pageByteSize += (chapterId.length() + 20);
+					lineStart = 1;
 				}
 			}
 		} else {
 			//改行用のp出力 見出しなら強制ID出力 koboの栞用IDに利用可能なkobo.のIDで出力
 			if (this.withMarkId || (chapterLineInfo != null && !chapterLineInfo.pageBreakChapter)) {
-				chapterId = "kobo."+this.lineIdNum+"."+(idIdx++);
+				chapterId = "kobo."+this.context.lineIdNum+"."+(idIdx++);
 				out.write("<p id=\""+chapterId+"\">");
-				this.pageByteSize += (chapterId.length() + 14);
+				this.context.pageByteSize += (chapterId.length() + 14);
 			}
 			else {
 				out.write("<p>");
-				this.pageByteSize += 7;
+				this.context.pageByteSize += 7;
 			}
 		}
-		out.write(line);
+		//バッファから直接出力
+		int lineEnd = buf.length();
+		if (this.context.lineChars.length < lineEnd) this.context.lineChars = new char[Math.max(lineEnd, this.context.lineChars.length*2)];
+		buf.getChars(lineStart, lineEnd, this.context.lineChars, 0);
+		out.write(this.context.lineChars, 0, lineEnd-lineStart);
 		//ページバイト数加算
-		if (this.forcePageBreak) this.pageByteSize += line.getBytes("UTF-8").length;
+		if (this.forcePageBreak) this.context.pageByteSize += CharUtils.getUtf8Length(this.context.lineChars, 0, lineEnd-lineStart);
 		
 		//改行のpを閉じる
 		if (!noBr) {
@@ -3354,24 +3377,44 @@ public class AozoraEpub3Converter
 		}
 		
 		//見出しのChapterをWriterに追加 同じ行で数回呼ばれるので初回のみ
-		if (chapterLineInfo != null && lastChapterLine != lineNum) {
+		if (chapterLineInfo != null && this.context.lastChapterLine != lineNum) {
 			String name = chapterLineInfo.getChapterName();
 			if (name != null && name.length() > 0) {
 				//自動抽出で+10されているのは1桁のレベルに戻す
-				if (chapterLineInfo.pageBreakChapter) this.writer.addChapter(null, name, chapterLineInfo.level%10);
-				else this.writer.addChapter(chapterId, name, chapterLineInfo.level%10);
-				lastChapterLine = lineNum;
+				if (chapterLineInfo.pageBreakChapter) this.addChapter(null, name, chapterLineInfo.level%10);
+				else this.addChapter(chapterId, name, chapterLineInfo.level%10);
+				this.context.lastChapterLine = lineNum;
 			}
 		}
 		
-		this.sectionCharLength += length;
+		this.context.sectionCharLength += length;
 		
 		}
 		
 		//タグの階層を変更
-		this.tagLevel += tagStart-tagEnd;
+		this.context.tagLevel += tagStart-tagEnd;
 		
 		//バッファクリア
 		buf.setLength(0);
 	}
+	
+	/** 最初の開始タグにidを追加
+	 * 正規表現 (<[\d|\w]+) の最初の一致の後ろに id="…" を挿入するのと同じ */
+	static void insertTagId(StringBuilder buf, String id)
+	{
+		int length = buf.length();
+		for (int i=0; i<length-1; i++) {
+			if (buf.charAt(i) == '<' && isTagNameChar(buf.charAt(i+1))) {
+				int end = i+2;
+				while (end < length && isTagNameChar(buf.charAt(end))) end++;
+				buf.insert(end, " id=\""+id+"\"");
+				return;
+			}
+		}
+	}
+	/** [\d|\w] の文字 */
+	static private boolean isTagNameChar(char c)
+	{
+		return ('0' <= c && c <= '9') || ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || c == '_' || c == '|';
+	}
 }
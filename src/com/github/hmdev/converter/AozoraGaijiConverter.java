@@ -26,6 +26,11 @@ public class AozoraGaijiConverter
 	/** 青空文庫注記外字を代替文字に変換 */
 	HashMap<String, String> chukiAltMap = new HashMap<String, String>();
 	
+	/** 変換テーブルの保存ファイルから読み込む場合 */
+	AozoraGaijiConverter()
+	{
+	}
+	
 	public AozoraGaijiConverter(String jarPath) throws IOException
 	{
 		//初期化
@@ -140,12 +145,13 @@ public class AozoraGaijiConverter
 	
 	/** UTF-8コードを文字列に変換
 	 * UTF-32の拡張領域は2文字分の文字列になる */
-	public String codeToCharString(int unicode) throws UnsupportedEncodingException
+	public String codeToCharString(int unicode)
 	{
 		if (unicode == 0) return null;
 		if (unicode > 0xFFFF) {
-			byte[] b = new byte[]{0, (byte)(unicode>>16), (byte)(unicode>>8), (byte)(unicode)};
-			return new String(b, "UTF-32");
+			//範囲外はUTF-32のデコードと同じく置換文字
+			if (unicode > Character.MAX_CODE_POINT) return "\uFFFD";
+			return new String(Character.toChars(unicode));
 		}
 		return String.valueOf((char)unicode);
 	}
@@ -0,0 +1,248 @@
+package com.github.hmdev.converter;
+
+/**
+ * 青空文庫テキスト1行の字句解析クラス
+ * 1回の走査で注記、タグ、外字注記、ルビ記号、注記括弧の位置を取得する
+ * 注記とタグは (［＃.+?］)|(<.+?>) 、外字注記は (※［＃.+?］)|(〔.+?〕)|(／″?＼) の正規表現で
+ * 先頭から検索した場合と同じ位置を返す
+ * 種類の組毎に独立して検索するので、〔〕内の注記等はそれぞれの組で重なって取得される
+ * 解析結果は次にlex()を呼ぶまで有効 (同時に利用する処理毎にインスタンスを分けること)
+ */
+public class AozoraLexer
+{
+	/** 注記 ［＃…］ */
+	public final static int CHUKI = 0;
+	/** タグ <…> */
+	public final static int TAG = 1;
+	/** 外字注記 ※［＃…］ */
+	public final static int GAIJI = 2;
+	/** アクセント分解 〔…〕 */
+	public final static int LATIN = 3;
+	/** くの字点 ／＼ ／″＼ */
+	public final static int KUNOJI = 4;
+	/** ルビ開始位置 ｜ */
+	public final static int RUBY_START = 5;
+	/** ルビ開始 《 */
+	public final static int RUBY_OPEN = 6;
+	/** ルビ終了 》 */
+	public final static int RUBY_CLOSE = 7;
+	/** 注記開始 ［＃ */
+	public final static int CHUKI_OPEN = 8;
+	/** 注記終了 ］ */
+	public final static int CHUKI_CLOSE = 9;
+	
+	/** 注記とタグ (［＃.+?］)|(<.+?>) */
+	public final static int MASK_CHUKI = 1<<CHUKI | 1<<TAG;
+	/** 外字注記 (※［＃.+?］)|(〔.+?〕)|(／″?＼) */
+	public final static int MASK_GAIJI = 1<<GAIJI | 1<<LATIN | 1<<KUNOJI;
+	/** ルビ記号 エスケープ(※《等)も含む */
+	public final static int MASK_RUBY = 1<<RUBY_START | 1<<RUBY_OPEN | 1<<RUBY_CLOSE;
+	/** 注記の開始と終了 */
+	public final static int MASK_BRACKET = 1<<CHUKI_OPEN | 1<<CHUKI_CLOSE;
+	
+	/** 解析中の文字列 */
+	char[] ch = new char[256];
+	int length;
+	
+	/** 取得した字句 種類,開始位置,終了位置(終了文字の次),開始位置より前の［＃と］の数の差 */
+	int[] types = new int[32];
+	int[] starts = new int[32];
+	int[] ends = new int[32];
+	int[] depths = new int[32];
+	int count;
+	/** 取得した種類のビット */
+	int kinds;
+	/** ［＃の入れ子の最大数 */
+	int maxDepth;
+	
+	/** 終了文字検索のキャッシュ 検索開始位置と結果 ］ > 〕 改行 の順 */
+	int[] cacheFrom = new int[4];
+	int[] cacheResult = new int[4];
+	
+	/** 1行を解析
+	 * @param mask 取得する種類 MASK_*の組み合わせ */
+	public void lex(String line, int mask)
+	{
+		this.length = line.length();
+		if (this.ch.length < this.length) this.ch = new char[Math.max(this.length, this.ch.length*2)];
+		line.getChars(0, this.length, this.ch, 0);
+		this.count = 0;
+		this.kinds = 0;
+		this.maxDepth = 0;
+		for (int i=0; i<this.cacheFrom.length; i++) { this.cacheFrom[i] = 0; this.cacheResult[i] = -1; }
+		
+		char[] ch = this.ch;
+		int length = this.length;
+		boolean chuki = (mask & MASK_CHUKI) != 0;
+		boolean gaiji = (mask & MASK_GAIJI) != 0;
+		boolean ruby = (mask & MASK_RUBY) != 0;
+		boolean bracket = (mask & MASK_BRACKET) != 0;
+		//注記,タグと外字注記の検索再開位置
+		int chukiNext = 0;
+		int gaijiNext = 0;
+		//［＃と］の数の差
+		int depth = 0;
+		for (int i=0; i<length; i++) {
+			switch (ch[i]) {
+			case '［':
+				if (i+1 < length && ch[i+1] == '＃') {
+					if (bracket) this.add(CHUKI_OPEN, i, i+2, depth);
+					if (chuki && i >= chukiNext) {
+						int end = this.findEnd(0, '］', i+2);
+						if (end != -1) {
+							this.add(CHUKI, i, end+1, depth);
+							chukiNext = end+1;
+						}
+					}
+					depth++;
+					if (depth > this.maxDepth) this.maxDepth = depth;
+				}
+				break;
+			case '］':
+				if (bracket) this.add(CHUKI_CLOSE, i, i+1, depth);
+				depth--;
+				break;
+			case '<':
+				if (chuki && i >= chukiNext) {
+					int end = this.findEnd(1, '>', i+1);
+					if (end != -1) {
+						this.add(TAG, i, end+1, depth);
+						chukiNext = end+1;
+					}
+				}
+				break;
+			case '※':
+				if (gaiji && i >= gaijiNext && i+2 < length && ch[i+1] == '［' && ch[i+2] == '＃') {
+					int end = this.findEnd(0, '］', i+3);
+					if (end != -1) {
+						this.add(GAIJI, i, end+1, depth);
+						gaijiNext = end+1;
+					}
+				}
+				break;
+			case '〔':
+				if (gaiji && i >= gaijiNext) {
+					int end = this.findEnd(2, '〕', i+1);
+					if (end != -1) {
+						this.add(LATIN, i, end+1, depth);
+						gaijiNext = end+1;
+					}
+				}
+				break;
+			case '／':
+				if (gaiji && i >= gaijiNext && i+1 < length) {
+					int end = -1;
+					if (ch[i+1] == '＼') end = i+2;
+					else if (ch[i+1] == '″' && i+2 < length && ch[i+2] == '＼') end = i+3;
+					if (end != -1) {
+						this.add(KUNOJI, i, end, depth);
+						gaijiNext = end;
+					}
+				}
+				break;
+			case '｜':
+				if (ruby) this.add(RUBY_START, i, i+1, depth);
+				break;
+			case '《':
+				if (ruby) this.add(RUBY_OPEN, i, i+1, depth);
+				break;
+			case '》':
+				if (ruby) this.add(RUBY_CLOSE, i, i+1, depth);
+				break;
+			}
+		}
+	}
+	
+	/** 1文字以上の内容の後の終了文字の位置を取得 正規表現の .+? と同じく改行文字は含めない
+	 * @param cacheIdx 終了文字毎のキャッシュ位置
+	 * @param contentStart 内容の開始位置
+	 * @return 終了文字の位置 なければ-1 */
+	private int findEnd(int cacheIdx, char endChar, int contentStart)
+	{
+		int end = this.indexOf(cacheIdx, endChar, contentStart+1);
+		if (end == -1) return -1;
+		//間に改行文字があれば不一致
+		int lineEnd = this.indexOf(3, '\n', contentStart);
+		if (lineEnd != -1 && lineEnd < end) return -1;
+		return end;
+	}
+	
+	/** fromIndex以降の文字の位置を取得 前回の検索結果より前なら再検索しない
+	 * 改行文字の場合は \n \r \u0085 \u2028 \u2029 を検索 */
+	private int indexOf(int cacheIdx, char c, int fromIndex)
+	{
+		if (fromIndex >= this.length) return -1;
+		int result = this.cacheResult[cacheIdx];
+		if (this.cacheFrom[cacheIdx] <= fromIndex && fromIndex <= result) {
+			return result == this.length ? -1 : result;
+		}
+		result = fromIndex;
+		if (c == '\n') {
+			while (result < this.length && !isLineTerminator(this.ch[result])) result++;
+		} else {
+			while (result < this.length && this.ch[result] != c) result++;
+		}
+		this.cacheFrom[cacheIdx] = fromIndex;
+		this.cacheResult[cacheIdx] = result;
+		return result == this.length ? -1 : result;
+	}
+	
+	static private boolean isLineTerminator(char c)
+	{
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+	
+	private void add(int type, int start, int end, int depth)
+	{
+		if (this.count == this.types.length) {
+			int size = this.count*2;
+			int[] newTypes = new int[size]; System.arraycopy(this.types, 0, newTypes, 0, this.count); this.types = newTypes;
+			int[] newStarts = new int[size]; System.arraycopy(this.starts, 0, newStarts, 0, this.count); this.starts = newStarts;
+			int[] newEnds = new int[size]; System.arraycopy(this.ends, 0, newEnds, 0, this.count); this.ends = newEnds;
+			int[] newDepths = new int[size]; System.arraycopy(this.depths, 0, newDepths, 0, this.count); this.depths = newDepths;
+		}
+		this.types[this.count] = type;
+		this.starts[this.count] = start;
+		this.ends[this.count] = end;
+		this.depths[this.count] = depth;
+		this.count++;
+		this.kinds |= 1<<type;
+	}
+	
+	////////////////////////////////////////////////////////////////
+	/** 取得した字句の数 */
+	public int count()
+	{
+		return this.count;
+	}
+	/** 字句の種類 */
+	public int type(int idx)
+	{
+		return this.types[idx];
+	}
+	/** 字句の開始位置 */
+	public int start(int idx)
+	{
+		return this.starts[idx];
+	}
+	/** 字句の終了位置 終了文字の次 */
+	public int end(int idx)
+	{
+		return this.ends[idx];
+	}
+	/** 字句より前にある［＃と］の数の差 1以上なら注記内 */
+	public int depth(int idx)
+	{
+		return this.depths[idx];
+	}
+	/** 指定した種類の字句があればtrue */
+	public boolean contains(int type)
+	{
+		return (this.kinds & 1<<type) != 0;
+	}
+	/** ［＃の入れ子の最大数 2以上なら注記内に注記がある */
+	public int maxDepth()
+	{
+		return this.maxDepth;
+	}
+}
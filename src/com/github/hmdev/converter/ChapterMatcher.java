@@ -0,0 +1,233 @@
+package com.github.hmdev.converter;
+
+import java.util.regex.Pattern;
+
+/**
+ * 目次の自動抽出の規則をまとめた判定処理
+ * 有効な規則の行頭になりうる文字をビットで保持し、行頭の文字が該当しない行は
+ * 正規表現や文字列比較を行わずに除外する
+ * 数字と区切り文字もビットで保持して配列を走査せずに判別する
+ */
+public class ChapterMatcher
+{
+	/** その他パターンに一致 */
+	final static int MATCH_PATTERN = 1;
+	/** 章名(数字無し,数字有り)に一致 */
+	final static int MATCH_NAME = 2;
+	/** 数字のみ または 数字+区切り文字に一致 */
+	final static int MATCH_NUM = 4;
+	/** 括弧内数字に一致 */
+	final static int MATCH_PAREN = 8;
+	
+	/** いずれかの規則の行頭になりうる文字のビット */
+	long[] firstChars = new long[1024];
+	/** 章の数字のビット */
+	long[] numChars = new long[1024];
+	/** 章番号の後の区切り文字のビット */
+	long[] separatorChars = new long[1024];
+	
+	/** その他パターン */
+	Pattern pattern;
+	/** その他パターンが行頭の文字で除外できない場合はtrue */
+	boolean patternAnyChar = false;
+	
+	String[] chapterName;
+	String[] chapterNumPrefix;
+	String[][] chapterNumSuffix;
+	String[] chapterNumParenPrefix;
+	String[] chapterNumParenSuffix;
+	
+	boolean autoChapterName;
+	boolean autoChapterNumOnly;
+	boolean autoChapterNumTitle;
+	boolean autoChapterNumParen;
+	boolean autoChapterNumParenTitle;
+	
+	/** 有効な規則から判定処理を生成 規則が1つも有効でなければnull */
+	static ChapterMatcher create(char[] chapterNumChar, char[] chapterSeparator,
+			String[] chapterName, String[] chapterNumPrefix, String[][] chapterNumSuffix, String[] chapterNumParenPrefix, String[] chapterNumParenSuffix,
+			boolean autoChapterName, boolean autoChapterNumOnly, boolean autoChapterNumTitle, boolean autoChapterNumParen, boolean autoChapterNumParenTitle,
+			Pattern pattern)
+	{
+		if (!autoChapterName && !autoChapterNumOnly && !autoChapterNumTitle && !autoChapterNumParen && !autoChapterNumParenTitle && pattern == null) return null;
+		
+		ChapterMatcher matcher = new ChapterMatcher();
+		matcher.chapterName = chapterName;
+		matcher.chapterNumPrefix = chapterNumPrefix;
+		matcher.chapterNumSuffix = chapterNumSuffix;
+		matcher.chapterNumParenPrefix = chapterNumParenPrefix;
+		matcher.chapterNumParenSuffix = chapterNumParenSuffix;
+		matcher.autoChapterName = autoChapterName;
+		matcher.autoChapterNumOnly = autoChapterNumOnly;
+		matcher.autoChapterNumTitle = autoChapterNumTitle;
+		matcher.autoChapterNumParen = autoChapterNumParen;
+		matcher.autoChapterNumParenTitle = autoChapterNumParenTitle;
+		matcher.pattern = pattern;
+		
+		for (char c : chapterNumChar) set(matcher.numChars, c);
+		for (char c : chapterSeparator) set(matcher.separatorChars, c);
+		
+		if (autoChapterName) {
+			for (String name : chapterName) set(matcher.firstChars, name.charAt(0));
+			for (String prefix : chapterNumPrefix) {
+				//prefix無しは数字から開始
+				if (prefix.length() == 0) matcher.addFirstChars(chapterNumChar);
+				else set(matcher.firstChars, prefix.charAt(0));
+			}
+		}
+		if (autoChapterNumOnly || autoChapterNumTitle) matcher.addFirstChars(chapterNumChar);
+		if (autoChapterNumParen || autoChapterNumParenTitle) {
+			for (String prefix : chapterNumParenPrefix) set(matcher.firstChars, prefix.charAt(0));
+		}
+		if (pattern != null) {
+			int c = getPatternFirstChar(pattern);
+			if (c == -1) matcher.patternAnyChar = true;
+			else set(matcher.firstChars, (char)c);
+		}
+		return matcher;
+	}
+	
+	private void addFirstChars(char[] chars)
+	{
+		for (char c : chars) set(this.firstChars, c);
+	}
+	
+	/** "^文字"で始まるパターンなら行頭の文字を返す 行頭の文字が決まらないパターンは-1 */
+	static int getPatternFirstChar(Pattern pattern)
+	{
+		if (pattern.flags() != 0) return -1;
+		String regex = pattern.pattern();
+		if (regex.length() < 2 || regex.charAt(0) != '^') return -1;
+		//選択は行頭以外で一致する可能性がある
+		if (regex.indexOf('|') != -1) return -1;
+		char c = regex.charAt(1);
+		if ("\\[](){}.*+?^$|".indexOf(c) != -1) return -1;
+		if (Character.isHighSurrogate(c)) return -1;
+		//量指定子で省略可能になる場合は除外
+		if (regex.length() > 2 && "?*{".indexOf(regex.charAt(2)) != -1) return -1;
+		return c;
+	}
+	
+	static private void set(long[] bits, char c)
+	{
+		bits[c>>>6] |= 1L<<c;
+	}
+	static private boolean get(long[] bits, char c)
+	{
+		return (bits[c>>>6] & 1L<<c) != 0;
+	}
+	
+	/** 文字が章の数字ならtrue */
+	boolean isChapterNum(char c)
+	{
+		return get(this.numChars, c);
+	}
+	/** 文字が章の後の区切り文字ならtrue */
+	boolean isChapterSeparator(char c)
+	{
+		return get(this.separatorChars, c);
+	}
+	
+	/** 注記と前後の空白を除去した行が一致した規則をMATCH_*の論理和で返す
+	 * 一致しなければ0 */
+	int match(String noChukiLine)
+	{
+		int length = noChukiLine.length();
+		if (!this.patternAnyChar && (length == 0 || !get(this.firstChars, noChukiLine.charAt(0)))) return 0;
+		
+		int result = 0;
+		
+		//その他パターン
+		if (this.pattern != null) {
+			if (this.pattern.matcher(noChukiLine).find()) result |= MATCH_PATTERN;
+		}
+		//パターンのみ行頭の文字で除外できない場合
+		if (length == 0 || !get(this.firstChars, noChukiLine.charAt(0))) return result;
+		
+		if (this.autoChapterName) {
+			boolean isChapter = false;
+			//数字を含まない章名
+			for (int i=0; i<this.chapterName.length; i++) {
+				String prefix = this.chapterName[i];
+				if (noChukiLine.startsWith(prefix)) {
+					if (length == prefix.length()) { isChapter = true; break; }
+					else if (isChapterSeparator(noChukiLine.charAt(prefix.length()))) { isChapter = true; break; }
+				}
+			}
+			//数字を含む章名
+			if (!isChapter) {
+				for (int i=0; i<this.chapterNumPrefix.length; i++) {
+					String prefix = this.chapterNumPrefix[i];
+					if (noChukiLine.startsWith(prefix)) {
+						int idx = prefix.length();
+						//次が数字かチェック
+						while (length > idx && isChapterNum(noChukiLine.charAt(idx))) idx++;
+						if (idx <= prefix.length()) break; //数字がなければ抽出しない
+						//後ろをチェック prefixに対応するsuffixで回す
+						for (String suffix : this.chapterNumSuffix[i]) {
+							if (!"".equals(suffix)) {
+								if (noChukiLine.startsWith(suffix, idx)) {
+									idx += suffix.length();
+									if (length == idx) { isChapter = true; break; }
+									else if (isChapterSeparator(noChukiLine.charAt(idx))) { isChapter = true; break; }
+								}
+							} else {
+								if (length == idx) { isChapter = true; break; }
+								else if (isChapterSeparator(noChukiLine.charAt(idx))) { isChapter = true; break; }
+							}
+						}
+					}
+				}
+			}
+			if (isChapter) result |= MATCH_NAME;
+		}
+		if (this.autoChapterNumOnly || this.autoChapterNumTitle) {
+			//数字
+			int idx = 0;
+			while (length > idx && isChapterNum(noChukiLine.charAt(idx))) idx++;
+			if (idx > 0) {
+				if (this.autoChapterNumOnly && length==idx ||
+					this.autoChapterNumTitle && length > idx && isChapterSeparator(noChukiLine.charAt(idx))) {
+					result |= MATCH_NUM;
+				}
+			}
+		}
+		if (this.autoChapterNumParen || this.autoChapterNumParenTitle) {
+			//括弧内数字のみ
+			for (int i=0; i<this.chapterNumParenPrefix.length; i++) {
+				String prefix = this.chapterNumParenPrefix[i];
+				if (noChukiLine.startsWith(prefix)) {
+					int idx = prefix.length();
+					//次が数字かチェック
+					while (length > idx && isChapterNum(noChukiLine.charAt(idx))) idx++;
+					if (idx <= prefix.length()) break; //数字がなければ抽出しない
+					//後ろをチェック
+					String suffix = this.chapterNumParenSuffix[i];
+					if (noChukiLine.startsWith(suffix, idx)) {
+						idx += suffix.length();
+						if (this.autoChapterNumParen && length==idx ||
+							this.autoChapterNumParenTitle && length>idx && isChapterSeparator(noChukiLine.charAt(idx))) {
+							result |= MATCH_PAREN;
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+	
+	/** 記号と全角空白以外の文字があればtrue
+	 * replaceAll("◇|◆|□|■|▽|▼|☆|★|＊|＋|×|†|　", "").length() > 0 と同じ */
+	static boolean hasNameChar(String name)
+	{
+		for (int i=0; i<name.length(); i++) {
+			switch (name.charAt(i)) {
+			case '◇': case '◆': case '□': case '■': case '▽': case '▼': case '☆': case '★': case '＊': case '＋': case '×': case '†': case '　':
+				break;
+			default:
+				return true;
+			}
+		}
+		return false;
+	}
+}
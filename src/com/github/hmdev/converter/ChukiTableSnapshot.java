@@ -0,0 +1,301 @@
+package com.github.hmdev.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.github.hmdev.util.LogAppender;
+
+/**
+ * 注記と外字の変換テーブルの読み込み結果を1つのバイナリファイルに保存して次回の起動時に再利用する
+ * chuki_*.txt の内容と外字フォントのファイル名のCRC32を保存し、一致しない場合は読み込まずに
+ * テキストから再作成して上書きする
+ * 形式: MAGIC, VERSION, ソースのCRC32, テーブル, 末尾にそれまでのCRC32
+ */
+public class ChukiTableSnapshot
+{
+	/** 保存ファイル名 */
+	final static String SNAPSHOT_FILE = "chuki_tables.dat";
+	/** ファイルの先頭 "CKTB" */
+	final static int MAGIC = 0x434B5442;
+	/** 形式を変更したら更新 */
+	final static int VERSION = 1;
+	
+	/** 変換テーブルのファイル名 */
+	final static String[] SOURCE_FILES = {"chuki_tag.txt", "chuki_tag_suf.txt", "chuki_utf.txt", "chuki_ivs.txt", "chuki_alt.txt", "chuki_latin.txt"};
+	
+	/** 保存ファイル */
+	File snapshotFile;
+	/** 変換テーブルの格納パス */
+	String jarPath;
+	/** 外字フォントのパス */
+	File gaijiPath;
+	/** ソース毎のCRC32 最後は外字フォントのファイル名 */
+	long[] sourceCrcs;
+	
+	public ChukiTableSnapshot(String jarPath, File gaijiPath) throws IOException
+	{
+		this.jarPath = jarPath;
+		this.gaijiPath = gaijiPath;
+		this.snapshotFile = new File(jarPath+SNAPSHOT_FILE);
+		//ソースのチェックサム 変換テーブルがなければテキストの読み込みと同じく例外
+		this.sourceCrcs = new long[SOURCE_FILES.length+1];
+		byte[] buf = new byte[65536];
+		for (int i=0; i<SOURCE_FILES.length; i++) {
+			CRC32 crc = new CRC32();
+			InputStream is = new FileInputStream(new File(jarPath+SOURCE_FILES[i]));
+			try {
+				int len;
+				while ((len = is.read(buf)) > 0) crc.update(buf, 0, len);
+			} finally {
+				is.close();
+			}
+			this.sourceCrcs[i] = crc.getValue();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(gaijiPath.getPath().getBytes("UTF-8"));
+		String[] fontFiles = gaijiPath.list();
+		if (fontFiles != null) {
+			Arrays.sort(fontFiles);
+			for (String fontFile : fontFiles) {
+				crc.update(0);
+				crc.update(fontFile.getBytes("UTF-8"));
+			}
+		}
+		this.sourceCrcs[SOURCE_FILES.length] = crc.getValue();
+	}
+	
+	/** 保存ファイルから変換テーブルを読み込む
+	 * @return 読み込んだ変換テーブル ファイルがないかソースが変更されていたらnull */
+	ConversionTables.Source load()
+	{
+		if (!this.snapshotFile.isFile()) return null;
+		try {
+			byte[] bytes = new byte[(int)this.snapshotFile.length()];
+			DataInputStream dis = new DataInputStream(new FileInputStream(this.snapshotFile));
+			try {
+				dis.readFully(bytes);
+			} finally {
+				dis.close();
+			}
+			if (bytes.length < 12) return null;
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length-4);
+			dis = new DataInputStream(new ByteArrayInputStream(bytes));
+			dis.skipBytes(bytes.length-4);
+			if ((int)crc.getValue() != dis.readInt()) return null;
+			
+			dis = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length-4));
+			if (dis.readInt() != MAGIC || dis.readInt() != VERSION) return null;
+			if (dis.readInt() != this.sourceCrcs.length) return null;
+			for (long sourceCrc : this.sourceCrcs) {
+				if (dis.readLong() != sourceCrc) return null;
+			}
+			
+			ConversionTables.Source tables = new ConversionTables.Source();
+			LatinConverter latinConverter = new LatinConverter();
+			readCharMap(dis, latinConverter.latinMap);
+			int size = dis.readInt();
+			for (int i=0; i<size; i++) latinConverter.latinCidMap.put(dis.readChar(), readStrings(dis));
+			AozoraGaijiConverter gaijiConverter = new AozoraGaijiConverter();
+			readStringMap(dis, gaijiConverter.chukiUtfMap);
+			readStringMap(dis, gaijiConverter.chukiAltMap);
+			
+			readStringsMap(dis, tables.chukiMap);
+			readSet(dis, tables.chukiFlagNoBr);
+			readSet(dis, tables.chukiFlagNoRubyStart);
+			readSet(dis, tables.chukiFlagNoRubyEnd);
+			readSet(dis, tables.chukiFlagPageBreak);
+			readSet(dis, tables.chukiFlagMiddle);
+			readSet(dis, tables.chukiFlagBottom);
+			readSet(dis, tables.chukiKunten);
+			readStringsMap(dis, tables.sufChukiMap);
+			
+			tables.utf16FontMap = readCodeMap(dis);
+			tables.utf32FontMap = readCodeMap(dis);
+			tables.ivs16FontMap = readNullableStringMap(dis);
+			tables.ivs32FontMap = readNullableStringMap(dis);
+			
+			tables.latinConverter = latinConverter;
+			tables.gaijiConverter = gaijiConverter;
+			return tables;
+		} catch (IOException e) {
+			//読み込めなければテキストから再作成
+			return null;
+		}
+	}
+	
+	/** テキストから読み込んだ変換テーブルを保存
+	 * 書き込めない場合は保存しない */
+	void save(ConversionTables.Source tables)
+	{
+		File dir = this.snapshotFile.getAbsoluteFile().getParentFile();
+		if (dir == null || !dir.canWrite()) return;
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(1024*1024);
+			DataOutputStream dos = new DataOutputStream(baos);
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(this.sourceCrcs.length);
+			for (long sourceCrc : this.sourceCrcs) dos.writeLong(sourceCrc);
+			
+			writeCharMap(dos, tables.latinConverter.latinMap);
+			dos.writeInt(tables.latinConverter.latinCidMap.size());
+			for (Map.Entry<Character, String[]> entry : tables.latinConverter.latinCidMap.entrySet()) {
+				dos.writeChar(entry.getKey());
+				writeStrings(dos, entry.getValue());
+			}
+			writeStringMap(dos, tables.gaijiConverter.chukiUtfMap);
+			writeStringMap(dos, tables.gaijiConverter.chukiAltMap);
+			
+			writeStringsMap(dos, tables.chukiMap);
+			writeSet(dos, tables.chukiFlagNoBr);
+			writeSet(dos, tables.chukiFlagNoRubyStart);
+			writeSet(dos, tables.chukiFlagNoRubyEnd);
+			writeSet(dos, tables.chukiFlagPageBreak);
+			writeSet(dos, tables.chukiFlagMiddle);
+			writeSet(dos, tables.chukiFlagBottom);
+			writeSet(dos, tables.chukiKunten);
+			writeStringsMap(dos, tables.sufChukiMap);
+			
+			writeCodeMap(dos, tables.utf16FontMap);
+			writeCodeMap(dos, tables.utf32FontMap);
+			writeNullableStringMap(dos, tables.ivs16FontMap);
+			writeNullableStringMap(dos, tables.ivs32FontMap);
+			dos.flush();
+			
+			CRC32 crc = new CRC32();
+			byte[] bytes = baos.toByteArray();
+			crc.update(bytes);
+			
+			//別名で書き込んでから置き換え
+			File tmpFile = new File(this.snapshotFile.getPath()+".tmp");
+			dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				dos.write(bytes);
+				dos.writeInt((int)crc.getValue());
+			} finally {
+				dos.close();
+			}
+			if (this.snapshotFile.exists()) this.snapshotFile.delete();
+			if (!tmpFile.renameTo(this.snapshotFile)) tmpFile.delete();
+		} catch (IOException e) {
+			LogAppender.println("変換テーブルを保存できません : "+e.getMessage());
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////
+	static private void writeStrings(DataOutputStream dos, String[] values) throws IOException
+	{
+		dos.writeShort(values.length);
+		for (String value : values) dos.writeUTF(value);
+	}
+	static private String[] readStrings(DataInputStream dis) throws IOException
+	{
+		String[] values = new String[dis.readUnsignedShort()];
+		for (int i=0; i<values.length; i++) values[i] = dis.readUTF();
+		return values;
+	}
+	
+	static private void writeSet(DataOutputStream dos, HashSet<String> set) throws IOException
+	{
+		dos.writeInt(set.size());
+		for (String value : set) dos.writeUTF(value);
+	}
+	static private void readSet(DataInputStream dis, HashSet<String> set) throws IOException
+	{
+		int size = dis.readInt();
+		for (int i=0; i<size; i++) set.add(dis.readUTF());
+	}
+	
+	static private void writeStringMap(DataOutputStream dos, HashMap<String, String> map) throws IOException
+	{
+		dos.writeInt(map.size());
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			dos.writeUTF(entry.getKey());
+			dos.writeUTF(entry.getValue());
+		}
+	}
+	static private void readStringMap(DataInputStream dis, HashMap<String, String> map) throws IOException
+	{
+		int size = dis.readInt();
+		for (int i=0; i<size; i++) map.put(dis.readUTF(), dis.readUTF());
+	}
+	
+	/** nullなら件数-1 */
+	static private void writeNullableStringMap(DataOutputStream dos, HashMap<String, String> map) throws IOException
+	{
+		if (map == null) dos.writeInt(-1);
+		else writeStringMap(dos, map);
+	}
+	static private HashMap<String, String> readNullableStringMap(DataInputStream dis) throws IOException
+	{
+		int size = dis.readInt();
+		if (size == -1) return null;
+		HashMap<String, String> map = new HashMap<String, String>();
+		for (int i=0; i<size; i++) map.put(dis.readUTF(), dis.readUTF());
+		return map;
+	}
+	
+	static private void writeStringsMap(DataOutputStream dos, HashMap<String, String[]> map) throws IOException
+	{
+		dos.writeInt(map.size());
+		for (Map.Entry<String, String[]> entry : map.entrySet()) {
+			dos.writeUTF(entry.getKey());
+			writeStrings(dos, entry.getValue());
+		}
+	}
+	static private void readStringsMap(DataInputStream dis, HashMap<String, String[]> map) throws IOException
+	{
+		int size = dis.readInt();
+		for (int i=0; i<size; i++) map.put(dis.readUTF(), readStrings(dis));
+	}
+	
+	static private void writeCharMap(DataOutputStream dos, HashMap<String, Character> map) throws IOException
+	{
+		dos.writeInt(map.size());
+		for (Map.Entry<String, Character> entry : map.entrySet()) {
+			dos.writeUTF(entry.getKey());
+			dos.writeChar(entry.getValue());
+		}
+	}
+	static private void readCharMap(DataInputStream dis, HashMap<String, Character> map) throws IOException
+	{
+		int size = dis.readInt();
+		for (int i=0; i<size; i++) map.put(dis.readUTF(), dis.readChar());
+	}
+	
+	/** nullなら件数-1 */
+	static private void writeCodeMap(DataOutputStream dos, HashMap<Integer, String> map) throws IOException
+	{
+		if (map == null) {
+			dos.writeInt(-1);
+			return;
+		}
+		dos.writeInt(map.size());
+		for (Map.Entry<Integer, String> entry : map.entrySet()) {
+			dos.writeInt(entry.getKey());
+			dos.writeUTF(entry.getValue());
+		}
+	}
+	static private HashMap<Integer, String> readCodeMap(DataInputStream dis) throws IOException
+	{
+		int size = dis.readInt();
+		if (size == -1) return null;
+		HashMap<Integer, String> map = new HashMap<Integer, String>();
+		for (int i=0; i<size; i++) map.put(dis.readInt(), dis.readUTF());
+		return map;
+	}
+}
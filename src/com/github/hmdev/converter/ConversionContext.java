@@ -0,0 +1,106 @@
+package com.github.hmdev.converter;
+
+import java.util.BitSet;
+import java.util.HashSet;
+
+import com.github.hmdev.info.BookInfo;
+import com.github.hmdev.info.ChapterLineInfo;
+import com.github.hmdev.info.LineInfoMap;
+import com.github.hmdev.util.GapBuffer;
+
+/**
+ * 1冊の変換処理中の状態と作業用バッファ
+ * 変換処理毎に生成し、複数の変換処理で共有しない
+ * 変換テーブルはConversionTablesで共有する
+ */
+public class ConversionContext
+{
+	/** BookInfo */
+	BookInfo bookInfo;
+	/** BookInfoの見出し行を行番号順に参照するカーソル */
+	LineInfoMap.Cursor<ChapterLineInfo> chapterLineCursor;
+	
+	/** 現在処理中の行番号 */
+	int lineNum;
+	
+	//セクション毎に初期化
+	/** 改ページ後の文字数 */
+	int pageByteSize;
+	/** 行出力用の文字配列 */
+	char[] lineChars = new char[256];
+	/** セクション内の文字数(変換前の注記タグ含む) 空ページチェック用 */
+	int sectionCharLength;
+	/** 栞用ID連番 xhtml内連番 */
+	int lineIdNum;
+	/** タグの階層 */
+	int tagLevel = 0;
+	
+	/** 画像の次の行にキャプション指定有り */
+	boolean nextLineIsCaption = false;
+	/** キャプション出力中で画像タグが閉じていないならtrue */
+	boolean inImageTag = false;
+	
+	////////////////////////////////
+	//改ページトリガ ファイル名は入れ替えて利用する 並列変換用に変換処理毎に保持
+	/** 改ページ通常 */
+	final PageBreakType pageBreakNormal = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_NONE);
+	/** 改ページ左右中央 */
+	final PageBreakType pageBreakMiddle = new PageBreakType(true, PageBreakType.PAGE_MIDDLE, PageBreakType.IMAGE_PAGE_NONE);
+	/** 改ページ左 */
+	final PageBreakType pageBreakBottom = new PageBreakType(true, PageBreakType.PAGE_BOTTOM, PageBreakType.IMAGE_PAGE_NONE);
+	/** 改ページ画像単一ページ サイズに応じて自動調整 */
+	final PageBreakType pageBreakImageAuto = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_AUTO);
+	/** 改ページ画像単一ページ 幅100% */
+	final PageBreakType pageBreakImageW = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_W);
+	/** 改ページ画像単一ページ 高さ100% */
+	final PageBreakType pageBreakImageH = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_H);
+	/** 改ページ画像単一ページ 拡大しない */
+	final PageBreakType pageBreakImageNoFit = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_NOFIT);
+	/** 改ページ「底本：」の前 */
+	final PageBreakType pageBreakNoChapter = new PageBreakType(true, 0, PageBreakType.IMAGE_PAGE_NONE, true);
+	
+	//---------------- Flags Variables ----------------//
+	/** 字下げ 字下げ開始した行番号を入れておく */
+	int inJisage = -1;
+	/** 横組み内 */
+	boolean inYoko = false;
+	
+	/** 自動縦中横抑止開始 */
+	HashSet<Integer> noTcyStart = new HashSet<Integer>();
+	/** 自動縦中横抑止終了 */
+	HashSet<Integer> noTcyEnd = new HashSet<Integer>();
+	
+	/** 行の字句解析 解析結果を保持している間に他の処理で上書きされないように処理毎に分ける */
+	AozoraLexer gaijiLexer = new AozoraLexer();
+	AozoraLexer sufLexer = new AozoraLexer();
+	AozoraLexer bookInfoLexer = new AozoraLexer();
+	AozoraLexer titleLexer = new AozoraLexer();
+	AozoraLexer textLexer = new AozoraLexer();
+	/** 前方参照注記の置換用 */
+	GapBuffer sufBuffer = new GapBuffer(256);
+	
+	/** 前方参照注記の検索結果 注記の開始,終了,○○の開始,終了,～の開始,終了 */
+	int[] sufGroups = new int[6];
+	
+	////////////////////////////////
+	// 出力処理
+	/** 本文があれば改ページするフラグ */
+	PageBreakType pageBreakTrigger = null;
+	/** 左右中央の前の空行を除外するフラグ */
+	boolean skipMiddleEmpty;
+	/** 改ページ前の空行 */
+	int printEmptyLines = 0;
+	
+	/** 直前で見出しが出力された行番号 複数出力防止用 */
+	int lastChapterLine = -1;
+	
+	/** コメントブロック内 */
+	boolean inComment = false;
+	
+	////////////////////////////////
+	// 本文の並列変換
+	/** 並列変換中の出力先 Epub3Writerへの出力もここに記録する 並列変換しない場合はnull */
+	SectionBuffer sectionBuffer = null;
+	/** 並列変換中に追加した改ページ行 変換終了後にBookInfoに反映する 並列変換しない場合はnull */
+	BitSet pageBreakLines = null;
+}
@@ -0,0 +1,359 @@
+package com.github.hmdev.converter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.LruCache;
+
+/**
+ * 注記と外字の変換テーブル
+ * 生成時に読み込んだ後は変更しないので、複数の変換処理で同時に参照できる (外字注記の変換結果のキャッシュを除く)
+ * 変換処理毎の状態はConversionContextに保持する
+ */
+public class ConversionTables
+{
+	/** 読み込み済みの変換テーブル key=変換テーブルのパスと外字フォントのパス */
+	static HashMap<String, ConversionTables> loadedTables = new HashMap<String, ConversionTables>();
+	
+	/** 変換テーブルを取得 同じパスなら読み込み済みのものを返す
+	 * @param jarPath 変換テーブルの格納パス
+	 * @param gaijiPath 外字フォントのパス */
+	public static synchronized ConversionTables getTables(String jarPath, File gaijiPath) throws IOException
+	{
+		String key = jarPath+"\t"+gaijiPath.getAbsolutePath();
+		ConversionTables tables = loadedTables.get(key);
+		if (tables == null) {
+			tables = new ConversionTables(jarPath, gaijiPath);
+			loadedTables.put(key, tables);
+		}
+		return tables;
+	}
+	
+	/** 読み込み途中の注記と外字の変換テーブル
+	 * テキストまたは保存ファイルから読み込んでConversionTablesのコンストラクタに渡す */
+	static class Source
+	{
+		final HashMap<String, String[]> chukiMap = new HashMap<String, String[]>();
+		final HashSet<String> chukiFlagNoBr = new HashSet<String>();
+		final HashSet<String> chukiFlagNoRubyStart = new HashSet<String>();
+		final HashSet<String> chukiFlagNoRubyEnd = new HashSet<String>();
+		final HashSet<String> chukiFlagPageBreak = new HashSet<String>();
+		final HashSet<String> chukiFlagMiddle = new HashSet<String>();
+		final HashSet<String> chukiFlagBottom = new HashSet<String>();
+		final HashSet<String> chukiKunten = new HashSet<String>();
+		final HashMap<String, String[]> sufChukiMap = new HashMap<String, String[]>();
+		/** 外字フォントがなければnull */
+		HashMap<Integer, String> utf16FontMap = null;
+		HashMap<Integer, String> utf32FontMap = null;
+		HashMap<String, String> ivs16FontMap = null;
+		HashMap<String, String> ivs32FontMap = null;
+		LatinConverter latinConverter;
+		AozoraGaijiConverter gaijiConverter;
+	}
+	
+	/** 注記→タグ変換用
+	 * key=注記文字列 (［＃］除外)
+	 * value= { 置換文字列, 行末追加文字列 } */
+	private final Map<String, String[]> chukiMap;
+	
+	/** 注記フラグ 改行なし key = 注記名 */
+	private final Set<String> chukiFlagNoBr;
+	/** 注記フラグ 圏点開始 key = 注記名 */
+	private final Set<String> chukiFlagNoRubyStart;
+	/** 注記フラグ 圏点終了 key = 注記名 */
+	private final Set<String> chukiFlagNoRubyEnd;
+	/** 注記フラグ 改ページ処理 key = 注記名 */
+	private final Set<String> chukiFlagPageBreak;
+	/** 注記フラグ 左右中央 key = 注記名 */
+	private final Set<String> chukiFlagMiddle;
+	/** 注記フラグ ページ左 key = 注記名 */
+	private final Set<String> chukiFlagBottom;
+	/** 注記フラグ 訓点・返り点 key = 注記名 */
+	private final Set<String> chukiKunten;
+	
+	/** 後述注記→タグ変換用
+	 * key=注記文字列 (「」内削除)
+	 * value= { 前タグ, 後タグ } */
+	private final Map<String, String[]> sufChukiMap;
+	
+	private final Map<String, Pattern> chukiPatternMap;
+	
+	/** 文字置換 置換前文字列の木 replace.txtがなければnull */
+	private final ReplaceTrie replaceTrie;
+	
+	/** U+FFFF以前の文字の外字フォントパス文字列 */
+	private final Map<Integer, String> utf16FontMap;
+	/** U+20000以降の文字の外字フォントパス文字列 */
+	private final Map<Integer, String> utf32FontMap;
+	/** IVS付きのU+FFFF以前の文字の外字フォントパス文字列 */
+	private final Map<String, String> ivs16FontMap;
+	/** IVS付きのU+20000以降の文字の外字フォントパス文字列 */
+	private final Map<String, String> ivs32FontMap;
+	
+	/** 「基本ラテン文字のみによる拡張ラテン文字Aの分解表記」の変換クラス */
+	private final LatinConverter latinConverter;
+	
+	/** 外字注記タグをUTF-8・グリフタグ・代替文字に変換するクラス */
+	private final AozoraGaijiConverter gaijiConverter;
+	
+	/** 外字注記の変換結果 key=※［＃…］ value=出力文字列
+	 * 変換結果はこの変換テーブルのみで決まるので、同じ変換テーブルを使う変換処理と書籍で共通
+	 * 変換できなかった注記は保持しない 複数スレッドから参照される */
+	private final LruCache<String, String> gaijiCache = new LruCache<String, String>(4096);
+	
+	/** 変換テーブルを読み込む
+	 * 保存済みの変換テーブルが変換テーブルのテキストと一致すれば読み込み、一致しなければテキストから作成して保存 */
+	private ConversionTables(String jarPath, File gaijiPath) throws IOException
+	{
+		this(loadSource(jarPath, gaijiPath), loadReplaceTrie(jarPath));
+	}
+	
+	/** 置換文字列の木のみ差し替えた変換テーブルを生成 */
+	ConversionTables(ConversionTables tables, ReplaceTrie replaceTrie)
+	{
+		this.chukiMap = tables.chukiMap;
+		this.chukiFlagNoBr = tables.chukiFlagNoBr;
+		this.chukiFlagNoRubyStart = tables.chukiFlagNoRubyStart;
+		this.chukiFlagNoRubyEnd = tables.chukiFlagNoRubyEnd;
+		this.chukiFlagPageBreak = tables.chukiFlagPageBreak;
+		this.chukiFlagMiddle = tables.chukiFlagMiddle;
+		this.chukiFlagBottom = tables.chukiFlagBottom;
+		this.chukiKunten = tables.chukiKunten;
+		this.sufChukiMap = tables.sufChukiMap;
+		this.chukiPatternMap = tables.chukiPatternMap;
+		this.replaceTrie = replaceTrie;
+		this.utf16FontMap = tables.utf16FontMap;
+		this.utf32FontMap = tables.utf32FontMap;
+		this.ivs16FontMap = tables.ivs16FontMap;
+		this.ivs32FontMap = tables.ivs32FontMap;
+		this.latinConverter = tables.latinConverter;
+		this.gaijiConverter = tables.gaijiConverter;
+	}
+	
+	/** 読み込んだテーブルを変更不可にして保持 */
+	private ConversionTables(Source source, ReplaceTrie replaceTrie)
+	{
+		this.chukiMap = Collections.unmodifiableMap(source.chukiMap);
+		this.chukiFlagNoBr = Collections.unmodifiableSet(source.chukiFlagNoBr);
+		this.chukiFlagNoRubyStart = Collections.unmodifiableSet(source.chukiFlagNoRubyStart);
+		this.chukiFlagNoRubyEnd = Collections.unmodifiableSet(source.chukiFlagNoRubyEnd);
+		this.chukiFlagPageBreak = Collections.unmodifiableSet(source.chukiFlagPageBreak);
+		this.chukiFlagMiddle = Collections.unmodifiableSet(source.chukiFlagMiddle);
+		this.chukiFlagBottom = Collections.unmodifiableSet(source.chukiFlagBottom);
+		this.chukiKunten = Collections.unmodifiableSet(source.chukiKunten);
+		this.sufChukiMap = Collections.unmodifiableMap(source.sufChukiMap);
+		
+		//TODO パターンとprintfのFormatを設定ファイルから読み込みできるようにする (printfの引数の演算処理はフラグで切り替え？)
+		HashMap<String, Pattern> chukiPatternMap = new HashMap<String, Pattern>();
+		chukiPatternMap.put("折り返し", Pattern.compile("^［＃ここから([０-９]+)字下げ、折り返して([０-９]+)字下げ(.*)］"));
+		chukiPatternMap.put("字下げ字詰め", Pattern.compile("^［＃ここから([０-９]+)字下げ、([０-９]+)字詰め.*］"));
+		chukiPatternMap.put("字下げ複合", Pattern.compile("^［＃ここから([０-９]+)字下げ.*］"));
+		chukiPatternMap.put("字下げ終わり複合", Pattern.compile("^［＃ここで字下げ.*終わり"));
+		this.chukiPatternMap = Collections.unmodifiableMap(chukiPatternMap);
+		
+		this.replaceTrie = replaceTrie;
+		
+		this.utf16FontMap = source.utf16FontMap == null ? null : Collections.unmodifiableMap(source.utf16FontMap);
+		this.utf32FontMap = source.utf32FontMap == null ? null : Collections.unmodifiableMap(source.utf32FontMap);
+		this.ivs16FontMap = source.ivs16FontMap == null ? null : Collections.unmodifiableMap(source.ivs16FontMap);
+		this.ivs32FontMap = source.ivs32FontMap == null ? null : Collections.unmodifiableMap(source.ivs32FontMap);
+		
+		this.latinConverter = source.latinConverter;
+		this.gaijiConverter = source.gaijiConverter;
+	}
+	
+	/** 保存済みの変換テーブルを読み込み なければテキストから読み込んで保存 */
+	static private Source loadSource(String jarPath, File gaijiPath) throws IOException
+	{
+		ChukiTableSnapshot snapshot = new ChukiTableSnapshot(jarPath, gaijiPath);
+		Source source = snapshot.load();
+		if (source == null) {
+			source = loadChukiTables(jarPath, gaijiPath);
+			snapshot.save(source);
+		}
+		return source;
+	}
+	
+	/** 単純文字置換の置換前文字列の木を読み込む replace.txtがなければnull */
+	static private ReplaceTrie loadReplaceTrie(String jarPath) throws IOException
+	{
+		File replaceFile = new File(jarPath+"replace.txt");
+		if (!replaceFile.exists()) return null;
+		ReplaceTrie replaceTrie = new ReplaceTrie();
+		BufferedReader src = new BufferedReader(new InputStreamReader(new FileInputStream(replaceFile), "UTF-8"));
+		String line;
+		int lineNum = 0;
+		try {
+			while ((line = src.readLine()) != null) {
+				lineNum++;
+				if (line.length() > 0 && line.charAt(0)!='#') {
+					try {
+						String[] values = line.split("\t");
+						replaceTrie.put(values[0], values[1]);
+					} catch (Exception e) {
+						LogAppender.error(lineNum, replaceFile.getName(), line);
+					}
+				}
+			}
+		} finally {
+			src.close();
+		}
+		return replaceTrie;
+	}
+	
+	////////////////////////////////////////////////////////////////
+	public Map<String, String[]> getChukiMap() { return this.chukiMap; }
+	public Set<String> getChukiFlagNoBr() { return this.chukiFlagNoBr; }
+	public Set<String> getChukiFlagNoRubyStart() { return this.chukiFlagNoRubyStart; }
+	public Set<String> getChukiFlagNoRubyEnd() { return this.chukiFlagNoRubyEnd; }
+	public Set<String> getChukiFlagPageBreak() { return this.chukiFlagPageBreak; }
+	public Set<String> getChukiFlagMiddle() { return this.chukiFlagMiddle; }
+	public Set<String> getChukiFlagBottom() { return this.chukiFlagBottom; }
+	public Set<String> getChukiKunten() { return this.chukiKunten; }
+	public Map<String, String[]> getSufChukiMap() { return this.sufChukiMap; }
+	public Map<String, Pattern> getChukiPatternMap() { return this.chukiPatternMap; }
+	public ReplaceTrie getReplaceTrie() { return this.replaceTrie; }
+	public Map<Integer, String> getUtf16FontMap() { return this.utf16FontMap; }
+	public Map<Integer, String> getUtf32FontMap() { return this.utf32FontMap; }
+	public Map<String, String> getIvs16FontMap() { return this.ivs16FontMap; }
+	public Map<String, String> getIvs32FontMap() { return this.ivs32FontMap; }
+	public LatinConverter getLatinConverter() { return this.latinConverter; }
+	public AozoraGaijiConverter getGaijiConverter() { return this.gaijiConverter; }
+	LruCache<String, String> getGaijiCache() { return this.gaijiCache; }
+	
+	/** 注記と外字の変換テーブルをテキストから読み込む */
+	static private Source loadChukiTables(String jarPath, File gaijiPath) throws IOException
+	{
+		Source source = new Source();
+		
+		//拡張ラテン変換
+		source.latinConverter = new LatinConverter(new File(jarPath+"chuki_latin.txt"));
+		
+		source.gaijiConverter = new AozoraGaijiConverter(jarPath);
+		
+		//注記タグ変換
+		File chukiTagFile = new File(jarPath+"chuki_tag.txt");
+		BufferedReader src = new BufferedReader(new InputStreamReader(new FileInputStream(chukiTagFile), "UTF-8"));
+		String line;
+		int lineNum = 0;
+		try {
+			while ((line = src.readLine()) != null) {
+				lineNum++;
+				if (line.length() > 0 && line.charAt(0)!='#') {
+					try {
+						String[] values = line.split("\t");
+						//タグ取得 3列目は行末タグ
+						String[] tags;
+						if (values.length == 1) tags = new String[]{""};
+						else if (values.length > 2 && values[2].length() > 0) tags = new String[]{values[1], values[2]};
+						else tags = new String[]{values[1]};
+						source.chukiMap.put(values[0], tags);
+						//注記フラグ
+						if (values.length > 3 && values[3].length() > 0) {
+							switch (values[3].charAt(0)) {
+							case '1': source.chukiFlagNoBr.add(values[0]); break;
+							case '2': source.chukiFlagNoRubyStart.add(values[0]); break;
+							case '3': source.chukiFlagNoRubyEnd.add(values[0]); break;
+							case 'P': source.chukiFlagPageBreak.add(values[0]); break;
+							case 'M': source.chukiFlagPageBreak.add(values[0]); source.chukiFlagMiddle.add(values[0]); break;
+							case 'K': source.chukiKunten.add(values[0]); break;
+							case 'L': source.chukiFlagPageBreak.add(values[0]); source.chukiFlagBottom.add(values[0]); break;
+							}
+						}
+						
+					} catch (Exception e) {
+						LogAppender.error(lineNum, chukiTagFile.getName(), line);
+					}
+				}
+			}
+		} finally {
+			src.close();
+		}
+		//前方参照注記
+		File chukiSufFile = new File(jarPath+"chuki_tag_suf.txt");
+		src = new BufferedReader(new InputStreamReader(new FileInputStream(chukiSufFile), "UTF-8"));
+		lineNum = 0;
+		try {
+			while ((line = src.readLine()) != null) {
+				lineNum++;
+				if (line.length() > 0 && line.charAt(0)!='#') {
+					try {
+						String[] values = line.split("\t");
+						//タグ取得 3列目は行末タグ
+						String[] tags;
+						if (values.length > 2 && values[2].length() > 0) tags = new String[]{values[1], values[2]};
+						else tags = new String[]{values[1]};
+						source.sufChukiMap.put(values[0], tags);
+						//別名
+						if (values.length > 3 && values[3].length() > 0) source.sufChukiMap.put(values[3]+values[0], tags);
+						
+					} catch (Exception e) {
+						LogAppender.error(lineNum, chukiTagFile.getName(), line);
+					}
+				}
+			}
+		} finally {
+			src.close();
+		}
+		
+		//外字フォント一覧取得
+		if (gaijiPath.isDirectory()) {
+			source.utf16FontMap = new HashMap<Integer, String>();
+			source.utf32FontMap = new HashMap<Integer, String>();
+			source.ivs16FontMap = new HashMap<String, String>();
+			source.ivs32FontMap = new HashMap<String, String>();
+			String subPath = "";
+			for (File fontFile : gaijiPath.listFiles()) {
+				if (fontFile.isFile()) {
+					String fileName = fontFile.getName().toLowerCase();
+					String ext = fileName.substring(fileName.lastIndexOf(".")+1);
+					if ("ttf".equals(ext) || "ttc".equals(ext) || "otf".equals(ext)) {
+						if (fileName.startsWith("u")){
+							if (fileName.indexOf("-u") > 0) {
+								String className = fileName.substring(1, fileName.length()-ext.length()-1);
+								String[] strs = className.split("-u");
+								if (strs.length > 2) {
+									LogAppender.warn(-1, "IVS以外の合成フォントは対応しません", fontFile.getName());
+								} else {
+									int[] codes = new int[]{Integer.parseInt(strs[0], 16), Integer.parseInt(strs[1], 16)};
+									if (0xe0100 <= codes[1] && codes[1] <= 0xe01ef) {
+										if (codes[0] < 0xFFFF) {
+											source.ivs16FontMap.put("u"+className, subPath+fontFile.getName());
+										} else {
+											source.ivs32FontMap.put("u"+className, subPath+fontFile.getName());
+										}
+									} else {
+										LogAppender.warn(-1, "IVS以外の合成フォントは対応しません", fontFile.getName());
+									}
+								}
+							} else {
+								int code = 0;
+								try { code = Integer.valueOf(fileName.substring(1, fileName.length()-ext.length()-1), 16); } catch (Exception e) {}
+								if (code <= 0xFFFF) {
+									source.utf16FontMap.put(code, subPath+fontFile.getName());
+								} else {
+									source.utf32FontMap.put(code, subPath+fontFile.getName());
+								}
+							}
+						}
+					}
+				}
+			}
+			if (source.utf16FontMap.size() == 0) source.utf16FontMap = null;
+			if (source.utf32FontMap.size() == 0) source.utf32FontMap = null;
+			if (source.ivs16FontMap.size() == 0) source.ivs16FontMap = null;
+			if (source.ivs32FontMap.size() == 0) source.ivs32FontMap = null;
+		}
+		return source;
+	}
+}
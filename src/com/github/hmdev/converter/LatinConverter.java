@@ -21,6 +21,11 @@ public class LatinConverter
 	 * int[]{横書き時のグリフのCID, 縦書き時(右90度)のグリフのCID} */
 	HashMap<Character, String[]> latinCidMap = new HashMap<Character, String[]>();
 	
+	/** 変換テーブルの保存ファイルから読み込む場合 */
+	LatinConverter()
+	{
+	}
+	
 	public LatinConverter(File file) throws IOException
 	{
 		//String srcFileName = "chuki_latin.txt";
@@ -0,0 +1,131 @@
+package com.github.hmdev.converter;
+
+/**
+ * replace.txtの文字置換用の木
+ * 置換前文字列を末尾の文字から逆順に登録し、出力中の文字で終わる最長の置換前文字列を
+ * 前の文字に遡って検索する
+ * 子ノードはノード番号と文字をキーにしたハッシュ表で保持し、検索時にオブジェクトを生成しない
+ */
+public class ReplaceTrie
+{
+	/** 置換前文字列の末尾の文字のビット 置換対象でない文字はここで除外 */
+	long[] lastChars = new long[1024];
+	
+	/** 子ノードのハッシュ表のキー (親ノード番号+1)<<16|文字 0なら空き */
+	long[] childKeys = new long[64];
+	/** 子ノードのハッシュ表の値 子ノード番号 */
+	int[] childNodes = new int[64];
+	/** ハッシュ表の登録数 */
+	int childCount = 0;
+	
+	/** ノード毎の置換後文字列 途中のノードはnull */
+	String[] values = new String[32];
+	/** ノード毎の置換前文字列の長さ */
+	int[] lengths = new int[32];
+	/** ノード数 0はルート */
+	int nodeCount = 1;
+	
+	/** 置換前文字列と置換後文字列を登録 同じ置換前文字列なら上書き */
+	public void put(String key, String value)
+	{
+		if (key.length() == 0) throw new IllegalArgumentException("empty key");
+		int node = 0;
+		for (int i=key.length()-1; i>=0; i--) {
+			char c = key.charAt(i);
+			int child = this.child(node, c);
+			if (child == 0) child = this.addChild(node, c);
+			node = child;
+		}
+		this.values[node] = value;
+		char c = key.charAt(key.length()-1);
+		this.lastChars[c>>>6] |= 1L<<c;
+	}
+	
+	/** ch[idx]で終わる最長の置換前文字列を検索
+	 * 前の文字はそのまま出力されてoutの末尾に残っている範囲だけ遡る
+	 * タグで括られたり別の文字に変換された文字を含む置換前文字列には一致しない
+	 * @param prevIdx ch[idx]の前の文字の位置 エスケープ文字を除外する場合はidx-2
+	 * @param out 出力済みの文字列 一致したらlength(node)-1文字を末尾から削除する
+	 * @return 一致したノード番号 なければ0 */
+	public int match(char[] ch, int idx, int prevIdx, CharSequence out)
+	{
+		char c = ch[idx];
+		if ((this.lastChars[c>>>6] & 1L<<c) == 0) return 0;
+		int node = this.child(0, c);
+		int matched = this.values[node] == null ? 0 : node;
+		int outIdx = out.length()-1;
+		for (int i=prevIdx; i>=0 && outIdx>=0; i--, outIdx--) {
+			if (out.charAt(outIdx) != ch[i]) break;
+			node = this.child(node, ch[i]);
+			if (node == 0) break;
+			if (this.values[node] != null) matched = node;
+		}
+		return matched;
+	}
+	
+	/** 一致したノードの置換後文字列 */
+	public String value(int node)
+	{
+		return this.values[node];
+	}
+	
+	/** 一致したノードの置換前文字列の長さ */
+	public int length(int node)
+	{
+		return this.lengths[node];
+	}
+	
+	/** 子ノード番号を取得 なければ0 */
+	private int child(int node, char c)
+	{
+		long key = (long)(node+1)<<16 | c;
+		int mask = this.childKeys.length-1;
+		int i = hash(key) & mask;
+		while (this.childKeys[i] != 0) {
+			if (this.childKeys[i] == key) return this.childNodes[i];
+			i = (i+1) & mask;
+		}
+		return 0;
+	}
+	
+	private int addChild(int node, char c)
+	{
+		if (this.nodeCount == this.values.length) {
+			String[] newValues = new String[this.nodeCount*2]; System.arraycopy(this.values, 0, newValues, 0, this.nodeCount); this.values = newValues;
+			int[] newLengths = new int[this.nodeCount*2]; System.arraycopy(this.lengths, 0, newLengths, 0, this.nodeCount); this.lengths = newLengths;
+		}
+		int child = this.nodeCount++;
+		this.lengths[child] = this.lengths[node]+1;
+		//ハッシュ表は半分以下の使用率に保つ
+		if ((this.childCount+1)*2 > this.childKeys.length) this.rehash(this.childKeys.length*2);
+		this.putChild((long)(node+1)<<16 | c, child);
+		this.childCount++;
+		return child;
+	}
+	
+	private void putChild(long key, int child)
+	{
+		int mask = this.childKeys.length-1;
+		int i = hash(key) & mask;
+		while (this.childKeys[i] != 0) i = (i+1) & mask;
+		this.childKeys[i] = key;
+		this.childNodes[i] = child;
+	}
+	
+	private void rehash(int size)
+	{
+		long[] oldKeys = this.childKeys;
+		int[] oldNodes = this.childNodes;
+		this.childKeys = new long[size];
+		this.childNodes = new int[size];
+		for (int i=0; i<oldKeys.length; i++) {
+			if (oldKeys[i] != 0) this.putChild(oldKeys[i], oldNodes[i]);
+		}
+	}
+	
+	static private int hash(long key)
+	{
+		int h = (int)(key ^ key>>>32) * 0x9E3779B9;
+		return h ^ h>>>16;
+	}
+}
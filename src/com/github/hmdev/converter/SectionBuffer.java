@@ -0,0 +1,144 @@
+package com.github.hmdev.converter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Vector;
+
+import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.LogEntry;
+import com.github.hmdev.writer.Epub3Writer;
+
+/**
+ * 並列変換した本文の範囲の出力を保持するバッファ
+ * 変換処理の出力先のBufferedWriterの代わりに利用し、出力された文字列と
+ * Epub3Writerの改ページ、目次、外字フォントの呼び出しを出力位置と合わせて記録する
+ * 前の範囲の出力が終わった後にreplay()で同じ順序でEpub3Writerに出力する
+ */
+public class SectionBuffer extends BufferedWriter
+{
+	/** 改ページ */
+	final static int NEXT_SECTION = 0;
+	/** 目次追加 */
+	final static int ADD_CHAPTER = 1;
+	/** 外字フォント追加 */
+	final static int ADD_GAIJI_FONT = 2;
+	
+	/** 画像の出力順に依存する処理等、並列変換できない場合に変換を中断する例外 */
+	static class SequentialException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+	}
+	
+	/** 出力された文字列 */
+	char[] chars = new char[65536];
+	int length = 0;
+	
+	/** 記録した呼び出し {種類, 呼び出し時点の文字数, 引数…} */
+	Vector<Object[]> events = new Vector<Object[]>();
+	
+	/** 変換中のログ */
+	Vector<LogEntry> log = new Vector<LogEntry>();
+	
+	public SectionBuffer()
+	{
+		//出力は全てオーバーライドしたメソッドで処理するので親クラスのバッファは利用しない
+		super(new StringWriter(), 1);
+	}
+	
+	/** Epub3Writer.nextSection()の代わりに記録 */
+	void nextSection(int lineNum, int pageType, int imagePageType, String srcImageFilePath)
+	{
+		this.events.add(new Object[]{NEXT_SECTION, this.length, lineNum, pageType, imagePageType, srcImageFilePath});
+	}
+	
+	/** Epub3Writer.addChapter()の代わりに記録 */
+	void addChapter(String chapterId, String name, int chapterLevel)
+	{
+		this.events.add(new Object[]{ADD_CHAPTER, this.length, chapterId, name, chapterLevel});
+	}
+	
+	/** Epub3Writer.addGaijiFont()の代わりに記録 */
+	void addGaijiFont(String className, File gaijiFile)
+	{
+		this.events.add(new Object[]{ADD_GAIJI_FONT, this.length, className, gaijiFile});
+	}
+	
+	/** 範囲の先頭で文字列の出力前に改ページしていればtrue
+	 * 改ページ前の状態に依存しない出力になっているかの確認用 */
+	boolean startsWithSection()
+	{
+		for (Object[] event : this.events) {
+			if ((Integer)event[1] > 0) return false;
+			if ((Integer)event[0] == NEXT_SECTION) return true;
+		}
+		return false;
+	}
+	
+	/** 記録したログと文字列と呼び出しを順にEpub3Writerに出力
+	 * @param out Epub3Writerの本文の出力先 */
+	void replay(Epub3Writer writer, BufferedWriter out) throws IOException
+	{
+		LogAppender.write(this.log);
+		int start = 0;
+		for (Object[] event : this.events) {
+			int end = (Integer)event[1];
+			out.write(this.chars, start, end-start);
+			start = end;
+			switch ((Integer)event[0]) {
+			case NEXT_SECTION:
+				writer.nextSection(out, (Integer)event[2], (Integer)event[3], (Integer)event[4], (String)event[5]);
+				break;
+			case ADD_CHAPTER:
+				writer.addChapter((String)event[2], (String)event[3], (Integer)event[4]);
+				break;
+			case ADD_GAIJI_FONT:
+				writer.addGaijiFont((String)event[2], (File)event[3]);
+				break;
+			}
+		}
+		out.write(this.chars, start, this.length-start);
+	}
+	
+	////////////////////////////////////////////////////////////////
+	@Override
+	public void write(int c)
+	{
+		if (this.length == this.chars.length) this.expand(1);
+		this.chars[this.length++] = (char)c;
+	}
+	
+	@Override
+	public void write(char[] cbuf, int off, int len)
+	{
+		if (this.length+len > this.chars.length) this.expand(len);
+		System.arraycopy(cbuf, off, this.chars, this.length, len);
+		this.length += len;
+	}
+	
+	@Override
+	public void write(String s, int off, int len)
+	{
+		if (this.length+len > this.chars.length) this.expand(len);
+		s.getChars(off, off+len, this.chars, this.length);
+		this.length += len;
+	}
+	
+	private void expand(int len)
+	{
+		char[] newChars = new char[Math.max(this.chars.length*2, this.length+len)];
+		System.arraycopy(this.chars, 0, newChars, 0, this.length);
+		this.chars = newChars;
+	}
+	
+	@Override
+	public void flush()
+	{
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+}
@@ -31,6 +31,7 @@ import org.apache.commons.compress.utils.IOUtils;
 
 import com.github.hmdev.info.ImageInfo;
 import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.StageTimer;
 import com.sun.media.jai.codec.ImageCodec;
 import com.sun.media.jai.codec.ImageDecoder;
 
@@ -45,10 +46,10 @@ public class ImageUtils
 	public static final int NOMBRE_BOTTOM = 2;
 	public static final int NOMBRE_TOPBOTTOM = 3;
 	
-	/** png出力用 */
-	static ImageWriter pngImageWriter;
+	/** png出力用 ImageWriterはスレッドセーフでないのでスレッド毎に保持 */
+	static ThreadLocal<ImageWriter> pngImageWriter = new ThreadLocal<ImageWriter>();
 	/** jpeg出力用 */
-	static ImageWriter jpegImageWriter;
+	static ThreadLocal<ImageWriter> jpegImageWriter = new ThreadLocal<ImageWriter>();
 	
 	/** 4bitグレースケール時のRGB階調カラーモデル取得 */
 	static ColorModel getGray16ColorModel()
@@ -136,6 +137,7 @@ public class ImageUtils
 			float jpegQuality, LookupOp gammaOp, int maxImagePixels, int maxImageW, int maxImageH, int dispW, int dispH,
 			int autoMarginLimitH, int autoMarginLimitV, int autoMarginWhiteLevel, float autoMarginPadding, int autoMarginNombre, float nombreSize) throws IOException
 	{
+		StageTimer.begin(StageTimer.IMAGE);
 		try {
 		String ext = imageInfo.getExt();
 		
@@ -381,6 +383,8 @@ public class ImageUtils
 		} catch (Exception e) {
 			LogAppender.println("画像読み込みエラー: "+imageInfo.getOutFileName());
 			e.printStackTrace();
+		} finally {
+			StageTimer.end(StageTimer.IMAGE);
 		}
 	}
 	/** 画像を出力 マージン指定があればカット
@@ -429,20 +433,24 @@ public class ImageUtils
 	
 	static private ImageWriter getPngImageWriter()
 	{
-		if (pngImageWriter != null) return pngImageWriter;
+		ImageWriter imageWriter = pngImageWriter.get();
+		if (imageWriter != null) return imageWriter;
 		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
-		pngImageWriter = writers.next();
+		imageWriter = writers.next();
 		//jai-imageioのpngの挙動がおかしいのでインストールされていても使わない
-		if (writers.hasNext() && pngImageWriter.getClass().getName().endsWith("CLibPNGImageWriter")) pngImageWriter = writers.next();
-		return pngImageWriter;
+		if (writers.hasNext() && imageWriter.getClass().getName().endsWith("CLibPNGImageWriter")) imageWriter = writers.next();
+		pngImageWriter.set(imageWriter);
+		return imageWriter;
 	}
 	
 	static private ImageWriter getJpegImageWriter()
 	{
-		if (jpegImageWriter!= null) return jpegImageWriter;
+		ImageWriter imageWriter = jpegImageWriter.get();
+		if (imageWriter != null) return imageWriter;
 		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
-		jpegImageWriter = writers.next();
-		return jpegImageWriter;
+		imageWriter = writers.next();
+		jpegImageWriter.set(imageWriter);
+		return imageWriter;
 	}
 	
 	/** 余白の画素数取得  左右のみずれ調整
@@ -1,16 +1,15 @@
 package com.github.hmdev.info;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.github.hmdev.image.ImageUtils;
 import com.github.hmdev.util.CharUtils;
+import com.github.hmdev.util.TextLineStore;
 
 /** タイトル著作者等のメタ情報を格納 */
 public class BookInfo
@@ -127,6 +126,8 @@ public class BookInfo
 	public File srcFile;
 	/** 圧縮ファイル内のテキストファイルエントリー名 */
 	public String textEntryName = null;
+	/** 前処理で読み込んだテキスト 変換処理で再利用して再読み込みしない */
+	public TextLineStore textLineStore = null;
 	
 	/** 先頭の画像行番号 */
 	public int firstImageLineNum = -1;
@@ -168,15 +169,15 @@ public class BookInfo
 	//Vector<SectionInfo> vecSectionInfo;
 	
 	/** 画像単体ページ開始行 */
-	HashMap<Integer, String> mapImageSectionLine;
+	LineInfoMap<String> mapImageSectionLine;
 	/** 強制改ページ行 */
-	HashSet<Integer> mapPageBreakLine;
+	BitSet mapPageBreakLine;
 	/** 改ページしない行 (［＃ページの左右中央］の前の［＃改ページ］) */
-	HashSet<Integer> mapNoPageBreakLine;
+	BitSet mapNoPageBreakLine;
 	/** 出力ページしない行 (左右中央後の空行と改ページ前の空行) */
-	HashSet<Integer> mapIgnoreLine;
+	BitSet mapIgnoreLine;
 	/** 見出し行の情報 */
-	HashMap<Integer, ChapterLineInfo> mapChapterLine;
+	LineInfoMap<ChapterLineInfo> mapChapterLine;
 	
 	////////////////////////////////////////////////////////////////
 	public BookInfo(File srcFile)
@@ -204,7 +205,7 @@ public class BookInfo
 	/** 画像単体ページの行数を保存 */
 	public void addImageSectionLine(int lineNum, String imageFileName)
 	{
-		if (this.mapImageSectionLine == null) this.mapImageSectionLine = new HashMap<Integer, String>();
+		if (this.mapImageSectionLine == null) this.mapImageSectionLine = new LineInfoMap<String>();
 		this.mapImageSectionLine.put(lineNum, imageFileName);
 	}
 	/** 画像単体ページの行ならtrue */
@@ -223,46 +224,46 @@ public class BookInfo
 	/** 強制改ページ行数を保存 */
 	public void addPageBreakLine(int lineNum)
 	{
-		if (this.mapPageBreakLine == null) this.mapPageBreakLine = new HashSet<Integer>();
-		this.mapPageBreakLine.add(lineNum);
+		if (this.mapPageBreakLine == null) this.mapPageBreakLine = new BitSet();
+		this.mapPageBreakLine.set(lineNum);
 	}
 	/** 強制改ページ行ならtrue */
 	public boolean isPageBreakLine(int lineNum)
 	{
-		if (this.mapPageBreakLine == null) return false;
-		return this.mapPageBreakLine.contains(lineNum);
+		if (this.mapPageBreakLine == null || lineNum < 0) return false;
+		return this.mapPageBreakLine.get(lineNum);
 	}
 	
 	/** 改ページしない行数を保存 */
 	public void addNoPageBreakLine(int lineNum)
 	{
-		if (this.mapNoPageBreakLine == null) this.mapNoPageBreakLine = new HashSet<Integer>();
-		this.mapNoPageBreakLine.add(lineNum);
+		if (this.mapNoPageBreakLine == null) this.mapNoPageBreakLine = new BitSet();
+		this.mapNoPageBreakLine.set(lineNum);
 	}
 	/** 改ページしない行ならtrue */
 	public boolean isNoPageBreakLine(int lineNum)
 	{
-		if (this.mapNoPageBreakLine == null) return false;
-		return this.mapNoPageBreakLine.contains(lineNum);
+		if (this.mapNoPageBreakLine == null || lineNum < 0) return false;
+		return this.mapNoPageBreakLine.get(lineNum);
 	}
 	
 	/** 出力しない行数を保存 */
 	public void addIgnoreLine(int lineNum)
 	{
-		if (this.mapIgnoreLine == null) this.mapIgnoreLine = new HashSet<Integer>();
-		this.mapIgnoreLine.add(lineNum);
+		if (this.mapIgnoreLine == null) this.mapIgnoreLine = new BitSet();
+		this.mapIgnoreLine.set(lineNum);
 	}
 	/** 出力しない行ならtrue */
 	public boolean isIgnoreLine(int lineNum)
 	{
-		if (this.mapIgnoreLine == null) return false;
-		return this.mapIgnoreLine.contains(lineNum);
+		if (this.mapIgnoreLine == null || lineNum < 0) return false;
+		return this.mapIgnoreLine.get(lineNum);
 	}
 	
 	/** 見出し行と階層レベルを保存 */
 	public void addChapterLineInfo(ChapterLineInfo chapterLineInfo)
 	{
-		if (this.mapChapterLine == null) this.mapChapterLine = new HashMap<Integer, ChapterLineInfo>();
+		if (this.mapChapterLine == null) this.mapChapterLine = new LineInfoMap<ChapterLineInfo>();
 		this.mapChapterLine.put(chapterLineInfo.lineNum, chapterLineInfo);
 	}
 	/** 見出し行と削除 */
@@ -276,6 +277,13 @@ public class BookInfo
 		if (this.mapChapterLine == null) return null;
 		return this.mapChapterLine.get(lineNum);
 	}
+	/** 見出し行の情報を行番号順に取得するカーソルを返す
+	 * 変換処理毎に生成して行の昇順に参照する */
+	public LineInfoMap.Cursor<ChapterLineInfo> getChapterLineCursor()
+	{
+		if (this.mapChapterLine == null) this.mapChapterLine = new LineInfoMap<ChapterLineInfo>();
+		return this.mapChapterLine.cursor();
+	}
 	
 	/** 見出し行なら目次階層レベルを返す */
 	public int getChapterLevel(int lineNum)
@@ -292,14 +300,9 @@ public class BookInfo
 		
 		if (this.mapChapterLine == null) return list;
 		
-		int[] lines = new int[this.mapChapterLine.size()];
-		int i = 0;
-		for (Integer lineNum : this.mapChapterLine.keySet()) {
-			lines[i++] = lineNum;
-		}
-		Arrays.sort(lines);
-		for (int lineNum : lines) {
-			list.add(this.mapChapterLine.get(lineNum));
+		//行番号順に保持されている
+		for (int i=0; i<this.mapChapterLine.size(); i++) {
+			list.add(this.mapChapterLine.valueAt(i));
 		}
 		return list;
 	}
@@ -309,32 +312,32 @@ public class BookInfo
 	{
 		if (this.mapChapterLine == null) return;
 		//前2行と後ろ2行が自動抽出見出しの行を抽出 間の行は空行のみ許可
-		HashSet<Integer> excludeLine = new HashSet<Integer>();
-		for (Integer lineNum : this.mapChapterLine.keySet()) {
+		BitSet excludeLine = new BitSet();
+		for (int i=0; i<this.mapChapterLine.size(); i++) {
+			int lineNum = this.mapChapterLine.lineAt(i);
 			if (this.isPattern(lineNum)) {
 				boolean prevIsPattern = false;
 				if (this.isPattern(lineNum-1)) prevIsPattern = true;
-				else if (this.mapChapterLine.get(lineNum).emptyNext && this.isPattern(lineNum-2)) prevIsPattern = true; //前が空行の場合のみ
+				else if (this.mapChapterLine.valueAt(i).emptyNext && this.isPattern(lineNum-2)) prevIsPattern = true; //前が空行の場合のみ
 				boolean nextIsPattern = false;
 				if (this.isPattern(lineNum+1)) nextIsPattern = true;
 				else if (this.isPattern(lineNum+2)) nextIsPattern = true;
-				if (prevIsPattern && nextIsPattern) excludeLine.add(lineNum);
+				if (prevIsPattern && nextIsPattern) excludeLine.set(lineNum);
 			}
 		}
 		//先頭と最後
-		HashSet<Integer> excludeLine2 = new HashSet<Integer>();
-		for (Integer lineNum : this.mapChapterLine.keySet()) {
-			if (!excludeLine.contains(lineNum) && this.isPattern(lineNum)) {
-				if (excludeLine.contains(lineNum-1)) excludeLine2.add(lineNum);
-				else if (this.mapChapterLine.get(lineNum).emptyNext && excludeLine.contains(lineNum-2)) excludeLine2.add(lineNum);
-				else if (excludeLine.contains(lineNum+1)) excludeLine2.add(lineNum);
-				else if (excludeLine.contains(lineNum+2)) excludeLine2.add(lineNum);
+		BitSet excludeLine2 = new BitSet();
+		for (int i=0; i<this.mapChapterLine.size(); i++) {
+			int lineNum = this.mapChapterLine.lineAt(i);
+			if (!excludeLine.get(lineNum) && this.isPattern(lineNum)) {
+				if (lineNum >= 1 && excludeLine.get(lineNum-1)) excludeLine2.set(lineNum);
+				else if (lineNum >= 2 && this.mapChapterLine.valueAt(i).emptyNext && excludeLine.get(lineNum-2)) excludeLine2.set(lineNum);
+				else if (excludeLine.get(lineNum+1)) excludeLine2.set(lineNum);
+				else if (excludeLine.get(lineNum+2)) excludeLine2.set(lineNum);
 			}
 		}
-		for (Integer lineNum : excludeLine) {
-			this.mapChapterLine.remove(lineNum);
-		}
-		for (Integer lineNum : excludeLine2) {
+		excludeLine.or(excludeLine2);
+		for (int lineNum=excludeLine.nextSetBit(0); lineNum>=0; lineNum=excludeLine.nextSetBit(lineNum+1)) {
 			this.mapChapterLine.remove(lineNum);
 		}
 	}
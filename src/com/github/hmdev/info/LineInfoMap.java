@@ -0,0 +1,138 @@
+package com.github.hmdev.info;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** 行番号をキーにした情報を行番号順の配列で保持する
+ * 登録行はBitSetでも保持し、登録されていない行は配列を検索せずに判別する
+ * 行番号順に登録する場合は末尾に追加するだけになる */
+public class LineInfoMap<V>
+{
+	/** 行番号 昇順 */
+	int[] lines = new int[16];
+	/** 行番号に対応する値 */
+	Object[] values = new Object[16];
+	/** 登録数 */
+	int size = 0;
+	/** 登録行のビット */
+	BitSet lineBits = new BitSet();
+	/** 追加削除の回数 カーソルの位置の再検索用 */
+	int modCount = 0;
+	
+	/** 登録数 */
+	public int size()
+	{
+		return this.size;
+	}
+	
+	/** 指定位置の行番号 */
+	public int lineAt(int index)
+	{
+		return this.lines[index];
+	}
+	/** 指定位置の値 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int index)
+	{
+		return (V)this.values[index];
+	}
+	
+	/** 登録されていればtrue */
+	public boolean containsKey(int lineNum)
+	{
+		return lineNum >= 0 && this.lineBits.get(lineNum);
+	}
+	
+	/** 行の値を返す なければnull */
+	@SuppressWarnings("unchecked")
+	public V get(int lineNum)
+	{
+		if (!this.containsKey(lineNum)) return null;
+		return (V)this.values[Arrays.binarySearch(this.lines, 0, this.size, lineNum)];
+	}
+	
+	/** 行の値を登録 同じ行があれば上書き */
+	public void put(int lineNum, V value)
+	{
+		if (lineNum < 0) throw new IllegalArgumentException("lineNum "+lineNum);
+		int index;
+		if (this.size == 0 || this.lines[this.size-1] < lineNum) index = this.size; //末尾に追加
+		else {
+			index = Arrays.binarySearch(this.lines, 0, this.size, lineNum);
+			if (index >= 0) { this.values[index] = value; return; }
+			index = -index-1;
+		}
+		if (this.size == this.lines.length) {
+			this.lines = Arrays.copyOf(this.lines, this.size*2);
+			this.values = Arrays.copyOf(this.values, this.size*2);
+		}
+		System.arraycopy(this.lines, index, this.lines, index+1, this.size-index);
+		System.arraycopy(this.values, index, this.values, index+1, this.size-index);
+		this.lines[index] = lineNum;
+		this.values[index] = value;
+		this.size++;
+		this.lineBits.set(lineNum);
+		this.modCount++;
+	}
+	
+	/** 行の値を削除 */
+	public void remove(int lineNum)
+	{
+		if (!this.containsKey(lineNum)) return;
+		int index = Arrays.binarySearch(this.lines, 0, this.size, lineNum);
+		System.arraycopy(this.lines, index+1, this.lines, index, this.size-index-1);
+		System.arraycopy(this.values, index+1, this.values, index, this.size-index-1);
+		this.size--;
+		this.values[this.size] = null;
+		this.lineBits.clear(lineNum);
+		this.modCount++;
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(this.values, 0, this.size, null);
+		this.size = 0;
+		this.lineBits.clear();
+		this.modCount++;
+	}
+	
+	/** 行番号順に参照するカーソルを生成 */
+	public Cursor<V> cursor()
+	{
+		return new Cursor<V>(this);
+	}
+	
+	/** 行番号の昇順に値を取得するカーソル
+	 * 前回より後ろの行は前回の位置から進めて検索し、前の行や登録内容が変更された場合は二分探索で位置を戻す
+	 * 複数スレッドで変換する場合はスレッド毎に生成する */
+	public static class Cursor<V>
+	{
+		LineInfoMap<V> map;
+		/** 前回の行番号以上の最初の登録位置 */
+		int index = 0;
+		int lineNum = -1;
+		int modCount;
+		
+		Cursor(LineInfoMap<V> map)
+		{
+			this.map = map;
+			this.modCount = map.modCount;
+		}
+		
+		/** 行の値を返す なければnull */
+		@SuppressWarnings("unchecked")
+		public V get(int lineNum)
+		{
+			LineInfoMap<V> map = this.map;
+			if (!map.containsKey(lineNum)) return null;
+			if (lineNum < this.lineNum || this.modCount != map.modCount) {
+				this.index = Arrays.binarySearch(map.lines, 0, map.size, lineNum);
+				this.modCount = map.modCount;
+			} else {
+				while (map.lines[this.index] < lineNum) this.index++;
+			}
+			this.lineNum = lineNum;
+			return (V)map.values[this.index];
+		}
+	}
+}
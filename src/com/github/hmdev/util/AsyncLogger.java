@@ -0,0 +1,144 @@
+package com.github.hmdev.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** ログを出力スレッドで出力する
+ * 変換処理のスレッドは固定長のリングバッファに追加するだけで、画面やファイルへの出力を待たない
+ * 追加はロックせずに行い、バッファが一杯の場合は待たずに破棄して件数を後で出力する */
+public class AsyncLogger
+{
+	/** リングバッファの件数 2のべき乗 */
+	final static int CAPACITY = 65536;
+	/** バッファが空の場合の待機時間 (ナノ秒) */
+	final static long WAIT_NANOS = 10000000L;
+	
+	final AtomicReferenceArray<LogEntry> entries = new AtomicReferenceArray<LogEntry>(CAPACITY);
+	/** 次に追加する位置 */
+	final AtomicLong tail = new AtomicLong();
+	/** 次に出力する位置 出力スレッドのみ更新 */
+	volatile long head = 0;
+	/** 出力してflushし終わった位置 */
+	volatile long flushed = 0;
+	/** バッファが一杯で破棄した件数 */
+	final AtomicLong dropped = new AtomicLong();
+	
+	/** 出力先 */
+	final CopyOnWriteArrayList<LogSink> sinks = new CopyOnWriteArrayList<LogSink>();
+	
+	Thread thread;
+	/** 出力スレッドが待機中ならtrue */
+	volatile boolean waiting = false;
+	volatile boolean closed = false;
+	
+	public AsyncLogger()
+	{
+		this.thread = new Thread("AsyncLogger") {
+			@Override
+			public void run()
+			{
+				AsyncLogger.this.run();
+			}
+		};
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	public void addSink(LogSink sink)
+	{
+		this.sinks.add(sink);
+	}
+	public void removeSink(LogSink sink)
+	{
+		this.sinks.remove(sink);
+	}
+	
+	/** バッファに追加 一杯なら破棄してfalseを返す */
+	public boolean offer(LogEntry entry)
+	{
+		while (true) {
+			long t = this.tail.get();
+			if (t-this.head >= CAPACITY) {
+				this.dropped.incrementAndGet();
+				return false;
+			}
+			if (this.tail.compareAndSet(t, t+1)) {
+				this.entries.set((int)(t & (CAPACITY-1)), entry);
+				break;
+			}
+		}
+		if (this.waiting) LockSupport.unpark(this.thread);
+		return true;
+	}
+	
+	/** 呼び出し時点までに追加されたログを出力し終わるまで待つ */
+	public void flush()
+	{
+		long target = this.tail.get();
+		while (this.flushed < target && this.thread.isAlive()) {
+			LockSupport.unpark(this.thread);
+			LockSupport.parkNanos(1000000L);
+		}
+	}
+	
+	/** 残りを出力して出力先を閉じる */
+	public void close()
+	{
+		this.flush();
+		this.closed = true;
+		LockSupport.unpark(this.thread);
+		try {
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/** 出力スレッド */
+	void run()
+	{
+		while (true) {
+			int count = this.drain();
+			if (count > 0) continue;
+			if (this.closed && this.tail.get() == this.head) break;
+			this.waiting = true;
+			if (this.tail.get() == this.head) LockSupport.parkNanos(this, WAIT_NANOS);
+			this.waiting = false;
+		}
+		for (LogSink sink : this.sinks) sink.close();
+	}
+	
+	/** 追加済みのログを出力先に出力
+	 * 追加位置を確保して格納前のものがあればそこで止める
+	 * @return 出力した件数 */
+	private int drain()
+	{
+		int count = 0;
+		long end = this.tail.get();
+		while (this.head < end) {
+			int idx = (int)(this.head & (CAPACITY-1));
+			LogEntry entry = this.entries.get(idx);
+			if (entry == null) break;
+			this.entries.set(idx, null);
+			this.head++;
+			for (LogSink sink : this.sinks) sink.write(entry);
+			count++;
+		}
+		long dropped = this.dropped.getAndSet(0);
+		if (dropped > 0) {
+			LogEntry entry = new LogEntry(null, "[WARN] ログが多すぎるため"+dropped+"件出力できませんでした\n");
+			entry.level = LogEntry.WARN;
+			entry.complete = true;
+			entry.message = entry.text.substring(0, entry.text.length()-1);
+			for (LogSink sink : this.sinks) sink.write(entry);
+			count++;
+		}
+		if (count > 0) {
+			for (LogSink sink : this.sinks) sink.flush();
+		}
+		this.flushed = this.head;
+		return count;
+	}
+}
@@ -7,6 +7,91 @@ import java.util.regex.Pattern;
  */
 public class CharUtils
 {
+	////////////////////////////////////////////////////////////////
+	//	文字種別
+	////////////////////////////////////////////////////////////////
+	/** 半角数字 */
+	final static public int NUM = 1;
+	/** 英字 拡張ラテン文字含む 半角スペースは含まない */
+	final static public int HALF = 2;
+	/** 英字 拡張ラテン文字と半角スペース含む */
+	final static public int HALF_SPACE = 4;
+	/** 英字 A-Z a-z と0x80-0x02AF */
+	final static public int ALPHA = 8;
+	/** 全角数字 */
+	final static public int FULL_NUM = 16;
+	/** 全角英数字と＠＿ */
+	final static public int FULL_ALPHA = 32;
+	/** ひらがな 長音記号と踊り字と濁点を含む */
+	final static public int HIRAGANA = 64;
+	/** カタカナ 長音記号と踊り字と濁点を含む */
+	final static public int KATAKANA = 128;
+	/** 1文字で判別できる漢字 */
+	final static public int KANJI = 256;
+	/** サロゲート 漢字かどうかはペアの文字と合わせて判別 */
+	final static public int SURROGATE = 512;
+	/** 濁点半濁点 二の字点の後なら漢字 */
+	final static public int DAKUTEN = 1024;
+	
+	/** BMPの文字毎の文字種別フラグ */
+	final static short[] CHAR_TYPES = new short[0x10000];
+	/** 4バイト文字の漢字 面毎のビット配列 漢字がない面はnull */
+	final static long[][] SUPPLEMENTARY_KANJI = new long[17][];
+	
+	static {
+		for (char ch='0'; ch<='9'; ch++) setCharType(ch, ch, NUM);
+		setCharType(0x21, 0x02AF, HALF);
+		setCharType(0x20, 0x02AF, HALF_SPACE);
+		setCharType('A', 'Z', ALPHA);
+		setCharType('a', 'z', ALPHA);
+		setCharType(0x80, 0x02AF, ALPHA);
+		setCharType('０', '９', FULL_NUM|FULL_ALPHA);
+		setCharType('Ａ', 'Ｚ', FULL_ALPHA);
+		setCharType('ａ', 'ｚ', FULL_ALPHA);
+		setCharType("＠＿", FULL_ALPHA);
+		setCharType('ぁ', 'ん', HIRAGANA);
+		setCharType("ゕゖーゝゞヽヾ゛゜ι", HIRAGANA); //ιは濁点処理用の例外
+		setCharType('ァ', 'ヶ', KATAKANA);
+		setCharType("ㇰㇱㇲㇳㇴㇵㇶㇷㇸㇹㇺㇻㇼㇽㇾㇿーゝゞヽヾ゛゜", KATAKANA);
+		setCharType("〓〆々〻", KANJI);
+		setCharType(0x4E00, 0x9FFF, KANJI); //'一' <= ch && ch <= '龠'
+		setCharType(0xF900, 0xFAFF, KANJI); //CJK互換漢字
+		setCharType(0xFE00, 0xFE0D, KANJI); //VS1-14 (15,16は絵文字用なので除外)
+		setCharType(0xD800, 0xDFFF, SURROGATE);
+		setCharType("゛゜", DAKUTEN);
+		
+		setSupplementaryKanji(0x20000, 0x2A6DF);
+		setSupplementaryKanji(0x2A700, 0x2B81F);
+		setSupplementaryKanji(0x2F800, 0x2FA1F);
+		setSupplementaryKanji(0xE0100, 0xE01EF); //IVS
+	}
+	static private void setCharType(int start, int end, int type)
+	{
+		for (int ch=start; ch<=end; ch++) CHAR_TYPES[ch] |= type;
+	}
+	static private void setCharType(String chars, int type)
+	{
+		for (int i=0; i<chars.length(); i++) CHAR_TYPES[chars.charAt(i)] |= type;
+	}
+	static private void setSupplementaryKanji(int start, int end)
+	{
+		for (int code=start; code<=end; code++) {
+			long[] bits = SUPPLEMENTARY_KANJI[code>>>16];
+			if (bits == null) {
+				bits = new long[0x10000>>>6];
+				SUPPLEMENTARY_KANJI[code>>>16] = bits;
+			}
+			bits[(code&0xFFFF)>>>6] |= 1L<<code;
+		}
+	}
+	
+	/** 文字種別のフラグを取得
+	 * 複数の種別を判別する場合は取得したフラグを種別の定数とのANDでチェックする */
+	static public int getCharType(char ch)
+	{
+		return CHAR_TYPES[ch];
+	}
+	
 	/** 全角英数字を半角に変換
 	 * @param src 全角文字列
 	 * @return 半角文字列 */
@@ -32,17 +117,14 @@ public class CharUtils
 	/** 半角数字かチェック */
 	static public boolean isNum(char ch)
 	{
-		switch (ch) {
-			case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9': return true;
-		}
-		return false;
+		return (CHAR_TYPES[ch] & NUM) != 0;
 	}
 	
 	/** 英字かどうかをチェック 拡張ラテン文字含む
 	 * 半角スペースは含まない */
 	static public boolean isHalf(char ch)
 	{
-		return (0x21 <= ch && ch <= 0x02AF);
+		return (CHAR_TYPES[ch] & HALF) != 0;
 	}
 	/** 英字かどうかをチェック 拡張ラテン文字含む
 	 * 半角スペースは含まない */
@@ -58,7 +140,7 @@ public class CharUtils
 	 * 半角スペースを含む */
 	static public boolean isHalfSpace(char ch)
 	{
-		return (0x20 <= ch && ch <= 0x02AF);
+		return (CHAR_TYPES[ch] & HALF_SPACE) != 0;
 	}
 	/** 英字かどうかをチェック 拡張ラテン文字含む
 	 * 半角スペースを含む */
@@ -70,41 +152,29 @@ public class CharUtils
 		return true;
 	}
 	
+	/** 全角英数字と＠＿かチェック */
 	static public boolean isFullAlpha(char ch)
 	{
-		return ('Ａ' <= ch && ch <= 'Ｚ') || ('ａ' <= ch && ch <= 'ｚ') || ('０' <= ch && ch <= '９') || '＠' == ch || '＿' == ch;
+		return (CHAR_TYPES[ch] & FULL_ALPHA) != 0;
 	}
-	/** 半角数字かチェック */
+	/** 全角数字かチェック */
 	static public boolean isFullNum(char ch)
 	{
-		switch (ch) {
-			case '０': case '１': case '２': case '３': case '４': case '５': case '６': case '７': case '８': case '９': return true;
-		}
-		return false;
+		return (CHAR_TYPES[ch] & FULL_NUM) != 0;
 	}
 	
 	/** ひらがなかチェック 半角濁点半濁点は全角に変換済 */
 	static public boolean isHiragana(char ch)
 	{
-		return ('ぁ'<=ch && ch<='ん') || 'ゕ'==ch || 'ゖ'==ch || 'ー'==ch || 'ゝ'==ch || 'ゞ'==ch || 'ヽ'==ch || 'ヾ'==ch || '゛'==ch || '゜'==ch
-				|| 'ι'==ch; //濁点処理用の例外
-				// || 'ﾞ'==ch || 'ﾟ'== ch;
+		return (CHAR_TYPES[ch] & HIRAGANA) != 0;
 	}
 	/** カタカナかチェック 半角濁点半濁点は全角に変換済 */
 	static public boolean isKatakana(char ch)
 	{
-		if ('ァ'<=ch && ch<='ヶ') return true;
-		switch (ch) {
-		case 'ァ': case 'ィ': case 'ゥ': case 'ェ': case 'ォ': case 'ヵ': case 'ㇰ': case 'ヶ': case 'ㇱ': case 'ㇲ': case 'ッ': case 'ㇳ': case 'ㇴ':
-		case 'ㇵ': case 'ㇶ': case 'ㇷ': case 'ㇸ': case 'ㇹ': case 'ㇺ': case 'ャ': case 'ュ': case 'ョ': case 'ㇻ': case 'ㇼ': case 'ㇽ': case 'ㇾ': case 'ㇿ': case 'ヮ':
-		case 'ー': case 'ゝ': case 'ゞ': case 'ヽ': case 'ヾ': case '゛': case '゜':
-		//case 'ﾞ': case 'ﾟ':
-			return true;
-		}
-		return false;
+		return (CHAR_TYPES[ch] & KATAKANA) != 0;
 	}
 	
-	static public boolean isSpace(String line)
+	static public boolean isSpace(CharSequence line)
 	{
 		char c;
 		for (int i=line.length()-1; i>=0; i--) {
@@ -114,10 +184,25 @@ public class CharUtils
 		return true;
 	}
 	
+	/** UTF-8に変換した場合のバイト数 String.getBytes("UTF-8").length と同じく対になっていないサロゲートは1バイト */
+	static public int getUtf8Length(char[] ch, int start, int end)
+	{
+		int size = 0;
+		for (int i=start; i<end; i++) {
+			char c = ch[i];
+			if (c < 0x80) size++;
+			else if (c < 0x800) size += 2;
+			else if (Character.isHighSurrogate(c) && i+1 < end && Character.isLowSurrogate(ch[i+1])) { size += 4; i++; }
+			else if (Character.isSurrogate(c)) size++;
+			else size += 3;
+		}
+		return size;
+	}
+	
 	/** 英字かどうかをチェック 拡張ラテン文字含む */
 	static public boolean isAlpha(char ch)
 	{
-		return ('A' <= ch  && ch <= 'Z') || ('a' <= ch && ch <= 'z') || (0x80 <= ch && ch <= 0x02AF);
+		return (CHAR_TYPES[ch] & ALPHA) != 0;
 	}
 	
 	/** 漢字かどうかをチェック
@@ -126,49 +211,26 @@ public class CharUtils
 	 * IVS文字 U+e0100-e01efも漢字扱い */
 	static public boolean isKanji(char[] ch, int i)
 	{
-		switch (ch[i]) {
-		case '゛': case '゜':
-			//二の字点は濁点付きも漢字
-			return (i>0 && ch[i-1]=='〻');
-		/*case 'ノ': case 'カ': case 'ケ': case 'ヵ': case 'ヶ':
-			//漢字の間にある場合だけ漢字扱い
-			if (i==0 || i+1==ch.length) return false;
-			return _isKanji(ch, i-1) && _isKanji(ch, i+1);
-		*/
-		}
-		return _isKanji(ch, i);
+		int type = CHAR_TYPES[ch[i]];
+		if ((type & KANJI) != 0) return true;
+		//二の字点は濁点付きも漢字
+		if ((type & DAKUTEN) != 0) return (i>0 && ch[i-1]=='〻');
+		if ((type & SURROGATE) != 0) return isSurrogateKanji(ch, i);
+		return false;
 	}
-	/** カタカナ以外の漢字チェック */
-	static private boolean _isKanji(char[] ch, int i)
+	/** サロゲートペアの4バイト文字の漢字とIVSのチェック 上位と下位のどちらの位置でも判別する */
+	static private boolean isSurrogateKanji(char[] ch, int i)
 	{
-		int pre = i==0?-1:ch[i-1];
-		int c = ch[i];
-		int suf = i+1>=ch.length?-1:ch[i+1];
-		switch (c) {
-		case '〓': case '〆': case '々': case '〻':
-			return true;
-		}
-		if (0x4E00 <= c && c <= 0x9FFF) return true;//'一' <= ch && ch <= '龠'
-		if (0xF900 <= c && c <= 0xFAFF) return true;//CJK互換漢字
-		if (0xFE00 <= c && c <= 0xFE0D) return true;//VS1-14 (15,16は絵文字用なので除外)
-		//0x20000-0x2A6DF UTF16({d840,dc00}-{d869,dedf})
-		//0x2A700-0x2B81F UTF16({d869,df00}-{d86e,dc1f})
-		//0x2F800-0x2FA1F UTF16({d87e,dc00}-{d87e,de1f})
-		if (pre >= 0) {
-			if (0xDB40 == pre && 0xDD00 <= c && c <= 0xDDEF) return true; //IVS e0100-e01ef
-			if (0xD87E == pre && 0xDc00 <= c && c <= 0xDE1F) return true;
-			int code = pre<<16|c&0xFFFF;
-			if (0xD840DC00 <= code && code <= 0xD869DEDF) return true;
-			if (0xD869DF00 <= code && code <= 0xD86EDC1F) return true;
-		}
-		if (suf >= 0) {
-			if (0xDB40 == c && 0xDD00 <= suf && suf <= 0xDDEF) return true; //IVS e0100-e01ef
-			if (0xD87E == c && 0xDc00 <= suf && suf <= 0xDE1F) return true;
-			int code = c<<16|suf&0xFFFF;
-			if (0xD840DC00 <= code && code <= 0xD869DEDF) return true;
-			if (0xD869DF00 <= code && code <= 0xD86EDC1F) return true;
+		int code;
+		if (Character.isLowSurrogate(ch[i])) {
+			if (i == 0 || !Character.isHighSurrogate(ch[i-1])) return false;
+			code = Character.toCodePoint(ch[i-1], ch[i]);
+		} else {
+			if (i+1 >= ch.length || !Character.isLowSurrogate(ch[i+1])) return false;
+			code = Character.toCodePoint(ch[i], ch[i+1]);
 		}
-		return false;
+		long[] bits = SUPPLEMENTARY_KANJI[code>>>16];
+		return bits != null && (bits[(code&0xFFFF)>>>6] & 1L<<code) != 0;
 	}
 	
 	////////////////////////////////////////////////////////////////
@@ -182,17 +244,40 @@ public class CharUtils
 	/** 前後の空白を除外 */
 	static public String removeSpace(String text)
 	{
-		return text.replaceFirst("^[ |　]+", "").replaceFirst("[ |　]+$", "");
+		//replaceFirst("^[ |　]+", "").replaceFirst("[ |　]+$", "") と同じ 末尾の改行文字は残す
+		int length = text.length();
+		int start = 0;
+		while (start < length && isTrimChar(text.charAt(start))) start++;
+		int end = length;
+		if (end > start) {
+			char c = text.charAt(end-1);
+			if (c == '\n' && end-2 >= start && text.charAt(end-2) == '\r') end -= 2;
+			else if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') end--;
+		}
+		int trimEnd = end;
+		while (trimEnd > start && isTrimChar(text.charAt(trimEnd-1))) trimEnd--;
+		if (start == 0 && trimEnd == end) return text;
+		if (end == length) return text.substring(start, trimEnd);
+		return text.substring(start, trimEnd)+text.substring(end);
+	}
+	static private boolean isTrimChar(char c)
+	{
+		return c == ' ' || c == '　' || c == '|';
 	}
 	/** タグを除外 */
 	static public String removeTag(String text)
 	{
-		return text.replaceAll("［＃.+?］", "").replaceAll("<[^>]+>", "");
+		//注記やタグの開始文字がなければ正規表現を使わない
+		if (text.indexOf('［') != -1) text = text.replaceAll("［＃.+?］", "");
+		if (text.indexOf('<') != -1) text = text.replaceAll("<[^>]+>", "");
+		return text;
 	}
 	
 	/** ルビを除去 特殊文字のエスケープ文字 ※※ ※《 ※》 等が含まれる */
 	static public String removeRuby(String text)
 	{
+		//ルビ記号がなければそのまま
+		if (text.indexOf('｜') == -1 && text.indexOf('《') == -1) return text;
 		StringBuilder buf = new StringBuilder();
 		char[] ch = text.toCharArray();
 		boolean inRuby = false;
@@ -227,7 +312,7 @@ public class CharUtils
 		return escaped;
 	}
 	/** 文字がエスケープされた特殊文字ならtrue */
-	static public boolean isEscapedChar(StringBuilder ch, int idx)
+	static public boolean isEscapedChar(CharSequence ch, int idx)
 	{
 		boolean escaped = false;
 		for (int i=idx-1; i >= 0; i--) {
@@ -0,0 +1,156 @@
+package com.github.hmdev.util;
+
+/** 挿入と削除を繰り返して文字列を編集するためのギャップバッファ
+ * 編集位置に空き領域を置き、編集位置の移動分だけ文字をコピーする
+ * StringBuilderのinsert,deleteのように編集毎に後ろの文字全体をコピーしないので、
+ * 行の先頭から順に近い位置を編集する場合は行の長さに比例した処理時間になる */
+public class GapBuffer implements CharSequence
+{
+	char[] buf;
+	/** 空き領域の開始位置 */
+	int gapStart;
+	/** 空き領域の終了位置 (次の文字の位置) */
+	int gapEnd;
+	
+	public GapBuffer(int capacity)
+	{
+		this.buf = new char[capacity];
+		this.gapStart = 0;
+		this.gapEnd = capacity;
+	}
+	
+	/** 文字列を設定 空き領域は末尾 */
+	public void reset(String str)
+	{
+		int length = str.length();
+		if (this.buf.length < length+16) this.buf = new char[Math.max(this.buf.length*2, length+16)];
+		str.getChars(0, length, this.buf, 0);
+		this.gapStart = length;
+		this.gapEnd = this.buf.length;
+	}
+	
+	public int length()
+	{
+		return this.buf.length-(this.gapEnd-this.gapStart);
+	}
+	
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= this.length()) throw new StringIndexOutOfBoundsException(index);
+		return index < this.gapStart ? this.buf[index] : this.buf[index+this.gapEnd-this.gapStart];
+	}
+	
+	public void setCharAt(int index, char c)
+	{
+		if (index < 0 || index >= this.length()) throw new StringIndexOutOfBoundsException(index);
+		if (index < this.gapStart) this.buf[index] = c;
+		else this.buf[index+this.gapEnd-this.gapStart] = c;
+	}
+	
+	/** 指定位置に文字列を挿入 */
+	public GapBuffer insert(int offset, String str)
+	{
+		if (offset < 0 || offset > this.length()) throw new StringIndexOutOfBoundsException(offset);
+		int length = str.length();
+		this.moveGap(offset);
+		if (this.gapEnd-this.gapStart < length) {
+			//空き領域を拡張
+			int tail = this.buf.length-this.gapEnd;
+			char[] newBuf = new char[Math.max(this.buf.length*2, this.buf.length+length+16)];
+			System.arraycopy(this.buf, 0, newBuf, 0, this.gapStart);
+			System.arraycopy(this.buf, this.gapEnd, newBuf, newBuf.length-tail, tail);
+			this.gapEnd = newBuf.length-tail;
+			this.buf = newBuf;
+		}
+		str.getChars(0, length, this.buf, this.gapStart);
+		this.gapStart += length;
+		return this;
+	}
+	
+	/** start以上end未満の文字を削除 */
+	public GapBuffer delete(int start, int end)
+	{
+		int length = this.length();
+		if (end > length) end = length;
+		if (start < 0 || start > end) throw new StringIndexOutOfBoundsException(start);
+		this.moveGap(start);
+		this.gapEnd += end-start;
+		return this;
+	}
+	
+	/** 空き領域を指定位置に移動 */
+	private void moveGap(int offset)
+	{
+		if (offset < this.gapStart) {
+			int count = this.gapStart-offset;
+			System.arraycopy(this.buf, offset, this.buf, this.gapEnd-count, count);
+			this.gapStart -= count;
+			this.gapEnd -= count;
+		} else if (offset > this.gapStart) {
+			int count = offset-this.gapStart;
+			System.arraycopy(this.buf, this.gapEnd, this.buf, this.gapStart, count);
+			this.gapStart += count;
+			this.gapEnd += count;
+		}
+	}
+	
+	/** fromIndex以降で文字列が出現する位置 なければ-1 */
+	public int indexOf(String str, int fromIndex)
+	{
+		int max = this.length()-str.length();
+		if (fromIndex < 0) fromIndex = 0;
+		for (int i=fromIndex; i<=max; i++) {
+			if (this.startsWith(str, i)) return i;
+		}
+		return -1;
+	}
+	
+	/** fromIndex以前で文字列が出現する位置 なければ-1 */
+	public int lastIndexOf(String str, int fromIndex)
+	{
+		int i = Math.min(fromIndex, this.length()-str.length());
+		for (; i>=0; i--) {
+			if (this.startsWith(str, i)) return i;
+		}
+		return -1;
+	}
+	
+	private boolean startsWith(String str, int offset)
+	{
+		for (int i=0; i<str.length(); i++) {
+			if (this.charAt(offset+i) != str.charAt(i)) return false;
+		}
+		return true;
+	}
+	
+	public String substring(int start, int end)
+	{
+		if (start < 0 || end > this.length() || start > end) throw new StringIndexOutOfBoundsException("start "+start+", end "+end+", length "+this.length());
+		char[] ch = new char[end-start];
+		this.getChars(start, end, ch, 0);
+		return new String(ch);
+	}
+	
+	public CharSequence subSequence(int start, int end)
+	{
+		return this.substring(start, end);
+	}
+	
+	private void getChars(int start, int end, char[] dst, int dstBegin)
+	{
+		if (end <= this.gapStart) {
+			System.arraycopy(this.buf, start, dst, dstBegin, end-start);
+		} else if (start >= this.gapStart) {
+			System.arraycopy(this.buf, start+this.gapEnd-this.gapStart, dst, dstBegin, end-start);
+		} else {
+			System.arraycopy(this.buf, start, dst, dstBegin, this.gapStart-start);
+			System.arraycopy(this.buf, this.gapEnd, dst, dstBegin+this.gapStart-start, end-this.gapStart);
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return this.substring(0, this.length());
+	}
+}
@@ -0,0 +1,61 @@
+package com.github.hmdev.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/** ログをJSON Lines形式でファイルに出力 1行のログ毎に1行
+ * {"time":1700000000000, "job":"入力ファイル", "level":"WARN", "line":12, "code":"メッセージ", "message":"出力文字列"}
+ * 改行前の断片は出力しない */
+public class JsonLogSink implements LogSink
+{
+	Writer out;
+	
+	public JsonLogSink(File file) throws IOException
+	{
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	}
+	
+	public void write(LogEntry entry)
+	{
+		if (!entry.complete) return;
+		StringBuilder buf = new StringBuilder();
+		buf.append("{\"time\":").append(entry.time);
+		buf.append(",\"job\":");
+		JsonUtils.appendQuoted(buf, entry.jobId);
+		buf.append(",\"level\":");
+		JsonUtils.appendQuoted(buf, entry.level);
+		buf.append(",\"line\":").append(entry.lineNum);
+		buf.append(",\"code\":");
+		JsonUtils.appendQuoted(buf, entry.code);
+		buf.append(",\"message\":");
+		JsonUtils.appendQuoted(buf, entry.message);
+		buf.append("}\n");
+		try {
+			this.out.write(buf.toString());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public void flush()
+	{
+		try {
+			this.out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public void close()
+	{
+		try {
+			this.out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.github.hmdev.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** JSON Lines入出力用の最小限のJSON処理
+ * 値が文字列,数値,真偽値,nullのみの1階層のオブジェクトのみ扱う */
+public class JsonUtils
+{
+	/** 文字列をJSONの文字列リテラルに変換 前後の"も付加する */
+	static public String quote(String str)
+	{
+		if (str == null) return "null";
+		StringBuilder buf = new StringBuilder(str.length()+2);
+		appendQuoted(buf, str);
+		return buf.toString();
+	}
+	
+	/** 文字列をJSONの文字列リテラルにしてbufに追加 */
+	static public void appendQuoted(StringBuilder buf, String str)
+	{
+		if (str == null) { buf.append("null"); return; }
+		buf.append('"');
+		for (int i=0; i<str.length(); i++) {
+			char ch = str.charAt(i);
+			switch (ch) {
+			case '"': buf.append("\\\""); break;
+			case '\\': buf.append("\\\\"); break;
+			case '\n': buf.append("\\n"); break;
+			case '\r': buf.append("\\r"); break;
+			case '\t': buf.append("\\t"); break;
+			case '\b': buf.append("\\b"); break;
+			case '\f': buf.append("\\f"); break;
+			default:
+				if (ch < 0x20) {
+					buf.append(String.format("\\u%04x", (int)ch));
+				} else {
+					buf.append(ch);
+				}
+			}
+		}
+		buf.append('"');
+	}
+	
+	/** 1階層のJSONオブジェクトを解析
+	 * 値はすべて文字列で格納 nullはnull
+	 * @return キーの出現順のMap
+	 * @throws IllegalArgumentException 形式が不正な場合 */
+	static public Map<String, String> parseObject(String json)
+	{
+		LinkedHashMap<String, String> map = new LinkedHashMap<String, String>();
+		char[] ch = json.toCharArray();
+		int[] pos = new int[]{skipSpace(ch, 0)};
+		if (pos[0] >= ch.length || ch[pos[0]] != '{') throw new IllegalArgumentException("'{' expected");
+		pos[0] = skipSpace(ch, pos[0]+1);
+		if (pos[0] < ch.length && ch[pos[0]] == '}') {
+			pos[0]++;
+		} else {
+			while (true) {
+				if (pos[0] >= ch.length || ch[pos[0]] != '"') throw new IllegalArgumentException("key expected at "+pos[0]);
+				String key = parseString(ch, pos);
+				pos[0] = skipSpace(ch, pos[0]);
+				if (pos[0] >= ch.length || ch[pos[0]] != ':') throw new IllegalArgumentException("':' expected at "+pos[0]);
+				pos[0] = skipSpace(ch, pos[0]+1);
+				map.put(key, parseValue(ch, pos));
+				pos[0] = skipSpace(ch, pos[0]);
+				if (pos[0] >= ch.length) throw new IllegalArgumentException("'}' expected");
+				if (ch[pos[0]] == '}') { pos[0]++; break; }
+				if (ch[pos[0]] != ',') throw new IllegalArgumentException("',' expected at "+pos[0]);
+				pos[0] = skipSpace(ch, pos[0]+1);
+			}
+		}
+		if (skipSpace(ch, pos[0]) < ch.length) throw new IllegalArgumentException("unexpected data at "+pos[0]);
+		return map;
+	}
+	
+	static private int skipSpace(char[] ch, int idx)
+	{
+		while (idx < ch.length && (ch[idx] == ' ' || ch[idx] == '\t' || ch[idx] == '\r' || ch[idx] == '\n' || ch[idx] == '\uFEFF')) idx++;
+		return idx;
+	}
+	
+	/** 値を取得 数値と真偽値は文字列にする */
+	static private String parseValue(char[] ch, int[] pos)
+	{
+		if (pos[0] >= ch.length) throw new IllegalArgumentException("value expected");
+		char c = ch[pos[0]];
+		if (c == '"') return parseString(ch, pos);
+		if (c == '{' || c == '[') throw new IllegalArgumentException("nested value is not supported at "+pos[0]);
+		int start = pos[0];
+		while (pos[0] < ch.length && ch[pos[0]] != ',' && ch[pos[0]] != '}' && ch[pos[0]] != ' ' && ch[pos[0]] != '\t' && ch[pos[0]] != '\r' && ch[pos[0]] != '\n') pos[0]++;
+		String value = new String(ch, start, pos[0]-start);
+		if ("null".equals(value)) return null;
+		if (value.length() == 0) throw new IllegalArgumentException("value expected at "+start);
+		return value;
+	}
+	
+	/** "で始まる文字列を取得 posは閉じ"の次に移動 */
+	static private String parseString(char[] ch, int[] pos)
+	{
+		StringBuilder buf = new StringBuilder();
+		int idx = pos[0]+1;
+		while (idx < ch.length) {
+			char c = ch[idx++];
+			if (c == '"') {
+				pos[0] = idx;
+				return buf.toString();
+			}
+			if (c == '\\') {
+				if (idx >= ch.length) break;
+				c = ch[idx++];
+				switch (c) {
+				case 'n': buf.append('\n'); break;
+				case 'r': buf.append('\r'); break;
+				case 't': buf.append('\t'); break;
+				case 'b': buf.append('\b'); break;
+				case 'f': buf.append('\f'); break;
+				case 'u':
+					if (idx+4 > ch.length) throw new IllegalArgumentException("invalid escape at "+idx);
+					buf.append((char)Integer.parseInt(new String(ch, idx, 4), 16));
+					idx += 4;
+					break;
+				default: buf.append(c);
+				}
+			} else {
+				buf.append(c);
+			}
+		}
+		throw new IllegalArgumentException("unterminated string");
+	}
+}
@@ -1,20 +1,134 @@
 package com.github.hmdev.util;
+import java.io.PrintStream;
+import java.util.Vector;
+
 import javax.swing.JTextArea;
 
-/** ログ出力Wrapperクラス */
+/** ログ出力Wrapperクラス
+ * 出力された文字列をスレッド毎に改行単位でまとめてLogEntryにし、AsyncLoggerの出力スレッドから出力先に出力する
+ * 改行前の断片も画面やコンソールにはそのまま出力される */
 public class LogAppender
 {
-	static JTextArea jTextArea = null;
+	/** 出力スレッド 最初の出力時に生成 */
+	static AsyncLogger logger = null;
+	
+	/** 画面またはコンソールの出力先 */
+	static LogSink mainSink = new PrintStreamLogSink(System.out);
+	
+	/** スレッド毎の出力中の行の情報 */
+	static class LineState
+	{
+		/** 出力中の行 改行を除く */
+		StringBuilder line = new StringBuilder();
+		int lineNum = -1;
+		String level = null;
+		String code = null;
+		/** ジョブID */
+		String jobId = null;
+		/** ログバッファ 並列変換時に変換単位でまとめて出力する バッファリングしないならnull */
+		Vector<LogEntry> buffer = null;
+	}
+	static ThreadLocal<LineState> threadState = new ThreadLocal<LineState>() {
+		@Override
+		protected LineState initialValue()
+		{
+			return new LineState();
+		}
+	};
 	
 	static public void setTextArea(JTextArea _jTextArea)
 	{
-		jTextArea = _jTextArea;
+		setMainSink(new TextAreaLogSink(_jTextArea));
+	}
+	
+	/** テキストエリアがない場合の出力先 ePubを標準出力に出力する場合は標準エラーにする */
+	static public void setPrintStream(PrintStream _printStream)
+	{
+		setMainSink(new PrintStreamLogSink(_printStream));
+	}
+	
+	static synchronized void setMainSink(LogSink sink)
+	{
+		if (logger != null) {
+			logger.flush();
+			logger.removeSink(mainSink);
+			logger.addSink(sink);
+		}
+		mainSink = sink;
+	}
+	
+	/** 画面またはコンソール以外の出力先を追加 */
+	static public void addSink(LogSink sink)
+	{
+		getLogger().addSink(sink);
+	}
+	
+	static synchronized AsyncLogger getLogger()
+	{
+		if (logger == null) {
+			logger = new AsyncLogger();
+			logger.addSink(mainSink);
+			//終了時に残りを出力
+			final AsyncLogger closeLogger = logger;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run()
+				{
+					closeLogger.close();
+				}
+			});
+		}
+		return logger;
+	}
+	
+	/** それまでの出力を出力先に出力し終わるまで待つ */
+	static public void flush()
+	{
+		if (logger != null) logger.flush();
+	}
+	
+	/** このスレッドのログのジョブIDを設定 nullで解除 */
+	static public void setJobId(String jobId)
+	{
+		threadState.get().jobId = jobId;
+	}
+	
+	/** このスレッドのログをバッファに溜める
+	 * endBuffer()までの出力はテキストエリアや標準出力には出力されない */
+	static public void startBuffer()
+	{
+		threadState.get().buffer = new Vector<LogEntry>();
+	}
+	/** このスレッドのバッファリングを終了して溜めたログを返す */
+	static public String endBuffer()
+	{
+		StringBuilder buf = new StringBuilder();
+		for (LogEntry entry : endBufferEntries()) buf.append(entry.text);
+		return buf.toString();
+	}
+	/** このスレッドのバッファリングを終了して溜めたログをLogEntryのまま返す
+	 * write()で出力する */
+	static public Vector<LogEntry> endBufferEntries()
+	{
+		LineState state = threadState.get();
+		Vector<LogEntry> buffer = state.buffer;
+		state.buffer = null;
+		if (buffer == null) return new Vector<LogEntry>();
+		return buffer;
+	}
+	/** 溜めたログを出力 ジョブIDがなければこのスレッドのジョブIDを設定 */
+	static public void write(Vector<LogEntry> entries)
+	{
+		LineState state = threadState.get();
+		for (LogEntry entry : entries) {
+			if (entry.jobId == null) entry.jobId = state.jobId;
+			output(state, entry);
+		}
 	}
 	
 	static public void println(String log)
 	{
-		LogAppender.append(log);
-		LogAppender.append("\n");
+		LogAppender.append(log+"\n");
 	}
 	static public void println()
 	{
@@ -22,11 +136,49 @@ public class LogAppender
 	}
 	static public void append(String log)
 	{
-		if (jTextArea != null) {
-			jTextArea.append(log);
-			jTextArea.setCaretPosition(jTextArea.getDocument().getLength());
+		append(log, -1, null, null);
+	}
+	
+	/** 改行単位でLogEntryにして出力 改行の後ろは断片として出力して次の改行まで行の情報を保持
+	 * @param lineNum 行番号 (1から) なければ-1
+	 * @param level ERROR,WARN,INFO 通常の出力はnull
+	 * @param code メッセージの種別 */
+	static void append(String log, int lineNum, String level, String code)
+	{
+		LineState state = threadState.get();
+		if (lineNum >= 0 && state.lineNum < 0) state.lineNum = lineNum;
+		if (level != null && state.level == null) state.level = level;
+		if (code != null && state.code == null) state.code = code;
+		int start = 0;
+		int length = log.length();
+		while (start < length) {
+			int end = log.indexOf('\n', start);
+			if (end == -1) {
+				state.line.append(log, start, length);
+				output(state, new LogEntry(state.jobId, start == 0 ? log : log.substring(start)));
+				break;
+			}
+			state.line.append(log, start, end);
+			LogEntry entry = new LogEntry(state.jobId, start == 0 && end == length-1 ? log : log.substring(start, end+1));
+			entry.complete = true;
+			entry.message = state.line.toString();
+			entry.lineNum = state.lineNum;
+			entry.level = state.level;
+			entry.code = state.code;
+			output(state, entry);
+			state.line.setLength(0);
+			state.lineNum = -1;
+			state.level = null;
+			state.code = null;
+			start = end+1;
 		}
-		else System.out.print(log);
+	}
+	
+	/** バッファリング中ならバッファに追加 それ以外は出力スレッドに渡す */
+	static private void output(LineState state, LogEntry entry)
+	{
+		if (state.buffer != null) state.buffer.add(entry);
+		else getLogger().offer(entry);
 	}
 	
 	static public void printStaclTrace(Exception e)
@@ -37,53 +189,54 @@ public class LogAppender
 		}
 	}
 	
-	static public void msg(int lineNum, String msg, String desc)
+	/** 行番号と詳細付きのメッセージを出力 */
+	static private void msg(String prefix, String level, int lineNum, String msg, String desc)
 	{
-		LogAppender.append(msg);
-		LogAppender.append(" ("+(lineNum+1)+")");
+		StringBuilder buf = new StringBuilder();
+		if (prefix != null) buf.append(prefix);
+		buf.append(msg);
+		buf.append(" (").append(lineNum+1).append(")");
 		if (desc != null) {
-			LogAppender.append(" : ");
-			LogAppender.append(desc);
+			buf.append(" : ");
+			buf.append(desc);
 		}
-		LogAppender.append("\n");
+		buf.append("\n");
+		LogAppender.append(buf.toString(), lineNum+1, level, msg);
+	}
+	
+	static public void msg(int lineNum, String msg, String desc)
+	{
+		LogAppender.msg(null, null, lineNum, msg, desc);
 	}
 	
 	static public void error(String msg)
 	{
-		LogAppender.append("[ERROR] ");
-		LogAppender.append(msg);
-		LogAppender.append("\n");
+		LogAppender.append("[ERROR] "+msg+"\n", -1, LogEntry.ERROR, msg);
 	}
 	static public void error(int lineNum, String msg, String desc)
 	{
-		LogAppender.append("[ERROR] ");
-		LogAppender.msg(lineNum, msg, desc);
+		LogAppender.msg("[ERROR] ", LogEntry.ERROR, lineNum, msg, desc);
 	}
 	static public void error(int lineNum, String msg)
 	{
-		LogAppender.append("[ERROR] ");
-		LogAppender.msg(lineNum, msg, null);
+		LogAppender.msg("[ERROR] ", LogEntry.ERROR, lineNum, msg, null);
 	}
 	
 	static public void warn(int lineNum, String msg, String desc)
 	{
-		LogAppender.append("[WARN] ");
-		LogAppender.msg(lineNum, msg, desc);
+		LogAppender.msg("[WARN] ", LogEntry.WARN, lineNum, msg, desc);
 	}
 	static public void warn(int lineNum, String msg)
 	{
-		LogAppender.append("[WARN] ");
-		LogAppender.msg(lineNum, msg, null);
+		LogAppender.msg("[WARN] ", LogEntry.WARN, lineNum, msg, null);
 	}
 	
 	static public void info(int lineNum, String msg, String desc)
 	{
-		LogAppender.append("[INFO] ");
-		LogAppender.msg(lineNum, msg, desc);
+		LogAppender.msg("[INFO] ", LogEntry.INFO, lineNum, msg, desc);
 	}
 	static public void info(int lineNum, String msg)
 	{
-		LogAppender.append("[INFO] ");
-		LogAppender.msg(lineNum, msg, null);
+		LogAppender.msg("[INFO] ", LogEntry.INFO, lineNum, msg, null);
 	}
 }
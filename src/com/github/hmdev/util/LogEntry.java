@@ -0,0 +1,35 @@
+package com.github.hmdev.util;
+
+/** ログの1件
+ * LogAppenderで出力された文字列を改行単位でまとめたもの
+ * 改行前に出力された文字列は未完了の断片として先に通知される */
+public class LogEntry
+{
+	public final static String ERROR = "ERROR";
+	public final static String WARN = "WARN";
+	public final static String INFO = "INFO";
+	
+	/** 出力時刻 (ミリ秒) */
+	public long time;
+	/** ジョブID 入力ファイル名やサーバのジョブのid なければnull */
+	public String jobId;
+	/** 入力テキストの行番号 (1から) なければ-1 */
+	public int lineNum = -1;
+	/** ERROR,WARN,INFO 通常の出力はnull */
+	public String level;
+	/** メッセージの種別 行番号や詳細を含まないメッセージ 通常の出力はnull */
+	public String code;
+	/** 前回の断片以降に追加された出力文字列 画面やコンソールにはそのまま出力する */
+	public String text;
+	/** 改行で終わっていればtrue */
+	public boolean complete;
+	/** 改行を除いた1行全体 断片ならnull */
+	public String message;
+	
+	LogEntry(String jobId, String text)
+	{
+		this.time = System.currentTimeMillis();
+		this.jobId = jobId;
+		this.text = text;
+	}
+}
@@ -0,0 +1,13 @@
+package com.github.hmdev.util;
+
+/** ログの出力先
+ * AsyncLoggerの出力スレッドから呼ばれる */
+public interface LogSink
+{
+	/** 1件出力 */
+	void write(LogEntry entry);
+	/** 溜まっている件数を出力し終わったら呼ばれる */
+	void flush();
+	/** ログ出力の終了時に呼ばれる */
+	void close();
+}
@@ -0,0 +1,46 @@
+package com.github.hmdev.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** 件数上限付きのキャッシュ
+ * 上限を超えたら最も古く参照されたものから削除する
+ * 複数スレッドから利用可能 */
+public class LruCache<K, V>
+{
+	LinkedHashMap<K, V> map;
+	
+	/** @param maxSize 保持する最大件数 */
+	public LruCache(final int maxSize)
+	{
+		this.map = new LinkedHashMap<K, V>(Math.min(maxSize, 1024), 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+			{
+				return this.size() > maxSize;
+			}
+		};
+	}
+	
+	/** キャッシュされた値を取得 なければnull */
+	public synchronized V get(K key)
+	{
+		return this.map.get(key);
+	}
+	
+	public synchronized void put(K key, V value)
+	{
+		this.map.put(key, value);
+	}
+	
+	public synchronized int size()
+	{
+		return this.map.size();
+	}
+	
+	public synchronized void clear()
+	{
+		this.map.clear();
+	}
+}
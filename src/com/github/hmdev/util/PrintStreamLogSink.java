@@ -0,0 +1,29 @@
+package com.github.hmdev.util;
+
+import java.io.PrintStream;
+
+/** ログを標準出力等に出力 */
+public class PrintStreamLogSink implements LogSink
+{
+	PrintStream printStream;
+	
+	public PrintStreamLogSink(PrintStream printStream)
+	{
+		this.printStream = printStream;
+	}
+	
+	public void write(LogEntry entry)
+	{
+		this.printStream.print(entry.text);
+	}
+	
+	public void flush()
+	{
+		this.printStream.flush();
+	}
+	
+	public void close()
+	{
+		this.printStream.flush();
+	}
+}
@@ -0,0 +1,77 @@
+package com.github.hmdev.util;
+
+/** 変換の進捗
+ * 変換処理から頻繁に更新されても通知は一定間隔以上あけてProgressListenerに通知する
+ * 最大値の設定と完了は間隔によらず通知する
+ * 複数スレッドから更新可能 */
+public class Progress
+{
+	/** 通知の最小間隔 (ナノ秒) 秒間20回まで */
+	final static long NOTIFY_INTERVAL = 50000000L;
+	
+	ProgressListener listener;
+	
+	int value = 0;
+	int maximum = 0;
+	
+	/** 前回通知した時刻 (ナノ秒) */
+	long notifyTime = 0;
+	/** 前回通知した値 */
+	int notifyValue = -1;
+	
+	public Progress(ProgressListener listener)
+	{
+		this.listener = listener;
+	}
+	
+	/** 最大値を設定して現在の値を0に戻す */
+	public synchronized void setMaximum(int maximum)
+	{
+		this.maximum = maximum;
+		this.value = 0;
+		this.notifyListener(true);
+	}
+	
+	public synchronized int getMaximum()
+	{
+		return this.maximum;
+	}
+	
+	public synchronized int getValue()
+	{
+		return this.value;
+	}
+	
+	/** 現在の値を設定 */
+	public synchronized void setValue(int value)
+	{
+		this.value = value;
+		this.notifyListener(false);
+	}
+	
+	/** 現在の値に加算 */
+	public synchronized void add(int delta)
+	{
+		this.value += delta;
+		this.notifyListener(false);
+	}
+	
+	/** 現在の値を最大値にする */
+	public synchronized void finish()
+	{
+		this.value = this.maximum;
+		this.notifyListener(true);
+	}
+	
+	/** 前回の通知から間隔があいていれば通知
+	 * @param force 間隔によらず通知する */
+	private void notifyListener(boolean force)
+	{
+		if (!force && this.value == this.notifyValue) return;
+		long time = System.nanoTime();
+		if (!force && time-this.notifyTime < NOTIFY_INTERVAL) return;
+		this.notifyTime = time;
+		this.notifyValue = this.value;
+		this.listener.progressChanged(this.value, this.maximum);
+	}
+}
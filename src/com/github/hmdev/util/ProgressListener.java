@@ -0,0 +1,12 @@
+package com.github.hmdev.util;
+
+/** 変換の進捗の通知先
+ * Progressから変換処理のスレッドで呼ばれる
+ * Swingの部品を更新する場合はイベントディスパッチスレッドで更新すること */
+public interface ProgressListener
+{
+	/** 進捗を通知
+	 * @param value 現在の値
+	 * @param maximum 最大値 未設定なら0 */
+	void progressChanged(int value, int maximum);
+}
@@ -0,0 +1,238 @@
+package com.github.hmdev.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** 変換処理の段階毎の処理時間計測
+ * 計測中のスレッドに設定しておくと、begin()とend()で囲んだ処理の時間を段階毎に集計する
+ * 段階が入れ子になった場合は内側の時間を外側から除いて集計する (画像出力中のzip圧縮等)
+ * 計測していないスレッドではbegin()とend()は何もしない
+ * キャッシュのヒット数等の件数もcount()で集計する */
+public class StageTimer
+{
+	/** アーカイブ内のテキスト数と画像情報の取得 */
+	public final static String ARCHIVE_SCAN = "archiveScan";
+	/** 前処理 テキストのデコードとタイトル,目次取得 */
+	public final static String BOOK_INFO = "bookInfo";
+	/** 本文変換 */
+	public final static String CONVERT_TEXT = "convertText";
+	/** Velocityテンプレート出力 */
+	public final static String TEMPLATE = "template";
+	/** 画像の読み込み,リサイズ,エンコード */
+	public final static String IMAGE = "image";
+	/** zipのバッファへの書き込みと圧縮待ちと出力 圧縮自体は別スレッド */
+	public final static String DEFLATE = "deflate";
+	
+	/** 段階の出力順 */
+	final static String[] STAGES = {ARCHIVE_SCAN, BOOK_INFO, CONVERT_TEXT, TEMPLATE, IMAGE, DEFLATE};
+	
+	/** 外字注記変換キャッシュのヒット数 */
+	public final static String GAIJI_CACHE_HIT = "gaijiCacheHit";
+	/** 外字注記変換キャッシュのミス数 */
+	public final static String GAIJI_CACHE_MISS = "gaijiCacheMiss";
+	
+	/** 件数の出力順 */
+	final static String[] COUNTERS = {GAIJI_CACHE_HIT, GAIJI_CACHE_MISS};
+	
+	/** 計測中のスレッドのタイマー */
+	static ThreadLocal<StageTimer> threadTimer = new ThreadLocal<StageTimer>();
+	
+	/** 段階毎の時間(ナノ秒)と回数 {time, count} */
+	LinkedHashMap<String, long[]> stageTimes = new LinkedHashMap<String, long[]>();
+	/** 件数 {count} */
+	LinkedHashMap<String, long[]> counters = new LinkedHashMap<String, long[]>();
+	/** 計測した全体の時間(ナノ秒) */
+	long totalTime = 0;
+	/** 集計した書籍数 */
+	int bookCount = 0;
+	
+	/** 実行中の段階 最大の入れ子数まで保持 */
+	String[] stack = new String[16];
+	int stackSize = 0;
+	/** 最後に段階が切り替わった時刻 */
+	long lastTime;
+	/** 計測開始時刻 */
+	long startTime;
+	
+	public StageTimer()
+	{
+		for (String stage : STAGES) this.stageTimes.put(stage, new long[2]);
+		for (String counter : COUNTERS) this.counters.put(counter, new long[1]);
+	}
+	
+	////////////////////////////////////////////////////////////////
+	/** このスレッドで計測開始 */
+	public void start()
+	{
+		this.stackSize = 0;
+		this.startTime = this.lastTime = System.nanoTime();
+		threadTimer.set(this);
+	}
+	/** このスレッドの計測を終了して1冊分として集計 */
+	public void stop()
+	{
+		long time = System.nanoTime();
+		//終了していない段階があれば時間を加算
+		if (this.stackSize > 0) this.stageTimes.get(this.stack[this.stackSize-1])[0] += time-this.lastTime;
+		this.stackSize = 0;
+		this.totalTime += time-this.startTime;
+		this.bookCount++;
+		threadTimer.remove();
+	}
+	
+	/** このスレッドで計測中のタイマー 計測していなければnull */
+	static public StageTimer current()
+	{
+		return threadTimer.get();
+	}
+	
+	/** このスレッドで計測中なら段階を開始 */
+	static public void begin(String stage)
+	{
+		StageTimer timer = threadTimer.get();
+		if (timer != null) timer.push(stage);
+	}
+	/** このスレッドで計測中なら段階を終了 */
+	static public void end(String stage)
+	{
+		StageTimer timer = threadTimer.get();
+		if (timer != null) timer.pop(stage);
+	}
+	
+	/** このスレッドで計測中なら件数を加算 */
+	static public void count(String name)
+	{
+		StageTimer timer = threadTimer.get();
+		if (timer != null) {
+			long[] counter = timer.counters.get(name);
+			if (counter == null) {
+				counter = new long[1];
+				timer.counters.put(name, counter);
+			}
+			counter[0]++;
+		}
+	}
+	
+	void push(String stage)
+	{
+		long time = System.nanoTime();
+		if (this.stackSize > 0) this.stageTimes.get(this.stack[this.stackSize-1])[0] += time-this.lastTime;
+		this.lastTime = time;
+		if (this.stackSize == this.stack.length) {
+			String[] newStack = new String[this.stack.length*2];
+			System.arraycopy(this.stack, 0, newStack, 0, this.stackSize);
+			this.stack = newStack;
+		}
+		this.stack[this.stackSize++] = stage;
+		long[] stageTime = this.stageTimes.get(stage);
+		if (stageTime == null) {
+			stageTime = new long[2];
+			this.stageTimes.put(stage, stageTime);
+		}
+		stageTime[1]++;
+	}
+	void pop(String stage)
+	{
+		if (this.stackSize == 0 || !stage.equals(this.stack[this.stackSize-1])) return;
+		long time = System.nanoTime();
+		this.stageTimes.get(stage)[0] += time-this.lastTime;
+		this.lastTime = time;
+		this.stackSize--;
+	}
+	
+	////////////////////////////////////////////////////////////////
+	/** 別のタイマーの計測結果を加算 */
+	public synchronized void add(StageTimer timer)
+	{
+		for (Map.Entry<String, long[]> entry : timer.stageTimes.entrySet()) {
+			long[] stageTime = this.stageTimes.get(entry.getKey());
+			if (stageTime == null) {
+				stageTime = new long[2];
+				this.stageTimes.put(entry.getKey(), stageTime);
+			}
+			stageTime[0] += entry.getValue()[0];
+			stageTime[1] += entry.getValue()[1];
+		}
+		this.addCounters(timer);
+		this.totalTime += timer.totalTime;
+		this.bookCount += timer.bookCount;
+	}
+	
+	/** 別のタイマーの件数のみ加算 1冊の処理を分割して計測した場合用 */
+	public synchronized void addCounters(StageTimer timer)
+	{
+		for (Map.Entry<String, long[]> entry : timer.counters.entrySet()) {
+			long[] counter = this.counters.get(entry.getKey());
+			if (counter == null) {
+				counter = new long[1];
+				this.counters.put(entry.getKey(), counter);
+			}
+			counter[0] += entry.getValue()[0];
+		}
+	}
+	
+	/** 計測結果をクリア */
+	public void clear()
+	{
+		for (long[] stageTime : this.stageTimes.values()) { stageTime[0] = 0; stageTime[1] = 0; }
+		for (long[] counter : this.counters.values()) counter[0] = 0;
+		this.totalTime = 0;
+		this.bookCount = 0;
+	}
+	
+	/** 段階の時間 ミリ秒 */
+	public double getStageMillis(String stage)
+	{
+		long[] stageTime = this.stageTimes.get(stage);
+		if (stageTime == null) return 0;
+		return stageTime[0]/1000000.0;
+	}
+	/** 全体の時間 ミリ秒 */
+	public double getTotalMillis()
+	{
+		return this.totalTime/1000000.0;
+	}
+	/** 件数 */
+	public long getCount(String name)
+	{
+		long[] counter = this.counters.get(name);
+		if (counter == null) return 0;
+		return counter[0];
+	}
+	
+	/** JSONのオブジェクトで出力
+	 * {"books":1, "totalMs":123.4, "stages":{"archiveScan":{"ms":1.2,"count":1}, ...}, "otherMs":0.5, "counters":{"gaijiCacheHit":10, ...}} */
+	public synchronized void appendJson(StringBuilder buf)
+	{
+		buf.append("{\"books\":").append(this.bookCount);
+		buf.append(",\"totalMs\":").append(round(this.totalTime));
+		buf.append(",\"stages\":{");
+		long stageTotal = 0;
+		boolean first = true;
+		for (Map.Entry<String, long[]> entry : this.stageTimes.entrySet()) {
+			if (!first) buf.append(',');
+			first = false;
+			JsonUtils.appendQuoted(buf, entry.getKey());
+			buf.append(":{\"ms\":").append(round(entry.getValue()[0])).append(",\"count\":").append(entry.getValue()[1]).append('}');
+			stageTotal += entry.getValue()[0];
+		}
+		buf.append('}');
+		buf.append(",\"otherMs\":").append(round(Math.max(0, this.totalTime-stageTotal)));
+		buf.append(",\"counters\":{");
+		first = true;
+		for (Map.Entry<String, long[]> entry : this.counters.entrySet()) {
+			if (!first) buf.append(',');
+			first = false;
+			JsonUtils.appendQuoted(buf, entry.getKey());
+			buf.append(':').append(entry.getValue()[0]);
+		}
+		buf.append('}');
+		buf.append('}');
+	}
+	
+	/** ナノ秒を小数点以下2桁のミリ秒に */
+	static private double round(long nanos)
+	{
+		return Math.round(nanos/10000.0)/100.0;
+	}
+}
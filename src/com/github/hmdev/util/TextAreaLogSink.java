@@ -0,0 +1,43 @@
+package com.github.hmdev.util;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+/** ログをテキストエリアに出力
+ * まとめて出力された分を1回でイベントディスパッチスレッドで追加する */
+public class TextAreaLogSink implements LogSink
+{
+	JTextArea jTextArea;
+	
+	StringBuilder buf = new StringBuilder();
+	
+	public TextAreaLogSink(JTextArea jTextArea)
+	{
+		this.jTextArea = jTextArea;
+	}
+	
+	public void write(LogEntry entry)
+	{
+		this.buf.append(entry.text);
+	}
+	
+	public void flush()
+	{
+		if (this.buf.length() == 0) return;
+		final String text = this.buf.toString();
+		this.buf.setLength(0);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run()
+			{
+				jTextArea.append(text);
+				jTextArea.setCaretPosition(jTextArea.getDocument().getLength());
+			}
+		});
+	}
+	
+	public void close()
+	{
+		this.flush();
+	}
+}
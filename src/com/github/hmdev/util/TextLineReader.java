@@ -0,0 +1,130 @@
+package com.github.hmdev.util;
+
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+
+/** TextLineStoreのデコード済みの文字を行単位で読み込むReader
+ * readLine()は保持している文字から直接行の文字列を生成する
+ * nextLine()なら文字列を生成せずに行の位置と長さで参照できる
+ * 改行はBufferedReaderと同じく\n,\r,\r\n */
+public class TextLineReader extends BufferedReader
+{
+	/** デコード済みの文字 TextLineStoreと共有 */
+	char[] chars;
+	/** 文字数 */
+	int length;
+	/** 次に読み込む位置 */
+	int pos = 0;
+	/** mark()した位置 */
+	int markPos = 0;
+	
+	/** nextLine()で読み込んだ行の開始位置 */
+	int lineStart = 0;
+	/** nextLine()で読み込んだ行の長さ 改行を除く */
+	int lineLength = 0;
+	
+	public TextLineReader(char[] chars, int length)
+	{
+		super(new CharArrayReader(chars, 0, 0), 1);
+		this.chars = chars;
+		this.length = length;
+	}
+	
+	/** 次の行に進む 行はgetChars()のgetLineStart()からgetLineLength()文字
+	 * @return 終端ならfalse */
+	public boolean nextLine()
+	{
+		if (this.pos >= this.length) return false;
+		char[] chars = this.chars;
+		int i = this.pos;
+		while (i < this.length) {
+			char ch = chars[i];
+			if (ch == '\n' || ch == '\r') break;
+			i++;
+		}
+		this.lineStart = this.pos;
+		this.lineLength = i-this.pos;
+		if (i < this.length) {
+			if (chars[i] == '\r' && i+1 < this.length && chars[i+1] == '\n') i++;
+			i++;
+		}
+		this.pos = i;
+		return true;
+	}
+	
+	/** 保持している文字の配列 変更しないこと */
+	public char[] getChars()
+	{
+		return this.chars;
+	}
+	/** nextLine()で読み込んだ行の開始位置 */
+	public int getLineStart()
+	{
+		return this.lineStart;
+	}
+	/** nextLine()で読み込んだ行の長さ 改行を除く */
+	public int getLineLength()
+	{
+		return this.lineLength;
+	}
+	
+	@Override
+	public String readLine()
+	{
+		if (!this.nextLine()) return null;
+		return new String(this.chars, this.lineStart, this.lineLength);
+	}
+	
+	@Override
+	public int read()
+	{
+		if (this.pos >= this.length) return -1;
+		return this.chars[this.pos++];
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len)
+	{
+		if (len == 0) return 0;
+		if (this.pos >= this.length) return -1;
+		int n = Math.min(len, this.length-this.pos);
+		System.arraycopy(this.chars, this.pos, cbuf, off, n);
+		this.pos += n;
+		return n;
+	}
+	
+	@Override
+	public long skip(long n)
+	{
+		long skip = Math.max(0, Math.min(n, this.length-this.pos));
+		this.pos += skip;
+		return skip;
+	}
+	
+	@Override
+	public boolean ready()
+	{
+		return this.pos < this.length;
+	}
+	
+	@Override
+	public void mark(int readAheadLimit)
+	{
+		this.markPos = this.pos;
+	}
+	
+	@Override
+	public void reset()
+	{
+		this.pos = this.markPos;
+	}
+	
+	/** 保持している文字はTextLineStoreのclose()で破棄される */
+	@Override
+	public void close()
+	{
+		this.chars = null;
+		this.length = 0;
+		this.pos = 0;
+	}
+}
@@ -0,0 +1,275 @@
+package com.github.hmdev.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/** 入力テキストをデコード済みの文字列で保持するクラス
+ * 前処理(BookInfo取得)と変換処理で同じ内容を読み込むため、
+ * 圧縮ファイルの展開と文字コード変換は最初の1回だけ行う
+ * メモリに収まらない大きさの場合は一時ファイルにUTF-16で書き出して読み直す
+ * ローカルのファイルはメモリマップして1つのCharsetDecoderでまとめてデコードする
+ * BOMがあればBOMの文字コードを優先し、AUTO指定ならUTF-8として正しいかでMS932と判別する */
+public class TextLineStore
+{
+	/** 文字コード自動判別の指定 */
+	final static public String AUTO = "AUTO";
+	/** 自動判別で判定するバイト数 */
+	final static int SNIFF_BYTES = 65536;
+	/** Streamの自動判別で先頭のASCIIを読み飛ばす場合に読み込む最大バイト数 */
+	final static int MAX_SNIFF_BYTES = 16*1024*1024;
+	
+	/** メモリに保持する最大文字数 これを超えたら一時ファイルに書き出す */
+	static public int maxMemoryChars = 32*1024*1024;
+	
+	/** 一時ファイルの文字コード デコード処理が軽いもの */
+	final static String TMP_ENCODING = "UTF-16BE";
+	
+	/** デコード済みの文字 */
+	char[] chars;
+	/** 文字数 */
+	int length = 0;
+	/** 書き出した一時ファイル メモリ保持ならnull */
+	File tmpFile = null;
+	
+	/** Readerの内容をすべて読み込んで保持 readerはクローズしない */
+	public TextLineStore(Reader reader) throws IOException
+	{
+		this(reader, maxMemoryChars);
+	}
+	
+	/** Readerの内容をすべて読み込んで保持 readerはクローズしない
+	 * @param maxMemoryChars メモリに保持する最大文字数 一時ファイルを使わない場合はInteger.MAX_VALUE */
+	public TextLineStore(Reader reader, int maxMemoryChars) throws IOException
+	{
+		this.load(reader, maxMemoryChars);
+	}
+	
+	/** Streamの先頭でBOMと文字コードを判別して読み込んで保持 isはクローズしない
+	 * @param encType 文字コード AUTOなら自動判別 */
+	public TextLineStore(InputStream is, String encType) throws IOException
+	{
+		this(is, encType, maxMemoryChars);
+	}
+	
+	/** Streamの先頭でBOMと文字コードを判別して読み込んで保持 isはクローズしない
+	 * @param encType 文字コード AUTOなら自動判別
+	 * @param maxMemoryChars メモリに保持する最大文字数 一時ファイルを使わない場合はInteger.MAX_VALUE */
+	public TextLineStore(InputStream is, String encType, int maxMemoryChars) throws IOException
+	{
+		this.load(createReader(is, encType), maxMemoryChars);
+	}
+	
+	/** ファイルをメモリマップしてデコードした文字を保持
+	 * デコード後の文字数がmaxMemoryCharsを超える可能性があればStreamで読み込んで一時ファイルに書き出す
+	 * @param encType 文字コード AUTOなら自動判別 */
+	public TextLineStore(File file, String encType) throws IOException
+	{
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				this.load(createReader(fis, encType), maxMemoryChars);
+				return;
+			}
+			ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			//BOMの後ろに移動
+			String charset = detectEncoding(bytes, encType);
+			CharsetDecoder decoder = Charset.forName(charset).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			long maxChars = (long)Math.ceil(bytes.remaining()*(double)decoder.maxCharsPerByte());
+			if (maxChars > maxMemoryChars) {
+				channel.position(bytes.position());
+				this.load(new InputStreamReader(fis, decoder), maxMemoryChars);
+				return;
+			}
+			this.chars = new char[(int)maxChars+1];
+			CharBuffer out = CharBuffer.wrap(this.chars);
+			CoderResult result = decoder.decode(bytes, out, true);
+			if (result.isUnderflow()) result = decoder.flush(out);
+			while (result.isOverflow()) {
+				//最大文字数を超えることはないが念のため拡張
+				int used = out.position();
+				char[] newChars = new char[this.chars.length*2];
+				System.arraycopy(this.chars, 0, newChars, 0, used);
+				out = CharBuffer.wrap(newChars);
+				out.position(used);
+				this.chars = newChars;
+				result = decoder.decode(bytes, out, true);
+				if (result.isUnderflow()) result = decoder.flush(out);
+			}
+			this.length = out.position();
+		} finally {
+			fis.close();
+		}
+	}
+	
+	/** Streamの先頭でBOMと文字コードを判別してReaderを生成 BOMは読み飛ばす
+	 * AUTOで先頭がASCIIのみの場合は、ファイルのメモリマップと同じくASCII以外の文字の後ろSNIFF_BYTESまで読み込んで判別する
+	 * @param encType 文字コード AUTOなら自動判別 */
+	static public Reader createReader(InputStream is, String encType) throws IOException
+	{
+		byte[] b = new byte[SNIFF_BYTES];
+		int len = readFully(is, b, 0);
+		if (AUTO.equalsIgnoreCase(encType)) {
+			int asciiEnd = 0;
+			while (len == b.length && b.length < MAX_SNIFF_BYTES) {
+				while (asciiEnd < len && b[asciiEnd] >= 0) asciiEnd++;
+				int sniffEnd = (int)Math.min(MAX_SNIFF_BYTES, (long)asciiEnd+SNIFF_BYTES);
+				if (sniffEnd <= len) break;
+				b = Arrays.copyOf(b, sniffEnd);
+				len = readFully(is, b, len);
+			}
+		}
+		ByteBuffer sample = ByteBuffer.wrap(b, 0, len);
+		String charset = detectEncoding(sample, encType);
+		//読み込み済みの先頭の後ろに残りを続ける
+		InputStream head = new ByteArrayInputStream(b, sample.position(), len-sample.position());
+		return new InputStreamReader(new SequenceInputStream(head, new BufferedInputStream(is, 65536)), charset);
+	}
+	
+	/** バッファの終わりか終端まで読み込む
+	 * @return 読み込み済みのバイト数 */
+	static private int readFully(InputStream is, byte[] b, int len) throws IOException
+	{
+		int n;
+		while (len < b.length && (n = is.read(b, len, b.length-len)) != -1) len += n;
+		return len;
+	}
+	
+	/** BOMと内容から文字コードを判別 BOMがあればbytesの位置をBOMの後ろに移動する
+	 * BOMがあればBOMの文字コード、encTypeがAUTOならUTF-8として正しければUTF-8でそれ以外はMS932
+	 * @param encType 文字コード AUTOなら自動判別
+	 * @return 文字コード名 */
+	static public String detectEncoding(ByteBuffer bytes, String encType)
+	{
+		int pos = bytes.position();
+		int remaining = bytes.remaining();
+		if (remaining >= 3 && bytes.get(pos) == (byte)0xEF && bytes.get(pos+1) == (byte)0xBB && bytes.get(pos+2) == (byte)0xBF) {
+			bytes.position(pos+3);
+			return "UTF-8";
+		}
+		if (remaining >= 2) {
+			if (bytes.get(pos) == (byte)0xFE && bytes.get(pos+1) == (byte)0xFF) {
+				bytes.position(pos+2);
+				return "UTF-16BE";
+			}
+			if (bytes.get(pos) == (byte)0xFF && bytes.get(pos+1) == (byte)0xFE) {
+				bytes.position(pos+2);
+				return "UTF-16LE";
+			}
+		}
+		if (!AUTO.equalsIgnoreCase(encType)) return encType;
+		return isUTF8(bytes, pos, pos+remaining) ? "UTF-8" : "MS932";
+	}
+	
+	/** ASCII以外の文字があり、UTF-8として正しければtrue
+	 * 先頭のASCIIを飛ばしてからSNIFF_BYTES分を判定する 判定範囲の末尾で途切れた文字は判定しない */
+	static boolean isUTF8(ByteBuffer bytes, int start, int end)
+	{
+		int i = start;
+		while (i < end && bytes.get(i) >= 0) i++;
+		if (i == end) return false;
+		int limit = Math.min(end, i+SNIFF_BYTES);
+		while (i < limit) {
+			int b = bytes.get(i) & 0xFF;
+			int n;
+			if (b < 0x80) { i++; continue; }
+			else if (b >= 0xC2 && b <= 0xDF) n = 1;
+			else if (b >= 0xE0 && b <= 0xEF) n = 2;
+			else if (b >= 0xF0 && b <= 0xF4) n = 3;
+			else return false;
+			if (i+n >= limit) break;
+			for (int j=1; j<=n; j++) {
+				if ((bytes.get(i+j) & 0xC0) != 0x80) return false;
+			}
+			i += n+1;
+		}
+		return true;
+	}
+	
+	/** Readerの内容をすべて読み込んで保持 readerはクローズしない */
+	private void load(Reader reader, int maxMemoryChars) throws IOException
+	{
+		this.chars = new char[65536];
+		BufferedWriter tmpWriter = null;
+		try {
+			char[] buf = new char[65536];
+			int len;
+			while ((len = reader.read(buf)) != -1) {
+				if (tmpWriter != null) {
+					tmpWriter.write(buf, 0, len);
+					continue;
+				}
+				if (this.length+len > maxMemoryChars) {
+					//一時ファイルに切り替え
+					this.tmpFile = File.createTempFile("textStore", ".tmp");
+					this.tmpFile.deleteOnExit();
+					tmpWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.tmpFile), TMP_ENCODING), 65536);
+					tmpWriter.write(this.chars, 0, this.length);
+					tmpWriter.write(buf, 0, len);
+					this.chars = null;
+					this.length = 0;
+					continue;
+				}
+				if (this.length+len > this.chars.length) {
+					char[] newChars = new char[Math.min(Math.max(this.chars.length*2, this.length+len), maxMemoryChars)];
+					System.arraycopy(this.chars, 0, newChars, 0, this.length);
+					this.chars = newChars;
+				}
+				System.arraycopy(buf, 0, this.chars, this.length, len);
+				this.length += len;
+			}
+		} finally {
+			if (tmpWriter != null) tmpWriter.close();
+		}
+	}
+	
+	/** 先頭から読み込むReaderを取得 何回でも取得可能
+	 * メモリに保持している場合は保持している文字から直接行の文字列を生成するTextLineReader
+	 * @return 行単位で読み込むReader (close()は呼び出し側ですること) */
+	public BufferedReader getReader() throws IOException
+	{
+		if (this.tmpFile != null) {
+			return new BufferedReader(new InputStreamReader(new BufferedInputStream(new FileInputStream(this.tmpFile), 65536), TMP_ENCODING), 65536);
+		}
+		if (this.chars == null) throw new IOException("TextLineStore is closed");
+		return new TextLineReader(this.chars, this.length);
+	}
+	
+	/** 一時ファイルに書き出していたらtrue */
+	public boolean isSpilled()
+	{
+		return this.tmpFile != null;
+	}
+	
+	/** 保持している文字列と一時ファイルを破棄 */
+	public void close()
+	{
+		this.chars = null;
+		this.length = 0;
+		if (this.tmpFile != null) {
+			this.tmpFile.delete();
+			this.tmpFile = null;
+		}
+	}
+}
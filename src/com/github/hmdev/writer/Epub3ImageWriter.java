@@ -14,7 +14,6 @@ import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
-import org.apache.velocity.app.Velocity;
 
 import com.github.hmdev.converter.AozoraEpub3Converter;
 import com.github.hmdev.info.ImageInfo;
@@ -136,7 +135,7 @@ public class Epub3ImageWriter extends Epub3Writer
 					this.endSection();
 				}
 			}
-			if (this.jProgressBar != null) this.jProgressBar.setValue(this.jProgressBar.getValue()+1);
+			if (this.progress != null) this.progress.add(1);
 			if (this.canceled) return;
 		}
 	}
@@ -184,7 +183,7 @@ public class Epub3ImageWriter extends Epub3Writer
 		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(super.zos, "UTF-8"));
 		//出力開始するセクションに対応したSectionInfoを設定
 		this.velocityContext.put("sectionInfo", sectionInfo);
-		Velocity.getTemplate(this.templatePath+OPS_PATH+XHTML_PATH+XHTML_HEADER_VM).merge(this.velocityContext, bw);
+		this.mergeCachedTemplate(this.templatePath+OPS_PATH+XHTML_PATH+XHTML_HEADER_VM, bw);
 		bw.flush();
 	}
 	
@@ -207,7 +206,7 @@ public class Epub3ImageWriter extends Epub3Writer
 		//出力開始するセクションに対応したSectionInfoを設定
 		this.velocityContext.put("sectionInfo", sectionInfo);
 		this.velocityContext.put("imageInfo", imageInfo);
-		Velocity.getTemplate(this.templatePath+OPS_PATH+XHTML_PATH+SVG_IMAGE_VM).merge(this.velocityContext, bw);
+		this.mergeCachedTemplate(this.templatePath+OPS_PATH+XHTML_PATH+SVG_IMAGE_VM, bw);
 		bw.flush();
 	}
 	
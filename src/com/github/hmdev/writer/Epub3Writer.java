@@ -14,8 +14,11 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.HashSet;
@@ -23,8 +26,6 @@ import java.util.UUID;
 import java.util.Vector;
 import java.util.zip.CRC32;
 
-import javax.swing.JProgressBar;
-
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
@@ -45,6 +46,8 @@ import com.github.hmdev.info.ImageInfo;
 import com.github.hmdev.info.SectionInfo;
 import com.github.hmdev.util.CharUtils;
 import com.github.hmdev.util.LogAppender;
+import com.github.hmdev.util.Progress;
+import com.github.hmdev.util.StageTimer;
 import com.github.junrar.Archive;
 import com.github.junrar.rarfile.FileHeader;
 
@@ -210,6 +213,11 @@ public class Epub3Writer
 	/** svgタグのimageでxhtml出力 */
 	boolean isSvgImage = false;
 	
+	/** 差分出力 出力先に前回のePubがあれば変更のない画像を再利用する */
+	boolean incremental = false;
+	/** 画像出力パラメータ 差分出力時の画像のハッシュに含める */
+	String imageParamKey = "";
+	
 	/** 拡張子に.mobiが選択されていてkindlegenがある場合 */
 	boolean isKindle = false;
 	
@@ -228,12 +236,12 @@ public class Epub3Writer
 	
 	////////////////////////////////
 	/** 出力先ePubのZipストリーム ConverterからのnextSection呼び出しで利用 */
-	ZipArchiveOutputStream zos;
+	ParallelZipOutputStream zos;
 	
-	/** ファイル名桁揃え用 */
-	final static DecimalFormat decimalFormat = new DecimalFormat("0000");
+	/** ファイル名桁揃え用 Formatはスレッドセーフでないのでインスタンス毎に保持 */
+	final DecimalFormat decimalFormat = new DecimalFormat("0000");
 	/** 更新日時フォーマット 2011-06-29T12:00:00Z */
-	final static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+	final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
 	
 	/** セクション番号自動追加用インデックス */
 	int sectionIndex = 0;
@@ -267,8 +275,14 @@ public class Epub3Writer
 	/** 出力中の画像情報 */
 	ImageInfoReader imageInfoReader;
 	
-	/** プログレスバー AozoraConverterからも使う 利用しない場合はnull */
-	public JProgressBar jProgressBar;
+	/** 差分出力時の前回のePub 前回のファイルがなければnull
+	 * 画像は圧縮済みのデータのままコピーする */
+	RawZipFile prevEpub;
+	/** 差分出力で再利用した画像数 */
+	int reusedImageCount = 0;
+	
+	/** 進捗 AozoraConverterからも使う 利用しない場合はnull */
+	public Progress progress;
 	
 	/** 処理キャンセルフラグ */
 	boolean canceled = false;
@@ -288,10 +302,10 @@ public class Epub3Writer
 		this.imageInfos = new Vector<ImageInfo>();
 		this.outImageFileNames = new HashSet<String>();
 	}
-	/** プログレスバー設定 */
-	public void setProgressBar(JProgressBar jProgressBar)
+	/** 進捗の通知先を設定 */
+	public void setProgress(Progress progress)
 	{
-		this.jProgressBar = jProgressBar;
+		this.progress = progress;
 	}
 	/** 画像のリサイズ用パラメータを設定 */
 	public void setImageParam(int dispW, int dispH, int coverW, int coverH,
@@ -345,6 +359,18 @@ public class Epub3Writer
 		this.autoMarginPadding = autoMarginPadding;
 		this.autoMarginNombre = autoMarginNombre;
 		this.autoMarginNombreSize = nombreSize;
+		
+		//差分出力時に画像を再利用するかの判別用
+		this.imageParamKey = dispW+","+dispH+","+coverW+","+coverH+","+resizeW+","+resizeH+","+this.maxImagePixels+","
+				+jpegQuality+","+gamma+","+autoMarginLimitH+","+autoMarginLimitV+","+autoMarginWhiteLevel+","+autoMarginPadding+","+autoMarginNombre+","+nombreSize;
+	}
+	
+	/** 差分出力の設定
+	 * 有効にすると出力先に前回のePubがある場合、元画像と画像パラメータが同じ画像は変換せずに前回のePubからコピーする
+	 * 画像のハッシュはePub内の各画像エントリのコメントに格納する */
+	public void setIncremental(boolean incremental)
+	{
+		this.incremental = incremental;
 	}
 	
 	public void setTocParam(boolean navNest, boolean ncxNest)
@@ -395,6 +421,40 @@ public class Epub3Writer
 	 * @param zipImageFileInfos zipの場合はzip内画像の情報 key=サブフォルダ付きの画像ファイル名
 	 * @throws IOException */
 	public void write(AozoraEpub3Converter converter, BufferedReader src, File srcFile, String srcExt, File epubFile, BookInfo bookInfo, ImageInfoReader imageInfoReader) throws Exception
+	{
+		//差分出力 前回のePubは別名に変更して読み込む
+		File prevEpubFile = null;
+		if (this.incremental && epubFile.isFile()) {
+			prevEpubFile = new File(epubFile.getPath()+".prev");
+			if (prevEpubFile.exists()) prevEpubFile.delete();
+			if (epubFile.renameTo(prevEpubFile)) {
+				try {
+					this.prevEpub = new RawZipFile(prevEpubFile);
+				} catch (IOException e) {
+					LogAppender.println("[WARN] 前回のePubが読み込めません: "+epubFile.getName());
+				}
+			} else {
+				prevEpubFile = null;
+			}
+		}
+		try {
+			this.write(converter, src, srcFile, srcExt, new BufferedOutputStream(new FileOutputStream(epubFile)), bookInfo, imageInfoReader);
+		} finally {
+			//前回のePubを削除
+			if (this.prevEpub != null) {
+				try { this.prevEpub.close(); } catch (IOException e) { e.printStackTrace(); }
+				this.prevEpub = null;
+				if (this.reusedImageCount > 0) LogAppender.println("差分出力 画像再利用: "+this.reusedImageCount);
+			}
+			if (prevEpubFile != null) prevEpubFile.delete();
+		}
+	}
+	
+	/** epubをStreamに出力
+	 * 出力先はシークしないので標準出力にも出力可能
+	 * @param out 出力先 出力後にクローズされる
+	 * @see #write(AozoraEpub3Converter, BufferedReader, File, String, File, BookInfo, ImageInfoReader) */
+	public void write(AozoraEpub3Converter converter, BufferedReader src, File srcFile, String srcExt, OutputStream out, BookInfo bookInfo, ImageInfoReader imageInfoReader) throws Exception
 	{
 		try {
 		
@@ -410,6 +470,7 @@ public class Epub3Writer
 		this.gaijiNameSet.clear();
 		this.imageInfos.clear();
 		this.outImageFileNames.clear();
+		this.reusedImageCount = 0;
 		
 		//Velocity用 共通コンテキスト設定
 		this.velocityContext = new VelocityContext();
@@ -457,8 +518,22 @@ public class Epub3Writer
 		velocityContext.put("boldUseGothic", this.boldUseGothic);
 		velocityContext.put("gothicUseBold", this.gothicUseBold);
 		
-		//出力先ePubのZipストリーム生成
-		zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(epubFile)));
+		//出力先ePubのZipストリーム生成 エントリの圧縮は別スレッドで行い出力順に書き込む
+		zos = new ParallelZipOutputStream(out) {
+			//変換スレッドでの圧縮待ちと書き込みの処理時間を計測
+			@Override
+			public void write(byte[] b, int offset, int length) throws IOException
+			{
+				StageTimer.begin(StageTimer.DEFLATE);
+				try { super.write(b, offset, length); } finally { StageTimer.end(StageTimer.DEFLATE); }
+			}
+			@Override
+			public void closeArchiveEntry() throws IOException
+			{
+				StageTimer.begin(StageTimer.DEFLATE);
+				try { super.closeArchiveEntry(); } finally { StageTimer.end(StageTimer.DEFLATE); }
+			}
+		};
 		//mimetypeは非圧縮
 		//STOREDで格納しCRCとsizeを指定する必要がある
 		ZipArchiveEntry mimeTypeEntry = new ZipArchiveEntry(MIMETYPE_PATH);
@@ -500,13 +575,13 @@ public class Epub3Writer
 		if (bookInfo.vertical) {
 			zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+CSS_PATH+VERTICAL_TEXT_CSS));
 			bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-			Velocity.mergeTemplate(templatePath+OPS_PATH+CSS_PATH+VERTICAL_TEXT_CSS_VM, "UTF-8", velocityContext, bw);
+			this.mergeTemplate(templatePath+OPS_PATH+CSS_PATH+VERTICAL_TEXT_CSS_VM, bw);
 			bw.flush();
 			zos.closeArchiveEntry();
 		} else {
 			zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+CSS_PATH+HORIZONTAL_TEXT_CSS));
 			bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-			Velocity.mergeTemplate(templatePath+OPS_PATH+CSS_PATH+HORIZONTAL_TEXT_CSS_VM, "UTF-8", velocityContext, bw);
+			this.mergeTemplate(templatePath+OPS_PATH+CSS_PATH+HORIZONTAL_TEXT_CSS_VM, bw);
 			bw.flush();
 			zos.closeArchiveEntry();
 		}
@@ -539,7 +614,7 @@ public class Epub3Writer
 			//package.opf内で目次前に出力
 			zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+XHTML_PATH+TITLE_FILE));
 			bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-			Velocity.mergeTemplate(vmFilePath, "UTF-8", velocityContext, bw);
+			this.mergeTemplate(vmFilePath, bw);
 			bw.flush();
 			zos.closeArchiveEntry();
 			
@@ -667,7 +742,7 @@ public class Epub3Writer
 				this.velocityContext.put("coverImage", insertCoverInfo);
 				zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+XHTML_PATH+COVER_FILE));
 				bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-				Velocity.mergeTemplate(templatePath+OPS_PATH+XHTML_PATH+COVER_VM, "UTF-8", velocityContext, bw);
+				this.mergeTemplate(templatePath+OPS_PATH+XHTML_PATH+COVER_VM, bw);
 				bw.flush();
 				zos.closeArchiveEntry();
 			} else {
@@ -681,7 +756,7 @@ public class Epub3Writer
 		velocityContext.put("images", imageInfos);
 		zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+PACKAGE_FILE));
 		bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-		Velocity.mergeTemplate(templatePath+OPS_PATH+PACKAGE_VM, "UTF-8", velocityContext, bw);
+		this.mergeTemplate(templatePath+OPS_PATH+PACKAGE_VM, bw);
 		bw.flush();
 		zos.closeArchiveEntry();
 		
@@ -803,7 +878,7 @@ public class Epub3Writer
 		velocityContext.put("chapters", chapterInfos);
 		zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+XHTML_PATH+XHTML_NAV_FILE));
 		bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-		Velocity.mergeTemplate(templatePath+OPS_PATH+XHTML_PATH+XHTML_NAV_VM, "UTF-8", velocityContext, bw);
+		this.mergeTemplate(templatePath+OPS_PATH+XHTML_PATH+XHTML_NAV_VM, bw);
 		bw.flush();
 		zos.closeArchiveEntry();
 		
@@ -811,7 +886,7 @@ public class Epub3Writer
 		velocityContext.put("chapters", chapterInfos);
 		zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+TOC_FILE));
 		bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-		Velocity.mergeTemplate(templatePath+OPS_PATH+TOC_VM, "UTF-8", velocityContext, bw);
+		this.mergeTemplate(templatePath+OPS_PATH+TOC_VM, bw);
 		bw.flush();
 		zos.closeArchiveEntry();
 		
@@ -819,7 +894,7 @@ public class Epub3Writer
 		
 		if (this.canceled) return;
 		//プログレスバーにテキスト進捗分を追加
-		if (this.jProgressBar != null && !bookInfo.imageOnly) this.jProgressBar.setValue(bookInfo.totalLineNum/10);
+		if (this.progress != null && !bookInfo.imageOnly) this.progress.setValue(bookInfo.totalLineNum/10);
 		
 		//フォントファイル格納
 		if (!bookInfo.imageOnly) {
@@ -883,7 +958,7 @@ public class Epub3Writer
 					bais.close();
 				}
 				imageInfos.remove(0);//カバー画像は出力済みなので削除
-				if (this.jProgressBar != null) this.jProgressBar.setValue(this.jProgressBar.getValue()+10);
+				if (this.progress != null) this.progress.add(10);
 			} catch (Exception e) {
 				e.printStackTrace();
 				LogAppender.error("表紙画像取得エラー: "+bookInfo.coverFileName);
@@ -904,17 +979,26 @@ public class Epub3Writer
 					} else {
 						File imageFile = imageInfoReader.getImageFile(srcImageFileName);
 						if (imageFile.exists()) {
-							fis = new FileInputStream(imageFile);
-							zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+IMAGES_PATH+imageInfo.getOutFileName()));
-							this.writeImage(new BufferedInputStream(fis, 8192), zos, imageInfo);
-							zos.closeArchiveEntry();
-							fis.close();
+							if (this.incremental) {
+								//差分出力時はハッシュ計算のためバイト配列にする
+								fis = new FileInputStream(imageFile);
+								ByteArrayOutputStream baos = new ByteArrayOutputStream();
+								IOUtils.copy(new BufferedInputStream(fis, 8192), baos);
+								fis.close();
+								this.writeImageEntry(baos.toByteArray(), imageInfo);
+							} else {
+								fis = new FileInputStream(imageFile);
+								zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+IMAGES_PATH+imageInfo.getOutFileName()));
+								this.writeImage(new BufferedInputStream(fis, 8192), zos, imageInfo);
+								zos.closeArchiveEntry();
+								fis.close();
+							}
 							outImageFileNames.remove(srcImageFileName);
 						}
 					}
 				}
 				if (this.canceled) return;
-				if (this.jProgressBar != null) this.jProgressBar.setValue(this.jProgressBar.getValue()+10);
+				if (this.progress != null) this.progress.add(10);
 			}
 		} else if (!bookInfo.imageOnly) {
 			if ("rar".equals(srcExt)) {
@@ -958,7 +1042,7 @@ public class Epub3Writer
 		}
 		
 		//エラーがなければ100%
-		if (this.jProgressBar != null) this.jProgressBar.setValue(this.jProgressBar.getMaximum());
+		if (this.progress != null) this.progress.finish();
 		
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -994,19 +1078,80 @@ public class Epub3Writer
 						imageInfo.rotateAngle = this.rotateAngle;
 					}
 				}
-				zos.putArchiveEntry(new ZipArchiveEntry(OPS_PATH+IMAGES_PATH+imageInfo.getOutFileName()));
 				//Zip,Rarからの直接読み込みは失敗するので一旦バイト配列にする
 				ByteArrayOutputStream baos = new ByteArrayOutputStream();
 				IOUtils.copy(new BufferedInputStream(is, 16384), baos);
 				byte[] bytes = baos.toByteArray();
 				baos.close();
-				ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-				this.writeImage(bais, zos, imageInfo);
-				bais.close();
-				zos.closeArchiveEntry();
+				this.writeImageEntry(bytes, imageInfo);
 			}
 			if (this.canceled) return;
-			if (this.jProgressBar != null) this.jProgressBar.setValue(this.jProgressBar.getValue()+10);
+			if (this.progress != null) this.progress.add(10);
+		}
+	}
+	
+	/** Velocityテンプレートを出力 */
+	void mergeTemplate(String vmFilePath, BufferedWriter bw) throws IOException
+	{
+		StageTimer.begin(StageTimer.TEMPLATE);
+		try {
+			Velocity.mergeTemplate(vmFilePath, "UTF-8", this.velocityContext, bw);
+		} finally {
+			StageTimer.end(StageTimer.TEMPLATE);
+		}
+	}
+	
+	/** 読み込み済みのVelocityテンプレートを出力 繰り返し出力するテンプレート用 */
+	protected void mergeCachedTemplate(String vmFilePath, BufferedWriter bw) throws IOException
+	{
+		StageTimer.begin(StageTimer.TEMPLATE);
+		try {
+			Velocity.getTemplate(vmFilePath).merge(this.velocityContext, bw);
+		} finally {
+			StageTimer.end(StageTimer.TEMPLATE);
+		}
+	}
+	
+	/** 画像のエントリを追加して出力
+	 * 差分出力時は前回のePubに元画像と画像パラメータが同じ画像があれば変換せずに圧縮済みのデータのままコピーする */
+	void writeImageEntry(byte[] bytes, ImageInfo imageInfo) throws IOException
+	{
+		ZipArchiveEntry entry = new ZipArchiveEntry(OPS_PATH+IMAGES_PATH+imageInfo.getOutFileName());
+		if (this.incremental) {
+			String hash = this.getImageHash(bytes, imageInfo);
+			entry.setComment(hash);
+			if (this.prevEpub != null) {
+				RawZipFile.Entry prevEntry = this.prevEpub.getEntry(entry.getName());
+				//STOREDとDEFLATED以外は出力できないので変換する
+				if (prevEntry != null && hash.equals(prevEntry.getComment())
+					&& (prevEntry.getMethod() == ZipArchiveOutputStream.STORED || prevEntry.getMethod() == ZipArchiveOutputStream.DEFLATED)) {
+					zos.addRawArchiveEntry(this.prevEpub.createArchiveEntry(prevEntry), this.prevEpub.readRaw(prevEntry));
+					this.reusedImageCount++;
+					return;
+				}
+			}
+		}
+		zos.putArchiveEntry(entry);
+		ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+		this.writeImage(bais, zos, imageInfo);
+		bais.close();
+		zos.closeArchiveEntry();
+	}
+	
+	/** 差分出力用の画像のハッシュ 元画像と画像パラメータと回転角から生成 */
+	String getImageHash(byte[] bytes, ImageInfo imageInfo)
+	{
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(bytes);
+			md.update((this.imageParamKey+","+imageInfo.rotateAngle).getBytes("UTF-8"));
+			StringBuilder buf = new StringBuilder("sha1:");
+			for (byte b : md.digest()) buf.append(Character.forDigit((b>>4)&0xF, 16)).append(Character.forDigit(b&0xF, 16));
+			return buf.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 	
@@ -1049,8 +1194,13 @@ public class Epub3Writer
 		//ePub3変換して出力
 		//改ページ時にnextSection() を、画像出力時にgetImageFilePath() 呼び出し
 		converter.vertical = bookInfo.vertical;
-		converter.convertTextToEpub3(bw, src, bookInfo);
-		bw.flush();
+		StageTimer.begin(StageTimer.CONVERT_TEXT);
+		try {
+			converter.convertTextToEpub3(bw, src, bookInfo);
+			bw.flush();
+		} finally {
+			StageTimer.end(StageTimer.CONVERT_TEXT);
+		}
 		
 		this.endSection();
 	}
@@ -1103,7 +1253,7 @@ public class Epub3Writer
 		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
 		//出力開始するセクションに対応したSectionInfoを設定
 		this.velocityContext.put("sectionInfo", sectionInfo);
-		Velocity.mergeTemplate(this.templatePath+OPS_PATH+XHTML_PATH+XHTML_HEADER_VM, "UTF-8", velocityContext, bw);
+		this.mergeTemplate(this.templatePath+OPS_PATH+XHTML_PATH+XHTML_HEADER_VM, bw);
 		bw.flush();
 	}
 	/** セクション終了. 
@@ -1112,7 +1262,7 @@ public class Epub3Writer
 	{
 		//フッタ出力
 		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"));
-		Velocity.mergeTemplate(this.templatePath+OPS_PATH+XHTML_PATH+XHTML_FOOTER_VM, "UTF-8", velocityContext, bw);
+		this.mergeTemplate(this.templatePath+OPS_PATH+XHTML_PATH+XHTML_FOOTER_VM, bw);
 		bw.flush();
 		
 		this.zos.closeArchiveEntry();
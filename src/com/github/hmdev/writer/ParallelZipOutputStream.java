@@ -0,0 +1,339 @@
+package com.github.hmdev.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+/** エントリの圧縮を別スレッドで行うZip出力Stream
+ * エントリの内容はバッファに溜めて、closeArchiveEntry()で共有のスレッドプールで圧縮とCRC計算を行う
+ * 圧縮済みのエントリはputArchiveEntry()された順番で出力する (mimetypeはSTOREDで先頭)
+ * CRCとサイズはローカルヘッダに書くのでデータディスクリプタは出力しない
+ * commons-compress 1.0は圧縮済みのデータを追加できないので、ヘッダと中央ディレクトリはこのクラスで出力する
+ * ファイル名はUTF-8で、ASCII以外を含む場合は言語エンコーディングフラグを設定する */
+public class ParallelZipOutputStream extends ZipArchiveOutputStream
+{
+	/** 圧縮待ちのエントリの最大数 超えたら先頭の出力を待つ */
+	final static int MAX_PENDING = 64;
+	
+	/** 圧縮用の共有スレッドプール 最初の利用時に生成 */
+	static ExecutorService executor = null;
+	
+	static synchronized ExecutorService getExecutor()
+	{
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "ZipDeflater");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+	
+	/** 圧縮済みのエントリ */
+	static class DeflatedEntry implements Callable<DeflatedEntry>
+	{
+		ZipArchiveEntry entry;
+		byte[] data;
+		int length;
+		/** 出力したローカルヘッダの位置 */
+		long offset;
+		DeflatedEntry(ZipArchiveEntry entry, byte[] data, int length)
+		{
+			this.entry = entry;
+			this.data = data;
+			this.length = length;
+		}
+		/** 圧縮済みのデータをそのまま出力待ちにする場合に利用 */
+		public DeflatedEntry call()
+		{
+			return this;
+		}
+	}
+	
+	/** 内部配列を参照できるバッファ */
+	static class EntryBuffer extends ByteArrayOutputStream
+	{
+		EntryBuffer(int size) { super(size); }
+		byte[] getBuffer() { return this.buf; }
+	}
+	
+	/** 出力先 */
+	OutputStream out;
+	/** 出力したバイト数 */
+	long written = 0;
+	
+	int level = Deflater.DEFAULT_COMPRESSION;
+	int method = DEFLATED;
+	
+	/** 出力中のエントリ */
+	ZipArchiveEntry entry = null;
+	/** 出力中のエントリの内容 */
+	EntryBuffer entryBuffer = null;
+	
+	/** 出力順の圧縮処理 */
+	LinkedList<Future<DeflatedEntry>> pending = new LinkedList<Future<DeflatedEntry>>();
+	/** 出力済みのエントリ 中央ディレクトリ用 */
+	Vector<DeflatedEntry> entries = new Vector<DeflatedEntry>();
+	
+	boolean closed = false;
+	
+	public ParallelZipOutputStream(OutputStream out)
+	{
+		super(out);
+		this.out = out;
+		//親クラスのDeflaterは使わない
+		this.def.end();
+	}
+	
+	@Override
+	public void setLevel(int level)
+	{
+		this.level = level;
+	}
+	
+	@Override
+	public void setMethod(int method)
+	{
+		this.method = method;
+	}
+	
+	@Override
+	public void putArchiveEntry(ArchiveEntry archiveEntry) throws IOException
+	{
+		if (this.entry != null) this.closeArchiveEntry();
+		this.entry = (ZipArchiveEntry)archiveEntry;
+		if (this.entry.getMethod() == -1) this.entry.setMethod(this.method);
+		if (this.entry.getTime() == -1) this.entry.setTime(System.currentTimeMillis());
+		this.entryBuffer = new EntryBuffer(8192);
+	}
+	
+	@Override
+	public void write(byte[] b, int offset, int length) throws IOException
+	{
+		this.entryBuffer.write(b, offset, length);
+	}
+	
+	/** 出力中のエントリを圧縮待ちに追加 圧縮が終わっている先頭のエントリは出力する */
+	@Override
+	public void closeArchiveEntry() throws IOException
+	{
+		if (this.entry == null) return;
+		final ZipArchiveEntry entry = this.entry;
+		final EntryBuffer entryBuffer = this.entryBuffer;
+		final int level = this.level;
+		this.entry = null;
+		this.entryBuffer = null;
+		this.pending.add(getExecutor().submit(new Callable<DeflatedEntry>() {
+			public DeflatedEntry call()
+			{
+				return deflate(entry, entryBuffer.getBuffer(), entryBuffer.size(), level);
+			}
+		}));
+		this.writePending(false);
+		//圧縮が追いつかない場合は待つ
+		while (this.pending.size() > MAX_PENDING) this.writeFirst();
+	}
+	
+	/** 圧縮済みのデータをそのままエントリとして追加
+	 * 差分出力で前回のePubのエントリを展開と再圧縮をせずにコピーする
+	 * @param entry 圧縮方法,CRC,サイズ,圧縮後のサイズを設定済みのエントリ
+	 * @param data 圧縮済みのデータ */
+	public void addRawArchiveEntry(ZipArchiveEntry entry, byte[] data) throws IOException
+	{
+		if (this.entry != null) this.closeArchiveEntry();
+		if (entry.getTime() == -1) entry.setTime(System.currentTimeMillis());
+		//圧縮済みのエントリと同じ順番で出力
+		FutureTask<DeflatedEntry> task = new FutureTask<DeflatedEntry>(new DeflatedEntry(entry, data, data.length));
+		task.run();
+		this.pending.add(task);
+		this.writePending(false);
+		while (this.pending.size() > MAX_PENDING) this.writeFirst();
+	}
+	
+	/** CRCとサイズを設定して圧縮 STOREDならそのまま */
+	static DeflatedEntry deflate(ZipArchiveEntry entry, byte[] data, int length, int level)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		entry.setCrc(crc.getValue());
+		entry.setSize(length);
+		if (entry.getMethod() == STORED) {
+			entry.setCompressedSize(length);
+			return new DeflatedEntry(entry, data, length);
+		}
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			EntryBuffer deflated = new EntryBuffer(Math.max(64, length/2));
+			byte[] buf = new byte[Math.min(65536, Math.max(512, length))];
+			while (!deflater.finished()) {
+				int len = deflater.deflate(buf);
+				deflated.write(buf, 0, len);
+			}
+			entry.setCompressedSize(deflated.size());
+			return new DeflatedEntry(entry, deflated.getBuffer(), deflated.size());
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/** 圧縮待ちのエントリを順番に出力
+	 * @param wait trueならすべて圧縮されるまで待つ falseなら圧縮済みの先頭のエントリのみ出力 */
+	void writePending(boolean wait) throws IOException
+	{
+		while (this.pending.size() > 0 && (wait || this.pending.getFirst().isDone())) this.writeFirst();
+	}
+	
+	/** 先頭のエントリの圧縮を待って出力 */
+	void writeFirst() throws IOException
+	{
+		Future<DeflatedEntry> future = this.pending.removeFirst();
+		DeflatedEntry deflated;
+		try {
+			deflated = future.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		deflated.offset = this.written;
+		this.writeLocalFileHeader(deflated.entry);
+		this.writeBytes(deflated.data, 0, deflated.length);
+		//中央ディレクトリ出力まで保持しないように解放
+		deflated.data = null;
+		this.entries.add(deflated);
+	}
+	
+	@Override
+	protected void writeLocalFileHeader(ZipArchiveEntry entry) throws IOException
+	{
+		byte[] name = entry.getName().getBytes("UTF-8");
+		this.writeInt(0x04034b50);
+		this.writeShort(entry.getMethod() == STORED ? 10 : 20);
+		this.writeShort(isAscii(name) ? 0 : EFS_FLAG);
+		this.writeShort(entry.getMethod());
+		this.writeBytes(ZipUtil.toDosTime(new Date(entry.getTime())).getBytes(), 0, 4);
+		this.writeInt(entry.getCrc());
+		this.writeInt(entry.getCompressedSize());
+		this.writeInt(entry.getSize());
+		this.writeShort(name.length);
+		this.writeShort(0);
+		this.writeBytes(name, 0, name.length);
+	}
+	
+	/** CRCとサイズはローカルヘッダに書くので出力しない */
+	@Override
+	protected void writeDataDescriptor(ZipArchiveEntry entry) throws IOException
+	{
+	}
+	
+	/** 中央ディレクトリのヘッダを出力 差分出力で利用するのでコメントも出力する */
+	void writeCentralFileHeader(DeflatedEntry deflated) throws IOException
+	{
+		ZipArchiveEntry entry = deflated.entry;
+		byte[] name = entry.getName().getBytes("UTF-8");
+		byte[] comment = entry.getComment() == null ? new byte[0] : entry.getComment().getBytes("UTF-8");
+		this.writeInt(0x02014b50);
+		this.writeShort(20);
+		this.writeShort(entry.getMethod() == STORED ? 10 : 20);
+		this.writeShort(isAscii(name) && isAscii(comment) ? 0 : EFS_FLAG);
+		this.writeShort(entry.getMethod());
+		this.writeBytes(ZipUtil.toDosTime(new Date(entry.getTime())).getBytes(), 0, 4);
+		this.writeInt(entry.getCrc());
+		this.writeInt(entry.getCompressedSize());
+		this.writeInt(entry.getSize());
+		this.writeShort(name.length);
+		this.writeShort(0);
+		this.writeShort(comment.length);
+		this.writeShort(0);
+		this.writeShort(entry.getInternalAttributes());
+		this.writeInt(entry.getExternalAttributes());
+		this.writeInt(deflated.offset);
+		this.writeBytes(name, 0, name.length);
+		this.writeBytes(comment, 0, comment.length);
+	}
+	
+	/** 残りのエントリを出力して中央ディレクトリを出力 */
+	@Override
+	public void finish() throws IOException
+	{
+		if (this.closed) return;
+		this.closeArchiveEntry();
+		this.writePending(true);
+		long cdOffset = this.written;
+		for (DeflatedEntry deflated : this.entries) this.writeCentralFileHeader(deflated);
+		long cdLength = this.written-cdOffset;
+		this.writeInt(0x06054b50);
+		this.writeShort(0);
+		this.writeShort(0);
+		this.writeShort(this.entries.size());
+		this.writeShort(this.entries.size());
+		this.writeInt(cdLength);
+		this.writeInt(cdOffset);
+		this.writeShort(0);
+		this.entries.clear();
+		this.closed = true;
+	}
+	
+	@Override
+	public void flush() throws IOException
+	{
+		this.out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		try {
+			this.finish();
+		} finally {
+			this.pending.clear();
+			this.out.close();
+		}
+	}
+	
+	void writeBytes(byte[] b, int offset, int length) throws IOException
+	{
+		this.out.write(b, offset, length);
+		this.written += length;
+	}
+	void writeShort(int value) throws IOException
+	{
+		this.out.write(value & 0xFF);
+		this.out.write((value >> 8) & 0xFF);
+		this.written += 2;
+	}
+	void writeInt(long value) throws IOException
+	{
+		this.writeShort((int)(value & 0xFFFF));
+		this.writeShort((int)((value >> 16) & 0xFFFF));
+	}
+	
+	static boolean isAscii(byte[] b)
+	{
+		for (byte c : b) if (c < 0) return false;
+		return true;
+	}
+}
@@ -0,0 +1,154 @@
+package com.github.hmdev.writer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.zip.ZipException;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+/** 圧縮済みのデータのままエントリを読み込むZipファイル
+ * 差分出力で前回のePubの画像を展開と再圧縮をせずにコピーするために利用する
+ * 中央ディレクトリからエントリのCRC,サイズ,コメントとローカルヘッダの位置を取得する
+ * (java.util.zip.ZipFileとcommons-compress 1.0では圧縮済みのデータを取得できない)
+ * ZIP64には対応しない */
+public class RawZipFile
+{
+	/** 終端レコードの最小サイズ */
+	final static int END_SIZE = 22;
+	
+	/** 中央ディレクトリのエントリ */
+	public static class Entry
+	{
+		String name;
+		int method;
+		long time;
+		long crc;
+		long compressedSize;
+		long size;
+		String comment;
+		/** ローカルヘッダの位置 */
+		long offset;
+		
+		public String getName() { return this.name; }
+		public int getMethod() { return this.method; }
+		public String getComment() { return this.comment; }
+		public long getCompressedSize() { return this.compressedSize; }
+	}
+	
+	RandomAccessFile raf;
+	
+	/** key=エントリ名 */
+	HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	
+	public RawZipFile(File file) throws IOException
+	{
+		this.raf = new RandomAccessFile(file, "r");
+		try {
+			this.readCentralDirectory();
+		} catch (IOException e) {
+			this.raf.close();
+			throw e;
+		}
+	}
+	
+	/** 終端レコードを末尾から検索して中央ディレクトリを読み込む */
+	private void readCentralDirectory() throws IOException
+	{
+		long length = this.raf.length();
+		if (length < END_SIZE) throw new ZipException("zip END header not found");
+		//終端レコードの後ろのコメントは最大65535バイト
+		int tailLength = (int)Math.min(length, END_SIZE+65535);
+		byte[] tail = new byte[tailLength];
+		this.raf.seek(length-tailLength);
+		this.raf.readFully(tail);
+		int end = -1;
+		for (int i=tailLength-END_SIZE; i>=0; i--) {
+			if (getInt(tail, i) == 0x06054b50L) { end = i; break; }
+		}
+		if (end == -1) throw new ZipException("zip END header not found");
+		int count = getShort(tail, end+10);
+		long cdLength = getInt(tail, end+12);
+		long cdOffset = getInt(tail, end+16);
+		if (cdOffset+cdLength > length-tailLength+end) throw new ZipException("invalid central directory");
+		
+		byte[] cd = new byte[(int)cdLength];
+		this.raf.seek(cdOffset);
+		this.raf.readFully(cd);
+		int pos = 0;
+		for (int i=0; i<count; i++) {
+			if (pos+46 > cd.length || getInt(cd, pos) != 0x02014b50L) throw new ZipException("invalid central directory");
+			int flag = getShort(cd, pos+8);
+			Entry entry = new Entry();
+			entry.method = getShort(cd, pos+10);
+			entry.time = ZipUtil.dosToJavaTime(getInt(cd, pos+12));
+			entry.crc = getInt(cd, pos+16);
+			entry.compressedSize = getInt(cd, pos+20);
+			entry.size = getInt(cd, pos+24);
+			int nameLength = getShort(cd, pos+28);
+			int extraLength = getShort(cd, pos+30);
+			int commentLength = getShort(cd, pos+32);
+			entry.offset = getInt(cd, pos+42);
+			pos += 46;
+			if (pos+nameLength+extraLength+commentLength > cd.length) throw new ZipException("invalid central directory");
+			//言語エンコーディングフラグがなければMS932
+			String encoding = (flag & ZipArchiveOutputStream.EFS_FLAG) != 0 ? "UTF-8" : "MS932";
+			entry.name = new String(cd, pos, nameLength, encoding);
+			pos += nameLength+extraLength;
+			entry.comment = commentLength == 0 ? null : new String(cd, pos, commentLength, encoding);
+			pos += commentLength;
+			this.entries.put(entry.name, entry);
+		}
+	}
+	
+	/** エントリを取得 なければnull */
+	public Entry getEntry(String name)
+	{
+		return this.entries.get(name);
+	}
+	
+	/** 圧縮済みのデータを読み込む */
+	public byte[] readRaw(Entry entry) throws IOException
+	{
+		byte[] header = new byte[30];
+		this.raf.seek(entry.offset);
+		this.raf.readFully(header);
+		if (getInt(header, 0) != 0x04034b50L) throw new ZipException("invalid local header: "+entry.name);
+		//ローカルヘッダの拡張フィールドは中央ディレクトリと異なる場合がある
+		long dataOffset = entry.offset+30+getShort(header, 26)+getShort(header, 28);
+		byte[] data = new byte[(int)entry.compressedSize];
+		this.raf.seek(dataOffset);
+		this.raf.readFully(data);
+		return data;
+	}
+	
+	/** 圧縮済みのデータのままコピーするためのエントリを生成 CRCとサイズと圧縮方法を設定する */
+	public ZipArchiveEntry createArchiveEntry(Entry entry)
+	{
+		ZipArchiveEntry archiveEntry = new ZipArchiveEntry(entry.name);
+		archiveEntry.setMethod(entry.method);
+		archiveEntry.setTime(entry.time);
+		archiveEntry.setCrc(entry.crc);
+		archiveEntry.setCompressedSize(entry.compressedSize);
+		archiveEntry.setSize(entry.size);
+		if (entry.comment != null) archiveEntry.setComment(entry.comment);
+		return archiveEntry;
+	}
+	
+	public void close() throws IOException
+	{
+		this.raf.close();
+	}
+	
+	static private int getShort(byte[] b, int offset)
+	{
+		return (b[offset] & 0xFF) | (b[offset+1] & 0xFF) << 8;
+	}
+	static private long getInt(byte[] b, int offset)
+	{
+		return (getShort(b, offset) | (long)getShort(b, offset+2) << 16);
+	}
+}
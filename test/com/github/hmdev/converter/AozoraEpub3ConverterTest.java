@@ -3,8 +3,12 @@ package com.github.hmdev.converter;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.github.hmdev.info.BookInfo;
@@ -14,20 +18,27 @@ public class AozoraEpub3ConverterTest
 {
 	static AozoraEpub3Converter converter;
 	
-	@Test
-	public void test()
+	/** テストの実行順に関わらず最初に変換クラスを生成 */
+	@BeforeClass
+	static public void setUp()
 	{
 		Epub3Writer writer = new Epub3Writer("");
 		try {
 			converter = new AozoraEpub3Converter(writer, "");
 			converter.writer = new TestEpub3Writer("");
-			converter.bookInfo = new BookInfo(null);
+			converter.context.bookInfo = new BookInfo(null);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
-	class TestEpub3Writer extends Epub3Writer
+	@Test
+	public void test()
+	{
+		Assert.assertNotNull(converter);
+	}
+	
+	static class TestEpub3Writer extends Epub3Writer
 	{
 		public TestEpub3Writer(String templatePath)
 		{
@@ -92,6 +103,34 @@ public class AozoraEpub3ConverterTest
 		}
 	}
 	
+	/** convertTextToEpub3()を経由しない行の変換 見出し行のカーソルがなくても変換できる */
+	@Test
+	public void testConvertTextLineWithoutCursor() throws IOException
+	{
+		BookInfo bookInfo = converter.context.bookInfo;
+		try {
+			converter.context.bookInfo = new BookInfo(null);
+			converter.context.chapterLineCursor = null;
+			StringWriter sw = new StringWriter();
+			BufferedWriter bw = new BufferedWriter(sw);
+			converter.convertTextLineToEpub3(bw, "本文", 0, false, false);
+			bw.close();
+			Assert.assertTrue(sw.toString(), sw.toString().contains("本文"));
+			
+			//BookInfoもない場合は見出しなし
+			converter.context.bookInfo = null;
+			converter.context.chapterLineCursor = null;
+			sw = new StringWriter();
+			bw = new BufferedWriter(sw);
+			converter.convertTextLineToEpub3(bw, "本文", 1, false, false);
+			bw.close();
+			Assert.assertTrue(sw.toString(), sw.toString().contains("本文"));
+		} finally {
+			converter.context.bookInfo = bookInfo;
+			converter.context.chapterLineCursor = null;
+		}
+	}
+	
 	@Test
 	public void testConvertRubyText()
 	{
@@ -115,6 +154,46 @@ public class AozoraEpub3ConverterTest
 		}
 	}
 	
+	/** 縦書きで正立のタグで括られた文字を含む置換前文字列は置換しない
+	 * 共有の変換テーブルは変更せずに置換文字列のみ差し替えた変換テーブルで変換 */
+	@Test
+	public void testReplaceTrieVertical() throws IOException
+	{
+		ReplaceTrie trie = new ReplaceTrie();
+		trie.put("★★★", "＊");
+		trie.put("。」", "」");
+		AozoraEpub3Converter replaceConverter = new AozoraEpub3Converter(converter.writer, new ConversionTables(converter.tables, trie));
+		replaceConverter.context.bookInfo = new BookInfo(null);
+		replaceConverter.vertical = true;
+		String str = replaceConverter.convertRubyText("★★★です。」").toString();
+		Assert.assertFalse(str, str.contains("＊"));
+		Assert.assertTrue(str, str.endsWith("です」"));
+		Assert.assertEquals(str, str.split("<span", -1).length, str.split("</span>", -1).length);
+		//横書きならそのまま出力されるので置換
+		replaceConverter.vertical = false;
+		str = replaceConverter.convertRubyText("★★★です※《。」").toString();
+		Assert.assertEquals("＊です《」", str);
+		str = replaceConverter.convertRubyText("★★★です。※》").toString();
+		Assert.assertEquals("＊です。》", str);
+		//共有の変換テーブルは変更されない
+		Assert.assertNotSame(trie, converter.tables.getReplaceTrie());
+	}
+	
+	/** 共有の変換テーブルは変更できない */
+	@Test
+	public void testTablesUnmodifiable()
+	{
+		try {
+			converter.tables.getChukiMap().put("テスト", new String[]{""});
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {}
+		try {
+			converter.tables.getChukiFlagPageBreak().add("テスト");
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {}
+		Assert.assertFalse(converter.tables.getChukiMap().containsKey("テスト"));
+	}
+	
 	@Test
 	public void testConvertGaijiChuki()
 	{
@@ -145,6 +224,21 @@ public class AozoraEpub3ConverterTest
 		}
 	}
 	
+	/** 外字注記の変換結果は同じ変換テーブルを使う変換処理で共有 */
+	@Test
+	public void testGaijiCacheShared() throws IOException
+	{
+		AozoraEpub3Converter other = new AozoraEpub3Converter(new Epub3Writer(""), "");
+		Assert.assertSame(converter.tables, other.tables);
+		String chuki = "※［＃「葛の異体字」、U+845b］";
+		Assert.assertEquals("葛", converter.convertGaijiChuki(chuki, true, true));
+		Assert.assertEquals("葛", converter.tables.getGaijiCache().get(chuki));
+		Assert.assertEquals("葛", other.convertGaijiChuki(chuki, true, true));
+		//変換できない外字は保持しない
+		converter.convertGaijiChuki("※［＃存在しない外字］", true, true);
+		Assert.assertNull(converter.tables.getGaijiCache().get("※［＃存在しない外字］"));
+	}
+	
 	@Test
 	public void testReplaceChukiSufTag()
 	{
@@ -226,6 +320,57 @@ public class AozoraEpub3ConverterTest
 		}
 	}
 	
+	/** 前方参照注記の検索を以前の正規表現と比較 */
+	@Test
+	public void testFindChukiSuf()
+	{
+		Pattern chukiSufPattern = Pattern.compile("［＃「([^］]+)」([^」|^］]+)］");
+		Pattern chukiSufPattern2 = Pattern.compile("［＃「([^］]+)」([^」|^］]*「[^」|^］]+」[^」|^］]*)］");
+		int[] groups = new int[6];
+		
+		String line = "第32［＃「32」は縦中横］図［＃「第32［＃「32」は縦中横］図」は太字］";
+		Assert.assertTrue(AozoraEpub3Converter.findChukiSuf(line, 0, false, groups));
+		Assert.assertEquals("32", line.substring(groups[2], groups[3]));
+		Assert.assertEquals("は縦中横", line.substring(groups[4], groups[5]));
+		//2つ目は注記内の］で終わるので、○○の後の」は内側の注記の」
+		Assert.assertTrue(AozoraEpub3Converter.findChukiSuf(line, groups[1], false, groups));
+		Assert.assertEquals("第32［＃「32", line.substring(groups[2], groups[3]));
+		
+		line = "勝安房守［＃「勝安房守」に「本ト麟太郎」の注記］";
+		Assert.assertTrue(AozoraEpub3Converter.findChukiSuf(line, 0, true, groups));
+		Assert.assertEquals("勝安房守", line.substring(groups[2], groups[3]));
+		Assert.assertEquals("に「本ト麟太郎」の注記", line.substring(groups[4], groups[5]));
+		Assert.assertTrue(AozoraEpub3Converter.findChukiSuf(line, 0, false, groups));
+		Assert.assertEquals("勝安房守」に「本ト麟太郎", line.substring(groups[2], groups[3]));
+		
+		String chars = "［＃「」］|^あ";
+		Random random = new Random(1);
+		for (int n=0; n<50000; n++) {
+			StringBuilder buf = new StringBuilder();
+			int length = random.nextInt(30);
+			for (int i=0; i<length; i++) buf.append(chars.charAt(random.nextInt(chars.length())));
+			if (random.nextBoolean()) buf.insert(random.nextInt(buf.length()+1), "［＃「");
+			line = buf.toString();
+			for (int p=0; p<2; p++) {
+				boolean twoQuotes = p == 1;
+				Matcher m = (twoQuotes ? chukiSufPattern2 : chukiSufPattern).matcher(line);
+				int fromIndex = 0;
+				while (true) {
+					boolean found = m.find();
+					Assert.assertEquals(line, found, AozoraEpub3Converter.findChukiSuf(line, fromIndex, twoQuotes, groups));
+					if (!found) break;
+					Assert.assertEquals(line, m.start(), groups[0]);
+					Assert.assertEquals(line, m.end(), groups[1]);
+					Assert.assertEquals(line, m.start(1), groups[2]);
+					Assert.assertEquals(line, m.end(1), groups[3]);
+					Assert.assertEquals(line, m.start(2), groups[4]);
+					Assert.assertEquals(line, m.end(2), groups[5]);
+					fromIndex = groups[1];
+				}
+			}
+		}
+	}
+	
 	@Test
 	public void testCheckTcyPrev()
 	{
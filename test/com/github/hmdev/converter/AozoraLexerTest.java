@@ -0,0 +1,138 @@
+package com.github.hmdev.converter;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AozoraLexerTest
+{
+	final static Pattern chukiPattern = Pattern.compile("(［＃.+?］)|(<.+?>)");
+	final static Pattern gaijiPattern = Pattern.compile("(※［＃.+?］)|(〔.+?〕)|(／″?＼)");
+	
+	/** 字句を 種類:開始-終了/深さ の文字列で取得 */
+	static String tokens(AozoraLexer lexer)
+	{
+		StringBuilder buf = new StringBuilder();
+		for (int t=0; t<lexer.count(); t++) {
+			if (t > 0) buf.append(' ');
+			buf.append(lexer.type(t)).append(':').append(lexer.start(t)).append('-').append(lexer.end(t)).append('/').append(lexer.depth(t));
+		}
+		return buf.toString();
+	}
+	
+	/** 正規表現で先頭から検索した場合の位置 */
+	static String matches(Pattern pattern, String line)
+	{
+		StringBuilder buf = new StringBuilder();
+		Matcher m = pattern.matcher(line);
+		while (m.find()) {
+			if (buf.length() > 0) buf.append(' ');
+			buf.append(m.start()).append('-').append(m.end());
+		}
+		return buf.toString();
+	}
+	
+	static String positions(AozoraLexer lexer)
+	{
+		StringBuilder buf = new StringBuilder();
+		for (int t=0; t<lexer.count(); t++) {
+			if (t > 0) buf.append(' ');
+			buf.append(lexer.start(t)).append('-').append(lexer.end(t));
+		}
+		return buf.toString();
+	}
+	
+	@Test
+	public void testChuki()
+	{
+		AozoraLexer lexer = new AozoraLexer();
+		lexer.lex("あ［＃太字］い<b>う</b>", AozoraLexer.MASK_CHUKI);
+		Assert.assertEquals("0:1-6/0 1:7-10/0 1:11-15/0", tokens(lexer));
+		Assert.assertTrue(lexer.contains(AozoraLexer.CHUKI));
+		Assert.assertFalse(lexer.contains(AozoraLexer.GAIJI));
+		Assert.assertEquals(1, lexer.maxDepth());
+		//空の注記とタグは対象外
+		lexer.lex("［＃］<>", AozoraLexer.MASK_CHUKI);
+		Assert.assertEquals(0, lexer.count());
+		//閉じていない注記
+		lexer.lex("［＃太字", AozoraLexer.MASK_CHUKI);
+		Assert.assertEquals(0, lexer.count());
+	}
+	
+	/** 注記内の注記 正規表現と同じく最初の］までを注記とし、深さを取得 */
+	@Test
+	public void testNested()
+	{
+		AozoraLexer lexer = new AozoraLexer();
+		String line = "第32［＃「32」は縦中横］図［＃「第32［＃「32」は縦中横］図」は太字］";
+		lexer.lex(line, AozoraLexer.MASK_CHUKI);
+		Assert.assertEquals(matches(chukiPattern, line), positions(lexer));
+		Assert.assertEquals(2, lexer.maxDepth());
+		
+		lexer.lex(line, AozoraLexer.MASK_BRACKET);
+		Assert.assertEquals("8:3-5/0 9:13-14/1 8:15-17/0 8:21-23/1 9:31-32/2 9:37-38/1", tokens(lexer));
+		
+		//注記内の外字注記は深さ1
+		line = "勝安房守［＃「勝安房守」に「本ト麟太郎※［＃コト、1-2-24］」の注記］";
+		lexer.lex(line, AozoraLexer.MASK_GAIJI);
+		Assert.assertEquals(1, lexer.count());
+		Assert.assertEquals(AozoraLexer.GAIJI, lexer.type(0));
+		Assert.assertEquals("※［＃コト、1-2-24］", line.substring(lexer.start(0), lexer.end(0)));
+		Assert.assertEquals(1, lexer.depth(0));
+		
+		//外字注記内の注記
+		line = "※［＃（外字.tif）［＃注記］］";
+		lexer.lex(line, AozoraLexer.MASK_GAIJI);
+		Assert.assertEquals(matches(gaijiPattern, line), positions(lexer));
+		Assert.assertEquals(0, lexer.depth(0));
+		Assert.assertEquals(2, lexer.maxDepth());
+	}
+	
+	/** ※でエスケープされたルビ記号も位置を取得 外字注記とアクセント分解は重なって取得 */
+	@Test
+	public void testEscaped()
+	{
+		AozoraLexer lexer = new AozoraLexer();
+		String line = "※｜縦線《たてせん》※《";
+		lexer.lex(line, AozoraLexer.MASK_RUBY);
+		Assert.assertEquals("5:1-2/0 6:4-5/0 7:9-10/0 6:11-12/0", tokens(lexer));
+		
+		line = "〔※［＃米印］〕／＼／″＼";
+		lexer.lex(line, AozoraLexer.MASK_GAIJI);
+		Assert.assertEquals(matches(gaijiPattern, line), positions(lexer));
+		Assert.assertEquals("3:0-8/0 4:8-10/0 4:10-13/0", tokens(lexer));
+		
+		//種類の組毎に独立して検索するので〔〕内の注記も取得
+		line = "〔［＃注記］〕";
+		lexer.lex(line, AozoraLexer.MASK_CHUKI | AozoraLexer.MASK_GAIJI);
+		Assert.assertEquals("3:0-7/0 0:1-6/0", tokens(lexer));
+		
+		//改行を含む注記は対象外
+		line = "［＃太\n字］<a\rb>";
+		lexer.lex(line, AozoraLexer.MASK_CHUKI);
+		Assert.assertEquals(matches(chukiPattern, line), positions(lexer));
+		Assert.assertEquals(0, lexer.count());
+	}
+	
+	/** ランダムな行を正規表現の結果と比較 */
+	@Test
+	public void testRandom()
+	{
+		String chars = "［＃］<>※〔〕／″＼｜《》あ\n";
+		Random random = new Random(1);
+		AozoraLexer lexer = new AozoraLexer();
+		for (int n=0; n<20000; n++) {
+			StringBuilder buf = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int i=0; i<length; i++) buf.append(chars.charAt(random.nextInt(chars.length())));
+			String line = buf.toString();
+			lexer.lex(line, AozoraLexer.MASK_CHUKI);
+			Assert.assertEquals(line, matches(chukiPattern, line), positions(lexer));
+			lexer.lex(line, AozoraLexer.MASK_GAIJI);
+			Assert.assertEquals(line, matches(gaijiPattern, line), positions(lexer));
+		}
+	}
+}
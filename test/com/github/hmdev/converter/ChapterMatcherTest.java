@@ -0,0 +1,105 @@
+package com.github.hmdev.converter;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.hmdev.writer.Epub3Writer;
+
+public class ChapterMatcherTest
+{
+	/** 章の数字と章名は変換クラスの初期値を利用 */
+	static AozoraEpub3Converter converter;
+	
+	@BeforeClass
+	static public void setUp() throws IOException
+	{
+		converter = new AozoraEpub3Converter(new Epub3Writer(""), "");
+	}
+	
+	static ChapterMatcher create(boolean auto, Pattern pattern)
+	{
+		return ChapterMatcher.create(converter.chapterNumChar, converter.chapterSeparator,
+				converter.chapterName, converter.chapterNumPrefix, converter.chapterNumSuffix, converter.chapterNumParenPrefix, converter.chapterNumParenSuffix,
+				auto, auto, auto, auto, auto, pattern);
+	}
+	
+	@Test
+	public void testPatternFirstChar()
+	{
+		Assert.assertEquals('第', ChapterMatcher.getPatternFirstChar(Pattern.compile("^第")));
+		Assert.assertEquals('◆', ChapterMatcher.getPatternFirstChar(Pattern.compile("^◆+.*")));
+		Assert.assertEquals('a', ChapterMatcher.getPatternFirstChar(Pattern.compile("^a[0-9]")));
+		//行頭の文字が決まらないパターン
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("第")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^[第章]")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^\\d")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^.章")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^(第|その)")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^第|章$")));
+		//省略可能
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^第?章")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^第*章")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^第{0,1}章")));
+		//フラグ
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^a", Pattern.CASE_INSENSITIVE)));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("(?i)^a")));
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^(?i)a")));
+		//4バイト文字
+		Assert.assertEquals(-1, ChapterMatcher.getPatternFirstChar(Pattern.compile("^𠮟")));
+	}
+	
+	/** 行頭の文字で除外されても、除外されなくてもパターンの結果は同じ */
+	@Test
+	public void testPattern()
+	{
+		ChapterMatcher matcher = create(false, Pattern.compile("^◆.+"));
+		Assert.assertFalse(matcher.patternAnyChar);
+		Assert.assertEquals(ChapterMatcher.MATCH_PATTERN, matcher.match("◆見出し"));
+		Assert.assertEquals(0, matcher.match("◆"));
+		Assert.assertEquals(0, matcher.match("本文◆見出し"));
+		Assert.assertEquals(0, matcher.match(""));
+		
+		//行頭の文字が決まらないパターンは全ての行で判定
+		matcher = create(false, Pattern.compile("◆.+"));
+		Assert.assertTrue(matcher.patternAnyChar);
+		Assert.assertEquals(ChapterMatcher.MATCH_PATTERN, matcher.match("本文◆見出し"));
+		Assert.assertEquals(0, matcher.match(""));
+		
+		//他の規則と組み合わせ
+		matcher = create(true, Pattern.compile("^第.+"));
+		Assert.assertEquals(ChapterMatcher.MATCH_PATTERN|ChapterMatcher.MATCH_NAME, matcher.match("第一章"));
+		Assert.assertEquals(ChapterMatcher.MATCH_PATTERN, matcher.match("第一の本文"));
+		Assert.assertEquals(ChapterMatcher.MATCH_NUM, matcher.match("１　始まり"));
+		Assert.assertEquals(ChapterMatcher.MATCH_NAME, matcher.match("プロローグ"));
+		Assert.assertEquals(ChapterMatcher.MATCH_PAREN, matcher.match("（３）"));
+		Assert.assertEquals(0, matcher.match("本文"));
+		
+		Assert.assertNull(create(false, null));
+	}
+	
+	/** ランダムな行でパターンの判定結果を正規表現と比較 */
+	@Test
+	public void testPatternRandom()
+	{
+		String[] patterns = {"^第", "^第.+章$", "^◆", "^a+b", "^ab|c", "^\\Q第\\E", "^[第]", "^第?章", "第", "^(?i)a"};
+		String chars = "第章◆abcAB一　";
+		Random random = new Random(1);
+		for (String regex : patterns) {
+			Pattern pattern = Pattern.compile(regex);
+			ChapterMatcher matcher = create(false, pattern);
+			for (int n=0; n<2000; n++) {
+				StringBuilder buf = new StringBuilder();
+				int length = random.nextInt(6);
+				for (int i=0; i<length; i++) buf.append(chars.charAt(random.nextInt(chars.length())));
+				String line = buf.toString();
+				Assert.assertEquals(regex+" "+line, pattern.matcher(line).find(), (matcher.match(line) & ChapterMatcher.MATCH_PATTERN) != 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.github.hmdev.converter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplaceTrieTest
+{
+	/** 出力済みの文字列に次の文字を置換しながら追加 */
+	static String replace(ReplaceTrie trie, String src)
+	{
+		char[] ch = src.toCharArray();
+		StringBuilder out = new StringBuilder();
+		for (int i=0; i<ch.length; i++) {
+			int node = trie.match(ch, i, i-1, out);
+			if (node == 0) out.append(ch[i]);
+			else {
+				out.setLength(out.length()-(trie.length(node)-1));
+				out.append(trie.value(node));
+			}
+		}
+		return out.toString();
+	}
+	
+	@Test
+	public void testMatch()
+	{
+		ReplaceTrie trie = new ReplaceTrie();
+		trie.put("－", "—");
+		trie.put("。」", "」");
+		Assert.assertEquals("あ—い」", replace(trie, "あ－い。」"));
+		Assert.assertEquals("」", replace(trie, "」"));
+		Assert.assertEquals("。", replace(trie, "。"));
+	}
+	
+	/** 長い置換前文字列と最長一致 */
+	@Test
+	public void testLongKey()
+	{
+		ReplaceTrie trie = new ReplaceTrie();
+		String key = "";
+		for (int i=0; i<200; i++) key += (char)('あ'+i);
+		trie.put(key, "[long]");
+		trie.put(key.substring(190), "[short]");
+		trie.put("ab", "1");
+		trie.put("zab", "2");
+		Assert.assertEquals("x[long]", replace(trie, "x"+key));
+		Assert.assertEquals("x"+key.substring(1, 190)+"[short]", replace(trie, "x"+key.substring(1)));
+		Assert.assertEquals("x2y1", replace(trie, "xzabyab"));
+		//上書き
+		trie.put("ab", "3");
+		Assert.assertEquals("3", replace(trie, "ab"));
+		Assert.assertEquals(200, trie.length(trie.match(key.toCharArray(), 199, 198, key.substring(0, 199))));
+	}
+	
+	/** 前の文字が置換されていたら長い置換前文字列には一致しない */
+	@Test
+	public void testNotVerbatim()
+	{
+		ReplaceTrie trie = new ReplaceTrie();
+		trie.put("★★★", "＊");
+		trie.put("★★", "☆");
+		char[] ch = "★★★".toCharArray();
+		//前の文字がタグで括られている
+		Assert.assertEquals(0, trie.match(ch, 2, 1, "<span>★</span><span>★</span>"));
+		//1文字前だけそのまま
+		int node = trie.match(ch, 2, 1, "<span>★</span>★");
+		Assert.assertEquals(2, trie.length(node));
+		Assert.assertEquals("☆", trie.value(node));
+		//出力が短い
+		Assert.assertEquals(0, trie.match(ch, 2, 1, ""));
+		Assert.assertEquals("＊", trie.value(trie.match(ch, 2, 1, "★★")));
+	}
+}
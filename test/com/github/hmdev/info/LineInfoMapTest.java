@@ -0,0 +1,131 @@
+package com.github.hmdev.info;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineInfoMapTest
+{
+	@Test
+	public void testPutGet()
+	{
+		LineInfoMap<String> map = new LineInfoMap<String>();
+		//順番通りと前への挿入
+		map.put(10, "10");
+		map.put(20, "20");
+		map.put(5, "5");
+		map.put(15, "15");
+		Assert.assertEquals(4, map.size());
+		Assert.assertEquals(5, map.lineAt(0));
+		Assert.assertEquals(10, map.lineAt(1));
+		Assert.assertEquals(15, map.lineAt(2));
+		Assert.assertEquals(20, map.lineAt(3));
+		Assert.assertEquals("15", map.get(15));
+		Assert.assertEquals("15", map.valueAt(2));
+		//上書き
+		map.put(10, "ten");
+		Assert.assertEquals(4, map.size());
+		Assert.assertEquals("ten", map.get(10));
+		//登録されていない行
+		Assert.assertNull(map.get(11));
+		Assert.assertNull(map.get(0));
+		Assert.assertFalse(map.containsKey(-1));
+		Assert.assertNull(map.get(-1));
+	}
+	
+	@Test
+	public void testPastEnd()
+	{
+		LineInfoMap<String> map = new LineInfoMap<String>();
+		Assert.assertNull(map.get(0));
+		Assert.assertNull(map.get(Integer.MAX_VALUE));
+		map.put(3, "3");
+		//最後の登録行より後ろとBitSetの範囲外
+		Assert.assertNull(map.get(4));
+		Assert.assertNull(map.get(100000));
+		Assert.assertFalse(map.containsKey(Integer.MAX_VALUE));
+		
+		LineInfoMap.Cursor<String> cursor = map.cursor();
+		Assert.assertEquals("3", cursor.get(3));
+		Assert.assertNull(cursor.get(4));
+		Assert.assertNull(cursor.get(100000));
+		Assert.assertNull(cursor.get(Integer.MAX_VALUE));
+		//末尾を超えた後に前の行に戻る
+		Assert.assertEquals("3", cursor.get(3));
+		Assert.assertNull(cursor.get(0));
+	}
+	
+	@Test
+	public void testRemoveClear()
+	{
+		LineInfoMap<String> map = new LineInfoMap<String>();
+		for (int i=0; i<40; i+=2) map.put(i, ""+i);
+		map.remove(10);
+		map.remove(11); //登録なし
+		Assert.assertEquals(19, map.size());
+		Assert.assertNull(map.get(10));
+		Assert.assertEquals("12", map.get(12));
+		map.remove(38); //末尾
+		Assert.assertNull(map.get(38));
+		Assert.assertEquals(36, map.lineAt(map.size()-1));
+		map.clear();
+		Assert.assertEquals(0, map.size());
+		Assert.assertNull(map.get(12));
+	}
+	
+	@Test
+	public void testCursor()
+	{
+		LineInfoMap<String> map = new LineInfoMap<String>();
+		for (int i=0; i<100; i+=3) map.put(i, ""+i);
+		LineInfoMap.Cursor<String> cursor = map.cursor();
+		//昇順
+		for (int i=0; i<100; i++) Assert.assertEquals(map.get(i), cursor.get(i));
+		//前に戻る
+		Assert.assertEquals("30", cursor.get(30));
+		Assert.assertEquals("60", cursor.get(60));
+		//カーソル生成後の変更 現在位置より前に追加と削除
+		map.put(31, "31");
+		map.remove(33);
+		Assert.assertEquals("63", cursor.get(63));
+		Assert.assertEquals("31", cursor.get(31));
+		Assert.assertNull(cursor.get(33));
+		Assert.assertEquals("36", cursor.get(36));
+	}
+	
+	/** TreeMapと同じ操作をして結果を比較 */
+	@Test
+	public void testRandom()
+	{
+		Random random = new Random(1);
+		for (int n=0; n<50; n++) {
+			LineInfoMap<Integer> map = new LineInfoMap<Integer>();
+			TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+			LineInfoMap.Cursor<Integer> cursor = map.cursor();
+			int lineNum = 0;
+			for (int i=0; i<500; i++) {
+				int line = random.nextInt(300);
+				switch (random.nextInt(4)) {
+				case 0: map.put(line, i); expected.put(line, i); break;
+				case 1: map.remove(line); expected.remove(line); break;
+				case 2:
+					//ほぼ昇順でカーソルから参照
+					lineNum = random.nextInt(10) == 0 ? random.nextInt(320) : lineNum+random.nextInt(5);
+					Assert.assertEquals(expected.get(lineNum), cursor.get(lineNum));
+					break;
+				default: Assert.assertEquals(expected.get(line), map.get(line));
+				}
+			}
+			Assert.assertEquals(expected.size(), map.size());
+			int idx = 0;
+			for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+				Assert.assertEquals(entry.getKey().intValue(), map.lineAt(idx));
+				Assert.assertEquals(entry.getValue(), map.valueAt(idx));
+				idx++;
+			}
+		}
+	}
+}
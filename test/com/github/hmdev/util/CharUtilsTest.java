@@ -0,0 +1,120 @@
+package com.github.hmdev.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CharUtilsTest
+{
+	/** 文字種別テーブル導入前の漢字判別 サロゲートペアは前後の文字と合わせた値の範囲で判別 */
+	static boolean isKanjiRange(char[] ch, int i)
+	{
+		switch (ch[i]) {
+		case '゛': case '゜':
+			return (i>0 && ch[i-1]=='〻');
+		case '〓': case '〆': case '々': case '〻':
+			return true;
+		}
+		int pre = i==0?-1:ch[i-1];
+		int c = ch[i];
+		int suf = i+1>=ch.length?-1:ch[i+1];
+		if (0x4E00 <= c && c <= 0x9FFF) return true;
+		if (0xF900 <= c && c <= 0xFAFF) return true;
+		if (0xFE00 <= c && c <= 0xFE0D) return true;
+		if (pre >= 0) {
+			if (0xDB40 == pre && 0xDD00 <= c && c <= 0xDDEF) return true;
+			if (0xD87E == pre && 0xDc00 <= c && c <= 0xDE1F) return true;
+			int code = pre<<16|c&0xFFFF;
+			if (0xD840DC00 <= code && code <= 0xD869DEDF) return true;
+			if (0xD869DF00 <= code && code <= 0xD86EDC1F) return true;
+		}
+		if (suf >= 0) {
+			if (0xDB40 == c && 0xDD00 <= suf && suf <= 0xDDEF) return true;
+			if (0xD87E == c && 0xDc00 <= suf && suf <= 0xDE1F) return true;
+			int code = c<<16|suf&0xFFFF;
+			if (0xD840DC00 <= code && code <= 0xD869DEDF) return true;
+			if (0xD869DF00 <= code && code <= 0xD86EDC1F) return true;
+		}
+		return false;
+	}
+	
+	@Test
+	public void testCharType()
+	{
+		Assert.assertTrue(CharUtils.isNum('5'));
+		Assert.assertFalse(CharUtils.isNum('５'));
+		Assert.assertTrue(CharUtils.isFullNum('５'));
+		Assert.assertTrue(CharUtils.isFullAlpha('５'));
+		Assert.assertTrue(CharUtils.isFullAlpha('＠'));
+		Assert.assertFalse(CharUtils.isHalf(' '));
+		Assert.assertTrue(CharUtils.isHalfSpace(' '));
+		Assert.assertTrue(CharUtils.isAlpha('é'));
+		Assert.assertFalse(CharUtils.isAlpha('1'));
+		Assert.assertTrue(CharUtils.isHiragana('ー'));
+		Assert.assertTrue(CharUtils.isKatakana('ー'));
+		Assert.assertTrue(CharUtils.isKatakana('ㇷ'));
+		Assert.assertFalse(CharUtils.isKatakana('ｱ'));
+		
+		int type = CharUtils.getCharType('゛');
+		Assert.assertTrue((type & CharUtils.HIRAGANA) != 0);
+		Assert.assertTrue((type & CharUtils.KATAKANA) != 0);
+		Assert.assertTrue((type & CharUtils.DAKUTEN) != 0);
+		Assert.assertEquals(CharUtils.KANJI, CharUtils.getCharType('漢'));
+		Assert.assertEquals(CharUtils.SURROGATE, CharUtils.getCharType('\uD840'));
+		Assert.assertEquals(CharUtils.SURROGATE, CharUtils.getCharType('\uDC00'));
+		//VS15は漢字扱いしない
+		Assert.assertEquals(0, CharUtils.getCharType('\uFE0E'));
+	}
+	
+	/** 4バイト文字とIVS 上位と下位のどちらの位置でも判別 */
+	@Test
+	public void testSurrogateKanji()
+	{
+		//U+20B9F 𠮟
+		char[] ch = "\uD842\uDF9Fる".toCharArray();
+		Assert.assertTrue(CharUtils.isKanji(ch, 0));
+		Assert.assertTrue(CharUtils.isKanji(ch, 1));
+		Assert.assertFalse(CharUtils.isKanji(ch, 2));
+		//葛+IVS U+E0100
+		ch = "葛\uDB40\uDD00".toCharArray();
+		Assert.assertTrue(CharUtils.isKanji(ch, 1));
+		Assert.assertTrue(CharUtils.isKanji(ch, 2));
+		//IVSの範囲外 U+E01F0
+		ch = "葛\uDB40\uDDF0".toCharArray();
+		Assert.assertFalse(CharUtils.isKanji(ch, 1));
+		//絵文字 U+1F600
+		ch = "\uD83D\uDE00".toCharArray();
+		Assert.assertFalse(CharUtils.isKanji(ch, 0));
+		Assert.assertFalse(CharUtils.isKanji(ch, 1));
+		//ペアになっていないサロゲートは漢字ではない
+		ch = "\uD840あ\uDC00".toCharArray();
+		Assert.assertFalse(CharUtils.isKanji(ch, 0));
+		Assert.assertFalse(CharUtils.isKanji(ch, 2));
+		ch = "\uD840".toCharArray();
+		Assert.assertFalse(CharUtils.isKanji(ch, 0));
+		//二の字点の後の濁点
+		ch = "〻゛゛".toCharArray();
+		Assert.assertTrue(CharUtils.isKanji(ch, 1));
+		Assert.assertFalse(CharUtils.isKanji(ch, 2));
+	}
+	
+	/** BMPの全文字と全サロゲートペアで以前の判別と比較 */
+	@Test
+	public void testKanjiTable()
+	{
+		char[] ch = new char[3];
+		for (int c=0; c<0x10000; c++) {
+			if (Character.isSurrogate((char)c)) continue;
+			ch[0] = '〻'; ch[1] = (char)c; ch[2] = 'あ';
+			Assert.assertEquals(Integer.toHexString(c), isKanjiRange(ch, 1), CharUtils.isKanji(ch, 1));
+			ch[0] = 'あ';
+			Assert.assertEquals(Integer.toHexString(c), isKanjiRange(ch, 1), CharUtils.isKanji(ch, 1));
+		}
+		ch = new char[4];
+		ch[0] = 'あ'; ch[3] = '漢';
+		for (int code=0x10000; code<=0x10FFFF; code++) {
+			Character.toChars(code, ch, 1);
+			Assert.assertEquals(Integer.toHexString(code), isKanjiRange(ch, 1), CharUtils.isKanji(ch, 1));
+			Assert.assertEquals(Integer.toHexString(code), isKanjiRange(ch, 2), CharUtils.isKanji(ch, 2));
+		}
+	}
+}
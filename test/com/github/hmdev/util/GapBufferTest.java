@@ -0,0 +1,97 @@
+package com.github.hmdev.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GapBufferTest
+{
+	@Test
+	public void testEdit()
+	{
+		GapBuffer buf = new GapBuffer(4);
+		buf.reset("あいうえお");
+		buf.insert(2, "［＃太字］");
+		Assert.assertEquals("あい［＃太字］うえお", buf.toString());
+		//前に戻って編集
+		buf.delete(0, 1);
+		Assert.assertEquals("い［＃太字］うえお", buf.toString());
+		//末尾を超える削除は末尾まで
+		buf.delete(8, 100);
+		Assert.assertEquals("い［＃太字］うえ", buf.toString());
+		buf.insert(buf.length(), "［＃太字終わり］");
+		Assert.assertEquals("い［＃太字］うえ［＃太字終わり］", buf.toString());
+		buf.setCharAt(0, 'イ');
+		Assert.assertEquals('イ', buf.charAt(0));
+		Assert.assertEquals("うえ", buf.substring(6, 8));
+		Assert.assertEquals("うえ", buf.subSequence(6, 8).toString());
+		
+		//再設定で空き領域は末尾
+		buf.reset("");
+		Assert.assertEquals(0, buf.length());
+		buf.insert(0, "a");
+		Assert.assertEquals("a", buf.toString());
+		
+		try {
+			buf.charAt(1);
+			Assert.fail();
+		} catch (StringIndexOutOfBoundsException e) {}
+		try {
+			buf.insert(2, "b");
+			Assert.fail();
+		} catch (StringIndexOutOfBoundsException e) {}
+	}
+	
+	/** 後方参照注記の検索 空き領域をまたぐ文字列と末尾 */
+	@Test
+	public void testIndexOf()
+	{
+		GapBuffer buf = new GapBuffer(8);
+		buf.reset("太字［＃「太字」は太字］太字");
+		//空き領域を途中に移動
+		buf.insert(3, "");
+		buf.delete(5, 5);
+		Assert.assertEquals(2, buf.indexOf("［＃「", 0));
+		Assert.assertEquals(-1, buf.indexOf("［＃「", 3));
+		Assert.assertEquals(5, buf.indexOf("太字」", 1));
+		Assert.assertEquals(9, buf.indexOf("太字", 6));
+		Assert.assertEquals(12, buf.lastIndexOf("太字", buf.length()));
+		Assert.assertEquals(9, buf.lastIndexOf("太字］", 11));
+		Assert.assertEquals(0, buf.lastIndexOf("太字", 3));
+		Assert.assertEquals(-1, buf.lastIndexOf("太字］太字太字", buf.length()));
+		Assert.assertEquals(-1, buf.indexOf("］", 12));
+		Assert.assertEquals(0, buf.indexOf("", -1));
+	}
+	
+	/** StringBuilderと同じ編集をして結果を比較 */
+	@Test
+	public void testRandom()
+	{
+		Random random = new Random(1);
+		GapBuffer buf = new GapBuffer(16);
+		for (int n=0; n<200; n++) {
+			StringBuilder expected = new StringBuilder("［＃「あい」は太字］あい");
+			buf.reset(expected.toString());
+			for (int i=0; i<200; i++) {
+				int offset = random.nextInt(expected.length()+1);
+				switch (random.nextInt(4)) {
+				case 0:
+					String str = "［＃「あ」".substring(0, random.nextInt(6));
+					expected.insert(offset, str); buf.insert(offset, str); break;
+				case 1:
+					int end = offset+random.nextInt(4);
+					expected.delete(offset, Math.min(end, expected.length())); buf.delete(offset, end); break;
+				case 2:
+					Assert.assertEquals(expected.indexOf("「あ", offset), buf.indexOf("「あ", offset));
+					Assert.assertEquals(expected.lastIndexOf("あ」", offset), buf.lastIndexOf("あ」", offset));
+					break;
+				default:
+					if (offset < expected.length()) Assert.assertEquals(expected.charAt(offset), buf.charAt(offset));
+				}
+				Assert.assertEquals(expected.length(), buf.length());
+			}
+			Assert.assertEquals(expected.toString(), buf.toString());
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.github.hmdev.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TextLineStoreTest
+{
+	final static String TEXT = "青空文庫《あおぞらぶんこ》\r\n本文［＃「本文」に傍点］\r\n";
+	
+	static byte[] bytes(String str, String charset) throws IOException
+	{
+		return str.getBytes(charset);
+	}
+	
+	static byte[] concat(byte[]... arrays)
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (byte[] b : arrays) baos.write(b, 0, b.length);
+		return baos.toByteArray();
+	}
+	
+	static String ascii(int length)
+	{
+		StringBuilder buf = new StringBuilder(length);
+		while (buf.length() < length) buf.append("abc 123\r\n");
+		buf.setLength(length);
+		return buf.toString();
+	}
+	
+	static String detect(byte[] b, String encType)
+	{
+		return TextLineStore.detectEncoding(ByteBuffer.wrap(b), encType);
+	}
+	
+	static String read(TextLineStore store) throws IOException
+	{
+		BufferedReader reader = store.getReader();
+		StringBuilder buf = new StringBuilder();
+		char[] ch = new char[8192];
+		int len;
+		while ((len = reader.read(ch)) != -1) buf.append(ch, 0, len);
+		reader.close();
+		return buf.toString();
+	}
+	
+	/** Streamとメモリマップの両方で読み込んで同じ文字列になることを確認 */
+	static String load(byte[] b, String encType) throws IOException
+	{
+		TextLineStore store = new TextLineStore(new ByteArrayInputStream(b), encType);
+		String str = read(store);
+		store.close();
+		
+		File file = File.createTempFile("TextLineStoreTest", ".txt");
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(b);
+			fos.close();
+			store = new TextLineStore(file, encType);
+			Assert.assertEquals(str, read(store));
+			store.close();
+		} finally {
+			file.delete();
+		}
+		return str;
+	}
+	
+	@Test
+	public void testAuto() throws IOException
+	{
+		Assert.assertEquals("UTF-8", detect(bytes(TEXT, "UTF-8"), TextLineStore.AUTO));
+		Assert.assertEquals("MS932", detect(bytes(TEXT, "MS932"), TextLineStore.AUTO));
+		Assert.assertEquals("MS932", detect(bytes(TEXT, "MS932"), "auto"));
+		//指定があればそのまま
+		Assert.assertEquals("MS932", detect(bytes(TEXT, "UTF-8"), "MS932"));
+		Assert.assertEquals("UTF-8", detect(bytes(TEXT, "MS932"), "UTF-8"));
+		//空とASCIIのみはMS932 (どちらでも同じ文字列)
+		Assert.assertEquals("MS932", detect(new byte[0], TextLineStore.AUTO));
+		Assert.assertEquals("MS932", detect(bytes("abc\r\n", "UTF-8"), TextLineStore.AUTO));
+		
+		Assert.assertEquals(TEXT, load(bytes(TEXT, "UTF-8"), TextLineStore.AUTO));
+		Assert.assertEquals(TEXT, load(bytes(TEXT, "MS932"), TextLineStore.AUTO));
+	}
+	
+	/** 先頭はUTF-8としても正しいShift_JIS 半角カナ ﾃｽ はC3 BDでUTF-8の2バイト文字と同じ */
+	@Test
+	public void testShiftJisLikeUtf8() throws IOException
+	{
+		StringBuilder buf = new StringBuilder();
+		for (int i=0; i<1000; i++) buf.append("ﾃｽ");
+		String str = buf.toString()+TEXT;
+		byte[] sjis = bytes(str, "MS932");
+		Assert.assertEquals((byte)0xC3, sjis[0]);
+		Assert.assertEquals((byte)0xBD, sjis[1]);
+		Assert.assertEquals("MS932", detect(sjis, TextLineStore.AUTO));
+		Assert.assertEquals(str, load(sjis, TextLineStore.AUTO));
+		
+		//ASCIIの後ろでも同じ
+		str = ascii(1000)+str;
+		Assert.assertEquals(str, load(bytes(str, "MS932"), TextLineStore.AUTO));
+	}
+	
+	/** BOMがあれば指定に関わらずBOMの文字コード BOMは読み飛ばす */
+	@Test
+	public void testBOM() throws IOException
+	{
+		byte[] utf8 = concat(new byte[]{(byte)0xEF, (byte)0xBB, (byte)0xBF}, bytes(TEXT, "UTF-8"));
+		byte[] utf16be = concat(new byte[]{(byte)0xFE, (byte)0xFF}, bytes(TEXT, "UTF-16BE"));
+		byte[] utf16le = concat(new byte[]{(byte)0xFF, (byte)0xFE}, bytes(TEXT, "UTF-16LE"));
+		for (String encType : new String[]{TextLineStore.AUTO, "MS932", "UTF-8"}) {
+			ByteBuffer bytes = ByteBuffer.wrap(utf8);
+			Assert.assertEquals("UTF-8", TextLineStore.detectEncoding(bytes, encType));
+			Assert.assertEquals(3, bytes.position());
+			bytes = ByteBuffer.wrap(utf16be);
+			Assert.assertEquals("UTF-16BE", TextLineStore.detectEncoding(bytes, encType));
+			Assert.assertEquals(2, bytes.position());
+			bytes = ByteBuffer.wrap(utf16le);
+			Assert.assertEquals("UTF-16LE", TextLineStore.detectEncoding(bytes, encType));
+			Assert.assertEquals(2, bytes.position());
+			
+			Assert.assertEquals(TEXT, load(utf8, encType));
+			Assert.assertEquals(TEXT, load(utf16be, encType));
+			Assert.assertEquals(TEXT, load(utf16le, encType));
+		}
+		//BOMのみ
+		Assert.assertEquals("", load(new byte[]{(byte)0xEF, (byte)0xBB, (byte)0xBF}, TextLineStore.AUTO));
+		//BOMがなければ位置は変更しない
+		ByteBuffer bytes = ByteBuffer.wrap(bytes(TEXT, "UTF-8"));
+		TextLineStore.detectEncoding(bytes, TextLineStore.AUTO);
+		Assert.assertEquals(0, bytes.position());
+	}
+	
+	/** 判定範囲の64KBを超えてASCIIが続く場合 Streamでもその後ろの文字で判別 */
+	@Test
+	public void testAsciiPrefix() throws IOException
+	{
+		int[] lengths = {TextLineStore.SNIFF_BYTES-1, TextLineStore.SNIFF_BYTES, TextLineStore.SNIFF_BYTES+1, TextLineStore.SNIFF_BYTES*3+5};
+		for (int length : lengths) {
+			String str = ascii(length)+TEXT;
+			Assert.assertEquals(String.valueOf(length), str, load(bytes(str, "UTF-8"), TextLineStore.AUTO));
+			Assert.assertEquals(String.valueOf(length), str, load(bytes(str, "MS932"), TextLineStore.AUTO));
+			Assert.assertEquals("UTF-8", detect(bytes(str, "UTF-8"), TextLineStore.AUTO));
+			Assert.assertEquals("MS932", detect(bytes(str, "MS932"), TextLineStore.AUTO));
+			//判定範囲の末尾で途切れたUTF-8の文字は判定しない
+			byte[] b = bytes(str, "UTF-8");
+			Assert.assertTrue(TextLineStore.isUTF8(ByteBuffer.wrap(b), 0, length+1));
+			Assert.assertTrue(TextLineStore.isUTF8(ByteBuffer.wrap(b), 0, length+2));
+		}
+		//すべてASCII
+		String str = ascii(TextLineStore.SNIFF_BYTES*2);
+		Assert.assertEquals(str, load(bytes(str, "UTF-8"), TextLineStore.AUTO));
+		Assert.assertEquals("MS932", detect(bytes(str, "UTF-8"), TextLineStore.AUTO));
+		
+		//ASCII以外の文字から64KB以降は判定しない
+		StringBuilder buf = new StringBuilder("あ");
+		while (buf.length() < TextLineStore.SNIFF_BYTES/3+10) buf.append('い');
+		byte[] b = concat(bytes(buf.toString(), "UTF-8"), bytes(TEXT, "MS932"));
+		Assert.assertEquals("UTF-8", detect(b, TextLineStore.AUTO));
+		b = concat(bytes("あ", "UTF-8"), bytes(TEXT, "MS932"));
+		Assert.assertEquals("MS932", detect(b, TextLineStore.AUTO));
+	}
+}
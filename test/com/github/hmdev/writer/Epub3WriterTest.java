@@ -0,0 +1,107 @@
+package com.github.hmdev.writer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.hmdev.converter.AozoraEpub3Converter;
+import com.github.hmdev.image.ImageInfoReader;
+import com.github.hmdev.info.BookInfo;
+import com.github.hmdev.info.BookInfo.TitleType;
+
+public class Epub3WriterTest
+{
+	/** 画像付きのテキストを出力 */
+	static File convert(Epub3Writer writer, File srcFile, File epubFile) throws Exception
+	{
+		AozoraEpub3Converter converter = new AozoraEpub3Converter(writer, "");
+		converter.setChapterLevel(64, false, false, true, true, true, true, true, true, false, false, false, false, false, "");
+		ImageInfoReader imageInfoReader = new ImageInfoReader(true, srcFile);
+		BufferedReader src = new BufferedReader(new InputStreamReader(new FileInputStream(srcFile), "UTF-8"));
+		BookInfo bookInfo;
+		try {
+			bookInfo = converter.getBookInfo(srcFile, src, imageInfoReader, TitleType.TITLE_AUTHOR, false);
+		} finally {
+			src.close();
+		}
+		src = new BufferedReader(new InputStreamReader(new FileInputStream(srcFile), "UTF-8"));
+		writer.write(converter, src, srcFile, "txt", epubFile, bookInfo, imageInfoReader);
+		return epubFile;
+	}
+	
+	static void copy(File src, File dst) throws IOException
+	{
+		FileInputStream fis = new FileInputStream(src);
+		FileOutputStream fos = new FileOutputStream(dst);
+		try {
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = fis.read(buf)) != -1) fos.write(buf, 0, len);
+		} finally {
+			fis.close();
+			fos.close();
+		}
+	}
+	
+	/** 差分出力の初回から画像にハッシュが付き 2回目の出力で画像が再利用される */
+	@Test
+	public void testIncrementalReuseImage() throws Exception
+	{
+		File dir = File.createTempFile("Epub3WriterTest", "");
+		dir.delete();
+		dir.mkdir();
+		File imgDir = new File(dir, "img");
+		imgDir.mkdir();
+		copy(new File("test_data/img/icon.png"), new File(imgDir, "icon.png"));
+		copy(new File("test_data/img/fig1317_15.png"), new File(imgDir, "fig1317_15.png"));
+		File srcFile = new File(dir, "test.txt");
+		Writer out = new OutputStreamWriter(new FileOutputStream(srcFile), "UTF-8");
+		try {
+			out.write("テスト\r\n著者\r\n\r\n画像前の本文\r\n<img src=\"img/icon.png\">\r\n<img src=\"img/fig1317_15.png\">\r\n画像後の本文\r\n");
+		} finally {
+			out.close();
+		}
+		File epubFile = new File(dir, "test.epub");
+		try {
+			Epub3Writer writer = new Epub3Writer("template/");
+			writer.setIncremental(true);
+			
+			//初回 前回のePubは無いが画像のハッシュはコメントに出力
+			convert(writer, srcFile, epubFile);
+			Assert.assertEquals(0, writer.reusedImageCount);
+			int imageCount = 0;
+			ZipFile zip = new ZipFile(epubFile);
+			try {
+				for (ZipEntry entry : Collections.list(zip.entries())) {
+					if (!entry.getName().startsWith(Epub3Writer.OPS_PATH+Epub3Writer.IMAGES_PATH)) continue;
+					imageCount++;
+					Assert.assertNotNull(entry.getName(), entry.getComment());
+				}
+			} finally {
+				zip.close();
+			}
+			Assert.assertTrue(imageCount > 0);
+			
+			//2回目 全画像を再利用
+			convert(writer, srcFile, epubFile);
+			Assert.assertEquals(imageCount, writer.reusedImageCount);
+			Assert.assertFalse(new File(epubFile.getPath()+".prev").exists());
+		} finally {
+			for (File file : imgDir.listFiles()) file.delete();
+			imgDir.delete();
+			for (File file : dir.listFiles()) file.delete();
+			dir.delete();
+		}
+	}
+}
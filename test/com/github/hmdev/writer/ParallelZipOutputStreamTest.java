@@ -0,0 +1,198 @@
+package com.github.hmdev.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelZipOutputStreamTest
+{
+	final static String MIMETYPE = "application/epub+zip";
+	
+	/** 出力するエントリ key=エントリ名 */
+	static Map<String, byte[]> createEntries()
+	{
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		Random random = new Random(1);
+		entries.put("mimetype", bytes(MIMETYPE));
+		entries.put("OPS/package.opf", bytes("<package>テスト</package>"));
+		entries.put("OPS/empty.xhtml", new byte[0]);
+		//圧縮できないデータ
+		byte[] data = new byte[300000];
+		random.nextBytes(data);
+		entries.put("OPS/images/0001.jpg", data);
+		//ASCII以外のファイル名
+		entries.put("OPS/images/表紙画像.png", bytes("画像"));
+		//圧縮待ちの上限を超える数
+		for (int i=0; i<100; i++) {
+			StringBuilder buf = new StringBuilder();
+			for (int j=0; j<i*50; j++) buf.append("本文").append(j);
+			entries.put("OPS/xhtml/"+i+".xhtml", bytes(buf.toString()));
+		}
+		return entries;
+	}
+	
+	static byte[] bytes(String str)
+	{
+		try {
+			return str.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	static byte[] read(InputStream is) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int len;
+		while ((len = is.read(buf)) != -1) baos.write(buf, 0, len);
+		return baos.toByteArray();
+	}
+	
+	static long crc(byte[] data)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+	
+	/** mimetypeはSTORED それ以外は圧縮 コメント付き */
+	static File write(Map<String, byte[]> entries) throws IOException
+	{
+		File file = File.createTempFile("ParallelZipOutputStreamTest", ".epub");
+		file.deleteOnExit();
+		ParallelZipOutputStream zos = new ParallelZipOutputStream(new FileOutputStream(file));
+		try {
+			for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+				ZipArchiveEntry entry = new ZipArchiveEntry(e.getKey());
+				if ("mimetype".equals(e.getKey())) {
+					entry.setMethod(ZipArchiveEntry.STORED);
+				}
+				if (e.getKey().startsWith("OPS/images/")) entry.setComment("sha1:"+e.getKey().hashCode()+" 画像");
+				zos.putArchiveEntry(entry);
+				byte[] data = e.getValue();
+				//分割して書き込み
+				zos.write(data, 0, data.length/2);
+				zos.write(data, data.length/2, data.length-data.length/2);
+				zos.closeArchiveEntry();
+			}
+		} finally {
+			zos.close();
+		}
+		return file;
+	}
+	
+	/** java.util.zipで読み込んで内容とCRC,サイズ,コメントを確認 */
+	static void check(File file, Map<String, byte[]> entries) throws IOException
+	{
+		//mimetypeは先頭に非圧縮で格納
+		byte[] head = new byte[38+MIMETYPE.length()];
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			Assert.assertEquals(head.length, fis.read(head));
+		} finally {
+			fis.close();
+		}
+		Assert.assertEquals("PK\003\004", new String(head, 0, 4, "ISO-8859-1"));
+		Assert.assertEquals(0, head[8]);
+		Assert.assertEquals("mimetype"+MIMETYPE, new String(head, 30, head.length-30, "ISO-8859-1"));
+		
+		ZipFile zipFile = new ZipFile(file);
+		try {
+			Enumeration<? extends ZipEntry> e = zipFile.entries();
+			ZipEntry first = e.nextElement();
+			Assert.assertEquals("mimetype", first.getName());
+			Assert.assertEquals(ZipEntry.STORED, first.getMethod());
+			Assert.assertEquals(entries.size(), zipFile.size());
+			for (Map.Entry<String, byte[]> expected : entries.entrySet()) {
+				ZipEntry entry = zipFile.getEntry(expected.getKey());
+				Assert.assertNotNull(expected.getKey(), entry);
+				byte[] data = expected.getValue();
+				Assert.assertEquals(entry.getName(), crc(data), entry.getCrc());
+				Assert.assertEquals(entry.getName(), data.length, entry.getSize());
+				Assert.assertArrayEquals(entry.getName(), data, read(zipFile.getInputStream(entry)));
+				if (expected.getKey().startsWith("OPS/images/")) Assert.assertEquals("sha1:"+expected.getKey().hashCode()+" 画像", entry.getComment());
+				else Assert.assertNull(entry.getComment());
+			}
+		} finally {
+			zipFile.close();
+		}
+		
+		//ローカルヘッダのCRCとサイズ ZipInputStreamは不一致なら例外
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
+		try {
+			int count = 0;
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null) {
+				byte[] data = entries.get(entry.getName());
+				Assert.assertNotNull(entry.getName(), data);
+				Assert.assertArrayEquals(entry.getName(), data, read(zis));
+				Assert.assertEquals(entry.getName(), crc(data), entry.getCrc());
+				Assert.assertEquals(entry.getName(), data.length, entry.getSize());
+				count++;
+			}
+			Assert.assertEquals(entries.size(), count);
+		} finally {
+			zis.close();
+		}
+	}
+	
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		Map<String, byte[]> entries = createEntries();
+		File file = write(entries);
+		check(file, entries);
+		file.delete();
+	}
+	
+	/** 前回のファイルから圧縮済みのデータのままコピー */
+	@Test
+	public void testRawCopy() throws IOException
+	{
+		Map<String, byte[]> entries = createEntries();
+		File prevFile = write(entries);
+		
+		File file = File.createTempFile("ParallelZipOutputStreamTest", ".epub");
+		file.deleteOnExit();
+		RawZipFile prev = new RawZipFile(prevFile);
+		ParallelZipOutputStream zos = new ParallelZipOutputStream(new FileOutputStream(file));
+		try {
+			//順番と圧縮方法は前回と同じ 圧縮処理と交互に追加
+			int i = 0;
+			for (String name : entries.keySet()) {
+				RawZipFile.Entry prevEntry = prev.getEntry(name);
+				Assert.assertNotNull(name, prevEntry);
+				if (i++ % 2 == 0) {
+					zos.addRawArchiveEntry(prev.createArchiveEntry(prevEntry), prev.readRaw(prevEntry));
+				} else {
+					ZipArchiveEntry entry = prev.createArchiveEntry(prevEntry);
+					zos.putArchiveEntry(new ZipArchiveEntry(entry));
+					zos.write(entries.get(name), 0, entries.get(name).length);
+				}
+			}
+			Assert.assertNull(prev.getEntry("none"));
+		} finally {
+			zos.close();
+			prev.close();
+		}
+		check(file, entries);
+		file.delete();
+		prevFile.delete();
+	}
+}